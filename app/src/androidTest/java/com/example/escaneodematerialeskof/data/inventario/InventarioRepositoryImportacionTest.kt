@@ -0,0 +1,98 @@
+package com.example.escaneodematerialeskof.data.inventario
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.example.escaneodematerialeskof.model.MaterialItem
+import com.example.escaneodematerialeskof.util.Constants
+import kotlinx.coroutines.flow.collect
+import kotlinx.coroutines.flow.last
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.IOException
+import java.io.InputStream
+import java.io.SequenceInputStream
+
+@RunWith(AndroidJUnit4::class)
+class InventarioRepositoryImportacionTest {
+
+    private val repositorio = InventarioRepository.getInstance(InstrumentationRegistry.getInstrumentation().targetContext)
+
+    private fun material(sku: String, pallets: Int) = MaterialItem(
+        sku = sku, descripcion = "Prueba", cxPal = "", fpc = "", con = "", centro = "", linea = "", op = "",
+        fProd = "", diasV = "", ubicacion = "R1", totalPallets = pallets.toString(), tipoTarima = "MADERA", almacen = "A1"
+    )
+
+    private fun importar(csv: String): AvanceImportacion = runBlocking {
+        repositorio.importarCsv("prueba.csv", csv.length.toString()) { csv.byteInputStream() }.last()
+    }
+
+    @Before
+    fun preparar() = runBlocking {
+        repositorio.reiniciar()
+        repositorio.registrarEscaneo(material("100", 5))
+        repositorio.registrarEscaneo(material("200", 3))
+        Unit
+    }
+
+    @After
+    fun limpiar() = runBlocking {
+        repositorio.reiniciar()
+    }
+
+    @Test
+    fun unCsvSoloConEncabezadoNoBorraElInventario() {
+        val antes = runBlocking { repositorio.obtenerTodos() }
+
+        val avance = importar(Constants.CSV_HEADER + "\n")
+
+        assertTrue(avance.terminada)
+        assertEquals(0L, avance.importados)
+        assertEquals(antes, runBlocking { repositorio.obtenerTodos() })
+    }
+
+    @Test
+    fun unCsvConTodosLosRegistrosInvalidosNoBorraElInventario() {
+        val antes = runBlocking { repositorio.obtenerTodos() }
+
+        val avance = importar(
+            Constants.CSV_HEADER + "\n" +
+                ",sin sku,,,,,,,,,R1,4,MADERA,A1\n" +
+                "300,pallets negativos,,,,,,,,,R1,-2,MADERA,A1\n" +
+                "400,pocas columnas\n"
+        )
+
+        assertTrue(avance.terminada)
+        assertEquals(0L, avance.importados)
+        assertEquals(3L, avance.errores)
+        assertEquals(antes, runBlocking { repositorio.obtenerTodos() })
+    }
+
+    @Test
+    fun unaImportacionInterrumpidaPublicaLoQueQuedoEnRoom() {
+        val csv = Constants.CSV_HEADER + "\n" +
+            "300,Prueba,,,,,,,,,R1,2,MADERA,A1\n" +
+            "400,Prueba,,,,,,,,,R1,4,MADERA,A1\n"
+        val falla = object : InputStream() {
+            override fun read(): Int = throw IOException("lectura interrumpida")
+        }
+
+        val error = runCatching {
+            runBlocking {
+                repositorio.importarCsv("prueba.csv", "interrumpida", tamanoLote = 1) {
+                    SequenceInputStream(csv.byteInputStream(), falla)
+                }.collect()
+            }
+        }.exceptionOrNull()
+
+        assertTrue(error is IOException)
+        val publicados = runBlocking { repositorio.obtenerTodos() }
+        // El primer lote ya vació la tabla: lo publicado no puede seguir siendo el inventario anterior
+        assertTrue(publicados.none { it.sku == "100" || it.sku == "200" })
+        assertTrue(publicados.any { it.sku == "300" })
+    }
+}
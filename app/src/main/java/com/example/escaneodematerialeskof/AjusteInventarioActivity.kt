@@ -12,43 +12,17 @@ import android.widget.Toast
 import androidx.appcompat.app.AppCompatActivity
 import androidx.compose.material.MaterialTheme
 import androidx.compose.ui.platform.ComposeView
-import com.example.escaneodematerialeskof.model.MaterialItem
+import androidx.lifecycle.lifecycleScope
+import com.example.escaneodematerialeskof.data.inventario.InventarioEscaneado
+import com.example.escaneodematerialeskof.data.inventario.InventarioRepository
 import com.example.escaneodematerialeskof.ui.components.FloatingCalculatorBubble
 import com.google.android.material.textfield.TextInputEditText
-import java.io.File
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 
 class AjusteInventarioActivity : AppCompatActivity() {
 
-    private fun parseCsvLine(line: String): List<String> {
-        val result = mutableListOf<String>()
-        var current = StringBuilder()
-        var inQuotes = false
-        var i = 0
-        while (i < line.length) {
-            val c = line[i]
-            when {
-                c == '"' && inQuotes && i + 1 < line.length && line[i + 1] == '"' -> {
-                    current.append('"')
-                    i++ // saltar comilla escapada
-                }
-
-                c == '"' -> {
-                    inQuotes = !inQuotes
-                }
-
-                c == ',' && !inQuotes -> {
-                    result.add(current.toString())
-                    current = StringBuilder()
-                }
-
-                else -> current.append(c)
-            }
-            i++
-        }
-        result.add(current.toString())
-        return result
-    }
-
     private var isAuthenticated = false
     private val CONTRASENA_GERENCIA = "Gerencia2025"
 
@@ -179,45 +153,35 @@ class AjusteInventarioActivity : AppCompatActivity() {
         etIEQSA: EditText, etSAMS: EditText, etRestos: EditText,
         etComentario: TextInputEditText, cardDetalleProducto: View
     ) {
-        val file = File(filesDir, "materiales_guardados.csv")
-        if (!file.exists()) {
-            Toast.makeText(this, "No hay materiales escaneados.", Toast.LENGTH_SHORT).show()
-            return
-        }
+        lifecycleScope.launch {
+            val encontrados = withContext(Dispatchers.IO) {
+                InventarioRepository.getInstance(this@AjusteInventarioActivity).buscarPorSku(sku)
+            }
 
-        val lines = file.readLines().drop(1) // Omitir encabezado
-        val encontrados = lines.mapNotNull { line ->
-            val cols = parseCsvLine(line)
-            if (cols.isNotEmpty() && cols[0] == sku) {
-                try {
-                    MaterialItem(
-                        sku = cols[0],
-                        descripcion = cols.getOrNull(1) ?: "",
-                        cxPal = cols.getOrNull(2) ?: "",
-                        fpc = cols.getOrNull(3) ?: "",
-                        con = cols.getOrNull(4) ?: "",
-                        centro = cols.getOrNull(5) ?: "",
-                        linea = cols.getOrNull(6) ?: "",
-                        op = cols.getOrNull(7) ?: "",
-                        fProd = cols.getOrNull(8) ?: "",
-                        diasV = cols.getOrNull(9) ?: "",
-                        ubicacion = cols.getOrNull(10) ?: "",
-                        totalPallets = cols.getOrNull(11) ?: "",
-                        restos = cols.getOrNull(17) ?: "" // Restos de ajuste si existiera columna extendida
-                    )
-                } catch (e: Exception) {
-                    null
-                }
-            } else null
-        }
+            if (encontrados.isEmpty()) {
+                Toast.makeText(
+                    this@AjusteInventarioActivity,
+                    "SKU no encontrado en materiales escaneados.",
+                    Toast.LENGTH_SHORT
+                ).show()
+                cardDetalleProducto.visibility = View.GONE
+                return@launch
+            }
 
-        if (encontrados.isEmpty()) {
-            Toast.makeText(this, "SKU no encontrado en materiales escaneados.", Toast.LENGTH_SHORT).show()
-            cardDetalleProducto.visibility = View.GONE
-            return
+            mostrarProducto(
+                encontrados.first(), tvSKU, tvDescripcion, tvInventarioSistema, tvInventarioEscaneado,
+                tvDiferencia, etKOF, etCHEP, etIEQSA, etSAMS, etRestos, etComentario, cardDetalleProducto
+            )
         }
+    }
 
-        val material = encontrados.first()
+    private fun mostrarProducto(
+        material: InventarioEscaneado, tvSKU: TextView, tvDescripcion: TextView,
+        tvInventarioSistema: TextView, tvInventarioEscaneado: TextView,
+        tvDiferencia: TextView, etKOF: EditText, etCHEP: EditText,
+        etIEQSA: EditText, etSAMS: EditText, etRestos: EditText,
+        etComentario: TextInputEditText, cardDetalleProducto: View
+    ) {
         cardDetalleProducto.visibility = View.VISIBLE
         tvSKU.text = material.sku
         tvDescripcion.text = material.descripcion
@@ -227,10 +191,10 @@ class AjusteInventarioActivity : AppCompatActivity() {
 
         // Mostrar valores actuales
         etKOF.setText(material.cxPal)
-        etCHEP.setText("0")
-        etIEQSA.setText("0")
-        etSAMS.setText("0")
-        etRestos.setText(material.restos ?: "0")
+        etCHEP.setText((material.chep ?: 0).toString())
+        etIEQSA.setText((material.ieqsa ?: 0).toString())
+        etSAMS.setText((material.sams ?: 0).toString())
+        etRestos.setText("0")
         etComentario.setText("")
 
         // Recalcular totales
@@ -276,63 +240,48 @@ class AjusteInventarioActivity : AppCompatActivity() {
             return
         }
 
-        val file = File(filesDir, "materiales_guardados.csv")
-        if (!file.exists()) {
-            Toast.makeText(this, "No hay materiales escaneados.", Toast.LENGTH_SHORT).show()
-            return
-        }
-
-        val lines = file.readLines()
-        val header = lines.firstOrNull() ?: ""
-        val data = lines.drop(1).toMutableList()
-        var found = false
-
-        for (i in data.indices) {
-            val cols = parseCsvLine(data[i]).toMutableList()
-            // Asegurar que haya al menos 15 columnas para incluir todos los datos
-            while (cols.size < 15) cols.add("")
-
-            if (cols.isNotEmpty() && cols[0] == sku) {
-                // Actualizar todos los campos editables
-                cols[2] = etKOF.text?.toString() ?: "0" // cxPal (KOF)
-                cols[11] = tvInventarioEscaneado.text?.toString() ?: "0" // totalPallets
-                // No sobreescribir la columna 12 (TipoTarima). Los restos se agregan al comentario.
-
-                // Agregar nuevos campos para CHEP, IEQSA, SAMS
-                if (cols.size < 15) {
-                    while (cols.size < 15) cols.add("0")
-                }
-                cols[13] = etCHEP.text?.toString() ?: "0" // CHEP
-                cols[14] = etIEQSA.text?.toString() ?: "0" // IEQSA
-                if (cols.size < 16) cols.add("0")
-                cols[15] = etSAMS.text?.toString() ?: "0" // SAMS
-
-                // Comentario (incluye restos si se ingresaron)
-                if (cols.size < 17) cols.add("")
-                val restosTxt = etRestos.text?.toString()?.trim().orEmpty()
-                val comentarioTxt = etComentario.text?.toString()?.trim().orEmpty()
-                cols[16] = if (restosTxt.isNotEmpty()) {
-                    "Restos=" + restosTxt + "; " + comentarioTxt
-                } else comentarioTxt
-
-                data[i] = cols.joinToString(",")
-                found = true
-                break
+        val kof = etKOF.text?.toString() ?: "0"
+        val totalPallets = tvInventarioEscaneado.text?.toString()?.toIntOrNull() ?: 0
+        val chep = etCHEP.text?.toString()?.toIntOrNull() ?: 0
+        val ieqsa = etIEQSA.text?.toString()?.toIntOrNull() ?: 0
+        val sams = etSAMS.text?.toString()?.toIntOrNull() ?: 0
+        // Los restos se agregan al comentario; TipoTarima y Almacen no se modifican
+        val restosTxt = etRestos.text?.toString()?.trim().orEmpty()
+        val comentarioTxt = etComentario.text?.toString()?.trim().orEmpty()
+        val comentario = if (restosTxt.isNotEmpty()) {
+            "Restos=" + restosTxt + "; " + comentarioTxt
+        } else comentarioTxt
+
+        lifecycleScope.launch {
+            val repository = InventarioRepository.getInstance(this@AjusteInventarioActivity)
+            val found = withContext(Dispatchers.IO) {
+                val fila = repository.buscarPorSku(sku).firstOrNull() ?: return@withContext false
+                repository.actualizar(
+                    fila.copy(
+                        cxPal = kof,
+                        totalPallets = totalPallets,
+                        chep = chep,
+                        ieqsa = ieqsa,
+                        sams = sams,
+                        comentarioAjuste = comentario
+                    )
+                )
+                true
             }
-        }
 
-        if (found) {
-            // Actualizar header si es necesario
-            val newHeader = if (header.contains("CHEP")) header else
-                "$header,CHEP,IEQSA,SAMS,Comentario_Ajuste"
+            if (found) {
+                Toast.makeText(
+                    this@AjusteInventarioActivity,
+                    "Ajuste de pallets guardado correctamente",
+                    Toast.LENGTH_LONG
+                ).show()
 
-            file.writeText(newHeader + "\n" + data.joinToString("\n"))
-            Toast.makeText(this, "Ajuste de pallets guardado correctamente", Toast.LENGTH_LONG).show()
-
-            // Mostrar resumen del ajuste
-            mostrarResumenAjuste(sku, etKOF, etCHEP, etIEQSA, etSAMS, etRestos, etComentario)
-        } else {
-            Toast.makeText(this, "SKU no encontrado para ajustar", Toast.LENGTH_SHORT).show()
+                // Mostrar resumen del ajuste
+                mostrarResumenAjuste(sku, etKOF, etCHEP, etIEQSA, etSAMS, etRestos, etComentario)
+            } else {
+                Toast.makeText(this@AjusteInventarioActivity, "SKU no encontrado para ajustar", Toast.LENGTH_SHORT)
+                    .show()
+            }
         }
     }
 
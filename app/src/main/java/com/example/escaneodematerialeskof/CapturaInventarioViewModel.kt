@@ -8,25 +8,38 @@ import androidx.lifecycle.AndroidViewModel
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.viewModelScope
-import com.example.escaneodematerialeskof.data.AppDatabase
-import com.example.escaneodematerialeskof.data.ScanHistory
+import com.example.escaneodematerialeskof.data.inventario.AvanceImportacion
+import com.example.escaneodematerialeskof.data.inventario.InventarioCsv
+import com.example.escaneodematerialeskof.data.inventario.InventarioEscaneado
+import com.example.escaneodematerialeskof.data.inventario.InventarioRepository
+import com.example.escaneodematerialeskof.manager.AlertasInventario
 import com.example.escaneodematerialeskof.model.MaterialItem
-import com.example.escaneodematerialeskof.util.Constants
+import com.example.escaneodematerialeskof.model.TipoRegla
+import com.example.escaneodematerialeskof.util.DiccionarioTextos
+import com.example.escaneodematerialeskof.util.ExportadorCsv
+import com.example.escaneodematerialeskof.util.LectorCsv
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.sync.Mutex
-import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.withContext
 import java.io.File
 import java.io.IOException
 
 class CapturaInventarioViewModel(application: Application) : AndroidViewModel(application) {
     private val context: Context = application.applicationContext
-    private val scanHistoryDao = AppDatabase.getDatabase(context).scanHistoryDao()
+    private val inventarioRepository = InventarioRepository.getInstance(context)
+    private val alertasInventario = AlertasInventario.getInstance(context)
 
     private val _modoEscaneo = MutableLiveData<String>("")
     val modoEscaneo: LiveData<String> = _modoEscaneo
 
+    private val _avanceImportacion = MutableLiveData<AvanceImportacion?>(null)
+    val avanceImportacion: LiveData<AvanceImportacion?> = _avanceImportacion
+
+    /**
+     * Registros que se guardan por transacción al importar un CSV.
+     */
+    var tamanoLoteImportacion = 500
+
     // Base de datos de tarimas por SKU
     var baseTarimas: Map<String, String> = emptyMap()
 
@@ -38,8 +51,10 @@ class CapturaInventarioViewModel(application: Application) : AndroidViewModel(ap
     }
 
     /**
-     * Saves a material item to the CSV file and updates the database.
-     * Includes proper CSV escaping, data validation, and specific error handling.
+     * Saves a material item to the inventory table and updates the scan history.
+     * The CSV is no longer written here; it is generated on demand when exporting.
+     * Scans arriving in quick succession are committed together; the callback runs
+     * once the batch containing this item has been saved.
      */
     fun guardarMaterialEnArchivo(material: MaterialItem, callback: (Boolean, String) -> Unit) {
         // Validar datos antes de procesar
@@ -55,226 +70,19 @@ class CapturaInventarioViewModel(application: Application) : AndroidViewModel(ap
             return
         }
 
-        // Usar un mutex para evitar modificaciones concurrentes al archivo
         viewModelScope.launch(Dispatchers.IO) {
-            // Sincronizar acceso al archivo
-            csvFileMutex.withLock {
-                try {
-                    val file = File(context.filesDir, Constants.INVENTORY_FILE_NAME)
-                    val sku = material.sku
-
-                    // Leer el archivo existente o crear uno nuevo
-                    val allLines = if (file.exists()) {
-                        try {
-                            file.readLines().toMutableList()
-                        } catch (e: Exception) {
-                            withContext(Dispatchers.Main) {
-                                callback(false, "Error al leer el archivo CSV: ${e.message}")
-                            }
-                            return@withLock
-                        }
-                    } else {
-                        mutableListOf()
-                    }
-
-                    // Asegurar que el archivo tenga un encabezado sin sobrescribir encabezados extendidos
-                    if (allLines.isEmpty()) {
-                        allLines.add(Constants.CSV_HEADER)
-                    } else if (!allLines[0].startsWith("SKU")) {
-                        // Si la primera línea no parece un encabezado, insertar el encabezado por defecto
-                        allLines.add(0, Constants.CSV_HEADER)
-                    }
-
-                    var found = false
-                    var acumulado = pallets
-
-                    // Buscar y actualizar material existente
-                    for (i in 1 until allLines.size) {
-                        val line = allLines[i]
-                        // Usar un parser de CSV adecuado para manejar comas en los valores
-                        val cols = parseCsvLine(line).toMutableList()
-                        val tipoTarimaCol = cols.getOrNull(12) ?: ""
-                        val almacenCol = cols.getOrNull(13) ?: ""
-
-                        if (cols.isNotEmpty() &&
-                            cols[0] == sku &&
-                            tipoTarimaCol == (material.tipoTarima ?: "") &&
-                            almacenCol == (material.almacen ?: "")
-                        ) {
-                            val prevPallets = cols.getOrNull(11)?.toIntOrNull() ?: 0
-                            acumulado = prevPallets + pallets
-
-                            // Actualizar todos los campos, no solo pallets
-                            cols[0] = escapeForCsv(material.sku)
-                            cols[1] = escapeForCsv(material.descripcion)
-                            cols[2] = escapeForCsv(material.cxPal)
-                            cols[3] = escapeForCsv(material.fpc)
-                            cols[4] = escapeForCsv(material.con)
-                            cols[5] = escapeForCsv(material.centro)
-                            cols[6] = escapeForCsv(material.linea)
-                            cols[7] = escapeForCsv(material.op)
-                            cols[8] = escapeForCsv(material.fProd)
-                            cols[9] = escapeForCsv(material.diasV)
-                            cols[10] = escapeForCsv(material.ubicacion ?: "")
-                            cols[11] = acumulado.toString()
-                            cols[12] = escapeForCsv(material.tipoTarima ?: "")
-                            // Asegurarse de que haya suficientes columnas para el almacén
-                            if (cols.size <= 13) {
-                                cols.add(escapeForCsv(material.almacen ?: ""))
-                            } else {
-                                cols[13] = escapeForCsv(material.almacen ?: "")
-                            }
-
-                            allLines[i] = cols.joinToString(",")
-                            found = true
-                            break
-                        }
-                    }
-
-                    // Agregar nuevo material si no se encontró uno existente
-                    if (!found) {
-                        val row = listOf(
-                            escapeForCsv(material.sku),
-                            escapeForCsv(material.descripcion),
-                            escapeForCsv(material.cxPal),
-                            escapeForCsv(material.fpc),
-                            escapeForCsv(material.con),
-                            escapeForCsv(material.centro),
-                            escapeForCsv(material.linea),
-                            escapeForCsv(material.op),
-                            escapeForCsv(material.fProd),
-                            escapeForCsv(material.diasV),
-                            escapeForCsv(material.ubicacion ?: ""),
-                            material.totalPallets ?: "",
-                            escapeForCsv(material.tipoTarima ?: ""),
-                            escapeForCsv(material.almacen ?: "")
-                        )
-                        allLines.add(row.joinToString(","))
-                    }
-
-                    // Escribir el archivo actualizado
-                    try {
-                        file.writeText(allLines.joinToString("\n"), charset = Charsets.UTF_8)
-                    } catch (e: IOException) {
-                        withContext(Dispatchers.Main) {
-                            callback(false, "Error al escribir el archivo CSV: ${e.message}")
-                        }
-                        return@withLock
-                    }
-
-                    // Guardar en la base de datos
-                    try {
-                        val scanHistory = ScanHistory(
-                            sku = material.sku,
-                            description = material.descripcion,
-                            quantity = pallets,
-                            location = material.ubicacion ?: ""
-                        )
-                        scanHistoryDao.insertScan(scanHistory)
-                    } catch (e: Exception) {
-                        // Continuar incluso si hay error en la BD, pero registrar el error
-                        Log.e("CapturaViewModel", "Error al guardar en BD: ${e.message}")
-                    }
-
-                    // Actualizar la lista de materiales en SharedPreferences para comparación en tiempo real
-                    actualizarMaterialesEnSharedPreferences(material, acumulado)
-
-                    withContext(Dispatchers.Main) {
-                        callback(true, "Material guardado correctamente. Acumulado: $acumulado pallets")
-                    }
-                } catch (e: Exception) {
-                    withContext(Dispatchers.Main) {
-                        callback(false, "Error al guardar: ${e.message}")
-                    }
-                }
-            }
-        }
-    }
-
-    /**
-     * Escapa un valor para CSV, encerrándolo en comillas si contiene comas o comillas
-     */
-    private fun escapeForCsv(value: String): String {
-        return if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
-            "\"" + value.replace("\"", "\"\"") + "\""
-        } else {
-            value
-        }
-    }
+            try {
+                // Se confirma junto con los demás escaneos de la ráfaga; devuelve el acumulado
+                val acumulado = inventarioRepository.registrarEscaneo(material)
 
-    /**
-     * Parsea una línea CSV respetando las comillas dobles y comillas escapadas.
-     */
-    private fun parseCsvLine(line: String): List<String> {
-        val result = mutableListOf<String>()
-        val current = StringBuilder()
-        var inQuotes = false
-        var i = 0
-        while (i < line.length) {
-            val c = line[i]
-            when {
-                c == '\"' -> {
-                    // Si estamos dentro de comillas y la siguiente también es comilla, es una comilla escapada
-                    if (inQuotes && i + 1 < line.length && line[i + 1] == '\"') {
-                        current.append('\"')
-                        i += 2
-                        continue
-                    }
-                    inQuotes = !inQuotes
+                withContext(Dispatchers.Main) {
+                    callback(true, "Material guardado correctamente. Acumulado: $acumulado pallets")
                 }
-
-                c == ',' && !inQuotes -> {
-                    result.add(current.toString())
-                    current.setLength(0)
+            } catch (e: Exception) {
+                withContext(Dispatchers.Main) {
+                    callback(false, "Error al guardar: ${e.message}")
                 }
-
-                else -> current.append(c)
             }
-            i++
-        }
-        // Añadir el último campo
-        result.add(current.toString())
-        return result
-    }
-
-    // Mutex para sincronizar acceso al archivo CSV
-    private val csvFileMutex = Mutex()
-
-    /**
-     * Actualiza la lista de materiales en SharedPreferences para la comparación en tiempo real.
-     */
-    private fun actualizarMaterialesEnSharedPreferences(material: MaterialItem, acumulado: Int) {
-        try {
-            val sharedPreferences = context.getSharedPreferences("material_data", Context.MODE_PRIVATE)
-            val gson = com.google.gson.Gson()
-
-            // Obtener la lista actual de materiales
-            val json = sharedPreferences.getString("materials", "[]")
-            val type = object : com.google.gson.reflect.TypeToken<MutableList<MaterialItem>>() {}.type
-            val materiales: MutableList<MaterialItem> = gson.fromJson(json, type) ?: mutableListOf()
-
-            // Actualizar o agregar el material escaneado
-            val materialConAcumulado =
-                material.copy(totalPallets = acumulado.toString(), tipoTarima = material.tipoTarima)
-
-            // Buscar si ya existe un material con el mismo SKU y tipo de tarima
-            val index = materiales.indexOfFirst {
-                it.sku == material.sku && it.tipoTarima == material.tipoTarima
-            }
-
-            if (index >= 0) {
-                // Actualizar material existente
-                materiales[index] = materialConAcumulado
-            } else {
-                // Agregar nuevo material
-                materiales.add(materialConAcumulado)
-            }
-
-            // Guardar la lista actualizada
-            val updatedJson = gson.toJson(materiales)
-            sharedPreferences.edit().putString("materials", updatedJson).apply()
-        } catch (e: Exception) {
-            e.printStackTrace()
         }
     }
 
@@ -302,20 +110,12 @@ class CapturaInventarioViewModel(application: Application) : AndroidViewModel(ap
     }
 
     /**
-     * Gets the inventory data from the CSV file.
+     * Gets the inventory data as CSV columns.
      */
     fun obtenerDatosInventario(): List<List<String>> {
         val result = mutableListOf<List<String>>()
         try {
-            val file = File(context.filesDir, Constants.INVENTORY_FILE_NAME)
-            if (!file.exists()) return result
-
-            val lines = file.readLines()
-            for (line in lines) {
-                val cols = line.split(",")
-                if (cols.size >= 13) // Cambiar de 12 a 13 para incluir TipoTarima
-                    result.add(cols)
-            }
+            inventarioRepository.obtenerTodosBloqueante().mapTo(result) { InventarioCsv.columnasDe(it) }
         } catch (e: Exception) {
             e.printStackTrace()
         }
@@ -323,51 +123,24 @@ class CapturaInventarioViewModel(application: Application) : AndroidViewModel(ap
     }
 
     /**
-     * Devuelve la lista de materiales escaneados desde el archivo local.
+     * Devuelve la lista de materiales escaneados desde la tabla de inventario.
      */
     fun obtenerMaterialesEscaneados(): List<MaterialItem> {
         val lista = mutableListOf<MaterialItem>()
         try {
-            val file = File(context.filesDir, Constants.INVENTORY_FILE_NAME)
-            if (!file.exists()) return lista
-            val lines = file.readLines()
-            if (lines.size <= 1) return lista
+            val filas = inventarioRepository.obtenerTodosBloqueante()
+            if (filas.isEmpty()) return lista
 
             // Obtener inventario de almacén para comparar
             val inventarioAlmacen = obtenerInventarioAlmacen()
 
-            for (i in 1 until lines.size) {
-                val cols = parseCsvLine(lines[i])
-                if (cols.size >= 12) {
-                    val sku = cols[0]
-                    val almacen = if (cols.size > 13) cols[13] else ""
-                    val totalPalletsEscaneado = cols[11].toIntOrNull() ?: 0
-
-                    // Buscar el inventario disponible para ese SKU y almacén
-                    val inventario = inventarioAlmacen.find { it.sku == sku && it.centro == almacen }
-                    val disponibleAlmacen = inventario?.disponible ?: 0
-                    val restos = (disponibleAlmacen - totalPalletsEscaneado).toString()
-
-                    lista.add(
-                        MaterialItem(
-                            sku = sku,
-                            descripcion = cols[1],
-                            cxPal = cols[2],
-                            fpc = cols[3],
-                            con = cols[4],
-                            centro = cols[5],
-                            linea = cols[6],
-                            op = cols[7],
-                            fProd = cols[8],
-                            diasV = cols[9],
-                            ubicacion = cols[10],
-                            totalPallets = cols[11],
-                            restos = restos,
-                            tipoTarima = if (cols.size > 12) cols[12] else null,
-                            almacen = almacen
-                        )
-                    )
-                }
+            for (fila in filas) {
+                // Buscar el inventario disponible para ese SKU y almacén
+                val inventario = inventarioAlmacen.find { it.sku == fila.sku && it.centro == fila.almacen }
+                val disponibleAlmacen = inventario?.disponible ?: 0
+                val restos = (disponibleAlmacen - fila.totalPallets).toString()
+
+                lista.add(fila.toMaterialItem().copy(restos = restos))
             }
         } catch (e: Exception) {
             Log.e("CapturaViewModel", "Error al obtener materiales: ${e.message}")
@@ -387,20 +160,21 @@ class CapturaInventarioViewModel(application: Application) : AndroidViewModel(ap
                 return lista
             }
 
-            val lines = file.readLines()
-            if (lines.size <= 1) return lista
-
-            for (i in 1 until lines.size) {
-                val cols = lines[i].split(",")
-                if (cols.size >= 4) {
-                    lista.add(
-                        com.example.escaneodematerialeskof.dashboard.InventarioAlmacen(
-                            sku = cols[0],
-                            descripcion = cols[1],
-                            disponible = cols[2].toIntOrNull() ?: 0,
-                            centro = cols[3]
+            file.reader(Charsets.UTF_8).use { reader ->
+                val fila = LectorCsv(reader)
+                // Omitir el encabezado
+                if (!fila.siguiente()) return lista
+                while (fila.siguiente()) {
+                    if (fila.columnas >= 4) {
+                        lista.add(
+                            com.example.escaneodematerialeskof.dashboard.InventarioAlmacen(
+                                sku = fila.texto(0, DiccionarioTextos.sesion),
+                                descripcion = fila.texto(1, DiccionarioTextos.sesion),
+                                disponible = fila.entero(2) ?: 0,
+                                centro = fila.texto(3, DiccionarioTextos.sesion)
+                            )
                         )
-                    )
+                    }
                 }
             }
         } catch (e: Exception) {
@@ -421,20 +195,10 @@ class CapturaInventarioViewModel(application: Application) : AndroidViewModel(ap
     fun obtenerAcumuladoPorTarima(): Map<String, Map<String, Int>> {
         val resultado = mutableMapOf<String, MutableMap<String, Int>>()
         try {
-            val file = File(context.filesDir, Constants.INVENTORY_FILE_NAME)
-            if (!file.exists()) return resultado
-            val lines = file.readLines()
-            if (lines.size <= 1) return resultado
-            for (i in 1 until lines.size) {
-                val cols = lines[i].split(",")
-                if (cols.size >= 13) {
-                    val sku = cols[0]
-                    val tipoTarima = cols.getOrNull(12) ?: ""
-                    val pallets = cols.getOrNull(11)?.toIntOrNull() ?: 0
-                    if (sku.isNotBlank() && tipoTarima.isNotBlank()) {
-                        val mapTarima = resultado.getOrPut(sku) { mutableMapOf() }
-                        mapTarima[tipoTarima] = (mapTarima[tipoTarima] ?: 0) + pallets
-                    }
+            for (fila in inventarioRepository.obtenerTodosBloqueante()) {
+                if (fila.sku.isNotBlank() && fila.tipoTarima.isNotBlank()) {
+                    val mapTarima = resultado.getOrPut(fila.sku) { mutableMapOf() }
+                    mapTarima[fila.tipoTarima] = (mapTarima[fila.tipoTarima] ?: 0) + fila.totalPallets
                 }
             }
         } catch (_: Exception) {
@@ -451,63 +215,38 @@ class CapturaInventarioViewModel(application: Application) : AndroidViewModel(ap
     }
 
     /**
-     * Devuelve la lista actual de materiales escaneados en memoria.
+     * Devuelve la lista actual de materiales escaneados.
      */
     fun getMaterialesActuales(): List<MaterialItem> {
-        // Recupera todos los materiales escaneados actualmente desde la base de datos local
-        // o desde la fuente en memoria si existe. Aquí se asume que la tabla ScanHistory almacena los datos.
-        // Si tienes una lista en memoria, reemplaza por esa fuente.
-        val materiales = mutableListOf<MaterialItem>()
-        val file = File(context.filesDir, Constants.INVENTORY_FILE_NAME)
-        if (!file.exists()) return materiales
-        val lines = file.readLines()
-        if (lines.size <= 1) return materiales // Solo header
-        for (i in 1 until lines.size) {
-            val cols = parseCsvLine(lines[i])
-            if (cols.size >= 12) {
-                materiales.add(
-                    MaterialItem(
-                        sku = cols[0],
-                        descripcion = cols[1],
-                        cxPal = cols[2],
-                        fpc = cols[3],
-                        con = cols[4],
-                        centro = cols[5],
-                        linea = cols[6],
-                        op = cols[7],
-                        fProd = cols[8],
-                        diasV = cols[9],
-                        ubicacion = cols[10],
-                        totalPallets = cols[11],
-                        restos = if (cols.size > 12) cols[12] else "",
-                        tipoTarima = if (cols.size > 13) cols[13] else null,
-                        almacen = if (cols.size > 14) cols[14] else ""
-                    )
-                )
-            }
-        }
-        return materiales
+        return inventarioRepository.obtenerTodosBloqueante().map { it.toMaterialItem() }
     }
 
     /**
-     * Exporta el inventario a un archivo CSV en la ubicación indicada por el usuario.
+     * Exporta el inventario a un archivo CSV en la ubicación indicada por el usuario,
+     * opcionalmente comprimido.
      */
-    fun exportarInventario(uri: Uri, callback: (Boolean, String) -> Unit) {
+    fun exportarInventario(
+        uri: Uri,
+        compresion: ExportadorCsv.Compresion = ExportadorCsv.Compresion.NINGUNA,
+        callback: (Boolean, String) -> Unit
+    ) {
         viewModelScope.launch(Dispatchers.IO) {
             try {
-                val file = File(context.filesDir, Constants.INVENTORY_FILE_NAME)
-                if (!file.exists()) {
+                if (inventarioRepository.obtenerTodos().isEmpty()) {
                     withContext(Dispatchers.Main) {
                         callback(false, "No hay inventario para exportar.")
                     }
                     return@launch
                 }
-                val content = file.readText()
-                context.contentResolver.openOutputStream(uri)?.use { outputStream ->
-                    outputStream.write(content.toByteArray())
-                }
+                val resultado = context.contentResolver.openOutputStream(uri)?.use { outputStream ->
+                    inventarioRepository.exportarCsv(outputStream, compresion)
+                } ?: throw IOException("No se pudo abrir el destino")
+                Log.d(
+                    "CapturaViewModel",
+                    "Exportadas ${resultado.filas} filas, ${resultado.bytes} bytes en ${resultado.milisegundos} ms"
+                )
                 withContext(Dispatchers.Main) {
-                    callback(true, "Inventario exportado correctamente.")
+                    callback(true, "Inventario exportado correctamente (${resultado.filas} filas, ${resultado.bytes / 1024} KB).")
                 }
             } catch (e: Exception) {
                 withContext(Dispatchers.Main) {
@@ -519,40 +258,33 @@ class CapturaInventarioViewModel(application: Application) : AndroidViewModel(ap
 
     /**
      * Importa un archivo CSV y lo guarda como inventario actual.
+     *
+     * El archivo se lee como flujo y se guarda por lotes de [tamanoLoteImportacion] registros;
+     * el avance se publica en [avanceImportacion]. Si una importación anterior del mismo archivo
+     * quedó a medias, se continúa desde el último lote guardado.
      */
     fun importarInventario(uri: Uri, callback: (Boolean, String) -> Unit) {
         viewModelScope.launch(Dispatchers.IO) {
             try {
-                val inputStream = context.contentResolver.openInputStream(uri)
-                val content = inputStream?.bufferedReader()?.readText() ?: ""
-                if (content.isBlank()) {
-                    withContext(Dispatchers.Main) {
-                        callback(false, "El archivo está vacío.")
-                    }
-                    return@launch
-                }
-
-                val lines = content.lines()
-                val formattedLines = mutableListOf<String>()
-
-                for (line in lines) {
-                    val cols = line.split(",")
-                    if (cols.size < 13) {
-                        // Ajustar el formato para modo rumba
-                        val adjustedLine = line.replace("SKU:", "")
-                            .replace("DP:", "")
-                            .replace(" ", ",")
-                        formattedLines.add(adjustedLine)
-                    } else {
-                        formattedLines.add(line)
-                    }
+                val tamano = context.contentResolver.openFileDescriptor(uri, "r")?.use { it.statSize } ?: -1L
+                var ultimo: AvanceImportacion? = null
+                inventarioRepository.importarCsv(uri.toString(), tamano.toString(), tamanoLoteImportacion) {
+                    context.contentResolver.openInputStream(uri) ?: throw IOException("No se pudo abrir el archivo")
+                }.collect { avance ->
+                    ultimo = avance
+                    _avanceImportacion.postValue(avance)
                 }
 
-                val file = File(context.filesDir, Constants.INVENTORY_FILE_NAME)
-                file.writeText(formattedLines.joinToString("\n"))
-
+                val avance = ultimo
                 withContext(Dispatchers.Main) {
-                    callback(true, "Inventario importado correctamente.")
+                    when {
+                        avance == null || avance.leidos == 0L -> callback(false, "El archivo está vacío.")
+                        avance.errores > 0 -> callback(
+                            true,
+                            "Inventario importado: ${avance.importados} registros, ${avance.errores} con error."
+                        )
+                        else -> callback(true, "Inventario importado correctamente.")
+                    }
                 }
             } catch (e: Exception) {
                 withContext(Dispatchers.Main) {
@@ -568,8 +300,7 @@ class CapturaInventarioViewModel(application: Application) : AndroidViewModel(ap
     fun resetearInventario(callback: (Boolean, String) -> Unit) {
         viewModelScope.launch(Dispatchers.IO) {
             try {
-                val file = File(context.filesDir, Constants.INVENTORY_FILE_NAME)
-                if (file.exists()) file.delete()
+                inventarioRepository.reiniciar()
                 withContext(Dispatchers.Main) {
                     callback(true, "Inventario reseteado correctamente.")
                 }
@@ -608,18 +339,10 @@ class CapturaInventarioViewModel(application: Application) : AndroidViewModel(ap
     fun obtenerResumenPorTipoTarima(): Map<String, Int> {
         val resumen = mutableMapOf<String, Int>()
         try {
-            val file = File(context.filesDir, Constants.INVENTORY_FILE_NAME)
-            if (!file.exists()) return resumen
-            val lines = file.readLines()
-            if (lines.size <= 1) return resumen
-            for (i in 1 until lines.size) {
-                val cols = lines[i].split(",")
-                if (cols.size >= 13) {
-                    val tipoTarima = cols.getOrNull(12)?.trim().orEmpty()
-                    val pallets = cols.getOrNull(11)?.toIntOrNull() ?: 0
-                    if (tipoTarima.isNotBlank()) {
-                        resumen[tipoTarima] = (resumen[tipoTarima] ?: 0) + pallets
-                    }
+            for (fila in inventarioRepository.obtenerTodosBloqueante()) {
+                val tipoTarima = fila.tipoTarima.trim()
+                if (tipoTarima.isNotBlank()) {
+                    resumen[tipoTarima] = (resumen[tipoTarima] ?: 0) + fila.totalPallets
                 }
             }
         } catch (_: Exception) {
@@ -708,57 +431,33 @@ class CapturaInventarioViewModel(application: Application) : AndroidViewModel(ap
     }
 
     /**
-     * Obtiene el número de discrepancias críticas (diferencias > 10%).
+     * Obtiene el número de discrepancias críticas: filas que superan la regla
+     * [TipoRegla.DISCREPANCIA_CRITICA] (más de 50 pallets si no se configuró otra).
      */
     fun obtenerDiscrepanciasCriticas(): Int {
-        // Lógica para detectar discrepancias críticas
-        val materialesEscaneados = obtenerMaterialesEscaneados()
-        var discrepancias = 0
-
-        // Aquí podrías comparar con inventario del sistema si está disponible
-        // Por ahora, simula algunas discrepancias basadas en ciertos criterios
-        materialesEscaneados.forEach { material ->
-            val pallets = material.totalPallets?.toIntOrNull() ?: 0
-            // Ejemplo: considerar discrepancia si hay más de 50 pallets de un mismo SKU
-            if (pallets > 50) {
-                discrepancias++
-            }
-        }
-
-        return discrepancias
+        return alertasInventario.cantidad(TipoRegla.DISCREPANCIA_CRITICA)
     }
 
     /**
-     * Genera alertas inteligentes basadas en el inventario actual.
+     * Textos de las alertas vigentes según las reglas configuradas. Las alertas se mantienen al día
+     * con cada escaneo en [AlertasInventario]; aquí solo se les da formato.
      */
     fun generarAlertas(): List<String> {
         val alertas = mutableListOf<String>()
-        val materiales = obtenerMaterialesEscaneados()
-
-        // Alerta por SKUs duplicados con ubicaciones diferentes
-        val skusPorUbicacion = materiales.groupBy { it.sku }
-        skusPorUbicacion.forEach { (sku, items) ->
-            val ubicaciones = items.mapNotNull { it.ubicacion }.distinct()
-            if (ubicaciones.size > 1) {
-                alertas.add("⚠️ SKU $sku encontrado en ${ubicaciones.size} ubicaciones diferentes")
+        val vigentes = alertasInventario.actualesBloqueante()
+        var tarimasNoEstandar = 0
+        for (alerta in vigentes) {
+            when (alerta.regla.tipo) {
+                TipoRegla.UBICACION_MULTIPLE ->
+                    alertas.add("⚠️ SKU ${alerta.sku} encontrado en ${alerta.valor} ubicaciones diferentes")
+                TipoRegla.CANTIDAD_ALTA ->
+                    alertas.add("🚨 Cantidad alta: ${alerta.sku} tiene ${alerta.valor} pallets")
+                TipoRegla.TARIMA_NO_ESTANDAR -> tarimasNoEstandar++
+                TipoRegla.DISCREPANCIA_CRITICA -> {}
             }
         }
-
-        // Alerta por cantidades anómalas
-        materiales.forEach { material ->
-            val pallets = material.totalPallets?.toIntOrNull() ?: 0
-            if (pallets > 100) {
-                alertas.add("🚨 Cantidad alta: ${material.sku} tiene $pallets pallets")
-            }
-        }
-
-        // Alerta por tipos de tarima no estándar
-        val tiposNoEstandar = materiales.filter {
-            val tipo = it.tipoTarima?.uppercase()
-            tipo != null && tipo !in listOf("PLASTICO", "MADERA", "METAL")
-        }
-        if (tiposNoEstandar.isNotEmpty()) {
-            alertas.add("📦 ${tiposNoEstandar.size} items con tipo de tarima no estándar")
+        if (tarimasNoEstandar > 0) {
+            alertas.add("📦 $tarimasNoEstandar items con tipo de tarima no estándar")
         }
 
         return alertas
@@ -781,51 +480,27 @@ class CapturaInventarioViewModel(application: Application) : AndroidViewModel(ap
     }
 
     /**
-     * Elimina la última fila (material guardado) del archivo CSV de inventario.
+     * Deshace el último escaneo guardado en esta sesión. Cada llamada deshace uno anterior.
      */
     fun eliminarUltimoMaterialGuardado(callback: (Boolean, String) -> Unit) {
         viewModelScope.launch(Dispatchers.IO) {
-            csvFileMutex.withLock {
-                try {
-                    val file = File(context.filesDir, Constants.INVENTORY_FILE_NAME)
-                    if (!file.exists()) {
-                        withContext(Dispatchers.Main) {
-                            callback(false, "No hay archivo de inventario para modificar")
-                        }
-                        return@withLock
-                    }
-                    val lines = file.readLines().toMutableList()
-                    if (lines.size <= 1) {
-                        withContext(Dispatchers.Main) {
-                            callback(false, "No hay registros para eliminar")
-                        }
-                        return@withLock
-                    }
-                    // Eliminar la última línea no vacía (mantener encabezado)
-                    var idx = lines.lastIndex
-                    while (idx > 0 && lines[idx].isBlank()) idx--
-                    if (idx <= 0) {
-                        withContext(Dispatchers.Main) {
-                            callback(false, "No hay registros para eliminar")
-                        }
-                        return@withLock
-                    }
-                    lines.removeAt(idx)
-                    try {
-                        file.writeText(lines.joinToString("\n"))
-                    } catch (e: IOException) {
-                        withContext(Dispatchers.Main) {
-                            callback(false, "Error al escribir cambios: ${e.message}")
-                        }
-                        return@withLock
-                    }
-                    withContext(Dispatchers.Main) {
-                        callback(true, "Último registro eliminado")
-                    }
-                } catch (e: Exception) {
+            try {
+                val compensacion = inventarioRepository.deshacerUltimoEscaneo()
+                if (compensacion == null) {
                     withContext(Dispatchers.Main) {
-                        callback(false, "Error al eliminar: ${e.message}")
+                        callback(false, "No hay escaneos por deshacer en esta sesión")
                     }
+                    return@launch
+                }
+                withContext(Dispatchers.Main) {
+                    callback(
+                        true,
+                        "Escaneo deshecho: SKU ${compensacion.clave.sku}. Acumulado: ${compensacion.acumulado} pallets"
+                    )
+                }
+            } catch (e: Exception) {
+                withContext(Dispatchers.Main) {
+                    callback(false, "Error al eliminar: ${e.message}")
                 }
             }
         }
@@ -10,6 +10,7 @@ import androidx.appcompat.app.AlertDialog
 import androidx.appcompat.app.AppCompatActivity
 import androidx.cardview.widget.CardView
 import androidx.lifecycle.lifecycleScope
+import com.example.escaneodematerialeskof.util.LectorCsv
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
@@ -128,27 +129,28 @@ class ImportarActivity : AppCompatActivity() {
                     var errorCount = 0
 
                     // Saltar la primera línea (header) y procesar el resto
+                    val fila = LectorCsv()
                     for (i in 1 until lines.size) {
                         val line = lines[i].trim()
                         if (line.isEmpty()) continue
 
                         // Parsear CSV (formato: SKU,Descripción,Centro,Línea,OP,F.Producción,DíasV,Ubicación,Pallets,Restos,TipoTarima,Almacén)
-                        val fields = line.split(",").map { it.trim().removeSurrounding("\"") }
+                        fila.analizar(line)
 
-                        if (fields.size >= 11) {
+                        if (fila.columnas >= 11) {
                             val material = com.example.escaneodematerialeskof.model.MaterialItem(
-                                sku = fields.getOrNull(0) ?: "",
-                                descripcion = fields.getOrNull(1) ?: "",
-                                centro = fields.getOrNull(2) ?: "",
-                                linea = fields.getOrNull(3) ?: "",
-                                op = fields.getOrNull(4) ?: "",
-                                fProd = fields.getOrNull(5) ?: "",
-                                diasV = fields.getOrNull(6) ?: "",
-                                ubicacion = fields.getOrNull(7) ?: "",
-                                totalPallets = fields.getOrNull(8) ?: "0",
-                                restos = fields.getOrNull(9) ?: "",
-                                tipoTarima = fields.getOrNull(10) ?: "KOF",
-                                almacen = fields.getOrNull(11),
+                                sku = fila.textoRecortado(0),
+                                descripcion = fila.textoRecortado(1),
+                                centro = fila.textoRecortado(2),
+                                linea = fila.textoRecortado(3),
+                                op = fila.textoRecortado(4),
+                                fProd = fila.textoRecortado(5),
+                                diasV = fila.textoRecortado(6),
+                                ubicacion = fila.textoRecortado(7),
+                                totalPallets = fila.textoRecortado(8),
+                                restos = fila.textoRecortado(9),
+                                tipoTarima = fila.textoRecortado(10),
+                                almacen = if (fila.columnas > 11) fila.textoRecortado(11) else null,
                                 cxPal = "",
                                 fpc = "",
                                 con = ""
@@ -14,6 +14,7 @@ import androidx.appcompat.app.AppCompatActivity
 import androidx.core.view.GravityCompat
 import androidx.drawerlayout.widget.DrawerLayout
 import androidx.lifecycle.ViewModelProvider
+import androidx.lifecycle.lifecycleScope
 import com.example.escaneodematerialeskof.manager.AlmacenCapacidadManager
 import com.example.escaneodematerialeskof.model.AlmacenCapacidad
 import com.example.escaneodematerialeskof.model.MaterialItem
@@ -25,8 +26,7 @@ import com.github.mikephil.charting.data.PieEntry
 import com.github.mikephil.charting.utils.ColorTemplate
 import com.github.mikephil.charting.formatter.PercentFormatter
 import com.google.android.material.navigation.NavigationView
-import com.google.gson.Gson
-import com.google.gson.reflect.TypeToken
+import kotlinx.coroutines.launch
 import java.io.File
 import java.text.SimpleDateFormat
 import java.util.*
@@ -690,7 +690,10 @@ class NewInventarioResumenActivity : AppCompatActivity(), NavigationView.OnNavig
     }
 
     private fun mostrarDialogoSeleccionAlmacen() {
-        val almacenes = almacenManager.obtenerAlmacenes()
+        lifecycleScope.launch { mostrarDialogoSeleccionAlmacen(almacenManager.obtenerAlmacenes()) }
+    }
+
+    private fun mostrarDialogoSeleccionAlmacen(almacenes: List<AlmacenCapacidad>) {
         if (almacenes.isEmpty()) {
             AlertDialog.Builder(this)
                 .setTitle("Sin almacenes configurados")
@@ -4,6 +4,7 @@ import android.os.Bundle
 import android.widget.Toast
 import androidx.activity.viewModels
 import androidx.appcompat.app.AppCompatActivity
+import com.example.escaneodematerialeskof.data.inventario.InventarioRepository
 import com.example.escaneodematerialeskof.databinding.ActivityRestosBinding
 import com.example.escaneodematerialeskof.manager.AlmacenCapacidadManager
 import com.example.escaneodematerialeskof.model.MaterialItem
@@ -85,45 +86,11 @@ class RestosActivity : AppCompatActivity() {
         }
     }
 
-    private fun parseCsvLine(line: String): List<String> {
-        val result = mutableListOf<String>()
-        var current = StringBuilder()
-        var inQuotes = false
-        for (i in line.indices) {
-            val c = line[i]
-            when {
-                c == '"' && inQuotes && i + 1 < line.length && line[i + 1] == '"' -> {
-                    current.append('"')
-                }
-
-                c == '"' -> {
-                    inQuotes = !inQuotes
-                }
-
-                c == ',' && !inQuotes -> {
-                    result.add(current.toString())
-                    current = StringBuilder()
-                }
-
-                else -> current.append(c)
-            }
-        }
-        result.add(current.toString())
-        return result
-    }
-
     private fun obtenerAcumuladoRestos() {
         Thread {
-            val file = java.io.File(filesDir, com.example.escaneodematerialeskof.util.Constants.INVENTORY_FILE_NAME)
-            var total = 0
-            if (file.exists()) {
-                file.readLines().drop(1).forEach { line ->
-                    val cols = parseCsvLine(line)
-                    if (cols.size > 12 && cols[12] == "RESTO") {
-                        total += cols.getOrNull(11)?.toIntOrNull() ?: 0
-                    }
-                }
-            }
+            val total = InventarioRepository.getInstance(this).obtenerTodosBloqueante()
+                .filter { it.tipoTarima == "RESTO" }
+                .sumOf { it.totalPallets }
             runOnUiThread {
                 acumulado = total
                 actualizarAcumulado()
@@ -6,9 +6,20 @@ import androidx.recyclerview.widget.ListAdapter
 import androidx.recyclerview.widget.DiffUtil
 import com.example.escaneodematerialeskof.model.Pallet
 import com.example.escaneodematerialeskof.model.Rumba
+import com.example.escaneodematerialeskof.util.IdsEstables
 
+/**
+ * Resumen de rumbas y pallets escaneados. El diff corre fuera del hilo principal, los IDs son
+ * estables y, si solo cambió la cantidad de un elemento, se vuelve a dibujar solo esa cifra.
+ */
 class ResumenAdapter : ListAdapter<Any, ScannedDataAdapter.ItemViewHolder>(ResumenDiffCallback()) {
 
+    private val ids = IdsEstables<Any>()
+
+    init {
+        setHasStableIds(true)
+    }
+
     override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): ScannedDataAdapter.ItemViewHolder {
         val view = LayoutInflater.from(parent.context).inflate(R.layout.item_scanned_data, parent, false)
         return ScannedDataAdapter.ItemViewHolder(view)
@@ -17,18 +28,55 @@ class ResumenAdapter : ListAdapter<Any, ScannedDataAdapter.ItemViewHolder>(Resum
     override fun onBindViewHolder(holder: ScannedDataAdapter.ItemViewHolder, position: Int) {
         holder.bind(getItem(position))
     }
+
+    override fun onBindViewHolder(holder: ScannedDataAdapter.ItemViewHolder, position: Int, payloads: MutableList<Any>) {
+        if (payloads.isNotEmpty() && payloads.all { it === CAMBIO_CANTIDAD }) {
+            holder.bindCantidad(getItem(position))
+        } else {
+            onBindViewHolder(holder, position)
+        }
+    }
+
+    override fun getItemId(position: Int): Long = ids.de(claveDe(getItem(position)))
+
+    override fun onCurrentListChanged(previousList: MutableList<Any>, currentList: MutableList<Any>) {
+        ids.conservar(currentList) { claveDe(it) }
+    }
+
+    /** Clave de un elemento que aún no tiene ID de Room: solo es igual a sí misma. */
+    private class Identidad(val item: Any) {
+        override fun equals(other: Any?): Boolean = other is Identidad && other.item === item
+        override fun hashCode(): Int = System.identityHashCode(item)
+    }
+
+    companion object {
+        // Payload de un elemento que solo cambió de cantidad
+        internal val CAMBIO_CANTIDAD = Any()
+
+        /**
+         * Los elementos guardados se identifican por su ID de Room. Los que aún no se guardan
+         * tienen ID 0 y pueden repetir material y lote (o HU), así que se identifican por instancia.
+         */
+        internal fun claveDe(item: Any): Any = when {
+            item is Rumba && item.id != 0L -> "R#${item.id}"
+            item is Pallet && item.id != 0L -> "P#${item.id}"
+            else -> Identidad(item)
+        }
+    }
 }
 
 class ResumenDiffCallback : DiffUtil.ItemCallback<Any>() {
     override fun areItemsTheSame(oldItem: Any, newItem: Any): Boolean {
-        return when {
-            oldItem is Rumba && newItem is Rumba -> oldItem.id == newItem.id
-            oldItem is Pallet && newItem is Pallet -> oldItem.id == newItem.id
-            else -> false
-        }
+        return ResumenAdapter.claveDe(oldItem) == ResumenAdapter.claveDe(newItem)
     }
 
     override fun areContentsTheSame(oldItem: Any, newItem: Any): Boolean {
         return oldItem == newItem
     }
+
+    override fun getChangePayload(oldItem: Any, newItem: Any): Any? = when {
+        oldItem is Rumba && newItem is Rumba && oldItem.copy(cantidad = newItem.cantidad) == newItem -> ResumenAdapter.CAMBIO_CANTIDAD
+        oldItem is Pallet && newItem is Pallet && oldItem.copy(cantidad = newItem.cantidad) == newItem -> ResumenAdapter.CAMBIO_CANTIDAD
+        else -> null
+    }
 }
@@ -43,16 +43,23 @@ class ScannedDataAdapter(private var data: List<Any>) : RecyclerView.Adapter<Sca
                 is Rumba -> {
                     primaryTextView.text = "Material: ${item.material}"
                     secondaryTextView.text = "Lote: ${item.lote}"
-                    quantityTextView.text = item.cantidad.toString()
+                    secondaryTextView.visibility = View.VISIBLE
                     icon.setImageResource(android.R.drawable.ic_dialog_dialer)
                 }
                 is Pallet -> {
                     primaryTextView.text = "HU: ${item.hu}"
                     secondaryTextView.visibility = View.GONE
-                    quantityTextView.text = item.cantidad.toString()
                     icon.setImageResource(android.R.drawable.ic_input_get)
                 }
             }
+            bindCantidad(item)
+        }
+
+        fun bindCantidad(item: Any) {
+            when (item) {
+                is Rumba -> quantityTextView.text = item.cantidad.toString()
+                is Pallet -> quantityTextView.text = item.cantidad.toString()
+            }
         }
     }
 }
@@ -0,0 +1,165 @@
+package com.example.escaneodematerialeskof.dashboard
+
+import com.example.escaneodematerialeskof.data.inventario.ClaveInventario
+import com.example.escaneodematerialeskof.data.inventario.InventarioEscaneado
+import java.util.TreeSet
+
+/**
+ * Pallets acumulados de un SKU dentro de un filtro.
+ */
+data class SkuAcumulado(
+    val sku: String,
+    val descripcion: String,
+    val pallets: Int
+)
+
+/**
+ * Totales del inventario escaneado que se mantienen al día con cada cambio de fila, para que el
+ * dashboard no tenga que recorrer las filas en cada carga o cambio de filtro.
+ *
+ * Cada fila suma en cuatro ámbitos: todo el inventario, su almacén, su tipo de tarima y la pareja
+ * (almacén, tarima). Cada ámbito lleva los pallets y filas, los pallets por SKU con un ranking
+ * ordenado, y las ubicaciones de cada SKU con los que están en más de una. Así cualquier
+ * combinación de filtros es un ámbito ya calculado, y las consultas cuestan lo que mide su
+ * resultado (o el número de parejas almacén/tarima, que es pequeño).
+ *
+ * Los filtros comparan almacén y tarima tal como vienen en la fila, igual que el dashboard.
+ * No es seguro para usar desde varios hilos.
+ */
+class AgregadosInventario {
+
+    private data class Ambito(val almacen: String?, val tipoTarima: String?)
+
+    private class Totales {
+        var pallets = 0
+        var filas = 0
+        val palletsPorSku = HashMap<String, Int>()
+        val filasPorSku = HashMap<String, Int>()
+        val ranking = TreeSet<String>(compareByDescending<String> { palletsPorSku[it] ?: 0 }.thenBy { it })
+        val ubicaciones = HashMap<String, HashMap<String, Int>>()
+        val variasUbicaciones = TreeSet<String>()
+
+        fun cambiar(sku: String, anterior: InventarioEscaneado?, actual: InventarioEscaneado?) {
+            val deltaPallets = (actual?.totalPallets ?: 0) - (anterior?.totalPallets ?: 0)
+            val deltaFilas = (if (actual != null) 1 else 0) - (if (anterior != null) 1 else 0)
+            pallets += deltaPallets
+            filas += deltaFilas
+
+            // El comparador lee palletsPorSku: se saca del ranking antes de cambiar el valor
+            ranking.remove(sku)
+            val filasSku = (filasPorSku[sku] ?: 0) + deltaFilas
+            if (filasSku > 0) {
+                filasPorSku[sku] = filasSku
+                palletsPorSku[sku] = (palletsPorSku[sku] ?: 0) + deltaPallets
+                ranking.add(sku)
+            } else {
+                filasPorSku.remove(sku)
+                palletsPorSku.remove(sku)
+            }
+
+            val ubicacionAnterior = anterior?.ubicacion
+            val ubicacionActual = actual?.ubicacion
+            if (ubicacionAnterior == ubicacionActual) return
+            val conteo = ubicaciones.getOrPut(sku) { HashMap() }
+            if (ubicacionAnterior != null) {
+                val resto = (conteo[ubicacionAnterior] ?: 0) - 1
+                if (resto > 0) conteo[ubicacionAnterior] = resto else conteo.remove(ubicacionAnterior)
+            }
+            if (ubicacionActual != null) conteo[ubicacionActual] = (conteo[ubicacionActual] ?: 0) + 1
+            if (conteo.isEmpty()) ubicaciones.remove(sku)
+            if (conteo.size > 1) variasUbicaciones.add(sku) else variasUbicaciones.remove(sku)
+        }
+    }
+
+    private val filas = HashMap<ClaveInventario, InventarioEscaneado>()
+    private val ambitos = HashMap<Ambito, Totales>()
+    private val descripciones = HashMap<String, String>()
+
+    /**
+     * Reemplaza el inventario completo por [items].
+     */
+    fun cargar(items: List<InventarioEscaneado>) {
+        filas.clear()
+        ambitos.clear()
+        descripciones.clear()
+        for (item in items) aplicar(item.clave, item)
+    }
+
+    /**
+     * Aplica el cambio de una fila: [fila] es su valor nuevo, o null si se eliminó.
+     */
+    fun aplicar(clave: ClaveInventario, fila: InventarioEscaneado?) {
+        val anterior = if (fila != null) filas.put(clave, fila) else filas.remove(clave)
+        if (anterior == null && fila == null) return
+        actualizar(Ambito(null, null), clave.sku, anterior, fila)
+        actualizar(Ambito(clave.almacen, null), clave.sku, anterior, fila)
+        actualizar(Ambito(null, clave.tipoTarima), clave.sku, anterior, fila)
+        actualizar(Ambito(clave.almacen, clave.tipoTarima), clave.sku, anterior, fila)
+
+        if (fila != null) {
+            if (descripciones[clave.sku].isNullOrEmpty()) descripciones[clave.sku] = fila.descripcion
+        } else if (ambitos[Ambito(null, null)]?.filasPorSku?.containsKey(clave.sku) != true) {
+            descripciones.remove(clave.sku)
+        }
+    }
+
+    private fun actualizar(ambito: Ambito, sku: String, anterior: InventarioEscaneado?, actual: InventarioEscaneado?) {
+        val totales = ambitos.getOrPut(ambito) { Totales() }
+        totales.cambiar(sku, anterior, actual)
+        if (totales.filas == 0) ambitos.remove(ambito)
+    }
+
+    private fun totales(almacen: String?, tipoTarima: String?) = ambitos[Ambito(almacen, tipoTarima)]
+
+    val vacio: Boolean
+        get() = filas.isEmpty()
+
+    /** Almacenes con filas, sin el vacío, ordenados. */
+    fun almacenes(): List<String> =
+        ambitos.keys.filter { it.tipoTarima == null && !it.almacen.isNullOrBlank() }.map { it.almacen!! }.sorted()
+
+    /** Tipos de tarima con filas, sin el vacío, ordenados. */
+    fun tarimas(): List<String> =
+        ambitos.keys.filter { it.almacen == null && !it.tipoTarima.isNullOrBlank() }.map { it.tipoTarima!! }.sorted()
+
+    fun totalPallets(almacen: String? = null, tipoTarima: String? = null): Int = totales(almacen, tipoTarima)?.pallets ?: 0
+
+    fun totalSkus(almacen: String? = null, tipoTarima: String? = null): Int =
+        totales(almacen, tipoTarima)?.filasPorSku?.size ?: 0
+
+    /** Pallets de cada almacén dentro del filtro. */
+    fun palletsPorAlmacen(almacen: String? = null, tipoTarima: String? = null): Map<String, Int> =
+        desglose { ambito -> ambito.tipoTarima == tipoTarima && ambito.almacen != null && (almacen == null || ambito.almacen == almacen) }
+            .mapKeys { it.key.almacen!! }
+
+    /** Pallets de cada tipo de tarima dentro del filtro. */
+    fun palletsPorTarima(almacen: String? = null, tipoTarima: String? = null): Map<String, Int> =
+        desglose { ambito -> ambito.almacen == almacen && ambito.tipoTarima != null && (tipoTarima == null || ambito.tipoTarima == tipoTarima) }
+            .mapKeys { it.key.tipoTarima!! }
+
+    private fun desglose(incluir: (Ambito) -> Boolean): Map<Ambito, Int> {
+        val resultado = HashMap<Ambito, Int>()
+        for ((ambito, totales) in ambitos) if (incluir(ambito)) resultado[ambito] = totales.pallets
+        return resultado
+    }
+
+    /** Los [cantidad] SKUs con más pallets dentro del filtro. */
+    fun topSkus(cantidad: Int, almacen: String? = null, tipoTarima: String? = null): List<SkuAcumulado> {
+        val totales = totales(almacen, tipoTarima) ?: return emptyList()
+        return totales.ranking.asSequence().take(cantidad).map { sku ->
+            SkuAcumulado(sku, descripciones[sku].orEmpty(), totales.palletsPorSku[sku] ?: 0)
+        }.toList()
+    }
+
+    /** SKUs que dentro del filtro están en más de una ubicación, con sus ubicaciones. */
+    fun skusEnVariasUbicaciones(almacen: String? = null, tipoTarima: String? = null): Map<String, Set<String>> {
+        val totales = totales(almacen, tipoTarima) ?: return emptyMap()
+        val resultado = LinkedHashMap<String, Set<String>>()
+        for (sku in totales.variasUbicaciones) resultado[sku] = totales.ubicaciones[sku].orEmpty().keys.toSortedSet()
+        return resultado
+    }
+
+    /** Ubicaciones distintas de [sku] dentro del filtro. */
+    fun ubicacionesDe(sku: String, almacen: String? = null, tipoTarima: String? = null): Set<String> =
+        totales(almacen, tipoTarima)?.ubicaciones?.get(sku)?.keys?.toSortedSet().orEmpty()
+}
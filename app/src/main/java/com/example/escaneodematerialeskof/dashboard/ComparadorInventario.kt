@@ -2,9 +2,13 @@ package com.example.escaneodematerialeskof.dashboard
 
 import android.content.Context
 import android.content.Intent
+import android.util.Log
 import androidx.core.content.FileProvider
 import com.example.escaneodematerialeskof.model.MaterialItem
+import com.example.escaneodematerialeskof.util.ExportadorCsv
 import java.io.File
+import java.io.Reader
+import java.io.Writer
 
 data class InventarioAlmacen(
     val sku: String,
@@ -19,61 +23,104 @@ object ComparadorInventario {
         almacen: List<InventarioAlmacen>,
         baseTarimas: Map<String, String>
     ): List<ComparacionInventario> {
-        val comparacion = mutableListOf<ComparacionInventario>()
-        val agrupado = escaneado.groupBy { it.sku }.mapValues { it.value.sumOf { m -> m.totalPallets?.toIntOrNull() ?: 0 } }
+        // Una sola pasada: total por SKU y la descripción de su primer escaneo
+        val agrupado = LinkedHashMap<String, Int>()
+        val descripciones = HashMap<String, String>()
+        for (material in escaneado) {
+            agrupado[material.sku] = (agrupado[material.sku] ?: 0) + (material.totalPallets?.toIntOrNull() ?: 0)
+            descripciones.putIfAbsent(material.sku, material.descripcion)
+        }
         val mapaAlmacen = almacen.associateBy { it.sku }
+        val comparacion = ArrayList<ComparacionInventario>(agrupado.size + mapaAlmacen.size)
 
         for ((sku, esc) in agrupado) {
-            val almacenado = mapaAlmacen[sku]
-            val descripcion = escaneado.find { it.sku == sku }?.descripcion ?: "-"
-            val tipo = baseTarimas[sku] ?: "OTRA"
-
-            if (almacenado != null) {
-                val diferencia = esc - almacenado.disponible
-                val estado = when {
-                    diferencia == 0 -> "OK"
-                    diferencia > 0 -> "Sobrante ($diferencia)"
-                    else -> "Faltante (${kotlin.math.abs(diferencia)})"
-                }
-                comparacion.add(ComparacionInventario(sku, descripcion, tipo, esc, almacenado.disponible, diferencia, estado))
-            } else {
-                comparacion.add(ComparacionInventario(sku, descripcion, tipo, esc, null, null, "Sobrante (No en almacén)"))
-            }
+            comparacion.add(compararSku(sku, esc, descripciones[sku], mapaAlmacen[sku], baseTarimas[sku] ?: "OTRA")!!)
         }
 
         // Detectar faltantes
-        val faltantes = mapaAlmacen.keys - agrupado.keys
-        for (sku in faltantes) {
-            val a = mapaAlmacen[sku]!!
-            comparacion.add(ComparacionInventario(sku, a.descripcion, baseTarimas[sku] ?: "OTRA", null, a.disponible, null, "Faltante (No escaneado)"))
+        for ((sku, item) in mapaAlmacen) {
+            if (sku !in agrupado) comparacion.add(compararSku(sku, null, null, item, baseTarimas[sku] ?: "OTRA")!!)
+        }
+
+        comparacion.sortBy { it.sku }
+        return comparacion
+    }
+
+    /**
+     * Fila de comparación de un solo SKU, con las mismas reglas que [generarComparacion]; sirve
+     * para actualizar una comparación existente cuando cambia un SKU.
+     * @param escaneado pallets escaneados, o null si el SKU no se ha escaneado.
+     * @return null si el SKU no está en ninguno de los dos inventarios.
+     */
+    fun compararSku(
+        sku: String,
+        escaneado: Int?,
+        descripcionEscaneado: String?,
+        almacenado: InventarioAlmacen?,
+        tipo: String
+    ): ComparacionInventario? {
+        if (escaneado == null) {
+            if (almacenado == null) return null
+            return ComparacionInventario(sku, almacenado.descripcion, tipo, null, almacenado.disponible, null, "Faltante (No escaneado)")
+        }
+        val descripcion = descripcionEscaneado ?: "-"
+        if (almacenado == null) {
+            return ComparacionInventario(sku, descripcion, tipo, escaneado, null, null, "Sobrante (No en almacén)")
+        }
+        val diferencia = escaneado - almacenado.disponible
+        val estado = when {
+            diferencia == 0 -> "OK"
+            diferencia > 0 -> "Sobrante ($diferencia)"
+            else -> "Faltante (${kotlin.math.abs(diferencia)})"
         }
+        return ComparacionInventario(sku, descripcion, tipo, escaneado, almacenado.disponible, diferencia, estado)
+    }
+
+    enum class TipoDiferencia { OK, FALTANTE, SOBRANTE }
 
-        return comparacion.sortedBy { it.sku }
+    /**
+     * Clasifica una fila para los contadores de OK, faltantes y sobrantes.
+     */
+    fun tipoDiferencia(fila: ComparacionInventario): TipoDiferencia = when {
+        fila.diferencia == 0 -> TipoDiferencia.OK
+        fila.escaneado == null || (fila.diferencia ?: 0) < 0 -> TipoDiferencia.FALTANTE
+        else -> TipoDiferencia.SOBRANTE
     }
 
+    /**
+     * Segunda etapa después del emparejamiento exacto: para cada "Sobrante (No en almacén)"
+     * propone los "Faltante (No escaneado)" que podrían ser el mismo material con el código mal
+     * capturado (ceros a la izquierda, prefijo del QR o un carácter distinto). Ver [EmparejadorSku].
+     */
+    fun proponerEmparejamientos(comparacion: List<ComparacionInventario>): List<CandidatoEmparejamiento> {
+        val noEscaneados = comparacion.filter { it.escaneado == null }.map { it.sku }
+        if (noEscaneados.isEmpty()) return emptyList()
+        val emparejador = EmparejadorSku(noEscaneados)
+        val candidatos = mutableListOf<CandidatoEmparejamiento>()
+        for (fila in comparacion) {
+            if (fila.inventario == null) candidatos.addAll(emparejador.candidatos(fila.sku))
+        }
+        return candidatos
+    }
+
+    /**
+     * Escribe la comparación en `filesDir`, fila por fila; con muchas filas se comprime en ZIP
+     * para adjuntarla por correo.
+     */
     fun exportarComparacionCSV(
         context: Context,
         comparacion: List<ComparacionInventario>,
         nombreArchivo: String = "comparacion_inventario.csv",
+        compresion: ExportadorCsv.Compresion = ExportadorCsv.compresionParaCorreo(comparacion.size),
         onFinish: (File?) -> Unit
     ) {
         try {
-            val archivo = File(context.filesDir, nombreArchivo)
-            archivo.bufferedWriter().use { writer ->
-                writer.write("SKU,Descripción,Tarima,Escaneado,Inventario,Diferencia,Estado\n")
-                comparacion.forEach {
-                    val linea = listOf(
-                        it.sku,
-                        "\"${it.descripcion}\"",
-                        it.tipoTarima,
-                        it.escaneado?.toString() ?: "-",
-                        it.inventario?.toString() ?: "-",
-                        it.diferencia?.toString() ?: "-",
-                        "\"${it.estado}\""
-                    ).joinToString(",")
-                    writer.write("$linea\n")
-                }
+            val (archivo, resultado) = ExportadorCsv.exportarArchivo(context.filesDir, nombreArchivo, compresion) { writer ->
+                writer.write(ENCABEZADO_CSV)
+                comparacion.forEach { escribirFila(writer, it) }
+                comparacion.size
             }
+            Log.d("ComparadorInventario", "${archivo.name}: ${resultado.bytes} bytes en ${resultado.milisegundos} ms")
             onFinish(archivo)
         } catch (e: Exception) {
             e.printStackTrace()
@@ -81,10 +128,55 @@ object ComparadorInventario {
         }
     }
 
+    /**
+     * Compara dos CSV sin cargarlos en memoria (ver [ConciliadorExterno]) y escribe cada fila en
+     * `filesDir` en cuanto se conoce, con el mismo formato que [exportarComparacionCSV].
+     * Bloquea; llamar fuera del hilo principal.
+     *
+     * @param sistema CSV del sistema (SKU, Descripción, Cantidad, TipoTarima).
+     * @param escaneado CSV de inventario exportado por la app.
+     */
+    fun exportarConciliacionExterna(
+        context: Context,
+        sistema: Reader,
+        escaneado: Reader,
+        nombreArchivo: String = "conciliacion_inventario.csv",
+        presupuestoBytes: Long = ConciliadorExterno.PRESUPUESTO_POR_DEFECTO,
+        compresion: ExportadorCsv.Compresion = ExportadorCsv.Compresion.NINGUNA
+    ): Pair<File, ConciliadorExterno.Resultado> {
+        var conciliacion: ConciliadorExterno.Resultado? = null
+        val (archivo, resultado) = ExportadorCsv.exportarArchivo(context.filesDir, nombreArchivo, compresion) { writer ->
+            writer.write(ENCABEZADO_CSV)
+            conciliacion = ConciliadorExterno(context.cacheDir, presupuestoBytes).conciliar(
+                ConciliadorExterno.sistemaCsv(sistema),
+                ConciliadorExterno.escaneadoCsv(escaneado)
+            ) { escribirFila(writer, it) }
+            conciliacion!!.filas.toInt()
+        }
+        Log.d(
+            "ComparadorInventario",
+            "${archivo.name}: ${resultado.filas} filas, ${conciliacion!!.tramos} tramos, ${resultado.bytes} bytes en ${resultado.milisegundos} ms"
+        )
+        return archivo to conciliacion!!
+    }
+
+    private const val ENCABEZADO_CSV = "SKU,Descripción,Tarima,Escaneado,Inventario,Diferencia,Estado\n"
+
+    private fun escribirFila(writer: Writer, fila: ComparacionInventario) {
+        ExportadorCsv.escribirCampo(writer, fila.sku)
+        writer.write(",")
+        ExportadorCsv.escribirCampo(writer, fila.descripcion)
+        writer.write(",")
+        ExportadorCsv.escribirCampo(writer, fila.tipoTarima)
+        writer.write(",${fila.escaneado ?: "-"},${fila.inventario ?: "-"},${fila.diferencia ?: "-"},")
+        ExportadorCsv.escribirCampo(writer, fila.estado)
+        writer.write("\n")
+    }
+
     fun enviarPorCorreo(context: Context, archivo: File) {
         val uri = FileProvider.getUriForFile(context, "${context.packageName}.fileprovider", archivo)
         val intent = Intent(Intent.ACTION_SEND).apply {
-            type = "text/csv"
+            type = ExportadorCsv.tipoMimeDe(archivo)
             putExtra(Intent.EXTRA_SUBJECT, "Comparación de Inventario")
             putExtra(Intent.EXTRA_TEXT, "Adjunto el reporte de comparación generado por la app.")
             putExtra(Intent.EXTRA_STREAM, uri)
@@ -0,0 +1,212 @@
+package com.example.escaneodematerialeskof.dashboard
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+
+/**
+ * Pallets de un registro con sus dimensiones, para [ConciliadorDimensional].
+ * Las dimensiones que la fuente no tiene (el CSV del sistema no trae almacén) van vacías.
+ */
+data class RegistroDimensional(
+    val sku: String,
+    val almacen: String,
+    val tipoTarima: String,
+    val ubicacion: String,
+    val pallets: Int
+)
+
+enum class Dimension { SKU, ALMACEN, TARIMA, UBICACION }
+
+/**
+ * Grupo del reticulado: las dimensiones en null están sumadas (por ejemplo, solo [almacen] con
+ * valor es el total de ese almacén para todos los SKU, tarimas y ubicaciones).
+ */
+data class ClaveDimensional(
+    val sku: String? = null,
+    val almacen: String? = null,
+    val tipoTarima: String? = null,
+    val ubicacion: String? = null
+) {
+    fun valor(dimension: Dimension): String? = when (dimension) {
+        Dimension.SKU -> sku
+        Dimension.ALMACEN -> almacen
+        Dimension.TARIMA -> tipoTarima
+        Dimension.UBICACION -> ubicacion
+    }
+
+    /** Esta clave con solo las dimensiones de [mascara] (bit i = `Dimension.entries[i]`). */
+    internal fun proyectar(mascara: Int) = ClaveDimensional(
+        sku.takeIf { mascara and (1 shl Dimension.SKU.ordinal) != 0 },
+        almacen.takeIf { mascara and (1 shl Dimension.ALMACEN.ordinal) != 0 },
+        tipoTarima.takeIf { mascara and (1 shl Dimension.TARIMA.ordinal) != 0 },
+        ubicacion.takeIf { mascara and (1 shl Dimension.UBICACION.ordinal) != 0 }
+    )
+}
+
+data class Subtotal(val escaneado: Long, val sistema: Long) {
+    val diferencia: Long
+        get() = escaneado - sistema
+}
+
+/**
+ * Nodo del desglose: [subtotal] ya incluye a todos sus [hijos], así que la pantalla puede
+ * expandirlos sin volver a calcular nada.
+ */
+class NodoConciliacion(
+    val dimension: Dimension?,
+    val valor: String?,
+    val clave: ClaveDimensional,
+    val subtotal: Subtotal,
+    val hijos: List<NodoConciliacion>
+)
+
+/**
+ * Conciliación por (sku, almacén, tipo de tarima, ubicación) con subtotales en todos los niveles.
+ *
+ * Una sola pasada sobre cada entrada acumula las celdas finas, ya separadas por partición de SKU;
+ * la pasada se reparte en tramos de la lista que se procesan en paralelo en [Dispatchers.Default].
+ * Después cada partición junta solo sus celdas de cada tramo y calcula los 16 agrupamientos del
+ * reticulado (todas las combinaciones de dimensiones), que al final se suman. El [ResultadoDimensional] responde
+ * cualquier subtotal en O(1) y arma el desglose en el orden de dimensiones que se pida.
+ */
+class ConciliadorDimensional(
+    private val paralelismo: Int = Runtime.getRuntime().availableProcessors()
+) {
+
+    suspend fun conciliar(
+        sistema: List<RegistroDimensional>,
+        escaneado: List<RegistroDimensional>
+    ): ResultadoDimensional = coroutineScope {
+        // 1. Celdas finas por tramo de cada entrada, separadas por partición
+        val parciales = (tramos(sistema, SISTEMA) + tramos(escaneado, ESCANEADO)).map { (registros, lado) ->
+            async(Dispatchers.Default) { acumularCeldas(registros, lado) }
+        }.awaitAll()
+
+        // 2. Por partición de SKU: juntar celdas y calcular el reticulado
+        val particiones = (0 until paralelismo).map { particion ->
+            async(Dispatchers.Default) {
+                val celdas = HashMap<ClaveDimensional, LongArray>()
+                for (parcial in parciales) {
+                    for ((clave, totales) in parcial[particion]) sumar(celdas, clave, totales)
+                }
+                celdas to reticulado(celdas)
+            }
+        }.awaitAll()
+
+        // 3. Los agrupamientos con SKU no se repiten entre particiones; los demás se suman
+        val grupos = HashMap<ClaveDimensional, LongArray>()
+        val celdas = HashMap<ClaveDimensional, LongArray>()
+        for ((celdasParticion, gruposParticion) in particiones) {
+            celdas.putAll(celdasParticion)
+            for ((clave, totales) in gruposParticion) sumar(grupos, clave, totales)
+        }
+        ResultadoDimensional(celdas.keys, grupos)
+    }
+
+    private fun tramos(registros: List<RegistroDimensional>, lado: Int): List<Pair<List<RegistroDimensional>, Int>> {
+        if (registros.isEmpty()) return emptyList()
+        val tamano = (registros.size + paralelismo - 1) / paralelismo
+        return registros.chunked(maxOf(tamano, TRAMO_MINIMO)).map { it to lado }
+    }
+
+    private fun acumularCeldas(registros: List<RegistroDimensional>, lado: Int): Array<HashMap<ClaveDimensional, LongArray>> {
+        val celdas = Array(paralelismo) { HashMap<ClaveDimensional, LongArray>() }
+        for (r in registros) {
+            val clave = ClaveDimensional(r.sku, r.almacen, r.tipoTarima, r.ubicacion)
+            celdas[particionDe(r.sku)].getOrPut(clave) { LongArray(2) }[lado] += r.pallets.toLong()
+        }
+        return celdas
+    }
+
+    private fun reticulado(celdas: Map<ClaveDimensional, LongArray>): HashMap<ClaveDimensional, LongArray> {
+        val grupos = HashMap<ClaveDimensional, LongArray>(celdas.size * 4)
+        for ((clave, totales) in celdas) {
+            for (mascara in 0 until MASCARAS) sumar(grupos, clave.proyectar(mascara), totales)
+        }
+        return grupos
+    }
+
+    private fun particionDe(sku: String) = (sku.hashCode() and Int.MAX_VALUE) % paralelismo
+
+    private fun sumar(destino: HashMap<ClaveDimensional, LongArray>, clave: ClaveDimensional, totales: LongArray) {
+        val actual = destino.getOrPut(clave) { LongArray(2) }
+        actual[SISTEMA] += totales[SISTEMA]
+        actual[ESCANEADO] += totales[ESCANEADO]
+    }
+
+    companion object {
+        private const val SISTEMA = 0
+        private const val ESCANEADO = 1
+        private const val MASCARAS = 1 shl 4
+
+        // Tramos más chicos no compensan el costo de repartirlos
+        private const val TRAMO_MINIMO = 5_000
+    }
+}
+
+/**
+ * Resultado de [ConciliadorDimensional]: el reticulado completo de subtotales.
+ */
+class ResultadoDimensional internal constructor(
+    private val celdas: Set<ClaveDimensional>,
+    private val grupos: Map<ClaveDimensional, LongArray>
+) {
+
+    val total: Subtotal
+        get() = subtotal(ClaveDimensional()) ?: Subtotal(0, 0)
+
+    /** Subtotal de un grupo cualquiera del reticulado; null si no tiene registros. */
+    fun subtotal(clave: ClaveDimensional): Subtotal? = grupos[clave]?.let { Subtotal(it[1], it[0]) }
+
+    /**
+     * Subtotales de todos los grupos que tienen valor exactamente en [dimensiones]
+     * (por ejemplo, `setOf(ALMACEN)` da uno por almacén).
+     */
+    fun agrupar(dimensiones: Set<Dimension>): Map<ClaveDimensional, Subtotal> =
+        grupos.filterKeys { clave -> Dimension.entries.all { (clave.valor(it) != null) == (it in dimensiones) } }
+            .mapValues { Subtotal(it.value[1], it.value[0]) }
+
+    /**
+     * Árbol de desglose en el orden de [orden]: la raíz es el total, sus hijos los valores de la
+     * primera dimensión, y así hasta las celdas finas. Los hijos van ordenados por valor.
+     */
+    fun desglose(orden: List<Dimension> = Dimension.entries): NodoConciliacion {
+        require(orden.toSet().size == orden.size) { "Dimensiones repetidas: $orden" }
+        val ramas = Rama()
+        for (celda in celdas) {
+            var rama = ramas
+            for (dimension in orden) rama = rama.hijos.getOrPut(celda.valor(dimension)!!) { Rama() }
+        }
+        return construir(null, null, ClaveDimensional(), ramas, orden, 0)
+    }
+
+    private class Rama {
+        val hijos = HashMap<String, Rama>()
+    }
+
+    private fun construir(
+        dimension: Dimension?,
+        valor: String?,
+        clave: ClaveDimensional,
+        rama: Rama,
+        orden: List<Dimension>,
+        nivel: Int
+    ): NodoConciliacion {
+        val hijos = if (nivel == orden.size) emptyList() else {
+            val siguiente = orden[nivel]
+            rama.hijos.keys.sorted().map { v ->
+                construir(siguiente, v, con(clave, siguiente, v), rama.hijos.getValue(v), orden, nivel + 1)
+            }
+        }
+        return NodoConciliacion(dimension, valor, clave, subtotal(clave) ?: Subtotal(0, 0), hijos)
+    }
+
+    private fun con(clave: ClaveDimensional, dimension: Dimension, valor: String) = when (dimension) {
+        Dimension.SKU -> clave.copy(sku = valor)
+        Dimension.ALMACEN -> clave.copy(almacen = valor)
+        Dimension.TARIMA -> clave.copy(tipoTarima = valor)
+        Dimension.UBICACION -> clave.copy(ubicacion = valor)
+    }
+}
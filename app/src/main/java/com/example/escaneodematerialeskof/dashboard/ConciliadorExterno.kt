@@ -0,0 +1,312 @@
+package com.example.escaneodematerialeskof.dashboard
+
+import com.example.escaneodematerialeskof.util.LectorCsv
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.Closeable
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.Reader
+import java.util.PriorityQueue
+
+/**
+ * Un registro de inventario tal como llega a [ConciliadorExterno].
+ */
+data class RegistroConciliacion(
+    val sku: String,
+    val pallets: Int,
+    val descripcion: String,
+    val tipo: String
+)
+
+/**
+ * Conciliación de inventarios que no caben en memoria (conteos de fin de año de toda la red):
+ * ordenamiento externo por SKU y un merge-join en una sola pasada.
+ *
+ * Cada lado se lee en tramos que caben en [presupuestoBytes]; cada tramo se combina por SKU, se
+ * ordena y se guarda en un archivo temporal. Después los tramos de cada lado se mezclan (en varias
+ * rondas si son más de los que el presupuesto permite tener abiertos) y los dos flujos ordenados
+ * se recorren juntos, entregando cada fila de comparación en cuanto se conoce. La memoria usada
+ * depende del presupuesto, no del tamaño de las entradas.
+ *
+ * Las reglas son las de [ComparadorInventario.generarComparacion] y de la importación del
+ * inventario del sistema: lo escaneado se suma por SKU con la descripción y el tipo del primer
+ * registro; en el sistema, si un SKU se repite queda el último. Las filas salen ordenadas por SKU.
+ */
+class ConciliadorExterno(
+    private val directorioTemporal: File,
+    private val presupuestoBytes: Long = PRESUPUESTO_POR_DEFECTO
+) {
+
+    data class Resultado(
+        val filas: Long,
+        val ok: Long,
+        val faltantes: Long,
+        val sobrantes: Long,
+        val tramos: Int,
+        val milisegundos: Long
+    )
+
+    private enum class Combinacion { SUMAR, ULTIMO }
+
+    private class Acumulado(var pallets: Int, var descripcion: String, var tipo: String)
+
+    // Cada archivo abierto durante la mezcla tiene su propio búfer; los dos lados se mezclan a la vez
+    private val maxAbiertos = (presupuestoBytes / (2 * TAMANO_BUFFER)).toInt().coerceAtLeast(2)
+
+    private var siguienteTramo = 0
+
+    /**
+     * Compara [sistema] contra [escaneado] y entrega cada fila a [emitir], en orden de SKU.
+     */
+    fun conciliar(
+        sistema: Iterator<RegistroConciliacion>,
+        escaneado: Iterator<RegistroConciliacion>,
+        emitir: (ComparacionInventario) -> Unit
+    ): Resultado {
+        val inicio = System.currentTimeMillis()
+        val trabajo = File(directorioTemporal, "conciliacion_${System.nanoTime()}")
+        if (!trabajo.mkdirs()) throw IOException("No se pudo crear ${trabajo.path}")
+        try {
+            val tramosSistema = generarTramos(sistema, Combinacion.ULTIMO, trabajo)
+            val tramosEscaneado = generarTramos(escaneado, Combinacion.SUMAR, trabajo)
+            val totalTramos = tramosSistema.size + tramosEscaneado.size
+
+            var filas = 0L
+            var ok = 0L
+            var faltantes = 0L
+            var sobrantes = 0L
+            Mezcla(reducir(tramosSistema, Combinacion.ULTIMO, trabajo), Combinacion.ULTIMO).use { ladoSistema ->
+                Mezcla(reducir(tramosEscaneado, Combinacion.SUMAR, trabajo), Combinacion.SUMAR).use { ladoEscaneado ->
+                    var s = ladoSistema.siguiente()
+                    var e = ladoEscaneado.siguiente()
+                    while (s != null || e != null) {
+                        val orden = when {
+                            s == null -> 1
+                            e == null -> -1
+                            else -> s.sku.compareTo(e.sku)
+                        }
+                        val almacenado = if (orden <= 0) s!!.let { InventarioAlmacen(it.sku, it.descripcion, it.pallets, "") } else null
+                        val contado = if (orden >= 0) e else null
+                        val sku = almacenado?.sku ?: contado!!.sku
+                        val fila = ComparadorInventario.compararSku(
+                            sku,
+                            contado?.pallets,
+                            contado?.descripcion,
+                            almacenado,
+                            contado?.tipo ?: ConciliadorIncremental.TIPO_POR_DEFECTO
+                        )!!
+                        when (ComparadorInventario.tipoDiferencia(fila)) {
+                            ComparadorInventario.TipoDiferencia.OK -> ok++
+                            ComparadorInventario.TipoDiferencia.FALTANTE -> faltantes++
+                            ComparadorInventario.TipoDiferencia.SOBRANTE -> sobrantes++
+                        }
+                        filas++
+                        emitir(fila)
+                        if (orden <= 0) s = ladoSistema.siguiente()
+                        if (orden >= 0) e = ladoEscaneado.siguiente()
+                    }
+                }
+            }
+            return Resultado(filas, ok, faltantes, sobrantes, totalTramos, System.currentTimeMillis() - inicio)
+        } finally {
+            trabajo.deleteRecursively()
+        }
+    }
+
+    /**
+     * Lee [registros] en tramos que caben en el presupuesto, combinando por SKU dentro de cada uno.
+     */
+    private fun generarTramos(
+        registros: Iterator<RegistroConciliacion>,
+        combinacion: Combinacion,
+        trabajo: File
+    ): List<File> {
+        val tramos = mutableListOf<File>()
+        val tramo = HashMap<String, Acumulado>()
+        var bytes = 0L
+        for (registro in registros) {
+            val actual = tramo[registro.sku]
+            if (actual == null) {
+                tramo[registro.sku] = Acumulado(registro.pallets, registro.descripcion, registro.tipo)
+                bytes += BYTES_POR_REGISTRO + 2L * (registro.sku.length + registro.descripcion.length + registro.tipo.length)
+            } else if (combinacion == Combinacion.SUMAR) {
+                actual.pallets += registro.pallets
+            } else {
+                actual.pallets = registro.pallets
+                actual.descripcion = registro.descripcion
+                actual.tipo = registro.tipo
+                bytes += 2L * (registro.descripcion.length + registro.tipo.length)
+            }
+            if (bytes >= presupuestoBytes) {
+                tramos.add(escribirTramo(tramo, trabajo))
+                tramo.clear()
+                bytes = 0
+            }
+        }
+        if (tramo.isNotEmpty() || tramos.isEmpty()) tramos.add(escribirTramo(tramo, trabajo))
+        return tramos
+    }
+
+    private fun escribirTramo(tramo: Map<String, Acumulado>, trabajo: File): File {
+        val archivo = nuevoTramo(trabajo)
+        Escritura(archivo).use { salida ->
+            for (sku in tramo.keys.sorted()) {
+                val acumulado = tramo.getValue(sku)
+                salida.escribir(sku, acumulado.pallets, acumulado.descripcion, acumulado.tipo)
+            }
+        }
+        return archivo
+    }
+
+    /**
+     * Mezcla grupos de tramos consecutivos hasta que quedan los que se pueden abrir a la vez.
+     * Los grupos son consecutivos para que "el último gana" siga respetando el orden del archivo.
+     */
+    private fun reducir(tramos: List<File>, combinacion: Combinacion, trabajo: File): List<File> {
+        var actuales = tramos
+        while (actuales.size > maxAbiertos) {
+            actuales = actuales.chunked(maxAbiertos).map { grupo ->
+                if (grupo.size == 1) return@map grupo[0]
+                val archivo = nuevoTramo(trabajo)
+                Escritura(archivo).use { salida ->
+                    Mezcla(grupo, combinacion).use { mezcla ->
+                        while (true) {
+                            val registro = mezcla.siguiente() ?: break
+                            salida.escribir(registro.sku, registro.pallets, registro.descripcion, registro.tipo)
+                        }
+                    }
+                }
+                grupo.forEach { it.delete() }
+                archivo
+            }
+        }
+        return actuales
+    }
+
+    private fun nuevoTramo(trabajo: File) = File(trabajo, "tramo_${siguienteTramo++}.bin")
+
+    private class Escritura(archivo: File) : Closeable {
+        private val salida = DataOutputStream(BufferedOutputStream(FileOutputStream(archivo), TAMANO_BUFFER))
+
+        fun escribir(sku: String, pallets: Int, descripcion: String, tipo: String) {
+            salida.writeBoolean(true)
+            salida.writeUTF(sku.take(LARGO_MAXIMO))
+            salida.writeInt(pallets)
+            salida.writeUTF(descripcion.take(LARGO_MAXIMO))
+            salida.writeUTF(tipo.take(LARGO_MAXIMO))
+        }
+
+        override fun close() {
+            salida.writeBoolean(false)
+            salida.close()
+        }
+    }
+
+    private class Cursor(archivo: File, val indice: Int) : Closeable {
+        private val entrada = DataInputStream(BufferedInputStream(FileInputStream(archivo), TAMANO_BUFFER))
+        var actual: RegistroConciliacion? = null
+            private set
+
+        fun avanzar(): Boolean {
+            actual = if (entrada.readBoolean()) {
+                RegistroConciliacion(entrada.readUTF(), entrada.readInt(), entrada.readUTF(), entrada.readUTF())
+            } else {
+                null
+            }
+            return actual != null
+        }
+
+        override fun close() = entrada.close()
+    }
+
+    /**
+     * Recorre varios tramos ordenados como uno solo, combinando los registros del mismo SKU en el
+     * orden de los tramos.
+     */
+    private class Mezcla(tramos: List<File>, private val combinacion: Combinacion) : Closeable {
+        private val cursores = tramos.mapIndexed { i, archivo -> Cursor(archivo, i) }
+        private val cola = PriorityQueue<Cursor>(
+            maxOf(1, cursores.size),
+            compareBy<Cursor>({ it.actual!!.sku }, { it.indice })
+        )
+
+        init {
+            for (cursor in cursores) if (cursor.avanzar()) cola.add(cursor)
+        }
+
+        fun siguiente(): RegistroConciliacion? {
+            val primero = cola.poll() ?: return null
+            var registro = primero.actual!!
+            if (primero.avanzar()) cola.add(primero)
+            while (cola.peek()?.actual?.sku == registro.sku) {
+                val cursor = cola.poll()
+                val otro = cursor.actual!!
+                registro = when (combinacion) {
+                    Combinacion.SUMAR -> registro.copy(pallets = registro.pallets + otro.pallets)
+                    Combinacion.ULTIMO -> otro
+                }
+                if (cursor.avanzar()) cola.add(cursor)
+            }
+            return registro
+        }
+
+        override fun close() {
+            cursores.forEach { it.close() }
+        }
+    }
+
+    companion object {
+        const val PRESUPUESTO_POR_DEFECTO = 32L shl 20
+
+        private const val TAMANO_BUFFER = 64 * 1024
+
+        // Objetos, cabeceras de String y entrada del HashMap de un registro en un tramo
+        private const val BYTES_POR_REGISTRO = 160
+
+        // writeUTF admite hasta 64 KB; solo un CSV mal formado llega a textos así de largos
+        private const val LARGO_MAXIMO = 16 * 1024
+
+        /**
+         * Registros de un CSV con encabezado, tomando las columnas indicadas. Omite líneas en
+         * blanco y sin SKU; una cantidad vacía o inválida cuenta como 0.
+         */
+        fun registrosCsv(
+            reader: Reader,
+            columnaSku: Int,
+            columnaDescripcion: Int,
+            columnaPallets: Int,
+            columnaTipo: Int
+        ): Iterator<RegistroConciliacion> = iterator {
+            val fila = LectorCsv(reader)
+            if (!fila.siguiente()) return@iterator
+            while (fila.siguiente()) {
+                if (fila.registroEnBlanco) continue
+                val sku = fila.textoRecortado(columnaSku)
+                if (sku.isEmpty()) continue
+                yield(
+                    RegistroConciliacion(
+                        sku,
+                        fila.entero(columnaPallets) ?: 0,
+                        fila.textoRecortado(columnaDescripcion),
+                        fila.textoRecortado(columnaTipo)
+                    )
+                )
+            }
+        }
+
+        /**
+         * CSV del sistema: SKU, Descripción, Cantidad, TipoTarima.
+         */
+        fun sistemaCsv(reader: Reader) = registrosCsv(reader, 0, 1, 2, 3)
+
+        /**
+         * CSV de inventario escaneado exportado por la app ([com.example.escaneodematerialeskof.util.Constants.CSV_HEADER]).
+         */
+        fun escaneadoCsv(reader: Reader) = registrosCsv(reader, 0, 1, 11, 12)
+    }
+}
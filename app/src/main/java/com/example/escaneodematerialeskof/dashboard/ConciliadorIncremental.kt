@@ -0,0 +1,151 @@
+package com.example.escaneodematerialeskof.dashboard
+
+/**
+ * Comparación entre el inventario del sistema y el escaneado que se mantiene al día escaneo por
+ * escaneo, sin reconstruirla.
+ *
+ * El sistema, los totales escaneados y las filas de comparación viven en mapas por SKU. Cada
+ * [aplicarDelta] recalcula solo la fila de ese SKU con [ComparadorInventario.compararSku] y ajusta
+ * los contadores OK/Faltante/Sobrante en O(1). Los SKUs cuya fila cambió se acumulan hasta que
+ * [tomarCambios] los entrega, para publicar solo esas filas.
+ *
+ * No es seguro para uso concurrente.
+ */
+class ConciliadorIncremental {
+
+    data class Resumen(val ok: Int, val faltantes: Int, val sobrantes: Int)
+
+    /**
+     * Fila actual de un SKU; [fila] es null si el SKU salió de la comparación.
+     */
+    data class Cambio(val sku: String, val fila: ComparacionInventario?)
+
+    private class Escaneado(var pallets: Int, var descripcion: String?, var tipo: String)
+
+    private val sistema = HashMap<String, InventarioAlmacen>()
+    private val escaneado = HashMap<String, Escaneado>()
+    private val filas = HashMap<String, ComparacionInventario>()
+
+    // SKUs con fila distinta desde el último [tomarCambios]
+    private val cambiados = LinkedHashSet<String>()
+    private var reconstruida = false
+
+    private var ok = 0
+    private var faltantes = 0
+    private var sobrantes = 0
+
+    val tamano: Int
+        get() = filas.size
+
+    val resumen: Resumen
+        get() = Resumen(ok, faltantes, sobrantes)
+
+    fun fila(sku: String): ComparacionInventario? = filas[sku]
+
+    /**
+     * Reemplaza el inventario del sistema y reconstruye todas las filas.
+     */
+    fun cargarSistema(items: Iterable<InventarioAlmacen>) {
+        sistema.clear()
+        for (item in items) sistema[item.sku] = item
+        reconstruir()
+    }
+
+    /**
+     * Reemplaza los totales escaneados y reconstruye todas las filas.
+     */
+    fun reemplazarEscaneado(items: Iterable<EscaneadoSku>) {
+        escaneado.clear()
+        for (item in items) escaneado[item.sku] = Escaneado(item.pallets, item.descripcion, item.tipo ?: TIPO_POR_DEFECTO)
+        reconstruir()
+    }
+
+    /**
+     * Reemplaza los dos lados a la vez con una sola reconstrucción.
+     */
+    fun cargar(sistemaItems: Iterable<InventarioAlmacen>, escaneadoItems: Iterable<EscaneadoSku>) {
+        sistema.clear()
+        for (item in sistemaItems) sistema[item.sku] = item
+        escaneado.clear()
+        for (item in escaneadoItems) escaneado[item.sku] = Escaneado(item.pallets, item.descripcion, item.tipo ?: TIPO_POR_DEFECTO)
+        reconstruir()
+    }
+
+    /**
+     * Suma [delta] pallets al total escaneado de [sku] (puede ser negativo) y actualiza su fila.
+     * La descripción y el tipo, si vienen, reemplazan a los anteriores.
+     */
+    fun aplicarDelta(sku: String, delta: Int, descripcion: String? = null, tipo: String? = null) {
+        val actual = escaneado[sku]
+        if (actual == null) {
+            escaneado[sku] = Escaneado(delta, descripcion, tipo ?: TIPO_POR_DEFECTO)
+        } else {
+            actual.pallets += delta
+            if (descripcion != null) actual.descripcion = descripcion
+            if (tipo != null) actual.tipo = tipo
+        }
+        recalcular(sku)
+    }
+
+    /**
+     * Marca [sku] como no escaneado (por ejemplo, al deshacer su único escaneo).
+     */
+    fun quitarEscaneado(sku: String) {
+        if (escaneado.remove(sku) != null) recalcular(sku)
+    }
+
+    /**
+     * Filas cambiadas desde la llamada anterior, en el orden en que cambiaron.
+     * @return null si desde entonces se reconstruyó todo; en ese caso conviene publicar [filasOrdenadas].
+     */
+    fun tomarCambios(): List<Cambio>? {
+        val cambios = if (reconstruida) null else cambiados.map { Cambio(it, filas[it]) }
+        cambiados.clear()
+        reconstruida = false
+        return cambios
+    }
+
+    fun filasOrdenadas(): List<ComparacionInventario> = filas.values.sortedBy { it.sku }
+
+    private fun reconstruir() {
+        filas.clear()
+        cambiados.clear()
+        reconstruida = true
+        ok = 0
+        faltantes = 0
+        sobrantes = 0
+        for (sku in escaneado.keys) recalcular(sku)
+        for (sku in sistema.keys) {
+            if (sku !in escaneado) recalcular(sku)
+        }
+    }
+
+    private fun recalcular(sku: String) {
+        val esc = escaneado[sku]
+        val nueva = ComparadorInventario.compararSku(sku, esc?.pallets, esc?.descripcion, sistema[sku], esc?.tipo ?: TIPO_POR_DEFECTO)
+        val anterior = if (nueva != null) filas.put(sku, nueva) else filas.remove(sku)
+        if (anterior == nueva) return
+        contar(anterior, -1)
+        contar(nueva, 1)
+        if (!reconstruida) cambiados.add(sku)
+    }
+
+    private fun contar(fila: ComparacionInventario?, signo: Int) {
+        if (fila == null) return
+        when (ComparadorInventario.tipoDiferencia(fila)) {
+            ComparadorInventario.TipoDiferencia.OK -> ok += signo
+            ComparadorInventario.TipoDiferencia.FALTANTE -> faltantes += signo
+            ComparadorInventario.TipoDiferencia.SOBRANTE -> sobrantes += signo
+        }
+    }
+
+    companion object {
+        // Igual que generarComparacion cuando no hay tipo de tarima para el SKU
+        const val TIPO_POR_DEFECTO = "OTRA"
+    }
+}
+
+/**
+ * Total escaneado de un SKU para [ConciliadorIncremental.reemplazarEscaneado].
+ */
+data class EscaneadoSku(val sku: String, val pallets: Int, val descripcion: String?, val tipo: String?)
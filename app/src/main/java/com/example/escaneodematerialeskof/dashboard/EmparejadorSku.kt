@@ -0,0 +1,180 @@
+package com.example.escaneodematerialeskof.dashboard
+
+import com.example.escaneodematerialeskof.util.QrParser
+
+/**
+ * Posible correspondencia entre un SKU escaneado que no está en el sistema y uno del sistema que
+ * no se escaneó. [distancia] es 0 si coinciden al normalizarlos y 1 si difieren en un carácter.
+ */
+data class CandidatoEmparejamiento(
+    val skuEscaneado: String,
+    val skuSistema: String,
+    val distancia: Int
+)
+
+/**
+ * Índice de SKUs del sistema para proponer correspondencias aproximadas a SKUs escaneados.
+ *
+ * Primero se compara la clave normalizada ([normalizar]: sin prefijo de QR, sin separadores, en
+ * mayúsculas y sin ceros a la izquierda). Si no hay coincidencia se buscan claves a un carácter de
+ * distancia (sustitución, inserción, borrado o dos caracteres vecinos cambiados de lugar).
+ *
+ * Para eso cada clave se indexa junto con las variantes que resultan de borrarle un carácter: dos
+ * claves a distancia 1 siempre comparten alguna. Las variantes se guardan solo como hash en una
+ * tabla con listas enlazadas en arreglos de enteros, que se arma en tiempo lineal y sin un objeto
+ * por entrada; una búsqueda revisa n + 1 cubetas y confirma los candidatos con la distancia real.
+ */
+class EmparejadorSku(skusSistema: Collection<String>) {
+
+    private val porClave = HashMap<String, MutableList<String>>()
+    private val claves: Array<String>
+
+    // Tabla de variantes: cubetas[h] es la primera entrada de la cubeta, siguiente[] encadena las
+    // demás y clave[] apunta a la clave (en [claves]) de la que salió cada entrada
+    private val cubetas: IntArray
+    private val desplazamiento: Int
+    private val siguiente: IntArray
+    private val claveDeEntrada: IntArray
+
+    init {
+        for (sku in skusSistema) porClave.getOrPut(normalizar(sku)) { mutableListOf() }.add(sku)
+        claves = porClave.keys.filter { it.length >= LARGO_MINIMO }.toTypedArray()
+        val entradas = claves.sumOf { it.length + 1 }
+        val bits = 32 - Integer.numberOfLeadingZeros(maxOf(entradas, 2) - 1)
+        desplazamiento = 32 - bits
+        cubetas = IntArray(1 shl bits) { -1 }
+        siguiente = IntArray(entradas)
+        claveDeEntrada = IntArray(entradas)
+        var entrada = 0
+        claves.forEachIndexed { indice, clave ->
+            for (hash in hashesVariantes(clave)) {
+                val cubeta = cubetaDe(hash)
+                siguiente[entrada] = cubetas[cubeta]
+                claveDeEntrada[entrada] = indice
+                cubetas[cubeta] = entrada
+                entrada++
+            }
+        }
+    }
+
+    /**
+     * SKUs del sistema que podrían ser [skuEscaneado], los más cercanos primero.
+     */
+    fun candidatos(skuEscaneado: String): List<CandidatoEmparejamiento> {
+        val clave = normalizar(skuEscaneado)
+        porClave[clave]?.let { iguales ->
+            return iguales.filter { it != skuEscaneado }.map { CandidatoEmparejamiento(skuEscaneado, it, 0) }
+        }
+        if (clave.length < LARGO_MINIMO) return emptyList()
+
+        val encontrados = LinkedHashSet<Int>()
+        for (hash in hashesVariantes(clave)) {
+            var entrada = cubetas[cubetaDe(hash)]
+            while (entrada >= 0) {
+                encontrados.add(claveDeEntrada[entrada])
+                entrada = siguiente[entrada]
+            }
+        }
+        val resultado = mutableListOf<CandidatoEmparejamiento>()
+        for (indice in encontrados) {
+            val otra = claves[indice]
+            if (distancia(clave, otra) <= 1) {
+                for (sku in porClave.getValue(otra)) resultado.add(CandidatoEmparejamiento(skuEscaneado, sku, 1))
+            }
+        }
+        return resultado.sortedBy { it.skuSistema }
+    }
+
+    // Hash multiplicativo: los hash de códigos numéricos se parecen mucho en los bits bajos
+    private fun cubetaDe(hash: Int) = (hash * MEZCLA) ushr desplazamiento
+
+    companion object {
+        // Con menos caracteres, un carácter de diferencia empareja casi cualquier cosa
+        private const val LARGO_MINIMO = 4
+
+        // 2^32 / φ
+        private const val MEZCLA = -0x61c88647
+
+        private val PREFIJO_QR = Regex(
+            "^(${QrParser.PREFIJOS.joinToString("|") { Regex.escape(it) }})\\s*:\\s*",
+            RegexOption.IGNORE_CASE
+        )
+
+        // "SKU" pegado al código (por ejemplo "SKU-00123" o "SKU 00123")
+        private val PREFIJO_SKU = Regex("^SKU[\\s\\-_#.]*(?=\\d)", RegexOption.IGNORE_CASE)
+
+        /**
+         * Clave de comparación de un SKU: sin prefijo de QR, solo letras y dígitos en mayúsculas,
+         * sin ceros a la izquierda.
+         */
+        fun normalizar(sku: String): String {
+            val recortado = sku.trim()
+            // Los prefijos empiezan con letra; la mayoría de los SKUs son numéricos y no pasan por las regex
+            val sinPrefijo = if (recortado.isNotEmpty() && recortado[0].isLetter()) {
+                recortado.replaceFirst(PREFIJO_QR, "").replaceFirst(PREFIJO_SKU, "")
+            } else {
+                recortado
+            }
+            val limpio = StringBuilder(sinPrefijo.length)
+            for (c in sinPrefijo) {
+                if (c.isLetterOrDigit()) limpio.append(c.uppercaseChar())
+            }
+            var inicio = 0
+            while (inicio < limpio.length - 1 && limpio[inicio] == '0') inicio++
+            return limpio.substring(inicio)
+        }
+
+        /**
+         * Distancia de edición entre [a] y [b] contando el intercambio de dos caracteres vecinos
+         * como una sola operación (distancia OSA).
+         */
+        fun distancia(a: String, b: String): Int {
+            if (a == b) return 0
+            val n = a.length
+            val m = b.length
+            var antepenultima = IntArray(m + 1)
+            var anterior = IntArray(m + 1) { it }
+            var actual = IntArray(m + 1)
+            for (i in 1..n) {
+                actual[0] = i
+                for (j in 1..m) {
+                    val costo = if (a[i - 1] == b[j - 1]) 0 else 1
+                    var valor = minOf(anterior[j] + 1, actual[j - 1] + 1, anterior[j - 1] + costo)
+                    if (i > 1 && j > 1 && a[i - 1] == b[j - 2] && a[i - 2] == b[j - 1]) {
+                        valor = minOf(valor, antepenultima[j - 2] + 1)
+                    }
+                    actual[j] = valor
+                }
+                val libre = antepenultima
+                antepenultima = anterior
+                anterior = actual
+                actual = libre
+            }
+            return anterior[m]
+        }
+
+        /**
+         * Hash de [clave] y de cada variante con un carácter borrado, sin armar las cadenas.
+         */
+        private fun hashesVariantes(clave: String): IntArray {
+            val n = clave.length
+            // prefijo[i] = hash de clave[0, i); potencia[i] = 31^i
+            val prefijo = IntArray(n + 1)
+            val potencia = IntArray(n + 1)
+            potencia[0] = 1
+            for (i in 0 until n) {
+                prefijo[i + 1] = prefijo[i] * 31 + clave[i].code
+                potencia[i + 1] = potencia[i] * 31
+            }
+            val hashes = IntArray(n + 1)
+            hashes[0] = prefijo[n]
+            for (borrado in 0 until n) {
+                // hash(clave[borrado + 1, n)) = prefijo[n] - prefijo[borrado + 1] * 31^(n - borrado - 1)
+                val resto = n - borrado - 1
+                val sufijo = prefijo[n] - prefijo[borrado + 1] * potencia[resto]
+                hashes[borrado + 1] = prefijo[borrado] * potencia[resto] + sufijo
+            }
+            return hashes
+        }
+    }
+}
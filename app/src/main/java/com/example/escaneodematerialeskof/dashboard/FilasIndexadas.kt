@@ -0,0 +1,44 @@
+package com.example.escaneodematerialeskof.dashboard
+
+/**
+ * Posición de cada fila de una lista por su clave, para reemplazar, agregar o quitar filas
+ * sueltas sin recorrer la lista.
+ *
+ * No es seguro para uso concurrente.
+ */
+class FilasIndexadas<K, T>(private val claveDe: (T) -> K) {
+
+    private val posiciones = HashMap<K, Int>()
+
+    fun indexar(filas: List<T>) {
+        posiciones.clear()
+        filas.forEachIndexed { i, fila -> posiciones[claveDe(fila)] = i }
+    }
+
+    fun limpiar() = posiciones.clear()
+
+    /**
+     * Deja en [filas] la fila de cada una de [claves] según [filaDe]: la reemplaza, la agrega al
+     * final o, si [filaDe] da null, la quita. Las filas se quitan al terminar, de la última a la
+     * primera, para que las posiciones indexadas sigan valiendo mientras se aplican las demás.
+     */
+    fun aplicar(filas: MutableList<T>, claves: Collection<K>, filaDe: (K) -> T?) {
+        val quitar = ArrayList<Int>()
+        for (clave in claves) {
+            val fila = filaDe(clave)
+            val indice = posiciones[clave]
+            when {
+                fila == null -> if (indice != null) quitar.add(indice)
+                indice != null -> filas[indice] = fila
+                else -> {
+                    posiciones[clave] = filas.size
+                    filas.add(fila)
+                }
+            }
+        }
+        if (quitar.isEmpty()) return
+        quitar.sortDescending()
+        for (indice in quitar) filas.removeAt(indice)
+        indexar(filas)
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.escaneodematerialeskof.dashboard
+
+import com.example.escaneodematerialeskof.data.inventario.ClaveInventario
+import com.example.escaneodematerialeskof.data.inventario.InventarioEscaneado
+import com.example.escaneodematerialeskof.model.ReglaAlerta
+import com.example.escaneodematerialeskof.model.TipoRegla
+import java.util.TreeMap
+
+/**
+ * Alerta vigente de una regla. Las reglas por fila llevan la [clave] de la fila; las de
+ * [TipoRegla.UBICACION_MULTIPLE] son por SKU y la dejan en null.
+ *
+ * @property valor los pallets de la fila, o cuántas ubicaciones tiene el SKU.
+ * @property ubicacion la ubicación de la fila, o las del SKU separadas por coma.
+ */
+data class AlertaActiva(
+    val regla: ReglaAlerta,
+    val sku: String,
+    val clave: ClaveInventario?,
+    val valor: Int,
+    val tipoTarima: String,
+    val ubicacion: String
+)
+
+/**
+ * Evalúa [reglas] sobre el inventario escaneado fila por fila, conforme cambia.
+ *
+ * Cada regla se compila una vez en un predicado y se indexa por el (almacén, tipo de tarima) al
+ * que aplica. Un cambio en una fila solo evalúa las reglas de su almacén y tarima (más las que
+ * aplican a todos) y agrega o quita sus alertas del conjunto vigente; nunca se recorre el
+ * inventario completo salvo en [cargar]. Las alertas vigentes se guardan ya en el orden de
+ * [activas], así que publicarlas no las vuelve a ordenar.
+ *
+ * No es seguro para usar desde varios hilos.
+ */
+class MotorAlertas(reglas: List<ReglaAlerta>) {
+
+    private class Compilada(val regla: ReglaAlerta, val orden: Int, val cumple: ((InventarioEscaneado) -> Boolean)?)
+
+    private data class Ambito(val almacen: String?, val tipoTarima: String?)
+
+    private data class ClaveAlerta(val regla: Int, val sku: String, val clave: ClaveInventario?)
+
+    private val porAmbito = HashMap<Ambito, MutableList<Compilada>>()
+    private val filas = HashMap<ClaveInventario, InventarioEscaneado>()
+    private val activas = TreeMap<ClaveAlerta, AlertaActiva>(ORDEN_ALERTAS)
+    private val porTipo = IntArray(TipoRegla.values().size)
+
+    // Filas por ubicación de cada SKU, por regla de ubicación múltiple
+    private val ubicaciones = HashMap<ClaveAlerta, HashMap<String, Int>>()
+
+    /** Aumenta cada vez que cambia el conjunto de alertas vigentes. */
+    var version = 0L
+        private set
+
+    init {
+        reglas.forEachIndexed { orden, regla ->
+            val ambito = Ambito(regla.almacen?.let(::normalizarAlmacen), regla.tipoTarima?.let(::normalizarTarima))
+            porAmbito.getOrPut(ambito) { mutableListOf() }.add(Compilada(regla, orden, compilar(regla)))
+        }
+    }
+
+    /**
+     * Reemplaza el inventario completo por [items] y recalcula todas las alertas.
+     */
+    fun cargar(items: List<InventarioEscaneado>) {
+        filas.clear()
+        activas.clear()
+        porTipo.fill(0)
+        ubicaciones.clear()
+        for (item in items) aplicar(item.clave, item)
+        version++
+    }
+
+    /**
+     * Aplica el cambio de una fila: [fila] es su valor nuevo, o null si se eliminó.
+     */
+    fun aplicar(clave: ClaveInventario, fila: InventarioEscaneado?) {
+        val anterior = if (fila != null) filas.put(clave, fila) else filas.remove(clave)
+        if (anterior == null && fila == null) return
+        val almacen = normalizarAlmacen(clave.almacen)
+        val tarima = normalizarTarima(clave.tipoTarima)
+        evaluar(Ambito(almacen, tarima), clave, anterior, fila)
+        evaluar(Ambito(almacen, null), clave, anterior, fila)
+        evaluar(Ambito(null, tarima), clave, anterior, fila)
+        evaluar(Ambito(null, null), clave, anterior, fila)
+    }
+
+    /** Alertas vigentes en el orden de las reglas. */
+    fun activas(): List<AlertaActiva> = ArrayList(activas.values)
+
+    fun cantidad(tipo: TipoRegla): Int = porTipo[tipo.ordinal]
+
+    private fun evaluar(
+        ambito: Ambito,
+        clave: ClaveInventario,
+        anterior: InventarioEscaneado?,
+        fila: InventarioEscaneado?
+    ) {
+        val reglas = porAmbito[ambito] ?: return
+        for (compilada in reglas) {
+            val cumple = compilada.cumple
+            if (cumple != null) {
+                val claveAlerta = ClaveAlerta(compilada.orden, clave.sku, clave)
+                if (fila != null && cumple(fila)) {
+                    poner(claveAlerta, AlertaActiva(compilada.regla, clave.sku, clave, fila.totalPallets, fila.tipoTarima, fila.ubicacion))
+                } else {
+                    quitar(claveAlerta)
+                }
+            } else {
+                actualizarUbicaciones(compilada, clave.sku, anterior?.ubicacion, fila?.ubicacion)
+            }
+        }
+    }
+
+    private fun actualizarUbicaciones(compilada: Compilada, sku: String, anterior: String?, actual: String?) {
+        if (anterior == actual) return
+        val claveAlerta = ClaveAlerta(compilada.orden, sku, null)
+        val conteo = ubicaciones.getOrPut(claveAlerta) { HashMap() }
+        if (anterior != null) {
+            val resto = (conteo[anterior] ?: 0) - 1
+            if (resto > 0) conteo[anterior] = resto else conteo.remove(anterior)
+        }
+        if (actual != null) conteo[actual] = (conteo[actual] ?: 0) + 1
+        if (conteo.isEmpty()) ubicaciones.remove(claveAlerta)
+
+        if (conteo.size > compilada.regla.umbral) {
+            val lista = conteo.keys.sorted()
+            poner(claveAlerta, AlertaActiva(compilada.regla, sku, null, lista.size, "", lista.joinToString(", ")))
+        } else {
+            quitar(claveAlerta)
+        }
+    }
+
+    private fun poner(claveAlerta: ClaveAlerta, alerta: AlertaActiva) {
+        val anterior = activas.put(claveAlerta, alerta)
+        if (anterior == null) porTipo[alerta.regla.tipo.ordinal]++
+        if (anterior != alerta) version++
+    }
+
+    private fun quitar(claveAlerta: ClaveAlerta) {
+        val anterior = activas.remove(claveAlerta) ?: return
+        porTipo[anterior.regla.tipo.ordinal]--
+        version++
+    }
+
+    companion object {
+        // Orden de las reglas, luego SKU y fila; cada parte de la clave cuenta para que dos alertas no empaten
+        private val ORDEN_ALERTAS = compareBy<ClaveAlerta>({ it.regla }, { it.sku })
+            .thenBy(nullsFirst()) { it.clave?.almacen }
+            .thenBy(nullsFirst()) { it.clave?.tipoTarima }
+
+        private fun normalizarAlmacen(almacen: String) = almacen.trim()
+
+        private fun normalizarTarima(tarima: String) = tarima.trim().uppercase()
+
+        /** Predicado de una regla por fila; null para las reglas por SKU. */
+        private fun compilar(regla: ReglaAlerta): ((InventarioEscaneado) -> Boolean)? {
+            val umbral = regla.umbral
+            return when (regla.tipo) {
+                TipoRegla.CANTIDAD_ALTA, TipoRegla.DISCREPANCIA_CRITICA -> { fila -> fila.totalPallets > umbral }
+                TipoRegla.TARIMA_NO_ESTANDAR ->
+                    tarimaFueraDe(regla.tarimasPermitidas.mapTo(HashSet()) { normalizarTarima(it) })
+                TipoRegla.UBICACION_MULTIPLE -> null
+            }
+        }
+
+        private fun tarimaFueraDe(permitidas: Set<String>): (InventarioEscaneado) -> Boolean = { fila ->
+            val tarima = normalizarTarima(fila.tipoTarima)
+            tarima.isNotEmpty() && tarima !in permitidas
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.escaneodematerialeskof.data
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+import androidx.room.Transaction
+import com.example.escaneodematerialeskof.manager.ResumenAlmacenes
+import com.example.escaneodematerialeskof.model.AlmacenCapacidad
+import kotlinx.coroutines.flow.Flow
+
+/**
+ * Acceso a la tabla almacen_capacidad. Cada cambio toca solo la fila del almacén y los totales
+ * del resumen se calculan en SQLite.
+ */
+@Dao
+interface AlmacenCapacidadDao {
+    /** Almacenes en el orden en que se configuraron; emite de nuevo con cada cambio en la tabla. */
+    @Query("SELECT * FROM almacen_capacidad ORDER BY rowid")
+    fun observarTodos(): Flow<List<AlmacenCapacidad>>
+
+    @Query("SELECT * FROM almacen_capacidad ORDER BY rowid")
+    suspend fun obtenerTodos(): List<AlmacenCapacidad>
+
+    @Query("SELECT * FROM almacen_capacidad WHERE nombreAlmacen = :nombre")
+    suspend fun obtener(nombre: String): AlmacenCapacidad?
+
+    @Query("SELECT EXISTS(SELECT 1 FROM almacen_capacidad WHERE nombreAlmacen = :nombre COLLATE NOCASE)")
+    suspend fun existe(nombre: String): Boolean
+
+    @Query(
+        """
+        SELECT COUNT(*) AS totalAlmacenes,
+            COALESCE(SUM(palletsEscaneados), 0) AS totalPalletsEscaneados,
+            COALESCE(SUM(capacidadMaxima), 0) AS totalCapacidadConfigurada,
+            CASE WHEN SUM(capacidadMaxima) > 0
+                THEN SUM(palletsEscaneados) * 100.0 / SUM(capacidadMaxima) ELSE 0.0 END AS saturacionPromedio
+        FROM almacen_capacidad
+        """
+    )
+    fun observarResumen(): Flow<ResumenAlmacenes>
+
+    /** @return el número de filas afectadas (0 si el almacén no existe). */
+    @Query("UPDATE almacen_capacidad SET palletsEscaneados = :pallets WHERE nombreAlmacen = :nombre")
+    suspend fun actualizarPallets(nombre: String, pallets: Int): Int
+
+    @Query(
+        """
+        UPDATE almacen_capacidad SET capacidadMaxima = :capacidadMaxima, palletsEscaneados = :palletsEscaneados
+        WHERE nombreAlmacen = :nombreAlmacen
+        """
+    )
+    suspend fun actualizar(nombreAlmacen: String, capacidadMaxima: Int, palletsEscaneados: Int): Int
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    suspend fun insertar(almacenes: List<AlmacenCapacidad>)
+
+    /**
+     * Actualiza el almacén o lo agrega al final si no existe. No usa REPLACE para que la fila
+     * conserve su rowid y con él su lugar en la lista.
+     */
+    @Transaction
+    suspend fun guardar(almacen: AlmacenCapacidad) {
+        if (actualizar(almacen.nombreAlmacen, almacen.capacidadMaxima, almacen.palletsEscaneados) == 0) {
+            insertar(listOf(almacen))
+        }
+    }
+
+    @Query("DELETE FROM almacen_capacidad WHERE nombreAlmacen = :nombre")
+    suspend fun eliminar(nombre: String)
+}
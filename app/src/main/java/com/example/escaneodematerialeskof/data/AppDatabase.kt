@@ -5,19 +5,76 @@ import androidx.room.Database
 import androidx.room.Room
 import androidx.room.RoomDatabase
 import androidx.room.TypeConverters
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.example.escaneodematerialeskof.data.inventario.ImportacionPendiente
+import com.example.escaneodematerialeskof.data.inventario.InventarioDao
+import com.example.escaneodematerialeskof.data.inventario.InventarioEscaneado
 
 /**
  * The Room database for this app.
  */
-@Database(entities = [ScanHistory::class, com.example.escaneodematerialeskof.model.Pallet::class, com.example.escaneodematerialeskof.model.Rumba::class, com.example.escaneodematerialeskof.model.Restos::class], version = 3, exportSchema = false)
+@Database(entities = [ScanHistory::class, com.example.escaneodematerialeskof.model.Pallet::class, com.example.escaneodematerialeskof.model.Rumba::class, com.example.escaneodematerialeskof.model.Restos::class, InventarioEscaneado::class, ImportacionPendiente::class, com.example.escaneodematerialeskof.model.AlmacenCapacidad::class], version = 6, exportSchema = false)
 @TypeConverters(Converters::class)
 abstract class AppDatabase : RoomDatabase() {
 	abstract fun scanHistoryDao(): ScanHistoryDao
 	abstract fun palletDao(): PalletDao
 	abstract fun rumbaDao(): RumbaDao
 	abstract fun restosDao(): RestosDao
+	abstract fun inventarioDao(): InventarioDao
+	abstract fun almacenCapacidadDao(): AlmacenCapacidadDao
 	
 	companion object {
+		/**
+		 * Agrega la tabla de inventario escaneado sin borrar el historial ni los pallets existentes.
+		 */
+		val MIGRATION_3_4 = object : Migration(3, 4) {
+			override fun migrate(db: SupportSQLiteDatabase) {
+				db.execSQL(
+					"CREATE TABLE IF NOT EXISTS `inventario` (" +
+						"`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `sku` TEXT NOT NULL, " +
+						"`descripcion` TEXT NOT NULL, `cxPal` TEXT NOT NULL, `fpc` TEXT NOT NULL, " +
+						"`con` TEXT NOT NULL, `centro` TEXT NOT NULL, `linea` TEXT NOT NULL, `op` TEXT NOT NULL, " +
+						"`fProd` TEXT NOT NULL, `diasV` TEXT NOT NULL, `ubicacion` TEXT NOT NULL, " +
+						"`totalPallets` INTEGER NOT NULL, `tipoTarima` TEXT NOT NULL, `almacen` TEXT NOT NULL, " +
+						"`chep` INTEGER, `ieqsa` INTEGER, `sams` INTEGER, `comentarioAjuste` TEXT, " +
+						"`actualizado` INTEGER NOT NULL)"
+				)
+				db.execSQL(
+					"CREATE UNIQUE INDEX IF NOT EXISTS `index_inventario_sku_tipoTarima_almacen` " +
+						"ON `inventario` (`sku`, `tipoTarima`, `almacen`)"
+				)
+			}
+		}
+		
+		/**
+		 * Agrega la tabla con el punto de reanudación de la importación de CSV.
+		 */
+		val MIGRATION_4_5 = object : Migration(4, 5) {
+			override fun migrate(db: SupportSQLiteDatabase) {
+				db.execSQL(
+					"CREATE TABLE IF NOT EXISTS `importacion_pendiente` (" +
+						"`id` INTEGER NOT NULL, `origen` TEXT NOT NULL, `firma` TEXT NOT NULL, " +
+						"`registros` INTEGER NOT NULL, `importados` INTEGER NOT NULL, `errores` INTEGER NOT NULL, " +
+						"PRIMARY KEY(`id`))"
+				)
+			}
+		}
+		
+		/**
+		 * Agrega la tabla de capacidad de almacenes. Los almacenes guardados en SharedPreferences
+		 * los copia [com.example.escaneodematerialeskof.manager.AlmacenCapacidadManager] la primera vez.
+		 */
+		val MIGRATION_5_6 = object : Migration(5, 6) {
+			override fun migrate(db: SupportSQLiteDatabase) {
+				db.execSQL(
+					"CREATE TABLE IF NOT EXISTS `almacen_capacidad` (" +
+						"`nombreAlmacen` TEXT NOT NULL, `capacidadMaxima` INTEGER NOT NULL, " +
+						"`palletsEscaneados` INTEGER NOT NULL, PRIMARY KEY(`nombreAlmacen`))"
+				)
+			}
+		}
+		
 		@Volatile
 		private var INSTANCE: AppDatabase? = null
 		
@@ -28,6 +85,7 @@ abstract class AppDatabase : RoomDatabase() {
 					AppDatabase::class.java,
 					"inventory_database"
 				)
+					.addMigrations(MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6)
 					.fallbackToDestructiveMigration()
 					.build()
 				INSTANCE = instance
@@ -0,0 +1,267 @@
+package com.example.escaneodematerialeskof.data.inventario
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.Closeable
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.io.OutputStream
+import java.io.RandomAccessFile
+import java.util.TreeMap
+import java.util.TreeSet
+import java.util.zip.Deflater
+import java.util.zip.DeflaterOutputStream
+import java.util.zip.InflaterInputStream
+
+/**
+ * Pallets contados de un SKU en un conteo cerrado, por almacén, y lo que decía el sistema si se
+ * conocía al cerrar.
+ */
+data class RegistroConteo(
+    val sku: String,
+    val sistema: Int?,
+    val almacenes: Map<String, Int>
+) {
+    val pallets: Int
+        get() = almacenes.values.sum()
+}
+
+data class ResumenConteo(
+    val numero: Long,
+    val cerrado: Long,
+    val skus: Int,
+    val pallets: Long
+)
+
+/**
+ * Cambio de pallets de un SKU entre dos conteos; [almacen] es null cuando se suman todos.
+ */
+data class DiferenciaConteo(
+    val sku: String,
+    val almacen: String?,
+    val anterior: Int,
+    val actual: Int
+) {
+    val diferencia: Int
+        get() = actual - anterior
+}
+
+/**
+ * Formato inmutable de un conteo cerrado, comprimido y con índice para consultar un SKU sin
+ * descomprimir el archivo entero.
+ *
+ * Estructura (versión 1):
+ * - cabecera de tamaño fijo: [MAGIA], [VERSION], número, fecha de cierre, SKUs, pallets, bloques
+ *   y posición del índice
+ * - bloques de hasta [SKUS_POR_BLOQUE] SKUs ordenados, cada uno comprimido con Deflate por separado
+ * - índice: primer SKU, posición, largo y cantidad de SKUs de cada bloque
+ *
+ * Consultar un SKU es una búsqueda binaria en el índice y descomprimir un solo bloque; comparar
+ * dos conteos completos recorre los dos bloque por bloque, con memoria acotada.
+ */
+object ConteoArchivado {
+
+    private const val MAGIA = 0x434F4E54 // "CONT"
+    const val VERSION = 1
+    const val SKUS_POR_BLOQUE = 256
+
+    // MAGIA, VERSION, numero, cerrado, skus, pallets, bloques, posición del índice
+    private const val TAMANO_CABECERA = 4 + 4 + 8 + 8 + 4 + 8 + 4 + 8
+
+    /**
+     * Agrupa [filas] por SKU y almacén y las escribe en [out]. [sistema] son las existencias del
+     * sistema por SKU, si se conocen.
+     */
+    fun escribir(
+        numero: Long,
+        cerrado: Long,
+        filas: List<InventarioEscaneado>,
+        sistema: Map<String, Int>,
+        out: OutputStream
+    ) {
+        val porSku = TreeMap<String, TreeMap<String, Int>>()
+        for (fila in filas) {
+            val almacenes = porSku.getOrPut(fila.sku) { TreeMap() }
+            almacenes[fila.almacen] = (almacenes[fila.almacen] ?: 0) + fila.totalPallets
+        }
+        // Los SKUs del sistema que no se contaron también quedan, con cero pallets
+        for (sku in sistema.keys) porSku.getOrPut(sku) { TreeMap() }
+
+        class Bloque(val primerSku: String, val datos: ByteArray, val skus: Int)
+
+        val bloques = mutableListOf<Bloque>()
+        var pallets = 0L
+        val deflater = Deflater(Deflater.BEST_COMPRESSION)
+        try {
+            for (grupo in porSku.entries.chunked(SKUS_POR_BLOQUE)) {
+                val comprimido = ByteArrayOutputStream()
+                deflater.reset()
+                DataOutputStream(DeflaterOutputStream(comprimido, deflater)).use { datos ->
+                    for ((sku, almacenes) in grupo) {
+                        datos.writeUTF(sku)
+                        datos.writeInt(sistema[sku] ?: SIN_SISTEMA)
+                        datos.writeInt(almacenes.size)
+                        for ((almacen, cantidad) in almacenes) {
+                            datos.writeUTF(almacen)
+                            datos.writeInt(cantidad)
+                            pallets += cantidad
+                        }
+                    }
+                }
+                bloques.add(Bloque(grupo.first().key, comprimido.toByteArray(), grupo.size))
+            }
+        } finally {
+            deflater.end()
+        }
+
+        val salida = DataOutputStream(out)
+        var posicion = TAMANO_CABECERA.toLong()
+        val posiciones = bloques.map { bloque -> posicion.also { posicion += bloque.datos.size } }
+        salida.writeInt(MAGIA)
+        salida.writeInt(VERSION)
+        salida.writeLong(numero)
+        salida.writeLong(cerrado)
+        salida.writeInt(porSku.size)
+        salida.writeLong(pallets)
+        salida.writeInt(bloques.size)
+        salida.writeLong(posicion)
+        for (bloque in bloques) salida.write(bloque.datos)
+        bloques.forEachIndexed { i, bloque ->
+            salida.writeUTF(bloque.primerSku)
+            salida.writeLong(posiciones[i])
+            salida.writeInt(bloque.datos.size)
+            salida.writeInt(bloque.skus)
+        }
+        salida.flush()
+    }
+
+    /**
+     * Cambios por SKU y almacén de [anterior] a [actual], en orden de SKU. Los SKUs que no
+     * cambiaron no aparecen.
+     */
+    fun diferencias(anterior: Lectura, actual: Lectura): List<DiferenciaConteo> {
+        val resultado = mutableListOf<DiferenciaConteo>()
+        val a = anterior.registros().iterator()
+        val b = actual.registros().iterator()
+        var x = if (a.hasNext()) a.next() else null
+        var y = if (b.hasNext()) b.next() else null
+        while (x != null || y != null) {
+            val orden = when {
+                x == null -> 1
+                y == null -> -1
+                else -> x.sku.compareTo(y.sku)
+            }
+            val antes = if (orden <= 0) x else null
+            val despues = if (orden >= 0) y else null
+            agregarDiferencias(antes?.sku ?: despues!!.sku, antes, despues, resultado)
+            if (orden <= 0) x = if (a.hasNext()) a.next() else null
+            if (orden >= 0) y = if (b.hasNext()) b.next() else null
+        }
+        return resultado
+    }
+
+    /**
+     * Cambio de [sku] (en [almacen], o en total si es null) de [anterior] a [actual]. Solo
+     * descomprime un bloque de cada conteo.
+     */
+    fun diferencia(anterior: Lectura, actual: Lectura, sku: String, almacen: String? = null): DiferenciaConteo {
+        fun pallets(registro: RegistroConteo?) =
+            if (almacen == null) registro?.pallets ?: 0 else registro?.almacenes?.get(almacen) ?: 0
+        return DiferenciaConteo(sku, almacen, pallets(anterior.buscar(sku)), pallets(actual.buscar(sku)))
+    }
+
+    private fun agregarDiferencias(
+        sku: String,
+        anterior: RegistroConteo?,
+        actual: RegistroConteo?,
+        resultado: MutableList<DiferenciaConteo>
+    ) {
+        val almacenes = TreeSet<String>()
+        anterior?.let { almacenes.addAll(it.almacenes.keys) }
+        actual?.let { almacenes.addAll(it.almacenes.keys) }
+        for (almacen in almacenes) {
+            val antes = anterior?.almacenes?.get(almacen) ?: 0
+            val despues = actual?.almacenes?.get(almacen) ?: 0
+            if (antes != despues) resultado.add(DiferenciaConteo(sku, almacen, antes, despues))
+        }
+    }
+
+    /**
+     * Un conteo abierto para consultas. La cabecera y el índice se leen al abrir; los bloques,
+     * solo cuando se necesitan.
+     */
+    class Lectura(archivo: File) : Closeable {
+
+        private class Entrada(val primerSku: String, val posicion: Long, val largo: Int, val skus: Int)
+
+        private val raf = RandomAccessFile(archivo, "r")
+        val resumen: ResumenConteo
+        private val indice: List<Entrada>
+
+        init {
+            try {
+                if (raf.readInt() != MAGIA || raf.readInt() != VERSION) throw IOException("Formato de conteo desconocido: ${archivo.name}")
+                val numero = raf.readLong()
+                val cerrado = raf.readLong()
+                val skus = raf.readInt()
+                val pallets = raf.readLong()
+                val bloques = raf.readInt()
+                val posicionIndice = raf.readLong()
+                resumen = ResumenConteo(numero, cerrado, skus, pallets)
+                raf.seek(posicionIndice)
+                indice = List(bloques) {
+                    val primerSku = raf.readUTF()
+                    val posicion = raf.readLong()
+                    val largo = raf.readInt()
+                    Entrada(primerSku, posicion, largo, raf.readInt())
+                }
+            } catch (e: IOException) {
+                raf.close()
+                throw e
+            }
+        }
+
+        fun buscar(sku: String): RegistroConteo? {
+            // Último bloque cuyo primer SKU es <= sku
+            var bajo = 0
+            var alto = indice.size - 1
+            var bloque = -1
+            while (bajo <= alto) {
+                val medio = (bajo + alto) ushr 1
+                if (indice[medio].primerSku <= sku) {
+                    bloque = medio
+                    bajo = medio + 1
+                } else {
+                    alto = medio - 1
+                }
+            }
+            if (bloque < 0) return null
+            return leerBloque(indice[bloque]).firstOrNull { it.sku == sku }
+        }
+
+        fun registros(): Sequence<RegistroConteo> = indice.asSequence().flatMap { leerBloque(it) }
+
+        private fun leerBloque(entrada: Entrada): List<RegistroConteo> {
+            val comprimido = ByteArray(entrada.largo)
+            raf.seek(entrada.posicion)
+            raf.readFully(comprimido)
+            val registros = ArrayList<RegistroConteo>(entrada.skus)
+            DataInputStream(InflaterInputStream(ByteArrayInputStream(comprimido))).use { datos ->
+                repeat(entrada.skus) {
+                    val sku = datos.readUTF()
+                    val sistema = datos.readInt().takeIf { it != SIN_SISTEMA }
+                    val almacenes = LinkedHashMap<String, Int>()
+                    repeat(datos.readInt()) { almacenes[datos.readUTF()] = datos.readInt() }
+                    registros.add(RegistroConteo(sku, sistema, almacenes))
+                }
+            }
+            return registros
+        }
+
+        override fun close() = raf.close()
+    }
+
+    private const val SIN_SISTEMA = Int.MIN_VALUE
+}
@@ -0,0 +1,101 @@
+package com.example.escaneodematerialeskof.data.inventario
+
+import android.content.Context
+import com.example.escaneodematerialeskof.util.ArchivoAtomico
+import com.example.escaneodematerialeskof.util.Constants
+import java.io.File
+import java.io.IOException
+import java.util.Locale
+
+/**
+ * Conteos cerrados, uno por archivo en formato [ConteoArchivado], numerados en el orden en que se
+ * cerraron. Cada reinicio del inventario archiva el conteo que termina en lugar de perderlo.
+ *
+ * Los archivos no se modifican después de escritos; solo se eliminan los más viejos al pasar de
+ * [MAX_CONTEOS]. Las consultas abren los dos conteos involucrados y descomprimen solo los bloques
+ * que necesitan.
+ */
+class HistorialConteos private constructor(private val directorio: File) {
+
+    private val lock = Any()
+
+    /**
+     * Guarda [filas] como un conteo nuevo, con las existencias de [sistema] por SKU si se conocen.
+     * Un conteo sin filas no se archiva.
+     * @return el número del conteo, o null si no se archivó.
+     * @throws IOException si no se pudo escribir; el historial queda como estaba.
+     */
+    fun archivar(filas: List<InventarioEscaneado>, sistema: Map<String, Int> = emptyMap()): Long? {
+        if (filas.isEmpty()) return null
+        synchronized(lock) {
+            directorio.mkdirs()
+            val numero = (numeros().lastOrNull() ?: 0L) + 1
+            ArchivoAtomico.escribirBytes(archivoDe(numero)) { out ->
+                ConteoArchivado.escribir(numero, System.currentTimeMillis(), filas, sistema, out.buffered())
+            }
+            numeros().dropLast(MAX_CONTEOS).forEach { archivoDe(it).delete() }
+            return numero
+        }
+    }
+
+    /**
+     * Resumen de cada conteo archivado, del más viejo al más reciente.
+     */
+    fun conteos(): List<ResumenConteo> = synchronized(lock) {
+        numeros().mapNotNull { numero -> abrir(numero)?.use { it.resumen } }
+    }
+
+    /**
+     * Cambio de [sku] (en [almacen], o en total si es null) entre el conteo [numero] y el anterior.
+     * @return null si alguno de los dos conteos no existe.
+     */
+    fun diferencia(sku: String, numero: Long, almacen: String? = null): DiferenciaConteo? =
+        conPar(numero) { anterior, actual -> ConteoArchivado.diferencia(anterior, actual, sku, almacen) }
+
+    /**
+     * Todos los cambios por SKU y almacén entre el conteo [numero] y el anterior.
+     * @return null si alguno de los dos conteos no existe.
+     */
+    fun diferencias(numero: Long): List<DiferenciaConteo>? =
+        conPar(numero) { anterior, actual -> ConteoArchivado.diferencias(anterior, actual) }
+
+    private fun <T> conPar(numero: Long, consulta: (ConteoArchivado.Lectura, ConteoArchivado.Lectura) -> T): T? =
+        synchronized(lock) {
+            val previo = numeros().lastOrNull { it < numero } ?: return null
+            abrir(previo)?.use { anterior ->
+                abrir(numero)?.use { actual -> consulta(anterior, actual) }
+            }
+        }
+
+    private fun abrir(numero: Long): ConteoArchivado.Lectura? {
+        val archivo = archivoDe(numero)
+        if (!archivo.exists()) return null
+        return ConteoArchivado.Lectura(archivo)
+    }
+
+    private fun numeros(): List<Long> =
+        directorio.listFiles()
+            ?.mapNotNull { PATRON.matchEntire(it.name)?.groupValues?.get(1)?.toLongOrNull() }
+            ?.sorted()
+            .orEmpty()
+
+    private fun archivoDe(numero: Long) = File(directorio, "conteo_%06d.bin".format(Locale.ROOT, numero))
+
+    companion object {
+        // Un año de conteos semanales
+        const val MAX_CONTEOS = 52
+
+        private val PATRON = Regex("""conteo_(\d+)\.bin""")
+
+        @Volatile
+        private var INSTANCE: HistorialConteos? = null
+
+        fun getInstance(context: Context): HistorialConteos {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: HistorialConteos(
+                    File(context.applicationContext.filesDir, Constants.INVENTORY_HISTORY_DIR_NAME)
+                ).also { INSTANCE = it }
+            }
+        }
+    }
+}
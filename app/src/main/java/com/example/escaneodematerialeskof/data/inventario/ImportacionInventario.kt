@@ -0,0 +1,44 @@
+package com.example.escaneodematerialeskof.data.inventario
+
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+/**
+ * Punto de reanudación de la importación de CSV en curso. Hay como máximo una fila; se guarda en
+ * la misma transacción que cada lote importado y se borra con el último.
+ *
+ * [origen] y [firma] identifican el archivo (URI y tamaño); [registros] es cuántos registros del
+ * archivo ya quedaron confirmados, contando encabezado, líneas vacías y registros con error.
+ */
+@Entity(tableName = "importacion_pendiente")
+data class ImportacionPendiente(
+    @PrimaryKey
+    val id: Int = UNICA,
+    val origen: String,
+    val firma: String,
+    val registros: Long,
+    val importados: Long,
+    val errores: Long
+) {
+    companion object {
+        const val UNICA = 1
+    }
+}
+
+/**
+ * Avance de [InventarioRepository.importarCsv], emitido después de cada lote confirmado.
+ *
+ * @property leidos registros del archivo recorridos, incluidos los de una importación anterior
+ *   que se reanudó.
+ * @property registrosPorSegundo ritmo de esta ejecución, sin contar los registros omitidos al reanudar.
+ * @property mensajesError los primeros errores de esta ejecución, con el número de registro.
+ */
+data class AvanceImportacion(
+    val leidos: Long,
+    val importados: Long,
+    val errores: Long,
+    val registrosPorSegundo: Double,
+    val reanudada: Boolean,
+    val terminada: Boolean,
+    val mensajesError: List<String> = emptyList()
+)
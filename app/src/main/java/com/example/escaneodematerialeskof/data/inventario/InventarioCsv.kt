@@ -0,0 +1,180 @@
+package com.example.escaneodematerialeskof.data.inventario
+
+import com.example.escaneodematerialeskof.util.Constants
+import com.example.escaneodematerialeskof.util.DiccionarioTextos
+import com.example.escaneodematerialeskof.util.ExportadorCsv
+import com.example.escaneodematerialeskof.util.LectorCsv
+import java.io.Reader
+import java.io.Writer
+
+/**
+ * Conversión entre la tabla de inventario y el formato CSV de exportación
+ * ([Constants.CSV_HEADER], más las columnas de ajuste cuando alguna fila las tiene).
+ */
+object InventarioCsv {
+
+    /**
+     * Escribe el encabezado y una línea por fila, campo por campo.
+     */
+    fun escribir(items: List<InventarioEscaneado>, out: Writer) {
+        val conAjuste = items.any { it.tieneAjuste }
+        out.write(Constants.CSV_HEADER)
+        if (conAjuste) out.write("," + Constants.CSV_HEADER_AJUSTE)
+        items.forEach { item ->
+            out.write("\n")
+            escribirFila(item, conAjuste, out)
+        }
+    }
+
+    private fun escribirFila(item: InventarioEscaneado, conAjuste: Boolean, out: Writer) {
+        fun campo(valor: String) {
+            out.write(','.code)
+            ExportadorCsv.escribirCampo(out, valor)
+        }
+        ExportadorCsv.escribirCampo(out, item.sku)
+        campo(item.descripcion)
+        campo(item.cxPal)
+        campo(item.fpc)
+        campo(item.con)
+        campo(item.centro)
+        campo(item.linea)
+        campo(item.op)
+        campo(item.fProd)
+        campo(item.diasV)
+        campo(item.ubicacion)
+        campo(item.totalPallets.toString())
+        campo(item.tipoTarima)
+        campo(item.almacen)
+        if (conAjuste) {
+            campo(item.chep?.toString() ?: "")
+            campo(item.ieqsa?.toString() ?: "")
+            campo(item.sams?.toString() ?: "")
+            campo(item.comentarioAjuste ?: "")
+        }
+    }
+
+    /**
+     * Lee las filas de un CSV de inventario, omitiendo encabezado y líneas incompletas.
+     * Las filas se devuelven tal como aparecen; usar [combinar] para acumular claves repetidas.
+     */
+    fun leer(reader: Reader): List<InventarioEscaneado> {
+        val fila = LectorCsv(reader)
+        val filas = mutableListOf<InventarioEscaneado>()
+        while (fila.siguiente()) {
+            if (fila.registroEnBlanco || fila.empiezaCon("SKU")) continue
+            filaDe(fila)?.let { filas.add(it) }
+        }
+        return filas
+    }
+
+    /**
+     * Convierte el registro actual del lector en una fila; null si faltan columnas básicas.
+     * Los textos se comparten con el diccionario de la sesión.
+     */
+    fun filaDe(fila: LectorCsv): InventarioEscaneado? {
+        if (fila.columnas < 12 || fila.enBlanco(0)) return null
+        val textos = DiccionarioTextos.sesion
+        return InventarioEscaneado(
+            sku = fila.texto(0, textos),
+            descripcion = fila.texto(1, textos),
+            cxPal = fila.texto(2, textos),
+            fpc = fila.texto(3, textos),
+            con = fila.texto(4, textos),
+            centro = fila.texto(5, textos),
+            linea = fila.texto(6, textos),
+            op = fila.texto(7, textos),
+            fProd = fila.texto(8, textos),
+            diasV = fila.texto(9, textos),
+            ubicacion = fila.texto(10, textos),
+            totalPallets = fila.entero(11) ?: 0,
+            tipoTarima = fila.texto(12, textos),
+            almacen = fila.texto(13, textos),
+            chep = fila.entero(14),
+            ieqsa = fila.entero(15),
+            sams = fila.entero(16),
+            comentarioAjuste = fila.texto(17).takeIf { it.isNotEmpty() }
+        )
+    }
+
+    /**
+     * Como [filaDe], para importar: recorta los espacios de cada texto y rechaza la fila si le
+     * faltan columnas, no tiene SKU o los pallets no son un entero positivo.
+     * @throws IllegalArgumentException con el motivo del rechazo.
+     */
+    fun filaValidadaDe(fila: LectorCsv): InventarioEscaneado {
+        require(fila.columnas >= 12) { "se esperaban al menos 12 columnas y hay ${fila.columnas}" }
+        val textos = DiccionarioTextos.sesion
+        val sku = fila.textoRecortado(0, textos)
+        require(sku.isNotEmpty()) { "SKU vacío" }
+        val pallets = if (fila.enBlanco(11)) 0 else fila.entero(11)
+        require(pallets != null && pallets >= 0) { "TotalPallets inválido: '${fila.textoRecortado(11)}'" }
+        return InventarioEscaneado(
+            sku = sku,
+            descripcion = fila.textoRecortado(1, textos),
+            cxPal = fila.textoRecortado(2, textos),
+            fpc = fila.textoRecortado(3, textos),
+            con = fila.textoRecortado(4, textos),
+            centro = fila.textoRecortado(5, textos),
+            linea = fila.textoRecortado(6, textos),
+            op = fila.textoRecortado(7, textos),
+            fProd = fila.textoRecortado(8, textos),
+            diasV = fila.textoRecortado(9, textos),
+            ubicacion = fila.textoRecortado(10, textos),
+            totalPallets = pallets,
+            tipoTarima = fila.textoRecortado(12, textos),
+            almacen = fila.textoRecortado(13, textos),
+            chep = fila.entero(14),
+            ieqsa = fila.entero(15),
+            sams = fila.entero(16),
+            comentarioAjuste = fila.textoRecortado(17).takeIf { it.isNotEmpty() }
+        )
+    }
+
+    /**
+     * Acumula las filas con la misma clave (sku, tipoTarima, almacen) sumando sus pallets,
+     * igual que al escanear: los datos descriptivos quedan los de la última fila.
+     */
+    fun combinar(filas: List<InventarioEscaneado>): List<InventarioEscaneado> {
+        val porClave = LinkedHashMap<ClaveInventario, InventarioEscaneado>()
+        for (fila in filas) {
+            val previa = porClave[fila.clave]
+            porClave[fila.clave] = if (previa == null) fila else fila.copy(
+                totalPallets = previa.totalPallets + fila.totalPallets,
+                chep = fila.chep ?: previa.chep,
+                ieqsa = fila.ieqsa ?: previa.ieqsa,
+                sams = fila.sams ?: previa.sams,
+                comentarioAjuste = fila.comentarioAjuste ?: previa.comentarioAjuste
+            )
+        }
+        return porClave.values.toList()
+    }
+
+    /**
+     * Columnas CSV de una fila, en el orden de [Constants.CSV_HEADER].
+     */
+    fun columnasDe(item: InventarioEscaneado, conAjuste: Boolean = false): List<String> {
+        val cols = mutableListOf(
+            item.sku,
+            item.descripcion,
+            item.cxPal,
+            item.fpc,
+            item.con,
+            item.centro,
+            item.linea,
+            item.op,
+            item.fProd,
+            item.diasV,
+            item.ubicacion,
+            item.totalPallets.toString(),
+            item.tipoTarima,
+            item.almacen
+        )
+        if (conAjuste) {
+            cols.add(item.chep?.toString() ?: "")
+            cols.add(item.ieqsa?.toString() ?: "")
+            cols.add(item.sams?.toString() ?: "")
+            cols.add(item.comentarioAjuste ?: "")
+        }
+        return cols
+    }
+}
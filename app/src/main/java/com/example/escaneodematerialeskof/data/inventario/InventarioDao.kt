@@ -0,0 +1,134 @@
+package com.example.escaneodematerialeskof.data.inventario
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+import androidx.room.Update
+
+/**
+ * Data Access Object for the inventario table.
+ */
+@Dao
+interface InventarioDao {
+    @Query("SELECT * FROM inventario ORDER BY id")
+    suspend fun obtenerTodos(): List<InventarioEscaneado>
+
+    @Query("SELECT * FROM inventario WHERE sku = :sku AND tipoTarima = :tipoTarima AND almacen = :almacen")
+    suspend fun buscarPorClave(sku: String, tipoTarima: String, almacen: String): InventarioEscaneado?
+
+    @Query("SELECT COUNT(*) AS filas, MAX(id) AS ultimoId FROM inventario")
+    suspend fun resumen(): ResumenInventario
+
+    @Query("SELECT * FROM inventario ORDER BY id DESC LIMIT 1")
+    suspend fun obtenerUltimo(): InventarioEscaneado?
+
+    /**
+     * Suma [pallets] al acumulado de la clave (sku, tipoTarima, almacen) en una sola sentencia,
+     * creando la fila si no existe. Los datos descriptivos se reemplazan por los del último escaneo
+     * y se conservan el id y los campos de ajuste de la fila existente.
+     *
+     * No se usa `ON CONFLICT DO UPDATE` porque requiere SQLite 3.24 y minSdk 24 incluye 3.9.
+     */
+    @Query(
+        """
+        INSERT OR REPLACE INTO inventario (id, sku, descripcion, cxPal, fpc, con, centro, linea, op, fProd, diasV,
+            ubicacion, totalPallets, tipoTarima, almacen, chep, ieqsa, sams, comentarioAjuste, actualizado)
+        SELECT actual.id, :sku, :descripcion, :cxPal, :fpc, :con, :centro, :linea, :op, :fProd, :diasV,
+            :ubicacion, COALESCE(actual.totalPallets, 0) + :pallets, :tipoTarima, :almacen,
+            actual.chep, actual.ieqsa, actual.sams, actual.comentarioAjuste, :actualizado
+        FROM (SELECT 1) AS uno
+        LEFT JOIN inventario AS actual
+            ON actual.sku = :sku AND actual.tipoTarima = :tipoTarima AND actual.almacen = :almacen
+        """
+    )
+    suspend fun sumarPallets(
+        sku: String,
+        descripcion: String,
+        cxPal: String,
+        fpc: String,
+        con: String,
+        centro: String,
+        linea: String,
+        op: String,
+        fProd: String,
+        diasV: String,
+        ubicacion: String,
+        pallets: Int,
+        tipoTarima: String,
+        almacen: String,
+        actualizado: Long
+    )
+
+    /**
+     * Resta [pallets] al acumulado de la clave sin bajar de cero.
+     * @return el número de filas afectadas (0 o 1).
+     */
+    @Query(
+        """
+        UPDATE inventario SET totalPallets = MAX(totalPallets - :pallets, 0), actualizado = :actualizado
+        WHERE sku = :sku AND tipoTarima = :tipoTarima AND almacen = :almacen
+        """
+    )
+    suspend fun restarPallets(sku: String, tipoTarima: String, almacen: String, pallets: Int, actualizado: Long): Int
+
+    /**
+     * Como [sumarPallets], para una fila importada: los campos de ajuste de la fila importada
+     * reemplazan a los existentes solo cuando no son nulos, igual que [InventarioCsv.combinar].
+     */
+    @Query(
+        """
+        INSERT OR REPLACE INTO inventario (id, sku, descripcion, cxPal, fpc, con, centro, linea, op, fProd, diasV,
+            ubicacion, totalPallets, tipoTarima, almacen, chep, ieqsa, sams, comentarioAjuste, actualizado)
+        SELECT actual.id, :sku, :descripcion, :cxPal, :fpc, :con, :centro, :linea, :op, :fProd, :diasV,
+            :ubicacion, COALESCE(actual.totalPallets, 0) + :pallets, :tipoTarima, :almacen,
+            COALESCE(:chep, actual.chep), COALESCE(:ieqsa, actual.ieqsa), COALESCE(:sams, actual.sams),
+            COALESCE(:comentarioAjuste, actual.comentarioAjuste), :actualizado
+        FROM (SELECT 1) AS uno
+        LEFT JOIN inventario AS actual
+            ON actual.sku = :sku AND actual.tipoTarima = :tipoTarima AND actual.almacen = :almacen
+        """
+    )
+    suspend fun acumularImportado(
+        sku: String,
+        descripcion: String,
+        cxPal: String,
+        fpc: String,
+        con: String,
+        centro: String,
+        linea: String,
+        op: String,
+        fProd: String,
+        diasV: String,
+        ubicacion: String,
+        pallets: Int,
+        tipoTarima: String,
+        almacen: String,
+        chep: Int?,
+        ieqsa: Int?,
+        sams: Int?,
+        comentarioAjuste: String?,
+        actualizado: Long
+    )
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun insertarTodos(items: List<InventarioEscaneado>)
+
+    @Update
+    suspend fun actualizar(item: InventarioEscaneado)
+
+    @Query("DELETE FROM inventario WHERE id = :id")
+    suspend fun eliminarPorId(id: Long)
+
+    @Query("DELETE FROM inventario")
+    suspend fun eliminarTodos()
+
+    @Query("SELECT * FROM importacion_pendiente WHERE id = 1")
+    suspend fun obtenerImportacion(): ImportacionPendiente?
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun guardarImportacion(importacion: ImportacionPendiente)
+
+    @Query("DELETE FROM importacion_pendiente")
+    suspend fun borrarImportacion()
+}
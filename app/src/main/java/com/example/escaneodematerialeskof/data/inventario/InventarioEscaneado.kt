@@ -0,0 +1,127 @@
+package com.example.escaneodematerialeskof.data.inventario
+
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
+import com.example.escaneodematerialeskof.model.MaterialItem
+
+/**
+ * Clave compuesta con la que se acumulan los pallets escaneados.
+ */
+data class ClaveInventario(
+    val sku: String,
+    val tipoTarima: String,
+    val almacen: String
+) {
+    companion object {
+        fun de(material: MaterialItem) =
+            ClaveInventario(material.sku, material.tipoTarima ?: "", material.almacen ?: "")
+    }
+}
+
+/**
+ * Cambio de una fila de [InventarioRepository.inventario], publicado en [InventarioRepository.cambios].
+ *
+ * [secuencia] crece de uno en uno; un salto indica que el suscriptor perdió cambios y debe
+ * volver a leer la lista completa. [fila] es el estado de la fila después del cambio, así que
+ * aplicar dos veces el mismo cambio no altera el resultado.
+ *
+ * @property fila null si la fila se eliminó.
+ * @property reinicio la lista se reemplazó completa (carga, importación o reinicio); [clave] y
+ *   [fila] son null y el estado nuevo está en [InventarioRepository.inventario].
+ */
+data class CambioInventario(
+    val secuencia: Long,
+    val clave: ClaveInventario?,
+    val fila: InventarioEscaneado?,
+    val reinicio: Boolean = false
+)
+
+/**
+ * Número de filas e id más alto de la tabla; detecta un snapshot del inventario que ya no
+ * corresponde a la base de datos (por ejemplo, después de una migración destructiva).
+ */
+data class ResumenInventario(
+    val filas: Int,
+    val ultimoId: Long?
+)
+
+/**
+ * Fila del inventario escaneado: una por cada (sku, tipoTarima, almacen).
+ * [totalPallets] es el acumulado de todos los escaneos de esa clave.
+ *
+ * Los campos de ajuste ([chep], [ieqsa], [sams], [comentarioAjuste]) solo se llenan
+ * desde la pantalla de ajuste de inventario.
+ */
+@Entity(
+    tableName = "inventario",
+    indices = [Index(value = ["sku", "tipoTarima", "almacen"], unique = true)]
+)
+data class InventarioEscaneado(
+    @PrimaryKey(autoGenerate = true)
+    val id: Long = 0,
+    val sku: String,
+    val descripcion: String = "",
+    val cxPal: String = "",
+    val fpc: String = "",
+    val con: String = "",
+    val centro: String = "",
+    val linea: String = "",
+    val op: String = "",
+    val fProd: String = "",
+    val diasV: String = "",
+    val ubicacion: String = "",
+    val totalPallets: Int = 0,
+    val tipoTarima: String = "",
+    val almacen: String = "",
+    val chep: Int? = null,
+    val ieqsa: Int? = null,
+    val sams: Int? = null,
+    val comentarioAjuste: String? = null,
+    val actualizado: Long = System.currentTimeMillis()
+) {
+    val clave: ClaveInventario
+        get() = ClaveInventario(sku, tipoTarima, almacen)
+
+    val tieneAjuste: Boolean
+        get() = chep != null || ieqsa != null || sams != null || comentarioAjuste != null
+
+    fun toMaterialItem() = MaterialItem(
+        sku = sku,
+        descripcion = descripcion,
+        cxPal = cxPal,
+        fpc = fpc,
+        con = con,
+        centro = centro,
+        linea = linea,
+        op = op,
+        fProd = fProd,
+        diasV = diasV,
+        ubicacion = ubicacion,
+        totalPallets = totalPallets.toString(),
+        tipoTarima = tipoTarima,
+        almacen = almacen
+    )
+
+    companion object {
+        /**
+         * Crea una fila a partir de un material; [totalPallets] se toma tal cual del material.
+         */
+        fun de(material: MaterialItem) = InventarioEscaneado(
+            sku = material.sku,
+            descripcion = material.descripcion,
+            cxPal = material.cxPal,
+            fpc = material.fpc,
+            con = material.con,
+            centro = material.centro,
+            linea = material.linea,
+            op = material.op,
+            fProd = material.fProd,
+            diasV = material.diasV,
+            ubicacion = material.ubicacion ?: "",
+            totalPallets = material.totalPallets?.toIntOrNull() ?: 0,
+            tipoTarima = material.tipoTarima ?: "",
+            almacen = material.almacen ?: ""
+        )
+    }
+}
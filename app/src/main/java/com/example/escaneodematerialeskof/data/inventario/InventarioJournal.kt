@@ -0,0 +1,197 @@
+package com.example.escaneodematerialeskof.data.inventario
+
+import android.content.Context
+import com.example.escaneodematerialeskof.util.CSVUtils
+import com.example.escaneodematerialeskof.util.Constants
+import com.example.escaneodematerialeskof.util.LectorCsv
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.io.Writer
+
+/**
+ * Operaciones que se registran en el journal de inventario.
+ */
+enum class TipoEvento {
+    ESCANEO,
+    AJUSTE,
+
+    /** Compensa un [ESCANEO] anterior; su delta es el negativo del escaneo deshecho. */
+    DESHACER
+}
+
+/**
+ * Entrada del journal: cuánto cambió el acumulado de una clave y cuál quedó.
+ */
+data class EventoInventario(
+    val fecha: Long,
+    val tipo: TipoEvento,
+    val clave: ClaveInventario,
+    val delta: Int,
+    val acumulado: Int
+)
+
+/**
+ * Bitácora de solo escritura al final con cada operación sobre el inventario.
+ *
+ * El estado vive en la tabla `inventario` de Room; el journal solo conserva el historial de
+ * escaneos en el orden en que ocurrieron, con el acumulado resultante de cada uno.
+ *
+ * Cada llamada a [registrarTodos] termina con un fsync, así que un lote confirmado sobrevive a que
+ * el proceso muera. Si muere a media escritura, la última línea puede quedar incompleta;
+ * [reparar] la recorta leyendo solo el final del archivo.
+ */
+class InventarioJournal private constructor(directorio: File) {
+
+    private val archivo = File(directorio, Constants.INVENTORY_EVENTS_FILE_NAME)
+
+    private val lock = Any()
+    private var salida: FileOutputStream? = null
+    private var writer: Writer? = null
+
+    /**
+     * Agrega varios eventos con una sola escritura al archivo.
+     * @throws IOException si no se pudo escribir.
+     */
+    fun registrarTodos(eventos: List<EventoInventario>) {
+        if (eventos.isEmpty()) return
+        synchronized(lock) {
+            val out = writer ?: abrir()
+            for (evento in eventos) {
+                out.write(formatear(evento))
+                out.write("\n")
+            }
+            out.flush()
+            salida?.fd?.sync()
+        }
+    }
+
+    /**
+     * Recorta una línea final incompleta o ilegible que haya dejado un cierre inesperado.
+     * Debe llamarse antes de la primera escritura del proceso.
+     * @return los bytes eliminados.
+     */
+    fun reparar(): Long = synchronized(lock) {
+        cerrarWriter()
+        repararCola(archivo)
+    }
+
+    private fun abrir(): Writer {
+        val stream = FileOutputStream(archivo, true)
+        salida = stream
+        return stream.bufferedWriter(Charsets.UTF_8).also { writer = it }
+    }
+
+    /**
+     * Elimina el journal, por ejemplo al resetear o reemplazar el inventario.
+     */
+    fun reiniciar() {
+        synchronized(lock) {
+            cerrarWriter()
+            archivo.delete()
+        }
+    }
+
+    private fun cerrarWriter() {
+        try {
+            writer?.close()
+        } catch (_: IOException) {
+        }
+        writer = null
+        salida = null
+    }
+
+    companion object {
+        @Volatile
+        private var INSTANCE: InventarioJournal? = null
+
+        fun getInstance(context: Context): InventarioJournal {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: InventarioJournal(context.applicationContext.filesDir).also { INSTANCE = it }
+            }
+        }
+
+        /**
+         * Formato de línea: fecha,tipo,sku,tipoTarima,almacen,delta,acumulado
+         */
+        fun formatear(evento: EventoInventario): String = listOf(
+            evento.fecha.toString(),
+            evento.tipo.name,
+            evento.clave.sku,
+            evento.clave.tipoTarima,
+            evento.clave.almacen,
+            evento.delta.toString(),
+            evento.acumulado.toString()
+        ).joinToString(",") { CSVUtils.escapeForCsv(it) }
+
+        /**
+         * Deja [archivo] terminando en la última línea completa y legible. Solo lee hacia atrás
+         * desde el final, unos cuantos bloques, sin importar el tamaño del journal.
+         * @return los bytes eliminados.
+         */
+        fun repararCola(archivo: File): Long {
+            if (!archivo.exists()) return 0
+            RandomAccessFile(archivo, "rw").use { raf ->
+                val original = raf.length()
+                // Lo que sigue al último salto de línea no alcanzó a escribirse completo
+                var fin = inicioDeLinea(raf, original)
+                var revisadas = 0
+                while (fin > 0 && revisadas < MAX_LINEAS_REVISADAS) {
+                    val inicio = inicioDeLinea(raf, fin - 1)
+                    val bytes = ByteArray((fin - 1 - inicio).toInt())
+                    raf.seek(inicio)
+                    raf.readFully(bytes)
+                    val linea = String(bytes, Charsets.UTF_8)
+                    if (linea.isBlank() || parsear(linea) != null) break
+                    fin = inicio
+                    revisadas++
+                }
+                if (fin < original) {
+                    raf.setLength(fin)
+                    raf.fd.sync()
+                }
+                return original - fin
+            }
+        }
+
+        /**
+         * Posición siguiente al último '\n' antes de [limite], o 0 si no hay ninguno.
+         */
+        private fun inicioDeLinea(raf: RandomAccessFile, limite: Long): Long {
+            val buffer = ByteArray(TAMANO_BLOQUE)
+            var fin = limite
+            while (fin > 0) {
+                val inicio = maxOf(0L, fin - buffer.size)
+                val n = (fin - inicio).toInt()
+                raf.seek(inicio)
+                raf.readFully(buffer, 0, n)
+                for (i in n - 1 downTo 0) {
+                    if (buffer[i] == '\n'.code.toByte()) return inicio + i + 1
+                }
+                fin = inicio
+            }
+            return 0
+        }
+
+        private const val TAMANO_BLOQUE = 1024
+        private const val MAX_LINEAS_REVISADAS = 8
+
+        fun parsear(linea: String): EventoInventario? {
+            if (linea.isBlank()) return null
+            return eventoDe(LectorCsv().analizar(linea))
+        }
+
+        private fun eventoDe(fila: LectorCsv): EventoInventario? {
+            if (fila.columnas < 7) return null
+            val tipo = fila.texto(1)
+            return EventoInventario(
+                fecha = fila.enteroLargo(0) ?: return null,
+                tipo = TipoEvento.values().firstOrNull { it.name == tipo } ?: return null,
+                clave = ClaveInventario(fila.texto(2), fila.texto(3), fila.texto(4)),
+                delta = fila.entero(5) ?: return null,
+                acumulado = fila.entero(6) ?: return null
+            )
+        }
+    }
+}
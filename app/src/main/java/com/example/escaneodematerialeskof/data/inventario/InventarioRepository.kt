@@ -0,0 +1,757 @@
+package com.example.escaneodematerialeskof.data.inventario
+
+import android.content.Context
+import android.util.Log
+import androidx.room.withTransaction
+import com.example.escaneodematerialeskof.data.AppDatabase
+import com.example.escaneodematerialeskof.data.ScanHistory
+import com.example.escaneodematerialeskof.model.MaterialItem
+import com.example.escaneodematerialeskof.util.ArchivoAtomico
+import com.example.escaneodematerialeskof.util.Constants
+import com.example.escaneodematerialeskof.util.DiccionarioTextos
+import com.example.escaneodematerialeskof.util.ExportadorCsv
+import com.example.escaneodematerialeskof.util.LectorCsv
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asSharedFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.flow.onSubscription
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.InputStreamReader
+import java.io.OutputStream
+import java.util.Collections
+
+/**
+ * Punto de acceso único al inventario escaneado.
+ *
+ * La tabla `inventario` de Room es la fuente de verdad; cada escaneo es un upsert atómico
+ * por (sku, tipoTarima, almacen) y además se registra en el [InventarioJournal].
+ * El CSV ya no se mantiene al día: se genera bajo demanda para exportar o enviar por correo.
+ *
+ * El inventario se carga de Room una sola vez por proceso y se publica como una lista inmutable
+ * en [inventario]. Cada cambio actualiza la base de datos y luego reemplaza solo la fila afectada
+ * en la lista, así que las pantallas leen de memoria sin volver a consultar el disco.
+ *
+ * Los escaneos se encolan y se confirman por lotes: el primero de una ráfaga espera
+ * [maxRetrasoLoteMs] a que lleguen más y todos se escriben en una sola transacción, con una
+ * sola escritura del journal. Cada fila que cambia se anuncia además en [cambios].
+ *
+ * Para que el arranque no dependa de leer toda la tabla, la lista también se guarda en un
+ * [InventarioSnapshot] unos segundos después del último cambio. Cualquier cambio borra el
+ * snapshot antes de escribir en Room, y al cargar se compara con [InventarioDao.resumen];
+ * si no coincide se lee de Room.
+ */
+class InventarioRepository private constructor(context: Context) {
+
+    private val appContext = context.applicationContext
+    private val database = AppDatabase.getDatabase(appContext)
+    private val dao = database.inventarioDao()
+    private val scanHistoryDao = database.scanHistoryDao()
+    private val journal = InventarioJournal.getInstance(appContext)
+    private val historial = HistorialConteos.getInstance(appContext)
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    // Serializa la carga y los cambios para que la lista publicada siga el orden de la base de datos
+    private val mutex = Mutex()
+
+    @Volatile
+    private var cargado = false
+
+    private val _inventario = MutableStateFlow<List<InventarioEscaneado>>(emptyList())
+    val inventario: StateFlow<List<InventarioEscaneado>> = _inventario.asStateFlow()
+
+    // Se emite con [mutex] tomado, en el mismo orden en que cambia la lista publicada
+    private val _cambios = MutableSharedFlow<CambioInventario>(
+        extraBufferCapacity = CAPACIDAD_CAMBIOS,
+        onBufferOverflow = BufferOverflow.DROP_OLDEST
+    )
+
+    /**
+     * Un [CambioInventario] por cada fila que cambia en [inventario], para que las pantallas
+     * apliquen solo la diferencia en lugar de recorrer la lista completa.
+     */
+    val cambios: SharedFlow<CambioInventario> = _cambios.asSharedFlow()
+    private var secuenciaCambios = 0L
+
+    // Posición de cada clave en la lista publicada
+    private val indicePorClave = HashMap<ClaveInventario, Int>()
+
+    private val archivoSnapshot = File(appContext.filesDir, Constants.INVENTORY_SNAPSHOT_FILE_NAME)
+
+    // Cambios aplicados desde que arrancó el proceso; un snapshot solo se instala si no hubo otro
+    private var version = 0L
+    private var escrituraSnapshot: Job? = null
+
+    // Escaneos confirmados en esta sesión que aún se pueden deshacer; el último es el más reciente
+    private val escaneosDeshacibles = ArrayDeque<EventoInventario>()
+
+    private class EscaneoPendiente(val material: MaterialItem, val resultado: CompletableDeferred<Int>)
+
+    private val escaneosPendientes = Channel<EscaneoPendiente>(Channel.UNLIMITED)
+
+    /**
+     * Tiempo máximo que un escaneo espera en la cola a que se junten otros en su lote.
+     */
+    @Volatile
+    var maxRetrasoLoteMs = RETRASO_LOTE_MS
+
+    private val escritorLotes = scope.launch(start = CoroutineStart.LAZY) {
+        for (primero in escaneosPendientes) {
+            delay(maxRetrasoLoteMs)
+            val lote = arrayListOf(primero)
+            while (lote.size < MAX_ESCANEOS_POR_LOTE) {
+                lote.add(escaneosPendientes.tryReceive().getOrNull() ?: break)
+            }
+            try {
+                val acumulados = confirmarLote(lote.map { it.material })
+                lote.forEachIndexed { i, pendiente -> pendiente.resultado.complete(acumulados[i]) }
+            } catch (e: Exception) {
+                Log.e(TAG, "Error al guardar el lote de ${lote.size} escaneos: ${e.message}")
+                lote.forEach { it.resultado.completeExceptionally(e) }
+            }
+        }
+    }
+
+    /**
+     * Suma los pallets del material al acumulado de su clave. El escaneo se guarda junto con los
+     * que lleguen en los siguientes [maxRetrasoLoteMs]; la función regresa cuando su lote ya
+     * está confirmado en la base de datos.
+     * @return el acumulado resultante.
+     */
+    suspend fun registrarEscaneo(material: MaterialItem): Int {
+        val pendiente = EscaneoPendiente(material, CompletableDeferred())
+        escaneosPendientes.send(pendiente)
+        escritorLotes.start()
+        return pendiente.resultado.await()
+    }
+
+    /**
+     * Devuelve el inventario actual; solo consulta Room la primera vez.
+     */
+    suspend fun obtenerTodos(): List<InventarioEscaneado> {
+        asegurarCargado()
+        return _inventario.value
+    }
+
+    /**
+     * Versión síncrona de [obtenerTodos] para las funciones que aún no son suspend.
+     * Solo bloquea (en [Dispatchers.IO]) si el inventario no se ha cargado.
+     */
+    fun obtenerTodosBloqueante(): List<InventarioEscaneado> {
+        if (cargado) return _inventario.value
+        return runBlocking(Dispatchers.IO) { obtenerTodos() }
+    }
+
+    /**
+     * Mantiene un estado derivado del inventario con [cambios]; no regresa mientras dure la
+     * suscripción. [recargar] lee el inventario completo y corre ya suscrito, así que los cambios
+     * que lleguen durante la carga se aplican después; vuelve a correr en cada reinicio o salto
+     * de [CambioInventario.secuencia]. Los demás cambios se pasan a [aplicar]. Ambos corren con
+     * [mutex] tomado.
+     */
+    suspend fun seguirCambios(
+        mutex: Mutex,
+        recargar: suspend () -> Unit,
+        aplicar: (ClaveInventario, InventarioEscaneado?) -> Unit
+    ) {
+        var ultimaSecuencia = -1L
+        cambios
+            .onSubscription { mutex.withLock { recargar() } }
+            .collect { cambio ->
+                mutex.withLock {
+                    val perdidos = ultimaSecuencia >= 0 && cambio.secuencia != ultimaSecuencia + 1
+                    ultimaSecuencia = cambio.secuencia
+                    val clave = cambio.clave
+                    if (cambio.reinicio || perdidos || clave == null) recargar() else aplicar(clave, cambio.fila)
+                }
+            }
+    }
+
+    suspend fun buscarPorSku(sku: String): List<InventarioEscaneado> {
+        return obtenerTodos().filter { it.sku == sku }
+    }
+
+    /**
+     * Inicia la carga del inventario en segundo plano para que la primera pantalla no espere.
+     */
+    fun precargar() {
+        if (cargado) return
+        scope.launch {
+            try {
+                asegurarCargado()
+            } catch (e: Exception) {
+                Log.e(TAG, "Error al precargar el inventario: ${e.message}")
+            }
+        }
+    }
+
+    /**
+     * Guarda los cambios hechos a una fila existente (por ejemplo, desde el ajuste de inventario).
+     */
+    suspend fun actualizar(item: InventarioEscaneado) {
+        asegurarCargado()
+        val actualizado = item.copy(actualizado = System.currentTimeMillis())
+        val anterior = mutex.withLock {
+            invalidarSnapshot()
+            val anterior = indicePorClave[item.clave]?.let { _inventario.value[it] }
+            dao.actualizar(actualizado)
+            aplicar(listOf(actualizado))
+            anterior
+        }
+        val delta = actualizado.totalPallets - (anterior?.totalPallets ?: 0)
+        registrarEvento(TipoEvento.AJUSTE, actualizado.clave, delta, actualizado.totalPallets)
+        programarSnapshot()
+    }
+
+    /**
+     * Deshace el último escaneo de la sesión que no se haya deshecho: resta sus pallets a la
+     * clave que afectó, aunque se hubiera sumado a una fila existente, y registra la
+     * compensación en el journal. Si el escaneo creó la fila, la fila se elimina.
+     * Llamadas sucesivas deshacen escaneos anteriores, hasta [MAX_ESCANEOS_DESHACIBLES].
+     * @return el evento de compensación o null si no hay escaneos por deshacer.
+     */
+    suspend fun deshacerUltimoEscaneo(): EventoInventario? {
+        asegurarCargado()
+        val compensacion = mutex.withLock {
+            val escaneo = escaneosDeshacibles.removeLastOrNull() ?: return null
+            invalidarSnapshot()
+            val clave = escaneo.clave
+            val ahora = System.currentTimeMillis()
+            val fila = database.withTransaction {
+                dao.restarPallets(clave.sku, clave.tipoTarima, clave.almacen, escaneo.delta, ahora)
+                val fila = dao.buscarPorClave(clave.sku, clave.tipoTarima, clave.almacen)
+                val creadaPorEscaneo = escaneo.acumulado == escaneo.delta
+                if (fila != null && creadaPorEscaneo && fila.totalPallets <= 0 && !fila.tieneAjuste) {
+                    dao.eliminarPorId(fila.id)
+                    null
+                } else {
+                    fila
+                }
+            }
+            if (fila != null) {
+                aplicar(listOf(fila))
+            } else {
+                indicePorClave[clave]?.let { quitar(_inventario.value[it]) }
+            }
+            EventoInventario(ahora, TipoEvento.DESHACER, clave, -escaneo.delta, fila?.totalPallets ?: 0)
+        }
+        registrarEventos(listOf(compensacion))
+        programarSnapshot()
+        return compensacion
+    }
+
+    /**
+     * Importa un CSV de inventario que reemplaza al actual, leyéndolo como flujo para que la
+     * memoria no dependa del tamaño del archivo.
+     *
+     * Cada registro se valida con [InventarioCsv.filaValidadaDe] y los válidos se confirman en
+     * transacciones de [tamanoLote]; las claves repetidas se acumulan como en [InventarioCsv.combinar].
+     * Después de cada lote se emite un [AvanceImportacion].
+     *
+     * Cada transacción guarda también un [ImportacionPendiente]. Si la importación se interrumpe,
+     * volver a importar el mismo [origen] con la misma [firma] continúa después del último lote
+     * confirmado en lugar de empezar de nuevo. Mientras tanto se publica lo que quedó en Room, para
+     * que los escaneos que lleguen antes de reanudar partan de la tabla y no del inventario anterior.
+     *
+     * @param abrir abre el archivo desde el principio.
+     */
+    fun importarCsv(
+        origen: String,
+        firma: String,
+        tamanoLote: Int = TAMANO_LOTE_IMPORTACION,
+        abrir: () -> InputStream
+    ): Flow<AvanceImportacion> = flow {
+        asegurarCargado()
+        // Los textos del inventario que se reemplaza ya no se repetirán
+        DiccionarioTextos.sesion.limpiar()
+        val pendiente = dao.obtenerImportacion()?.takeIf { it.origen == origen && it.firma == firma }
+        val omitir = pendiente?.registros ?: 0L
+        var leidos = 0L
+        var importados = pendiente?.importados ?: 0L
+        var errores = pendiente?.errores ?: 0L
+        var iniciada = pendiente != null
+        val mensajes = ArrayList<String>()
+        val lote = ArrayList<InventarioEscaneado>(tamanoLote)
+        val inicio = System.currentTimeMillis()
+
+        fun avance(terminada: Boolean): AvanceImportacion {
+            val segundos = (System.currentTimeMillis() - inicio).coerceAtLeast(1) / 1000.0
+            return AvanceImportacion(
+                leidos = leidos,
+                importados = importados,
+                errores = errores,
+                registrosPorSegundo = (leidos - omitir) / segundos,
+                reanudada = pendiente != null,
+                terminada = terminada,
+                mensajesError = mensajes.toList()
+            )
+        }
+
+        // true mientras Room tiene lotes de esta importación que la lista publicada aún no refleja
+        var sinPublicar = false
+
+        try {
+            abrir().use { entrada ->
+                val fila = LectorCsv(InputStreamReader(entrada, Charsets.UTF_8))
+                val alterna = LectorCsv()
+                while (leidos < omitir && fila.siguiente()) leidos++
+                while (fila.siguiente()) {
+                    leidos++
+                    if (fila.registroEnBlanco || fila.empiezaCon("SKU,")) continue
+                    try {
+                        lote.add(InventarioCsv.filaValidadaDe(formatoRumba(fila, alterna)))
+                        importados++
+                    } catch (e: IllegalArgumentException) {
+                        errores++
+                        if (mensajes.size < MAX_MENSAJES_ERROR) mensajes.add("Registro $leidos: ${e.message}")
+                    }
+                    if (lote.size == tamanoLote) {
+                        val progreso = ImportacionPendiente(origen = origen, firma = firma, registros = leidos, importados = importados, errores = errores)
+                        confirmarImportacion(lote, progreso, primera = !iniciada)
+                        iniciada = true
+                        sinPublicar = true
+                        lote.clear()
+                        emit(avance(terminada = false))
+                    }
+                }
+            }
+            // Un archivo sin registros válidos (solo encabezado, o todos con error) no reemplaza el inventario
+            if (iniciada || lote.isNotEmpty()) confirmarImportacion(lote, null, primera = !iniciada)
+            sinPublicar = false
+        } finally {
+            // Cancelada o con error a mitad: se publica la importación parcial que quedó en Room
+            if (sinPublicar) withContext(NonCancellable) { mutex.withLock { publicar(dao.obtenerTodos()) } }
+        }
+        emit(avance(terminada = true))
+    }.flowOn(Dispatchers.IO)
+
+    /**
+     * Confirma un lote de la importación. La primera transacción vacía la tabla; [progreso] null
+     * indica el último lote, que borra el punto de reanudación y publica el inventario importado.
+     */
+    private suspend fun confirmarImportacion(lote: List<InventarioEscaneado>, progreso: ImportacionPendiente?, primera: Boolean) {
+        val ahora = System.currentTimeMillis()
+        mutex.withLock {
+            invalidarSnapshot()
+            database.withTransaction {
+                if (primera) dao.eliminarTodos()
+                InventarioCsv.combinar(lote).forEach { fila ->
+                    dao.acumularImportado(
+                        sku = fila.sku,
+                        descripcion = fila.descripcion,
+                        cxPal = fila.cxPal,
+                        fpc = fila.fpc,
+                        con = fila.con,
+                        centro = fila.centro,
+                        linea = fila.linea,
+                        op = fila.op,
+                        fProd = fila.fProd,
+                        diasV = fila.diasV,
+                        ubicacion = fila.ubicacion,
+                        pallets = fila.totalPallets,
+                        tipoTarima = fila.tipoTarima,
+                        almacen = fila.almacen,
+                        chep = fila.chep,
+                        ieqsa = fila.ieqsa,
+                        sams = fila.sams,
+                        comentarioAjuste = fila.comentarioAjuste,
+                        actualizado = ahora
+                    )
+                }
+                if (progreso != null) dao.guardarImportacion(progreso) else dao.borrarImportacion()
+            }
+            if (primera) escaneosDeshacibles.clear()
+            // Mientras dura la importación la lista publicada no se toca; al final se lee completa
+            if (progreso == null) publicar(dao.obtenerTodos())
+        }
+        if (primera) journal.reiniciar()
+        if (progreso == null) programarSnapshot()
+    }
+
+    /**
+     * Elimina el inventario completo, el journal y el último CSV generado. El conteo que se
+     * elimina queda antes en el [HistorialConteos].
+     */
+    suspend fun reiniciar() {
+        asegurarCargado()
+        mutex.withLock {
+            archivarConteo(_inventario.value)
+            invalidarSnapshot()
+            // Juntas: una tabla vacía con un punto de reanudación haría que la siguiente importación
+            // continuara sobre un inventario ya borrado
+            database.withTransaction {
+                dao.eliminarTodos()
+                dao.borrarImportacion()
+            }
+            publicar(emptyList())
+            escaneosDeshacibles.clear()
+        }
+        DiccionarioTextos.sesion.limpiar()
+        journal.reiniciar()
+        borrarArchivosCsv()
+    }
+
+    private fun archivarConteo(filas: List<InventarioEscaneado>) {
+        try {
+            historial.archivar(filas)?.let { Log.i(TAG, "Conteo $it archivado: ${filas.size} filas") }
+        } catch (e: IOException) {
+            // El reinicio sigue; perder el histórico no debe impedir empezar un conteo nuevo
+            Log.e(TAG, "Error al archivar el conteo: ${e.message}")
+        }
+    }
+
+    /**
+     * Escribe el inventario en formato CSV en [out], directo desde la lista en memoria.
+     */
+    suspend fun exportarCsv(
+        out: OutputStream,
+        compresion: ExportadorCsv.Compresion = ExportadorCsv.Compresion.NINGUNA
+    ): ExportadorCsv.Resultado {
+        val items = obtenerTodos()
+        return ExportadorCsv.exportar(out, Constants.INVENTORY_FILE_NAME, compresion) { writer ->
+            InventarioCsv.escribir(items, writer)
+            items.size
+        }
+    }
+
+    /**
+     * Genera [Constants.INVENTORY_FILE_NAME] con el inventario actual, para compartirlo. Con
+     * muchas filas se genera comprimido (ver [ExportadorCsv.compresionParaCorreo]).
+     * @return el archivo generado o null si no hay inventario.
+     */
+    suspend fun generarArchivoCsv(): File? {
+        val items = obtenerTodos()
+        if (items.isEmpty()) return null
+        borrarArchivosCsv()
+        val (archivo, resultado) = ExportadorCsv.exportarArchivo(
+            appContext.filesDir,
+            Constants.INVENTORY_FILE_NAME,
+            ExportadorCsv.compresionParaCorreo(items.size)
+        ) { writer ->
+            InventarioCsv.escribir(items, writer)
+            items.size
+        }
+        Log.d(TAG, "${archivo.name}: ${resultado.filas} filas, ${resultado.bytes} bytes en ${resultado.milisegundos} ms")
+        return archivo
+    }
+
+    private fun borrarArchivosCsv() {
+        ExportadorCsv.Compresion.values().forEach {
+            File(appContext.filesDir, Constants.INVENTORY_FILE_NAME + it.extension).delete()
+        }
+    }
+
+    /**
+     * Aplica un lote de escaneos en una sola transacción y publica todas las filas afectadas
+     * con una sola copia de la lista.
+     * @return el acumulado de cada escaneo, en el mismo orden.
+     */
+    private suspend fun confirmarLote(materiales: List<MaterialItem>): List<Int> {
+        asegurarCargado()
+        val ahora = System.currentTimeMillis()
+        val eventos = mutex.withLock {
+            invalidarSnapshot()
+            val filas = database.withTransaction {
+                materiales.map { material ->
+                    val clave = ClaveInventario.de(material)
+                    dao.sumarPallets(
+                        sku = clave.sku,
+                        descripcion = material.descripcion,
+                        cxPal = material.cxPal,
+                        fpc = material.fpc,
+                        con = material.con,
+                        centro = material.centro,
+                        linea = material.linea,
+                        op = material.op,
+                        fProd = material.fProd,
+                        diasV = material.diasV,
+                        ubicacion = material.ubicacion ?: "",
+                        pallets = palletsDe(material),
+                        tipoTarima = clave.tipoTarima,
+                        almacen = clave.almacen,
+                        actualizado = ahora
+                    )
+                    try {
+                        scanHistoryDao.insertScan(
+                            ScanHistory(
+                                sku = material.sku,
+                                description = material.descripcion,
+                                quantity = palletsDe(material),
+                                location = material.ubicacion ?: ""
+                            )
+                        )
+                    } catch (e: Exception) {
+                        // El historial no debe impedir que se guarde el escaneo
+                        Log.e(TAG, "Error al guardar el historial de escaneo: ${e.message}")
+                    }
+                    dao.buscarPorClave(clave.sku, clave.tipoTarima, clave.almacen)
+                }
+            }
+            aplicar(filas.filterNotNull())
+            val eventos = materiales.mapIndexed { i, material ->
+                val pallets = palletsDe(material)
+                EventoInventario(ahora, TipoEvento.ESCANEO, ClaveInventario.de(material), pallets, filas[i]?.totalPallets ?: pallets)
+            }
+            eventos.forEach { recordarEscaneo(it) }
+            eventos
+        }
+        registrarEventos(eventos)
+        programarSnapshot()
+        return eventos.map { it.acumulado }
+    }
+
+    /**
+     * Apila el escaneo para [deshacerUltimoEscaneo]. Debe llamarse con [mutex] tomado.
+     */
+    private fun recordarEscaneo(evento: EventoInventario) {
+        if (evento.delta == 0) return
+        if (escaneosDeshacibles.size == MAX_ESCANEOS_DESHACIBLES) escaneosDeshacibles.removeFirst()
+        escaneosDeshacibles.addLast(evento)
+    }
+
+    /**
+     * Reemplaza o agrega las filas en la lista publicada. Debe llamarse con [mutex] tomado.
+     */
+    private fun aplicar(cambios: List<InventarioEscaneado>) {
+        if (cambios.isEmpty()) return
+        val filas = ArrayList(_inventario.value)
+        for (fila in cambios) {
+            val posicion = indicePorClave[fila.clave]
+            if (posicion != null) {
+                filas[posicion] = fila
+            } else {
+                indicePorClave[fila.clave] = filas.size
+                filas.add(fila)
+            }
+        }
+        _inventario.value = Collections.unmodifiableList(filas)
+        cambios.forEach { _cambios.tryEmit(CambioInventario(++secuenciaCambios, it.clave, it)) }
+    }
+
+    /**
+     * Quita la fila de la lista publicada. Debe llamarse con [mutex] tomado.
+     */
+    private fun quitar(fila: InventarioEscaneado) {
+        val filas = ArrayList(_inventario.value)
+        val posicion = indicePorClave[fila.clave] ?: return
+        filas.removeAt(posicion)
+        if (posicion == filas.size) indicePorClave.remove(fila.clave) else reindexar(filas)
+        _inventario.value = Collections.unmodifiableList(filas)
+        _cambios.tryEmit(CambioInventario(++secuenciaCambios, fila.clave, null))
+    }
+
+    private fun publicar(filas: List<InventarioEscaneado>) {
+        val copia = ArrayList(filas)
+        reindexar(copia)
+        _inventario.value = Collections.unmodifiableList(copia)
+        _cambios.tryEmit(CambioInventario(++secuenciaCambios, null, null, reinicio = true))
+    }
+
+    private fun reindexar(filas: List<InventarioEscaneado>) {
+        indicePorClave.clear()
+        filas.forEachIndexed { i, fila -> indicePorClave[fila.clave] = i }
+    }
+
+    private fun registrarEvento(tipo: TipoEvento, clave: ClaveInventario, delta: Int, acumulado: Int) {
+        registrarEventos(listOf(EventoInventario(System.currentTimeMillis(), tipo, clave, delta, acumulado)))
+    }
+
+    private fun registrarEventos(eventos: List<EventoInventario>) {
+        try {
+            journal.registrarTodos(eventos)
+        } catch (e: IOException) {
+            // El cambio ya está en Room; el journal es solo el historial
+            Log.e(TAG, "Error al escribir el journal de inventario: ${e.message}")
+        }
+    }
+
+    /**
+     * Carga el inventario de Room la primera vez. Antes copia a Room, una sola vez, el inventario
+     * que vivía en el CSV y en el journal de escaneos pendientes de compactar, y recorta la cola
+     * del journal si el proceso murió a media escritura.
+     */
+    private suspend fun asegurarCargado() {
+        if (cargado) return
+        mutex.withLock {
+            if (cargado) return
+            val prefs = appContext.getSharedPreferences(Constants.PREFS_NAME, Context.MODE_PRIVATE)
+            if (!prefs.getBoolean(Constants.PREF_INVENTORY_MIGRATED_ROOM, false)) {
+                migrarInventarioLegado()
+                prefs.edit().putBoolean(Constants.PREF_INVENTORY_MIGRATED_ROOM, true).apply()
+            }
+            borrarEspejoComparacion()
+            repararJournal()
+            val desdeSnapshot = leerSnapshot()
+            publicar(desdeSnapshot ?: dao.obtenerTodos())
+            cargado = true
+            if (desdeSnapshot == null) {
+                archivoSnapshot.delete()
+                if (_inventario.value.isNotEmpty()) programarSnapshot()
+            }
+        }
+    }
+
+    /**
+     * Lee el snapshot si existe y coincide con la tabla. Debe llamarse con [mutex] tomado.
+     */
+    private suspend fun leerSnapshot(): List<InventarioEscaneado>? {
+        if (!archivoSnapshot.exists()) return null
+        return try {
+            val inicio = System.currentTimeMillis()
+            val filas = archivoSnapshot.inputStream().use { InventarioSnapshot.leer(it) } ?: return null
+            val resumen = dao.resumen()
+            if (resumen.filas != filas.size || resumen.ultimoId != filas.maxOfOrNull { it.id }) {
+                Log.w(TAG, "Snapshot de inventario desactualizado; se carga desde Room")
+                return null
+            }
+            Log.i(TAG, "Inventario cargado del snapshot: ${filas.size} filas en ${System.currentTimeMillis() - inicio} ms")
+            filas
+        } catch (e: IOException) {
+            Log.e(TAG, "Error al leer el snapshot de inventario: ${e.message}")
+            null
+        }
+    }
+
+    /**
+     * Borra el snapshot antes de un cambio en Room, para que nunca quede uno más viejo que la
+     * tabla. Debe llamarse con [mutex] tomado.
+     */
+    private fun invalidarSnapshot() {
+        version++
+        if (archivoSnapshot.exists()) archivoSnapshot.delete()
+    }
+
+    /**
+     * Guarda el snapshot cuando pasen [RETRASO_SNAPSHOT_MS] sin cambios.
+     */
+    private fun programarSnapshot() {
+        synchronized(this) {
+            escrituraSnapshot?.cancel()
+            escrituraSnapshot = scope.launch {
+                delay(RETRASO_SNAPSHOT_MS)
+                guardarSnapshot()
+            }
+        }
+    }
+
+    /**
+     * Escribe la lista publicada en un temporal sin bloquear los escaneos y solo lo instala si
+     * no hubo cambios mientras tanto.
+     */
+    private suspend fun guardarSnapshot() {
+        val (filas, versionLeida) = mutex.withLock { _inventario.value to version }
+        val temporal = File(archivoSnapshot.path + ArchivoAtomico.SUFIJO_TEMPORAL)
+        try {
+            FileOutputStream(temporal).use { salida ->
+                InventarioSnapshot.escribir(filas, salida)
+                salida.fd.sync()
+            }
+            mutex.withLock {
+                if (version == versionLeida && temporal.renameTo(archivoSnapshot)) return
+            }
+        } catch (e: IOException) {
+            Log.e(TAG, "Error al guardar el snapshot de inventario: ${e.message}")
+        }
+        temporal.delete()
+    }
+
+    /**
+     * Borra la copia en JSON del inventario que se guardaba en preferencias para la comparación
+     * en tiempo real; ahora la comparación se alimenta de [cambios].
+     */
+    private fun borrarEspejoComparacion() {
+        val prefs = appContext.getSharedPreferences(PREFS_ESPEJO_COMPARACION, Context.MODE_PRIVATE)
+        if (prefs.contains("materials")) prefs.edit().remove("materials").apply()
+    }
+
+    private fun repararJournal() {
+        try {
+            val recortados = journal.reparar()
+            if (recortados > 0) Log.w(TAG, "Journal reparado: se descartaron $recortados bytes al final")
+        } catch (e: IOException) {
+            Log.e(TAG, "Error al reparar el journal de inventario: ${e.message}")
+        }
+    }
+
+    private suspend fun migrarInventarioLegado() {
+        val directorio = appContext.filesDir
+        val csv = File(directorio, Constants.INVENTORY_FILE_NAME)
+        val journalLegado = File(directorio, Constants.INVENTORY_JOURNAL_FILE_NAME)
+        val temporal = File(directorio, Constants.INVENTORY_FILE_NAME + ".tmp")
+        val compactado = File(directorio, Constants.INVENTORY_JOURNAL_FILE_NAME + ".compactado")
+        // Las líneas del journal anterior tienen el formato del CSV con el delta en TotalPallets,
+        // así que combinarlas después del CSV reproduce el acumulado. Si una compactación quedó
+        // marcada como completa, el temporal ya incluye el journal.
+        val fuentes = if (compactado.exists() && temporal.exists()) listOf(temporal) else listOf(csv, journalLegado)
+        val filas = mutableListOf<InventarioEscaneado>()
+        for (archivo in fuentes) {
+            if (archivo.exists()) {
+                filas.addAll(archivo.reader(Charsets.UTF_8).use { InventarioCsv.leer(it) })
+            }
+        }
+        if (filas.isNotEmpty() && dao.obtenerUltimo() == null) {
+            val items = InventarioCsv.combinar(filas)
+            dao.insertarTodos(items)
+            Log.i(TAG, "Inventario migrado a Room: ${items.size} filas")
+        }
+        journalLegado.delete()
+        temporal.delete()
+        compactado.delete()
+    }
+
+    companion object {
+        private const val TAG = "InventarioRepository"
+        private const val TAMANO_LOTE_IMPORTACION = 500
+        private const val MAX_MENSAJES_ERROR = 20
+        private const val RETRASO_LOTE_MS = 50L
+        private const val MAX_ESCANEOS_POR_LOTE = 200
+        private const val MAX_ESCANEOS_DESHACIBLES = 100
+        private const val RETRASO_SNAPSHOT_MS = 5_000L
+        private const val CAPACIDAD_CAMBIOS = 1_024
+        private const val PREFS_ESPEJO_COMPARACION = "material_data"
+
+        private fun palletsDe(material: MaterialItem): Int = material.totalPallets?.toIntOrNull() ?: 0
+
+        /**
+         * Registros del modo rumba (`SKU:123 DP:...`) separados por espacios: si el registro no
+         * tiene las columnas completas se vuelve a analizar con ese formato en [alterna].
+         */
+        private fun formatoRumba(fila: LectorCsv, alterna: LectorCsv): LectorCsv {
+            if (fila.columnas >= 13) return fila
+            return alterna.analizar(fila.crudo().replace("SKU:", "").replace("DP:", "").replace(" ", ","))
+        }
+
+        @Volatile
+        private var INSTANCE: InventarioRepository? = null
+
+        fun getInstance(context: Context): InventarioRepository {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: InventarioRepository(context).also { INSTANCE = it }
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.escaneodematerialeskof.data.inventario
+
+import com.example.escaneodematerialeskof.util.DiccionarioTextos
+import java.io.BufferedOutputStream
+import java.io.ByteArrayOutputStream
+import java.io.InputStream
+import java.io.OutputStream
+
+/**
+ * Formato binario compacto del inventario para cargarlo rápido al iniciar la app.
+ *
+ * Estructura (versión 1):
+ * - cabecera: [MAGIA], [VERSION], número de filas
+ * - diccionario: cada texto distinto una sola vez, como longitud + bytes UTF-8
+ * - filas: cada columna de texto es el índice de su valor en el diccionario y los números son
+ *   varints (los que pueden ser negativos o nulos van en zigzag)
+ *
+ * Como sku, centro, línea, tipo de tarima, almacén y ubicación se repiten mucho, el diccionario
+ * es pequeño y leer una fila no crea Strings nuevos ni listas intermedias.
+ */
+object InventarioSnapshot {
+
+    private const val MAGIA = 0x494E5653 // "INVS"
+    const val VERSION = 1
+
+    fun escribir(items: List<InventarioEscaneado>, out: OutputStream) {
+        val diccionario = LinkedHashMap<String, Int>()
+        fun indice(texto: String): Int = diccionario.getOrPut(texto) { diccionario.size }
+
+        // Las filas se codifican primero para saber qué textos lleva el diccionario
+        val filas = Escritor(ByteArrayOutputStream(items.size * 24 + 16))
+        for (item in items) {
+            filas.varLong(item.id)
+            filas.varInt(indice(item.sku))
+            filas.varInt(indice(item.descripcion))
+            filas.varInt(indice(item.cxPal))
+            filas.varInt(indice(item.fpc))
+            filas.varInt(indice(item.con))
+            filas.varInt(indice(item.centro))
+            filas.varInt(indice(item.linea))
+            filas.varInt(indice(item.op))
+            filas.varInt(indice(item.fProd))
+            filas.varInt(indice(item.diasV))
+            filas.varInt(indice(item.ubicacion))
+            filas.zigzag(item.totalPallets)
+            filas.varInt(indice(item.tipoTarima))
+            filas.varInt(indice(item.almacen))
+            filas.opcional(item.chep)
+            filas.opcional(item.ieqsa)
+            filas.opcional(item.sams)
+            filas.varInt(item.comentarioAjuste?.let { indice(it) + 1 } ?: 0)
+            filas.varLong(item.actualizado)
+        }
+
+        val salida = Escritor(BufferedOutputStream(out, 64 * 1024))
+        salida.entero(MAGIA)
+        salida.entero(VERSION)
+        salida.varInt(items.size)
+        salida.varInt(diccionario.size)
+        for (texto in diccionario.keys) {
+            val bytes = texto.toByteArray(Charsets.UTF_8)
+            salida.varInt(bytes.size)
+            salida.out.write(bytes)
+        }
+        filas.out.writeTo(salida.out)
+        salida.out.flush()
+    }
+
+    /**
+     * Lee un snapshot escrito por [escribir].
+     * @return las filas o null si el archivo es de otra versión o está incompleto.
+     */
+    fun leer(input: InputStream): List<InventarioEscaneado>? {
+        val lector = Lector(input.readBytes())
+        return try {
+            if (lector.entero() != MAGIA || lector.entero() != VERSION) return null
+            val total = lector.varInt()
+            val distintos = lector.varInt()
+            // Cada fila y cada texto ocupan al menos un byte; evita reservar memoria con datos dañados
+            if (total < 0 || distintos < 0 || total + distintos > lector.restantes()) return null
+            val textos = Array(distintos) {
+                val longitud = lector.varInt()
+                DiccionarioTextos.sesion.compartir(lector.texto(longitud))
+            }
+            val items = ArrayList<InventarioEscaneado>(total)
+            repeat(total) {
+                items.add(
+                    InventarioEscaneado(
+                        id = lector.varLong(),
+                        sku = textos[lector.varInt()],
+                        descripcion = textos[lector.varInt()],
+                        cxPal = textos[lector.varInt()],
+                        fpc = textos[lector.varInt()],
+                        con = textos[lector.varInt()],
+                        centro = textos[lector.varInt()],
+                        linea = textos[lector.varInt()],
+                        op = textos[lector.varInt()],
+                        fProd = textos[lector.varInt()],
+                        diasV = textos[lector.varInt()],
+                        ubicacion = textos[lector.varInt()],
+                        totalPallets = lector.zigzag(),
+                        tipoTarima = textos[lector.varInt()],
+                        almacen = textos[lector.varInt()],
+                        chep = lector.opcional(),
+                        ieqsa = lector.opcional(),
+                        sams = lector.opcional(),
+                        comentarioAjuste = lector.varInt().let { if (it == 0) null else textos[it - 1] },
+                        actualizado = lector.varLong()
+                    )
+                )
+            }
+            if (lector.restantes() != 0) null else items
+        } catch (e: IndexOutOfBoundsException) {
+            null
+        }
+    }
+
+    private class Escritor<T : OutputStream>(val out: T) {
+        fun entero(valor: Int) {
+            out.write(valor ushr 24)
+            out.write(valor ushr 16)
+            out.write(valor ushr 8)
+            out.write(valor)
+        }
+
+        fun varInt(valor: Int) = varLong(valor.toLong() and 0xFFFFFFFFL)
+
+        fun varLong(valor: Long) {
+            var v = valor
+            while (v and 0x7FL.inv() != 0L) {
+                out.write(((v and 0x7F) or 0x80).toInt())
+                v = v ushr 7
+            }
+            out.write(v.toInt())
+        }
+
+        fun zigzag(valor: Int) = varInt((valor shl 1) xor (valor shr 31))
+
+        // 0 es null; los demás valores se desplazan en uno
+        fun opcional(valor: Int?) = varLong(if (valor == null) 0 else zigzagLong(valor) + 1)
+
+        private fun zigzagLong(valor: Int): Long = ((valor shl 1) xor (valor shr 31)).toLong() and 0xFFFFFFFFL
+    }
+
+    private class Lector(private val bytes: ByteArray) {
+        private var pos = 0
+
+        fun restantes() = bytes.size - pos
+
+        fun entero(): Int {
+            if (pos + 4 > bytes.size) throw IndexOutOfBoundsException()
+            val valor = (bytes[pos].toInt() and 0xFF shl 24) or
+                (bytes[pos + 1].toInt() and 0xFF shl 16) or
+                (bytes[pos + 2].toInt() and 0xFF shl 8) or
+                (bytes[pos + 3].toInt() and 0xFF)
+            pos += 4
+            return valor
+        }
+
+        fun varInt(): Int = varLong().toInt()
+
+        fun varLong(): Long {
+            var resultado = 0L
+            var desplazamiento = 0
+            while (true) {
+                val b = bytes[pos++].toInt()
+                resultado = resultado or ((b and 0x7F).toLong() shl desplazamiento)
+                if (b and 0x80 == 0) return resultado
+                desplazamiento += 7
+            }
+        }
+
+        fun zigzag(): Int {
+            val v = varInt()
+            return (v ushr 1) xor -(v and 1)
+        }
+
+        fun opcional(): Int? {
+            val v = varLong()
+            if (v == 0L) return null
+            val z = (v - 1).toInt()
+            return (z ushr 1) xor -(z and 1)
+        }
+
+        fun texto(longitud: Int): String {
+            if (pos + longitud > bytes.size) throw IndexOutOfBoundsException()
+            val texto = String(bytes, pos, longitud, Charsets.UTF_8)
+            pos += longitud
+            return texto
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.escaneodematerialeskof.manager
+
+import android.content.Context
+import android.content.SharedPreferences
+import android.util.Log
+import com.example.escaneodematerialeskof.dashboard.AlertaActiva
+import com.example.escaneodematerialeskof.dashboard.MotorAlertas
+import com.example.escaneodematerialeskof.data.inventario.InventarioRepository
+import com.example.escaneodematerialeskof.model.ReglaAlerta
+import com.example.escaneodematerialeskof.model.TipoRegla
+import com.example.escaneodematerialeskof.util.JsonInventario
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+
+/**
+ * Alertas vigentes del inventario escaneado, compartidas por todas las pantallas.
+ *
+ * Las reglas se guardan en SharedPreferences (las [ReglaAlerta.PREDETERMINADAS] si no hay ninguna)
+ * y se compilan una vez en un [MotorAlertas]. El motor se alimenta de
+ * [InventarioRepository.cambios], así que cada escaneo solo reevalúa las reglas que aplican a su
+ * fila; el inventario completo se vuelve a leer solo al iniciar, al cambiar las reglas o cuando el
+ * repositorio reemplaza la lista (importación o reinicio).
+ *
+ * Cada cambio solo publica [version] y las cantidades por tipo; la lista de alertas se arma
+ * cuando alguien la lee, una vez por versión.
+ */
+class AlertasInventario private constructor(context: Context) {
+
+    private val prefs: SharedPreferences = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+    private val repositorio = InventarioRepository.getInstance(context)
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+    private val mutex = Mutex()
+
+    @Volatile
+    var reglas: List<ReglaAlerta> = leerReglas()
+        private set
+    private var motor = MotorAlertas(reglas)
+    private var motorPublicado: MotorAlertas? = null
+    private var versionPublicada = -1L
+    private val cargado = CompletableDeferred<Unit>()
+
+    // Lista de la versión publicada, armada en la primera lectura; null hasta entonces
+    @Volatile
+    private var lista: List<AlertaActiva>? = null
+    @Volatile
+    private var cantidades = IntArray(TipoRegla.values().size)
+
+    private val _version = MutableStateFlow(0L)
+    /** Aumenta cada vez que cambian las alertas vigentes. */
+    val version: StateFlow<Long> = _version.asStateFlow()
+
+    init {
+        scope.launch {
+            repositorio.seguirCambios(mutex, ::recargar) { clave, fila ->
+                motor.aplicar(clave, fila)
+                publicar()
+            }
+        }
+    }
+
+    /**
+     * Alertas vigentes en el orden de las reglas. Espera la primera carga.
+     */
+    suspend fun actuales(): List<AlertaActiva> {
+        cargado.await()
+        lista?.let { return it }
+        return mutex.withLock { lista ?: motor.activas().also { lista = it } }
+    }
+
+    /**
+     * Versión síncrona de [actuales] para las funciones que aún no son suspend. Solo bloquea (en
+     * [Dispatchers.IO]) hasta la primera carga, o para armar la lista si cambió desde la última lectura.
+     */
+    fun actualesBloqueante(): List<AlertaActiva> {
+        if (cargado.isCompleted) lista?.let { return it }
+        return runBlocking(Dispatchers.IO) { actuales() }
+    }
+
+    fun cantidad(tipo: TipoRegla): Int {
+        if (!cargado.isCompleted) runBlocking(Dispatchers.IO) { cargado.await() }
+        return cantidades[tipo.ordinal]
+    }
+
+    /**
+     * Guarda [nuevas] y recalcula las alertas con ellas.
+     */
+    suspend fun guardarReglas(nuevas: List<ReglaAlerta>) {
+        prefs.edit().putString(KEY_REGLAS, JsonInventario.aTexto(nuevas, JsonInventario.reglas)).apply()
+        mutex.withLock {
+            reglas = nuevas
+            motor = MotorAlertas(nuevas)
+            recargar()
+        }
+    }
+
+    private suspend fun recargar() {
+        motor.cargar(repositorio.obtenerTodos())
+        publicar()
+        cargado.complete(Unit)
+    }
+
+    private fun publicar() {
+        // Un motor nuevo (reglas cambiadas) vuelve a contar sus versiones desde cero
+        if (motor === motorPublicado && motor.version == versionPublicada) return
+        motorPublicado = motor
+        versionPublicada = motor.version
+        lista = null
+        cantidades = IntArray(TipoRegla.values().size) { motor.cantidad(TipoRegla.values()[it]) }
+        _version.value++
+    }
+
+    private fun leerReglas(): List<ReglaAlerta> {
+        val json = prefs.getString(KEY_REGLAS, null) ?: return ReglaAlerta.PREDETERMINADAS
+        return try {
+            JsonInventario.leerLista(json, JsonInventario.reglas)
+        } catch (e: Exception) {
+            Log.e(TAG, "Reglas de alerta ilegibles, se usan las predeterminadas: ${e.message}")
+            ReglaAlerta.PREDETERMINADAS
+        }
+    }
+
+    companion object {
+        private const val TAG = "AlertasInventario"
+        private const val PREFS = "reglas_alerta"
+        private const val KEY_REGLAS = "reglas"
+
+        @Volatile
+        private var INSTANCE: AlertasInventario? = null
+
+        fun getInstance(context: Context): AlertasInventario {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: AlertasInventario(context.applicationContext).also { INSTANCE = it }
+            }
+        }
+    }
+}
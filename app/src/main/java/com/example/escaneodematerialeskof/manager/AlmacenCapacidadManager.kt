@@ -2,98 +2,109 @@ package com.example.escaneodematerialeskof.manager
 
 import android.content.Context
 import android.content.SharedPreferences
+import com.example.escaneodematerialeskof.data.AppDatabase
 import com.example.escaneodematerialeskof.model.AlmacenCapacidad
-import com.google.gson.Gson
-import com.google.gson.reflect.TypeToken
+import com.example.escaneodematerialeskof.util.JsonInventario
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.onStart
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 
 /**
- * Manager para gestionar la persistencia de los almacenes configurados
+ * Manager para gestionar la persistencia de los almacenes configurados.
+ *
+ * Los almacenes viven en la tabla almacen_capacidad de Room: cada cambio actualiza solo la fila
+ * del almacén y el resumen se suma en SQLite. [almacenes] y [resumen] emiten de nuevo con cada
+ * cambio, así que las pantallas no necesitan volver a consultar después de modificar algo.
+ * El almacén actual sigue en SharedPreferences.
  */
 class AlmacenCapacidadManager(context: Context) {
 
     private val prefs: SharedPreferences = context.getSharedPreferences("almacen_capacidad", Context.MODE_PRIVATE)
-    private val gson = Gson()
+    private val dao = AppDatabase.getDatabase(context).almacenCapacidadDao()
 
     companion object {
         private const val KEY_ALMACENES = "almacenes_configurados"
         private const val KEY_ALMACEN_ACTUAL = "almacen_actual_seleccionado"
+
+        private val migracion = Mutex()
     }
 
     /**
-     * Guarda la lista de almacenes configurados
+     * Almacenes configurados, en el orden en que se agregaron.
+     */
+    val almacenes: Flow<List<AlmacenCapacidad>> = dao.observarTodos().onStart { migrarPreferencias() }
+
+    /**
+     * Resumen total de todos los almacenes.
+     */
+    val resumen: Flow<ResumenAlmacenes> = dao.observarResumen().onStart { migrarPreferencias() }
+
+    /**
+     * Copia a la tabla la lista que se guardaba como JSON en SharedPreferences y borra la clave.
+     * Solo hace algo la primera vez después de actualizar la app.
      */
-    fun guardarAlmacenes(almacenes: List<AlmacenCapacidad>) {
-        val json = gson.toJson(almacenes)
-        prefs.edit().putString(KEY_ALMACENES, json).apply()
+    private suspend fun migrarPreferencias() {
+        if (!prefs.contains(KEY_ALMACENES)) return
+        migracion.withLock {
+            val json = prefs.getString(KEY_ALMACENES, null) ?: return
+            val almacenes = try {
+                JsonInventario.leerLista(json, JsonInventario.almacenes)
+            } catch (e: Exception) {
+                emptyList()
+            }
+            dao.insertar(almacenes)
+            prefs.edit().remove(KEY_ALMACENES).apply()
+        }
     }
 
     /**
      * Obtiene la lista de almacenes configurados
      */
-    fun obtenerAlmacenes(): List<AlmacenCapacidad> {
-        val json = prefs.getString(KEY_ALMACENES, null) ?: return emptyList()
-        val type = object : TypeToken<List<AlmacenCapacidad>>() {}.type
-        return try {
-            gson.fromJson(json, type) ?: emptyList()
-        } catch (e: Exception) {
-            emptyList()
-        }
+    suspend fun obtenerAlmacenes(): List<AlmacenCapacidad> {
+        migrarPreferencias()
+        return dao.obtenerTodos()
     }
 
     /**
-     * Agrega un nuevo almacén o actualiza uno existente
+     * true si ya hay un almacén con ese nombre, sin distinguir mayúsculas.
      */
-    fun agregarOActualizarAlmacen(almacen: AlmacenCapacidad) {
-        val almacenes = obtenerAlmacenes().toMutableList()
-        val index = almacenes.indexOfFirst { it.nombreAlmacen == almacen.nombreAlmacen }
-
-        if (index >= 0) {
-            almacenes[index] = almacen
-        } else {
-            almacenes.add(almacen)
-        }
+    suspend fun existeAlmacen(nombreAlmacen: String): Boolean {
+        migrarPreferencias()
+        return dao.existe(nombreAlmacen)
+    }
 
-        guardarAlmacenes(almacenes)
+    /**
+     * Agrega un nuevo almacén o actualiza uno existente
+     */
+    suspend fun agregarOActualizarAlmacen(almacen: AlmacenCapacidad) {
+        migrarPreferencias()
+        dao.guardar(almacen)
     }
 
     /**
      * Elimina un almacén por nombre
      */
-    fun eliminarAlmacen(nombreAlmacen: String) {
-        val almacenes = obtenerAlmacenes().toMutableList()
-        almacenes.removeAll { it.nombreAlmacen == nombreAlmacen }
-        guardarAlmacenes(almacenes)
+    suspend fun eliminarAlmacen(nombreAlmacen: String) {
+        migrarPreferencias()
+        dao.eliminar(nombreAlmacen)
     }
 
     /**
      * Actualiza los pallets escaneados de un almacén específico
      */
-    fun actualizarPalletsEscaneados(nombreAlmacen: String, palletsEscaneados: Int) {
-        val almacenes = obtenerAlmacenes().toMutableList()
-        val index = almacenes.indexOfFirst { it.nombreAlmacen == nombreAlmacen }
-
-        if (index >= 0) {
-            val almacenActualizado = almacenes[index].copy(palletsEscaneados = palletsEscaneados)
-            almacenes[index] = almacenActualizado
-            guardarAlmacenes(almacenes)
-        }
+    suspend fun actualizarPalletsEscaneados(nombreAlmacen: String, palletsEscaneados: Int) {
+        migrarPreferencias()
+        dao.actualizarPallets(nombreAlmacen, palletsEscaneados)
     }
 
     /**
-     * Actualiza los pallets escaneados de todos los almacenes basado en el inventario total
+     * Actualiza los pallets escaneados del almacén actual basado en el inventario total
      */
-    fun actualizarPalletsDesdeInventario(totalPalletsEscaneados: Int) {
-        val almacenes = obtenerAlmacenes().toMutableList()
-        val almacenActual = obtenerAlmacenActual()
-
-        if (almacenActual != null && almacenes.isNotEmpty()) {
-            val index = almacenes.indexOfFirst { it.nombreAlmacen == almacenActual }
-            if (index >= 0) {
-                val almacenActualizado = almacenes[index].copy(palletsEscaneados = totalPalletsEscaneados)
-                almacenes[index] = almacenActualizado
-                guardarAlmacenes(almacenes)
-            }
-        }
+    suspend fun actualizarPalletsDesdeInventario(totalPalletsEscaneados: Int) {
+        val almacenActual = obtenerAlmacenActual() ?: return
+        actualizarPalletsEscaneados(almacenActual, totalPalletsEscaneados)
     }
 
     /**
@@ -113,28 +124,15 @@ class AlmacenCapacidadManager(context: Context) {
     /**
      * Obtiene un almacén específico por nombre
      */
-    fun obtenerAlmacenPorNombre(nombreAlmacen: String): AlmacenCapacidad? {
-        return obtenerAlmacenes().find { it.nombreAlmacen == nombreAlmacen }
+    suspend fun obtenerAlmacenPorNombre(nombreAlmacen: String): AlmacenCapacidad? {
+        migrarPreferencias()
+        return dao.obtener(nombreAlmacen)
     }
 
     /**
      * Calcula el resumen total de todos los almacenes
      */
-    fun obtenerResumenTotal(): ResumenAlmacenes {
-        val almacenes = obtenerAlmacenes()
-        val totalPalletsEscaneados = almacenes.sumOf { it.palletsEscaneados }
-        val totalCapacidad = almacenes.sumOf { it.capacidadMaxima }
-        val saturacionPromedio = if (totalCapacidad > 0) {
-            (totalPalletsEscaneados.toDouble() / totalCapacidad) * 100
-        } else 0.0
-
-        return ResumenAlmacenes(
-            totalAlmacenes = almacenes.size,
-            totalPalletsEscaneados = totalPalletsEscaneados,
-            totalCapacidadConfigurada = totalCapacidad,
-            saturacionPromedio = saturacionPromedio
-        )
-    }
+    suspend fun obtenerResumenTotal(): ResumenAlmacenes = resumen.first()
 }
 
 /**
@@ -0,0 +1,57 @@
+package com.example.escaneodematerialeskof.manager
+
+import android.content.Context
+import com.example.escaneodematerialeskof.dashboard.AgregadosInventario
+import com.example.escaneodematerialeskof.data.inventario.InventarioRepository
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+
+/**
+ * [AgregadosInventario] del inventario escaneado, compartido y al día con
+ * [InventarioRepository.cambios]: cada escaneo actualiza solo los totales de su fila. El
+ * inventario completo se vuelve a leer solo al iniciar o cuando el repositorio reemplaza la lista
+ * (importación o reinicio).
+ */
+class TotalesInventario private constructor(context: Context) {
+
+    private val repositorio = InventarioRepository.getInstance(context)
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+    private val mutex = Mutex()
+    private val agregados = AgregadosInventario()
+    private val cargado = CompletableDeferred<Unit>()
+
+    init {
+        scope.launch {
+            repositorio.seguirCambios(mutex, ::recargar) { clave, fila -> agregados.aplicar(clave, fila) }
+        }
+    }
+
+    /**
+     * Ejecuta [consulta] sobre los totales, sin cambios a medias; espera la primera carga.
+     */
+    suspend fun <T> consultar(consulta: (AgregadosInventario) -> T): T {
+        cargado.await()
+        return mutex.withLock { consulta(agregados) }
+    }
+
+    private suspend fun recargar() {
+        agregados.cargar(repositorio.obtenerTodos())
+        cargado.complete(Unit)
+    }
+
+    companion object {
+        @Volatile
+        private var INSTANCE: TotalesInventario? = null
+
+        fun getInstance(context: Context): TotalesInventario {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: TotalesInventario(context.applicationContext).also { INSTANCE = it }
+            }
+        }
+    }
+}
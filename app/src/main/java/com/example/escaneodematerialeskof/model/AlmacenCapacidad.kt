@@ -1,7 +1,11 @@
 package com.example.escaneodematerialeskof.model
 
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+@Entity(tableName = "almacen_capacidad")
 data class AlmacenCapacidad(
-    val nombreAlmacen: String,
+    @PrimaryKey val nombreAlmacen: String,
     val capacidadMaxima: Int,
     val palletsEscaneados: Int = 0
 ) {
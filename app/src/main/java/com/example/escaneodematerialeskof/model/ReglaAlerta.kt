@@ -0,0 +1,45 @@
+package com.example.escaneodematerialeskof.model
+
+/**
+ * Qué revisa una [ReglaAlerta].
+ */
+enum class TipoRegla {
+    /** Una fila (sku, tipo de tarima, almacén) con más de `umbral` pallets. */
+    CANTIDAD_ALTA,
+
+    /** Como [CANTIDAD_ALTA], pero cuenta como discrepancia crítica en el resumen de captura. */
+    DISCREPANCIA_CRITICA,
+
+    /** Una fila con un tipo de tarima fuera de `tarimasPermitidas`; las filas sin tarima no cuentan. */
+    TARIMA_NO_ESTANDAR,
+
+    /** Un SKU en más de `umbral` ubicaciones distintas. */
+    UBICACION_MULTIPLE
+}
+
+/**
+ * Regla de alerta configurable. [almacen] y [tipoTarima] limitan la regla a las filas de ese
+ * almacén o tipo de tarima; null la aplica a todas.
+ */
+data class ReglaAlerta(
+    val id: String,
+    val tipo: TipoRegla,
+    val umbral: Int = 0,
+    val almacen: String? = null,
+    val tipoTarima: String? = null,
+    val tarimasPermitidas: Set<String> = emptySet()
+) {
+    companion object {
+        /** Las reglas que antes estaban fijas en el código de las pantallas. */
+        val PREDETERMINADAS = listOf(
+            ReglaAlerta("ubicacion_multiple", TipoRegla.UBICACION_MULTIPLE, umbral = 1),
+            ReglaAlerta("cantidad_alta", TipoRegla.CANTIDAD_ALTA, umbral = 100),
+            ReglaAlerta(
+                "tarima_no_estandar",
+                TipoRegla.TARIMA_NO_ESTANDAR,
+                tarimasPermitidas = setOf("PLASTICO", "MADERA", "METAL")
+            ),
+            ReglaAlerta("discrepancia_critica", TipoRegla.DISCREPANCIA_CRITICA, umbral = 50)
+        )
+    }
+}
@@ -8,13 +8,18 @@ import android.widget.LinearLayout
 import android.widget.Toast
 import androidx.activity.viewModels
 import androidx.appcompat.app.AppCompatActivity
+import androidx.lifecycle.Lifecycle
+import androidx.lifecycle.lifecycleScope
+import androidx.lifecycle.repeatOnLifecycle
 import androidx.recyclerview.widget.LinearLayoutManager
 import com.example.escaneodematerialeskof.CapturaInventarioViewModel
 import com.example.escaneodematerialeskof.databinding.ActivityGestionAlmacenesBinding
 import com.example.escaneodematerialeskof.manager.AlmacenCapacidadManager
+import com.example.escaneodematerialeskof.manager.ResumenAlmacenes
 import com.example.escaneodematerialeskof.model.AlmacenCapacidad
 import com.example.escaneodematerialeskof.ui.dashboard.AlmacenCapacidadAdapter
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
+import kotlinx.coroutines.launch
 
 /**
  * Actividad dedicada exclusivamente a la gestión de capacidad de almacenes
@@ -40,9 +45,8 @@ class GestionAlmacenesActivity : AppCompatActivity() {
         setupRecyclerView()
         setupClickListeners()
 
-        // Cargar datos iniciales
-        actualizarAlmacenes()
-        actualizarResumenSaturacion()
+        // La lista y el resumen se actualizan solos con cada cambio en la tabla
+        observarAlmacenes()
 
         // Mostrar mensaje de bienvenida
         Toast.makeText(this, "🏭 Gestión completa de capacidad de almacenes", Toast.LENGTH_SHORT).show()
@@ -89,35 +93,32 @@ class GestionAlmacenesActivity : AppCompatActivity() {
             return
         }
 
-        // Verificar si el almacén ya existe
-        val almacenesExistentes = almacenManager.obtenerAlmacenes()
-        if (almacenesExistentes.any { it.nombreAlmacen.equals(nombreAlmacen, ignoreCase = true) }) {
-            Toast.makeText(this, "⚠️ Ya existe un almacén con ese nombre", Toast.LENGTH_SHORT).show()
-            binding.etNombreAlmacen.requestFocus()
-            return
-        }
-
-        // Obtener total de pallets escaneados actual
-        val totalPalletsEscaneados = capturaViewModel.obtenerTotalPallets()
+        lifecycleScope.launch {
+            // Verificar si el almacén ya existe
+            if (almacenManager.existeAlmacen(nombreAlmacen)) {
+                Toast.makeText(this@GestionAlmacenesActivity, "⚠️ Ya existe un almacén con ese nombre", Toast.LENGTH_SHORT).show()
+                binding.etNombreAlmacen.requestFocus()
+                return@launch
+            }
 
-        val nuevoAlmacen = AlmacenCapacidad(
-            nombreAlmacen = nombreAlmacen,
-            capacidadMaxima = capacidadMaxima,
-            palletsEscaneados = totalPalletsEscaneados
-        )
+            // Obtener total de pallets escaneados actual
+            val totalPalletsEscaneados = capturaViewModel.obtenerTotalPallets()
 
-        almacenManager.agregarOActualizarAlmacen(nuevoAlmacen)
-        almacenManager.establecerAlmacenActual(nombreAlmacen)
+            val nuevoAlmacen = AlmacenCapacidad(
+                nombreAlmacen = nombreAlmacen,
+                capacidadMaxima = capacidadMaxima,
+                palletsEscaneados = totalPalletsEscaneados
+            )
 
-        // Limpiar campos
-        binding.etNombreAlmacen.text?.clear()
-        binding.etCapacidadMaxima.text?.clear()
+            almacenManager.agregarOActualizarAlmacen(nuevoAlmacen)
+            almacenManager.establecerAlmacenActual(nombreAlmacen)
 
-        // Actualizar UI
-        actualizarAlmacenes()
-        actualizarResumenSaturacion()
+            // Limpiar campos
+            binding.etNombreAlmacen.text?.clear()
+            binding.etCapacidadMaxima.text?.clear()
 
-        Toast.makeText(this, "✅ Almacén '$nombreAlmacen' configurado correctamente", Toast.LENGTH_LONG).show()
+            Toast.makeText(this@GestionAlmacenesActivity, "✅ Almacén '$nombreAlmacen' configurado correctamente", Toast.LENGTH_LONG).show()
+        }
     }
 
     private fun mostrarDialogoEditarAlmacen(almacen: AlmacenCapacidad) {
@@ -159,27 +160,26 @@ class GestionAlmacenesActivity : AppCompatActivity() {
                     return@setPositiveButton
                 }
 
-                // Verificar si el nuevo nombre ya existe (excepto el actual)
-                if (nuevoNombre != almacen.nombreAlmacen) {
-                    val almacenesExistentes = almacenManager.obtenerAlmacenes()
-                    if (almacenesExistentes.any { it.nombreAlmacen.equals(nuevoNombre, ignoreCase = true) }) {
-                        Toast.makeText(this, "⚠️ Ya existe un almacén con ese nombre", Toast.LENGTH_SHORT).show()
-                        return@setPositiveButton
+                lifecycleScope.launch {
+                    // Verificar si el nuevo nombre ya existe (excepto el actual)
+                    if (nuevoNombre != almacen.nombreAlmacen) {
+                        if (almacenManager.existeAlmacen(nuevoNombre)) {
+                            Toast.makeText(this@GestionAlmacenesActivity, "⚠️ Ya existe un almacén con ese nombre", Toast.LENGTH_SHORT).show()
+                            return@launch
+                        }
+                        // Eliminar el almacén anterior si cambió el nombre
+                        almacenManager.eliminarAlmacen(almacen.nombreAlmacen)
                     }
-                    // Eliminar el almacén anterior si cambió el nombre
-                    almacenManager.eliminarAlmacen(almacen.nombreAlmacen)
-                }
 
-                val almacenActualizado = almacen.copy(
-                    nombreAlmacen = nuevoNombre,
-                    capacidadMaxima = nuevaCapacidad
-                )
+                    val almacenActualizado = almacen.copy(
+                        nombreAlmacen = nuevoNombre,
+                        capacidadMaxima = nuevaCapacidad
+                    )
 
-                almacenManager.agregarOActualizarAlmacen(almacenActualizado)
-                actualizarAlmacenes()
-                actualizarResumenSaturacion()
+                    almacenManager.agregarOActualizarAlmacen(almacenActualizado)
 
-                Toast.makeText(this, "✅ Almacén '$nuevoNombre' actualizado correctamente", Toast.LENGTH_SHORT).show()
+                    Toast.makeText(this@GestionAlmacenesActivity, "✅ Almacén '$nuevoNombre' actualizado correctamente", Toast.LENGTH_SHORT).show()
+                }
             }
             .setNegativeButton("❌ Cancelar", null)
             .show()
@@ -190,17 +190,25 @@ class GestionAlmacenesActivity : AppCompatActivity() {
             .setTitle("🗑️ Eliminar Almacén")
             .setMessage("¿Está seguro de que desea eliminar el almacén '${almacen.nombreAlmacen}'?\n\n⚠️ Esta acción no se puede deshacer.\n\n📊 Datos actuales:\n• Capacidad: ${almacen.capacidadMaxima} pallets\n• Escaneados: ${almacen.palletsEscaneados} pallets\n• Saturación: ${almacen.porcentajeSaturacionFormateado}")
             .setPositiveButton("🗑️ Eliminar") { _, _ ->
-                almacenManager.eliminarAlmacen(almacen.nombreAlmacen)
-                actualizarAlmacenes()
-                actualizarResumenSaturacion()
-                Toast.makeText(this, "🗑️ Almacén '${almacen.nombreAlmacen}' eliminado", Toast.LENGTH_SHORT).show()
+                lifecycleScope.launch {
+                    almacenManager.eliminarAlmacen(almacen.nombreAlmacen)
+                    Toast.makeText(this@GestionAlmacenesActivity, "🗑️ Almacén '${almacen.nombreAlmacen}' eliminado", Toast.LENGTH_SHORT).show()
+                }
             }
             .setNegativeButton("❌ Cancelar", null)
             .show()
     }
 
-    private fun actualizarAlmacenes() {
-        val almacenes = almacenManager.obtenerAlmacenes()
+    private fun observarAlmacenes() {
+        lifecycleScope.launch {
+            repeatOnLifecycle(Lifecycle.State.STARTED) {
+                launch { almacenManager.almacenes.collect { mostrarAlmacenes(it) } }
+                launch { almacenManager.resumen.collect { mostrarResumenSaturacion(it) } }
+            }
+        }
+    }
+
+    private fun mostrarAlmacenes(almacenes: List<AlmacenCapacidad>) {
         almacenAdapter.submitList(almacenes)
 
         // Mostrar/ocultar elementos según si hay almacenes
@@ -215,9 +223,7 @@ class GestionAlmacenesActivity : AppCompatActivity() {
         }
     }
 
-    private fun actualizarResumenSaturacion() {
-        val resumen = almacenManager.obtenerResumenTotal()
-
+    private fun mostrarResumenSaturacion(resumen: ResumenAlmacenes) {
         binding.apply {
             tvTotalPalletsEscaneados.text = getString(
                 com.example.escaneodematerialeskof.R.string.label_pallets_escaneados,
@@ -251,9 +257,9 @@ class GestionAlmacenesActivity : AppCompatActivity() {
         val almacenActual = almacenManager.obtenerAlmacenActual()
 
         if (almacenActual != null) {
-            almacenManager.actualizarPalletsEscaneados(almacenActual, totalPalletsActual)
-            actualizarAlmacenes()
-            actualizarResumenSaturacion()
+            lifecycleScope.launch {
+                almacenManager.actualizarPalletsEscaneados(almacenActual, totalPalletsActual)
+            }
         }
     }
 
@@ -16,18 +16,22 @@ import androidx.activity.result.contract.ActivityResultContracts
 import androidx.activity.viewModels
 import androidx.appcompat.app.AlertDialog
 import androidx.appcompat.app.AppCompatActivity
+import androidx.lifecycle.lifecycleScope
+import com.example.escaneodematerialeskof.data.inventario.InventarioRepository
 import com.example.escaneodematerialeskof.databinding.ActivityInventarioBinding
 import com.example.escaneodematerialeskof.manager.AlmacenCapacidadManager
 import com.example.escaneodematerialeskof.model.AlmacenCapacidad
 import com.example.escaneodematerialeskof.model.MaterialItem
+import com.example.escaneodematerialeskof.util.ExportadorCsv
+import com.example.escaneodematerialeskof.util.JsonInventario
 import com.example.escaneodematerialeskof.util.QrParser
 import com.example.escaneodematerialeskof.util.ScanMode
 import com.google.android.material.snackbar.Snackbar
-import com.google.gson.Gson
-import com.google.gson.reflect.TypeToken
 import com.journeyapps.barcodescanner.ScanContract
 import com.journeyapps.barcodescanner.ScanOptions
-import java.io.File
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 
 /**
  * Actividad principal para la captura de inventario.
@@ -355,8 +359,8 @@ class CapturaInventarioActivity : AppCompatActivity() {
 
             R.id.action_delete -> {
                 AlertDialog.Builder(this)
-                    .setTitle("Eliminar último registro")
-                    .setMessage("¿Deseas eliminar el último material guardado?")
+                    .setTitle("Deshacer último escaneo")
+                    .setMessage("¿Deseas deshacer el último material guardado?")
                     .setPositiveButton(android.R.string.ok) { _, _ ->
                         viewModel.eliminarUltimoMaterialGuardado { ok, msg ->
                             runOnUiThread {
@@ -374,26 +378,39 @@ class CapturaInventarioActivity : AppCompatActivity() {
     }
 
     private fun enviarInventarioPorCorreo() {
-        try {
-            val file = File(filesDir, "materiales_guardados.csv")
-            if (!file.exists()) {
-                Toast.makeText(this, getString(R.string.toast_no_inventario), Toast.LENGTH_SHORT).show(); return
-            }
-            val uri = androidx.core.content.FileProvider.getUriForFile(
-                this,
-                "$packageName.fileprovider",
-                file
-            )
-            val intent = Intent(Intent.ACTION_SEND).apply {
-                type = "text/csv"
-                putExtra(Intent.EXTRA_SUBJECT, "Inventario escaneado")
-                putExtra(Intent.EXTRA_TEXT, "Adjunto archivo de inventario escaneado.")
-                putExtra(Intent.EXTRA_STREAM, uri)
-                addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION)
+        lifecycleScope.launch {
+            try {
+                // El CSV se genera en este momento a partir de la tabla de inventario
+                val file = withContext(Dispatchers.IO) {
+                    InventarioRepository.getInstance(this@CapturaInventarioActivity).generarArchivoCsv()
+                }
+                if (file == null) {
+                    Toast.makeText(
+                        this@CapturaInventarioActivity,
+                        getString(R.string.toast_no_inventario),
+                        Toast.LENGTH_SHORT
+                    ).show(); return@launch
+                }
+                val uri = androidx.core.content.FileProvider.getUriForFile(
+                    this@CapturaInventarioActivity,
+                    "$packageName.fileprovider",
+                    file
+                )
+                val intent = Intent(Intent.ACTION_SEND).apply {
+                    type = ExportadorCsv.tipoMimeDe(file)
+                    putExtra(Intent.EXTRA_SUBJECT, "Inventario escaneado")
+                    putExtra(Intent.EXTRA_TEXT, "Adjunto archivo de inventario escaneado.")
+                    putExtra(Intent.EXTRA_STREAM, uri)
+                    addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION)
+                }
+                startActivity(Intent.createChooser(intent, "Enviar inventario por correo"))
+            } catch (e: Exception) {
+                Toast.makeText(
+                    this@CapturaInventarioActivity,
+                    getString(R.string.toast_error_enviar, e.message),
+                    Toast.LENGTH_LONG
+                ).show()
             }
-            startActivity(Intent.createChooser(intent, "Enviar inventario por correo"))
-        } catch (e: Exception) {
-            Toast.makeText(this, getString(R.string.toast_error_enviar, e.message), Toast.LENGTH_LONG).show()
         }
     }
 
@@ -713,13 +730,9 @@ class CapturaInventarioActivity : AppCompatActivity() {
 
     private fun guardarEscaneo(material: MaterialItem) {
         val prefs = getSharedPreferences("inventario_escaneos", MODE_PRIVATE)
-        val gson = Gson()
-        val listaJson = prefs.getString("lista_materiales", null)
-        val type = object : TypeToken<MutableList<MaterialItem>>() {}.type
-        val lista: MutableList<MaterialItem> =
-            if (listaJson != null) gson.fromJson(listaJson, type) else mutableListOf()
+        val lista = JsonInventario.leerLista(prefs.getString("lista_materiales", null), JsonInventario.materiales)
         lista.add(material)
-        prefs.edit().putString("lista_materiales", gson.toJson(lista)).apply()
+        prefs.edit().putString("lista_materiales", JsonInventario.aTexto(lista, JsonInventario.materiales)).apply()
     }
 
     private fun limpiarPrefijoCampo(valor: String?, campo: String): String {
@@ -732,7 +745,10 @@ class CapturaInventarioActivity : AppCompatActivity() {
     private var almacenSeleccionado: AlmacenCapacidad? = null
 
     private fun mostrarDialogoSeleccionAlmacen() {
-        val almacenes = almacenManager.obtenerAlmacenes()
+        lifecycleScope.launch { mostrarDialogoSeleccionAlmacen(almacenManager.obtenerAlmacenes()) }
+    }
+
+    private fun mostrarDialogoSeleccionAlmacen(almacenes: List<AlmacenCapacidad>) {
         if (almacenes.isEmpty()) {
             AlertDialog.Builder(this)
                 .setTitle("Sin almacenes configurados")
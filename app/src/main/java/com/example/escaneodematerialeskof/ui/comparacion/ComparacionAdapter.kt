@@ -10,12 +10,32 @@ import androidx.recyclerview.widget.RecyclerView
 import com.example.escaneodematerialeskof.R
 import com.example.escaneodematerialeskof.databinding.ItemComparacionBinding
 import com.example.escaneodematerialeskof.dashboard.ComparacionInventario
+import com.example.escaneodematerialeskof.util.IdsEstables
 
 /**
  * Adapter para mostrar la comparación de inventario en tiempo real.
+ *
+ * El diff corre fuera del hilo principal ([ListAdapter] usa AsyncListDiffer), los IDs son estables
+ * por SKU y, si de una fila solo cambiaron las cantidades, se vuelve a dibujar solo la parte de
+ * cantidades y color de esa tarjeta ([CAMBIO_CANTIDADES]).
  */
 class ComparacionAdapter : ListAdapter<ComparacionInventario, ComparacionAdapter.ComparacionViewHolder>(ComparacionDiffCallback()) {
 
+    private val ids = IdsEstables<String>()
+
+    init {
+        setHasStableIds(true)
+    }
+
+    override fun getItemId(position: Int): Long = ids.de(getItem(position).sku)
+
+    override fun onCurrentListChanged(
+        previousList: MutableList<ComparacionInventario>,
+        currentList: MutableList<ComparacionInventario>
+    ) {
+        ids.conservar(currentList) { it.sku }
+    }
+
     override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): ComparacionViewHolder {
         val binding = ItemComparacionBinding.inflate(
             LayoutInflater.from(parent.context), parent, false
@@ -27,6 +47,14 @@ class ComparacionAdapter : ListAdapter<ComparacionInventario, ComparacionAdapter
         holder.bind(getItem(position))
     }
 
+    override fun onBindViewHolder(holder: ComparacionViewHolder, position: Int, payloads: MutableList<Any>) {
+        if (payloads.isNotEmpty() && payloads.all { it === CAMBIO_CANTIDADES }) {
+            holder.bindCantidades(getItem(position))
+        } else {
+            onBindViewHolder(holder, position)
+        }
+    }
+
     class ComparacionViewHolder(private val binding: ItemComparacionBinding) :
         RecyclerView.ViewHolder(binding.root) {
 
@@ -35,17 +63,25 @@ class ComparacionAdapter : ListAdapter<ComparacionInventario, ComparacionAdapter
                 textSku.text = item.sku
                 textDescripcion.text = item.descripcion.takeIf { it.isNotEmpty() } ?: "Sin descripción"
                 textTipoTarima.text = item.tipoTarima.takeIf { it.isNotEmpty() } ?: "N/A"
+            }
+            bindCantidades(item)
+        }
 
+        /**
+         * Cantidades, diferencia, estado y color de la tarjeta.
+         */
+        fun bindCantidades(item: ComparacionInventario) {
+            binding.apply {
                 // Mostrar cantidades
                 textEscaneado.text = "Escaneado: ${item.escaneado ?: 0}"
                 textInventario.text = "Sistema: ${item.inventario ?: 0}"
 
-                // Mostrar diferencia y estado
+                // Mostrar diferencia y estado, con un indicador visual
                 val diferencia = item.diferencia ?: 0
                 textDiferencia.text = when {
-                    diferencia > 0 -> "+$diferencia"
-                    diferencia < 0 -> "$diferencia"
-                    else -> "0"
+                    diferencia > 0 -> "📈 +$diferencia" // Sobrante
+                    diferencia < 0 -> "📉 $diferencia" // Faltante
+                    else -> "✅ 0" // Coincide
                 }
                 textEstado.text = item.estado
 
@@ -81,14 +117,6 @@ class ComparacionAdapter : ListAdapter<ComparacionInventario, ComparacionAdapter
                         textEstado.setTextColor(ContextCompat.getColor(context, android.R.color.black))
                     }
                 }
-
-                // Añadir indicador visual para diferencias significativas
-                val indicadorDiferencia = when {
-                    diferencia > 0 -> "📈" // Sobrante
-                    diferencia < 0 -> "📉" // Faltante
-                    else -> "✅" // Coincide
-                }
-                textDiferencia.text = "$indicadorDiferencia ${textDiferencia.text}"
             }
         }
     }
@@ -101,6 +129,11 @@ class ComparacionAdapter : ListAdapter<ComparacionInventario, ComparacionAdapter
         override fun areContentsTheSame(oldItem: ComparacionInventario, newItem: ComparacionInventario): Boolean {
             return oldItem == newItem
         }
+
+        override fun getChangePayload(oldItem: ComparacionInventario, newItem: ComparacionInventario): Any? {
+            val mismosTextos = oldItem.descripcion == newItem.descripcion && oldItem.tipoTarima == newItem.tipoTarima
+            return if (mismosTextos) CAMBIO_CANTIDADES else null
+        }
     }
 
     /**
@@ -127,4 +160,9 @@ class ComparacionAdapter : ListAdapter<ComparacionInventario, ComparacionAdapter
         val sobrantes = lista.count { it.estado.contains("Sobrante") }
         return Triple(coincidencias, faltantes, sobrantes)
     }
+
+    companion object {
+        // Payload de una fila que solo cambió en cantidades y estado
+        val CAMBIO_CANTIDADES = Any()
+    }
 }
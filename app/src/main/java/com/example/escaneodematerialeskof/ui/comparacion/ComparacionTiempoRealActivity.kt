@@ -3,8 +3,10 @@ package com.example.escaneodematerialeskof.ui.comparacion
 import android.content.Intent
 import android.net.Uri
 import android.os.Bundle
+import android.util.Log
 import android.view.MenuItem
 import android.view.View
+import android.widget.ProgressBar
 import android.widget.Toast
 import androidx.activity.OnBackPressedCallback
 import androidx.activity.result.contract.ActivityResultContracts
@@ -15,14 +17,24 @@ import androidx.appcompat.app.AppCompatActivity
 import androidx.core.content.FileProvider
 import androidx.core.view.GravityCompat
 import androidx.drawerlayout.widget.DrawerLayout
+import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.lifecycleScope
+import androidx.lifecycle.repeatOnLifecycle
 import androidx.recyclerview.widget.LinearLayoutManager
+import com.example.escaneodematerialeskof.BuildConfig
 import com.example.escaneodematerialeskof.R
-import com.example.escaneodematerialeskof.dashboard.ComparacionInventario
+import com.example.escaneodematerialeskof.dashboard.ConciliadorIncremental
+import com.example.escaneodematerialeskof.dashboard.Dimension
 import com.example.escaneodematerialeskof.databinding.ActivityComparacionTiempoRealBinding
+import com.example.escaneodematerialeskof.util.ExportadorCsv
+import com.example.escaneodematerialeskof.util.MedidorFotogramas
 import com.example.escaneodematerialeskof.viewmodel.InventoryComparisonViewModel
 import com.google.android.material.navigation.NavigationView
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import java.io.File
 
 /**
@@ -35,11 +47,19 @@ class ComparacionTiempoRealActivity : AppCompatActivity(), NavigationView.OnNavi
     private lateinit var comparacionAdapter: ComparacionAdapter
     private lateinit var toggle: ActionBarDrawerToggle
 
+    // Solo en debug: tiempos de fotograma de la lista en Logcat (etiqueta MedidorFotogramas)
+    private val medidorFotogramas = MedidorFotogramas("ComparacionTiempoReal")
+
+    // Diálogo con el avance de la importación del sistema mientras corre
+    private var dialogoImportacion: AlertDialog? = null
+    private var barraImportacion: ProgressBar? = null
+
     // Launcher para importar inventario del sistema
     private val importSistemaLauncher = registerForActivityResult(
         ActivityResultContracts.GetContent()
     ) { uri: Uri? ->
         uri?.let {
+            mostrarDialogoImportacion()
             lifecycleScope.launch {
                 try {
                     val success = viewModel.importarInventarioSistema(it)
@@ -56,17 +76,51 @@ class ComparacionTiempoRealActivity : AppCompatActivity(), NavigationView.OnNavi
                             Toast.LENGTH_LONG
                         ).show()
                     }
+                } catch (e: CancellationException) {
+                    // Solo se informa si la canceló el usuario; si se cerró la pantalla se propaga
+                    if (!isActive) throw e
+                    Toast.makeText(this@ComparacionTiempoRealActivity, "Importación cancelada", Toast.LENGTH_SHORT).show()
                 } catch (e: Exception) {
                     Toast.makeText(
                         this@ComparacionTiempoRealActivity,
                         "Error al procesar el archivo: ${e.message}",
                         Toast.LENGTH_LONG
                     ).show()
+                } finally {
+                    dialogoImportacion?.dismiss()
+                    dialogoImportacion = null
+                    barraImportacion = null
                 }
             }
         }
     }
 
+    // Conciliación de dos archivos sin cargarlos: primero se elige el del sistema y luego el escaneado
+    private var uriSistemaConciliacion: Uri? = null
+
+    private val conciliarSistemaLauncher = registerForActivityResult(
+        ActivityResultContracts.GetContent()
+    ) { uri: Uri? ->
+        uri?.let {
+            uriSistemaConciliacion = it
+            Toast.makeText(this, "Ahora seleccione el CSV del inventario escaneado", Toast.LENGTH_SHORT).show()
+            conciliarEscaneadoLauncher.launch("text/*")
+        }
+    }
+
+    private val conciliarEscaneadoLauncher = registerForActivityResult(
+        ActivityResultContracts.GetContent()
+    ) { uri: Uri? ->
+        val sistema = uriSistemaConciliacion
+        uriSistemaConciliacion = null
+        if (uri != null && sistema != null) {
+            lifecycleScope.launch {
+                // El resumen llega por mensaje y los errores por error
+                viewModel.conciliarArchivos(sistema, uri)?.let { compartirArchivo(it, "Compartir conciliación") }
+            }
+        }
+    }
+
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
         binding = ActivityComparacionTiempoRealBinding.inflate(layoutInflater)
@@ -105,7 +159,6 @@ class ComparacionTiempoRealActivity : AppCompatActivity(), NavigationView.OnNavi
         // Observar cambios en la comparación detallada (tiempo real)
         viewModel.comparacionDetallada.observe(this) { comparacion ->
             comparacionAdapter.submitList(comparacion)
-            actualizarEstadisticas(comparacion)
 
             // Mostrar/ocultar contenido según si hay datos
             if (comparacion.isEmpty()) {
@@ -119,6 +172,11 @@ class ComparacionTiempoRealActivity : AppCompatActivity(), NavigationView.OnNavi
             }
         }
 
+        // Los contadores los lleva el ViewModel con cada cambio; no hace falta recorrer la lista
+        viewModel.resumenComparacion.observe(this) { resumen ->
+            actualizarEstadisticas(resumen)
+        }
+
         // Observar mensajes del ViewModel
         viewModel.mensaje.observe(this) { mensaje ->
             mensaje?.let {
@@ -139,6 +197,18 @@ class ComparacionTiempoRealActivity : AppCompatActivity(), NavigationView.OnNavi
             binding.progressBar.visibility = if (isLoading) View.VISIBLE else View.GONE
         }
 
+        // Avance de la importación del inventario del sistema y tiempos de la última comparación
+        lifecycleScope.launch {
+            repeatOnLifecycle(Lifecycle.State.STARTED) {
+                launch {
+                    viewModel.progresoImportacion.collect { progreso ->
+                        barraImportacion?.progress = (progreso * 100).toInt()
+                    }
+                }
+                launch { viewModel.metricasComparacion.collect { mostrarMetricas(it) } }
+            }
+        }
+
         // Observar cambios en el inventario del sistema
         viewModel.inventarioSistema.observe(this) { inventario ->
             binding.textInventarioSistema.text = "📊 Sistema: ${inventario.size} items"
@@ -184,6 +254,21 @@ class ComparacionTiempoRealActivity : AppCompatActivity(), NavigationView.OnNavi
             .show()
     }
 
+    private fun mostrarDialogoImportacion() {
+        val barra = ProgressBar(this, null, android.R.attr.progressBarStyleHorizontal).apply {
+            max = 100
+            val margen = (24 * resources.displayMetrics.density).toInt()
+            setPadding(margen, margen / 2, margen, 0)
+        }
+        barraImportacion = barra
+        dialogoImportacion = AlertDialog.Builder(this)
+            .setTitle("Importando Inventario del Sistema")
+            .setView(barra)
+            .setCancelable(false)
+            .setNegativeButton("Cancelar") { _, _ -> viewModel.cancelarImportacionSistema() }
+            .show()
+    }
+
     private fun toggleTiempoReal() {
         // Simplificar la lógica sin acceder a propiedades privadas
         viewModel.habilitarActualizacionTiempoReal(false)
@@ -210,17 +295,17 @@ class ComparacionTiempoRealActivity : AppCompatActivity(), NavigationView.OnNavi
             .show()
     }
 
-    private fun actualizarEstadisticas(comparacion: List<ComparacionInventario>) {
-        val coincidencias = comparacion.count { it.estado == "OK" }
-        val faltantes = comparacion.count { it.estado.contains("Faltante") }
-        val sobrantes = comparacion.count { it.estado.contains("Sobrante") }
+    private fun actualizarEstadisticas(resumen: ConciliadorIncremental.Resumen) {
+        val coincidencias = resumen.ok
+        val faltantes = resumen.faltantes
+        val sobrantes = resumen.sobrantes
 
         binding.textCoincidencias.text = "✅ Coincidencias: $coincidencias"
         binding.textFaltantes.text = "❌ Faltantes: $faltantes"
         binding.textSobrantes.text = "⚠️ Sobrantes: $sobrantes"
 
         // Calcular porcentaje de precisión
-        val total = comparacion.size
+        val total = coincidencias + faltantes + sobrantes
         val precision = if (total > 0) (coincidencias * 100 / total) else 0
         binding.textPrecision.text = "📊 Precisión: $precision%"
 
@@ -236,6 +321,101 @@ class ComparacionTiempoRealActivity : AppCompatActivity(), NavigationView.OnNavi
         binding.progressPrecision.progressTintList = android.content.res.ColorStateList.valueOf(color)
     }
 
+    private fun mostrarDialogoConciliarArchivos() {
+        AlertDialog.Builder(this)
+            .setTitle("Conciliar Archivos CSV")
+            .setMessage(
+                "Compara un CSV del sistema contra un CSV de inventario escaneado sin cargarlos en la " +
+                    "pantalla, para conteos muy grandes. El resultado se genera como archivo para compartir."
+            )
+            .setPositiveButton("Seleccionar Archivos") { _, _ ->
+                Toast.makeText(this, "Seleccione el CSV del sistema", Toast.LENGTH_SHORT).show()
+                conciliarSistemaLauncher.launch("text/*")
+            }
+            .setNegativeButton("Cancelar", null)
+            .show()
+    }
+
+    /**
+     * Subtotales de sistema contra escaneado por tipo de tarima, y lo escaneado por almacén (el
+     * CSV del sistema no trae almacén ni ubicación).
+     */
+    private fun mostrarConciliacionDimensional() {
+        if (viewModel.inventarioSistema.value.isNullOrEmpty()) {
+            Toast.makeText(this, "Primero debe cargar el inventario del sistema", Toast.LENGTH_SHORT).show()
+            return
+        }
+        lifecycleScope.launch {
+            val resultado = viewModel.conciliarPorDimensiones()
+            fun conSigno(diferencia: Long) = if (diferencia > 0) "+$diferencia" else diferencia.toString()
+
+            val texto = StringBuilder()
+            val total = resultado.total
+            texto.append("Total: sistema ${total.sistema}, escaneado ${total.escaneado} (${conSigno(total.diferencia)})\n\n")
+            texto.append("Por tipo de tarima:\n")
+            resultado.agrupar(setOf(Dimension.TARIMA)).entries.sortedBy { it.key.tipoTarima }.forEach { (clave, subtotal) ->
+                val tarima = clave.tipoTarima.orEmpty().ifEmpty { "(sin tarima)" }
+                texto.append("• $tarima: sistema ${subtotal.sistema}, escaneado ${subtotal.escaneado} (${conSigno(subtotal.diferencia)})\n")
+            }
+            val porAlmacen = resultado.agrupar(setOf(Dimension.ALMACEN)).entries
+                .filter { !it.key.almacen.isNullOrEmpty() }
+                .sortedBy { it.key.almacen }
+            if (porAlmacen.isNotEmpty()) {
+                texto.append("\nEscaneado por almacén:\n")
+                porAlmacen.forEach { (clave, subtotal) -> texto.append("• ${clave.almacen}: ${subtotal.escaneado} pallets\n") }
+            }
+
+            AlertDialog.Builder(this@ComparacionTiempoRealActivity)
+                .setTitle("🧮 Subtotales")
+                .setMessage(texto.toString().trimEnd())
+                .setPositiveButton("Cerrar", null)
+                .show()
+        }
+    }
+
+    /**
+     * Muestra los SKUs escaneados sin registro en el sistema que probablemente son uno del sistema
+     * sin escanear, escrito con otro formato o con un carácter distinto.
+     */
+    private fun mostrarEmparejamientos() {
+        if (viewModel.comparacionDetallada.value.isNullOrEmpty()) {
+            Toast.makeText(this, "No hay datos de comparación", Toast.LENGTH_SHORT).show()
+            return
+        }
+        lifecycleScope.launch {
+            val candidatos = viewModel.proponerEmparejamientos()
+            if (candidatos.isEmpty()) {
+                Toast.makeText(
+                    this@ComparacionTiempoRealActivity,
+                    "No se encontraron SKUs parecidos entre faltantes y sobrantes",
+                    Toast.LENGTH_SHORT
+                ).show()
+                return@launch
+            }
+            var lineas = candidatos.take(MAX_EMPAREJAMIENTOS).joinToString("\n") { candidato ->
+                val motivo = if (candidato.distancia == 0) "mismo código" else "1 carácter distinto"
+                "• ${candidato.skuEscaneado} → ${candidato.skuSistema} ($motivo)"
+            }
+            if (candidatos.size > MAX_EMPAREJAMIENTOS) lineas += "\n… y ${candidatos.size - MAX_EMPAREJAMIENTOS} más"
+            AlertDialog.Builder(this@ComparacionTiempoRealActivity)
+                .setTitle("🔗 Posibles Emparejamientos (${candidatos.size})")
+                .setMessage("SKU escaneado → SKU del sistema\n\n$lineas")
+                .setPositiveButton("Cerrar", null)
+                .show()
+        }
+    }
+
+    private fun mostrarMetricas(metricas: InventoryComparisonViewModel.MetricasComparacion?) {
+        if (metricas == null) {
+            binding.textMetricasComparacion.visibility = View.GONE
+            return
+        }
+        binding.textMetricasComparacion.visibility = View.VISIBLE
+        binding.textMetricasComparacion.text =
+            "⏱️ Última comparación: ${metricas.filas} SKUs en ${metricas.totalMs} ms " +
+                "(cálculo ${metricas.calculoMs} ms, pantalla ${metricas.publicacionMs} ms)"
+    }
+
     private fun mostrarInstrucciones() {
         binding.textInstrucciones.text = """
             📋 Instrucciones para Comparación en Tiempo Real:
@@ -260,24 +440,33 @@ class ComparacionTiempoRealActivity : AppCompatActivity(), NavigationView.OnNavi
 
         lifecycleScope.launch {
             try {
-                // Crear un archivo CSV para exportar la comparación
-                val timeStamp = System.currentTimeMillis()
-                val fileName = "comparacion_tiempo_real_$timeStamp.csv"
-                val directory = getExternalFilesDir("Comparaciones")
-                if (directory?.exists() != true) {
-                    directory?.mkdirs()
-                }
-                val file = File(directory, fileName)
-
-                // Escribir datos al CSV
-                file.writer().use { writer ->
-                    // Encabezado
-                    writer.write("SKU,Descripción,Sistema,Escaneado,Diferencia,Estado,Tipo Tarima\n")
-
-                    // Datos de comparación
-                    comparacion.forEach { item ->
-                        writer.write("${item.sku},${item.descripcion},${item.inventario ?: 0},${item.escaneado ?: 0},${item.diferencia ?: 0},${item.estado},${item.tipoTarima}\n")
+                // El CSV se escribe fila por fila fuera del hilo principal; con muchas filas se comprime
+                val fileName = "comparacion_tiempo_real_${System.currentTimeMillis()}.csv"
+                val file = withContext(Dispatchers.IO) {
+                    val directory = getExternalFilesDir("Comparaciones")
+                    if (directory?.exists() != true) {
+                        directory?.mkdirs()
                     }
+                    val (archivo, resultado) = ExportadorCsv.exportarArchivo(
+                        directory ?: filesDir,
+                        fileName,
+                        ExportadorCsv.compresionParaCorreo(comparacion.size)
+                    ) { writer ->
+                        writer.write("SKU,Descripción,Sistema,Escaneado,Diferencia,Estado,Tipo Tarima\n")
+                        comparacion.forEach { item ->
+                            ExportadorCsv.escribirCampo(writer, item.sku)
+                            writer.write(",")
+                            ExportadorCsv.escribirCampo(writer, item.descripcion)
+                            writer.write(",${item.inventario ?: 0},${item.escaneado ?: 0},${item.diferencia ?: 0},")
+                            ExportadorCsv.escribirCampo(writer, item.estado)
+                            writer.write(",")
+                            ExportadorCsv.escribirCampo(writer, item.tipoTarima)
+                            writer.write("\n")
+                        }
+                        comparacion.size
+                    }
+                    Log.d("ComparacionTiempoReal", "${archivo.name}: ${resultado.bytes} bytes en ${resultado.milisegundos} ms")
+                    archivo
                 }
 
                 runOnUiThread {
@@ -286,18 +475,7 @@ class ComparacionTiempoRealActivity : AppCompatActivity(), NavigationView.OnNavi
                         "Comparación exportada: ${file.name}",
                         Toast.LENGTH_SHORT
                     ).show()
-
-                    // Compartir el archivo
-                    val intent = Intent(Intent.ACTION_SEND)
-                    intent.type = "text/csv"
-                    val fileUri = FileProvider.getUriForFile(
-                        this@ComparacionTiempoRealActivity,
-                        "${packageName}.provider",
-                        file
-                    )
-                    intent.putExtra(Intent.EXTRA_STREAM, fileUri)
-                    intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION)
-                    startActivity(Intent.createChooser(intent, "Compartir comparación"))
+                    compartirArchivo(file, "Compartir comparación")
                 }
             } catch (e: Exception) {
                 runOnUiThread {
@@ -311,10 +489,25 @@ class ComparacionTiempoRealActivity : AppCompatActivity(), NavigationView.OnNavi
         }
     }
 
+    private fun compartirArchivo(file: File, titulo: String) {
+        val intent = Intent(Intent.ACTION_SEND)
+        intent.type = ExportadorCsv.tipoMimeDe(file)
+        val fileUri = FileProvider.getUriForFile(this, "${packageName}.provider", file)
+        intent.putExtra(Intent.EXTRA_STREAM, fileUri)
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION)
+        startActivity(Intent.createChooser(intent, titulo))
+    }
+
     override fun onResume() {
         super.onResume()
         // Asegurar que la actualización en tiempo real esté activa al regresar
         viewModel.habilitarActualizacionTiempoReal(true)
+        if (BuildConfig.DEBUG) medidorFotogramas.iniciar(this)
+    }
+
+    override fun onPause() {
+        super.onPause()
+        medidorFotogramas.detener()
     }
 
     private fun showTipoEscaneoDialog() {
@@ -374,6 +567,21 @@ class ComparacionTiempoRealActivity : AppCompatActivity(), NavigationView.OnNavi
                 binding.drawerLayout.closeDrawer(GravityCompat.START)
             }
 
+            R.id.nav_conciliar_archivos -> {
+                mostrarDialogoConciliarArchivos()
+                binding.drawerLayout.closeDrawer(GravityCompat.START)
+            }
+
+            R.id.nav_conciliar_dimensiones -> {
+                mostrarConciliacionDimensional()
+                binding.drawerLayout.closeDrawer(GravityCompat.START)
+            }
+
+            R.id.nav_sugerir_emparejamientos -> {
+                mostrarEmparejamientos()
+                binding.drawerLayout.closeDrawer(GravityCompat.START)
+            }
+
             R.id.nav_limpiar_datos -> {
                 mostrarDialogoLimpiarDatos()
                 binding.drawerLayout.closeDrawer(GravityCompat.START)
@@ -427,4 +635,8 @@ class ComparacionTiempoRealActivity : AppCompatActivity(), NavigationView.OnNavi
             .setPositiveButton("Entendido", null)
             .show()
     }
+
+    companion object {
+        private const val MAX_EMPAREJAMIENTOS = 50
+    }
 }
@@ -7,9 +7,13 @@ import android.widget.TextView
 import android.widget.Toast
 import androidx.appcompat.app.AlertDialog
 import androidx.appcompat.app.AppCompatActivity
+import androidx.lifecycle.Lifecycle
+import androidx.lifecycle.lifecycleScope
+import androidx.lifecycle.repeatOnLifecycle
 import androidx.recyclerview.widget.LinearLayoutManager
 import com.example.escaneodematerialeskof.databinding.ActivityDashboardComparacionBinding
 import com.example.escaneodematerialeskof.manager.AlmacenCapacidadManager
+import com.example.escaneodematerialeskof.manager.ResumenAlmacenes
 import com.example.escaneodematerialeskof.model.AlmacenCapacidad
 import com.example.escaneodematerialeskof.ui.dashboard.AlmacenCapacidadAdapter
 import com.example.escaneodematerialeskof.CapturaInventarioViewModel
@@ -18,6 +22,7 @@ import com.github.mikephil.charting.data.PieData
 import com.github.mikephil.charting.data.PieDataSet
 import com.github.mikephil.charting.data.PieEntry
 import com.github.mikephil.charting.utils.ColorTemplate
+import kotlinx.coroutines.launch
 
 class DashboardComparacionActivity : AppCompatActivity() {
 
@@ -42,9 +47,8 @@ class DashboardComparacionActivity : AppCompatActivity() {
         setupClickListeners()
         setupViews()
 
-        // Cargar datos iniciales de capacidad
-        actualizarAlmacenes()
-        actualizarResumenSaturacion()
+        // La lista y el resumen de capacidad se actualizan solos con cada cambio en la tabla
+        observarAlmacenes()
 
         // **VERIFICACIÓN DE DEBUG** - Mostrar toast para confirmar que la funcionalidad está activa
         Toast.makeText(this, "🏭 Gestión de capacidad de almacén ACTIVA", Toast.LENGTH_LONG).show()
@@ -130,18 +134,16 @@ class DashboardComparacionActivity : AppCompatActivity() {
                 palletsEscaneados = totalPalletsEscaneados
             )
 
-            almacenManager.agregarOActualizarAlmacen(nuevoAlmacen)
-            almacenManager.establecerAlmacenActual(nombreAlmacen)
+            lifecycleScope.launch {
+                almacenManager.agregarOActualizarAlmacen(nuevoAlmacen)
+                almacenManager.establecerAlmacenActual(nombreAlmacen)
 
-            // Limpiar campos
-            binding.etNombreAlmacen.text?.clear()
-            binding.etCapacidadMaxima.text?.clear()
+                // Limpiar campos
+                binding.etNombreAlmacen.text?.clear()
+                binding.etCapacidadMaxima.text?.clear()
 
-            // Actualizar UI
-            actualizarAlmacenes()
-            actualizarResumenSaturacion()
-
-            Toast.makeText(this, "Almacén '$nombreAlmacen' configurado correctamente", Toast.LENGTH_SHORT).show()
+                Toast.makeText(this@DashboardComparacionActivity, "Almacén '$nombreAlmacen' configurado correctamente", Toast.LENGTH_SHORT).show()
+            }
         } catch (e: Exception) {
             Toast.makeText(this, "Error al configurar almacén: ${e.message}", Toast.LENGTH_LONG).show()
         }
@@ -177,21 +179,20 @@ class DashboardComparacionActivity : AppCompatActivity() {
                 val nuevaCapacidad = etCapacidad.text.toString().toIntOrNull()
 
                 if (nuevoNombre.isNotEmpty() && nuevaCapacidad != null && nuevaCapacidad > 0) {
-                    // Si cambió el nombre, eliminar el anterior
-                    if (nuevoNombre != almacen.nombreAlmacen) {
-                        almacenManager.eliminarAlmacen(almacen.nombreAlmacen)
-                    }
-
                     val almacenActualizado = almacen.copy(
                         nombreAlmacen = nuevoNombre,
                         capacidadMaxima = nuevaCapacidad
                     )
 
-                    almacenManager.agregarOActualizarAlmacen(almacenActualizado)
-                    actualizarAlmacenes()
-                    actualizarResumenSaturacion()
+                    lifecycleScope.launch {
+                        // Si cambió el nombre, eliminar el anterior
+                        if (nuevoNombre != almacen.nombreAlmacen) {
+                            almacenManager.eliminarAlmacen(almacen.nombreAlmacen)
+                        }
+                        almacenManager.agregarOActualizarAlmacen(almacenActualizado)
 
-                    Toast.makeText(this, "Almacén actualizado", Toast.LENGTH_SHORT).show()
+                        Toast.makeText(this@DashboardComparacionActivity, "Almacén actualizado", Toast.LENGTH_SHORT).show()
+                    }
                 } else {
                     Toast.makeText(this, "Datos inválidos", Toast.LENGTH_SHORT).show()
                 }
@@ -205,18 +206,26 @@ class DashboardComparacionActivity : AppCompatActivity() {
             .setTitle("Eliminar Almacén")
             .setMessage("¿Está seguro de que desea eliminar el almacén '${almacen.nombreAlmacen}'?")
             .setPositiveButton("Eliminar") { _, _ ->
-                almacenManager.eliminarAlmacen(almacen.nombreAlmacen)
-                actualizarAlmacenes()
-                actualizarResumenSaturacion()
-                Toast.makeText(this, "Almacén eliminado", Toast.LENGTH_SHORT).show()
+                lifecycleScope.launch {
+                    almacenManager.eliminarAlmacen(almacen.nombreAlmacen)
+                    Toast.makeText(this@DashboardComparacionActivity, "Almacén eliminado", Toast.LENGTH_SHORT).show()
+                }
             }
             .setNegativeButton("Cancelar", null)
             .show()
     }
 
-    private fun actualizarAlmacenes() {
+    private fun observarAlmacenes() {
+        lifecycleScope.launch {
+            repeatOnLifecycle(Lifecycle.State.STARTED) {
+                launch { almacenManager.almacenes.collect { mostrarAlmacenes(it) } }
+                launch { almacenManager.resumen.collect { mostrarResumenSaturacion(it) } }
+            }
+        }
+    }
+
+    private fun mostrarAlmacenes(almacenes: List<AlmacenCapacidad>) {
         try {
-            val almacenes = almacenManager.obtenerAlmacenes()
             almacenAdapter.submitList(almacenes)
 
             // Mostrar/ocultar RecyclerView según si hay almacenes
@@ -233,10 +242,8 @@ class DashboardComparacionActivity : AppCompatActivity() {
         }
     }
 
-    private fun actualizarResumenSaturacion() {
+    private fun mostrarResumenSaturacion(resumen: ResumenAlmacenes) {
         try {
-            val resumen = almacenManager.obtenerResumenTotal()
-
             binding.apply {
                 tvTotalPalletsEscaneados.text = "Total Pallets Escaneados: ${resumen.totalPalletsEscaneados}"
                 tvCapacidadTotalConfigurada.text = "Capacidad Total Configurada: ${resumen.totalCapacidadConfigurada}"
@@ -335,9 +342,9 @@ class DashboardComparacionActivity : AppCompatActivity() {
         val almacenActual = almacenManager.obtenerAlmacenActual()
 
         if (almacenActual != null) {
-            almacenManager.actualizarPalletsEscaneados(almacenActual, totalPalletsActual)
-            actualizarAlmacenes()
-            actualizarResumenSaturacion()
+            lifecycleScope.launch {
+                almacenManager.actualizarPalletsEscaneados(almacenActual, totalPalletsActual)
+            }
         }
     }
 }
@@ -5,12 +5,15 @@ import android.os.Bundle
 import androidx.activity.ComponentActivity
 import androidx.activity.compose.setContent
 import androidx.compose.foundation.background
+import androidx.compose.foundation.clickable
 import androidx.compose.foundation.horizontalScroll
 import androidx.compose.foundation.layout.*
 import androidx.compose.foundation.lazy.LazyColumn
 import androidx.compose.foundation.lazy.LazyRow
 import androidx.compose.foundation.lazy.items
 import androidx.compose.foundation.rememberScrollState
+import androidx.compose.foundation.text.KeyboardOptions
+import androidx.compose.foundation.verticalScroll
 import androidx.compose.foundation.shape.RoundedCornerShape
 import androidx.compose.material.*
 import androidx.compose.material.icons.Icons
@@ -23,13 +26,19 @@ import androidx.compose.ui.graphics.Color
 import androidx.compose.ui.graphics.vector.ImageVector
 import androidx.compose.ui.platform.LocalContext
 import androidx.compose.ui.text.font.FontWeight
+import androidx.compose.ui.text.input.KeyboardType
 import androidx.compose.ui.text.style.TextAlign
 import androidx.compose.ui.unit.dp
 import androidx.compose.ui.unit.sp
 import androidx.lifecycle.viewmodel.compose.viewModel
 import com.example.escaneodematerialeskof.AjusteInventarioActivity
 import com.example.escaneodematerialeskof.NewInventarioResumenActivity
+import com.example.escaneodematerialeskof.data.inventario.DiferenciaConteo
+import com.example.escaneodematerialeskof.data.inventario.ResumenConteo
+import com.example.escaneodematerialeskof.model.ReglaAlerta
+import com.example.escaneodematerialeskof.model.TipoRegla
 import com.example.escaneodematerialeskof.ui.components.FloatingCalculatorBubble
+import java.text.SimpleDateFormat
 import java.util.*
 
 class DashboardComposeActivity : ComponentActivity() {
@@ -71,6 +80,8 @@ fun DashboardScreen() {
         mutableStateOf(dashboardState.filtroTarima ?: "Todos")
     }
     var intervalExpanded by remember { mutableStateOf(false) }
+    var mostrarReglas by remember { mutableStateOf(false) }
+    var mostrarHistorial by remember { mutableStateOf(false) }
     val intervalOptions = listOf(5_000L, 10_000L, 30_000L, 60_000L)
 
     // Cargar datos al iniciar
@@ -107,6 +118,12 @@ fun DashboardScreen() {
                     }
                 },
                 actions = {
+                    IconButton(onClick = { mostrarHistorial = true }) {
+                        Icon(Icons.Default.History, contentDescription = "Conteos anteriores", tint = Color.White)
+                    }
+                    IconButton(onClick = { mostrarReglas = true }) {
+                        Icon(Icons.Default.Settings, contentDescription = "Reglas de alerta", tint = Color.White)
+                    }
                     IconButton(onClick = { isRefreshing = true }) {
                         Icon(Icons.Default.Refresh, contentDescription = "Actualizar", tint = Color.White)
                     }
@@ -115,6 +132,24 @@ fun DashboardScreen() {
         },
         backgroundColor = backgroundColor
     ) { innerPadding ->
+        if (mostrarReglas) {
+            ReglasAlertaDialog(
+                reglas = viewModel.reglasAlerta(context),
+                onDismiss = { mostrarReglas = false },
+                onGuardar = { reglas ->
+                    mostrarReglas = false
+                    viewModel.guardarReglasAlerta(context, reglas)
+                },
+                redButtonColor = redButtonColor
+            )
+        }
+        if (mostrarHistorial) {
+            HistorialConteosDialog(
+                viewModel = viewModel,
+                onDismiss = { mostrarHistorial = false },
+                redButtonColor = redButtonColor
+            )
+        }
         Box(Modifier.fillMaxSize()) { // Contenedor para superponer la burbuja
             if (dashboardState.isLoading) {
                 Box(
@@ -578,6 +613,184 @@ fun AlertasCard(alertas: List<AlertaInteligente>, cardBackgroundColor: Color, co
     }
 }
 
+/**
+ * Edita el umbral de cada regla de alerta, o las tarimas permitidas en las de tarima no estándar.
+ * Guardar solo se habilita cuando todos los campos son válidos.
+ */
+@Composable
+fun ReglasAlertaDialog(
+    reglas: List<ReglaAlerta>,
+    onDismiss: () -> Unit,
+    onGuardar: (List<ReglaAlerta>) -> Unit,
+    redButtonColor: Color
+) {
+    val valores = remember(reglas) { reglas.map { valorEditable(it) }.toMutableStateList() }
+    val editadas = reglas.mapIndexed { i, regla -> reglaEditada(regla, valores[i]) }
+
+    AlertDialog(
+        onDismissRequest = onDismiss,
+        title = {
+            Text(
+                "Reglas de alerta",
+                fontWeight = FontWeight.Bold,
+                fontSize = 18.sp
+            )
+        },
+        text = {
+            Column(Modifier.verticalScroll(rememberScrollState())) {
+                reglas.forEachIndexed { i, regla ->
+                    val tarimas = regla.tipo == TipoRegla.TARIMA_NO_ESTANDAR
+                    OutlinedTextField(
+                        value = valores[i],
+                        onValueChange = { valores[i] = it },
+                        label = { Text(etiquetaRegla(regla), fontSize = 12.sp) },
+                        singleLine = true,
+                        isError = editadas[i] == null,
+                        keyboardOptions = KeyboardOptions(keyboardType = if (tarimas) KeyboardType.Text else KeyboardType.Number),
+                        modifier = Modifier.fillMaxWidth()
+                    )
+                    Spacer(Modifier.height(8.dp))
+                }
+            }
+        },
+        confirmButton = {
+            Button(
+                onClick = { onGuardar(editadas.filterNotNull()) },
+                enabled = editadas.none { it == null },
+                colors = ButtonDefaults.buttonColors(backgroundColor = redButtonColor)
+            ) {
+                Text("Guardar", color = Color.White)
+            }
+        },
+        dismissButton = {
+            Row {
+                TextButton(onClick = { onGuardar(ReglaAlerta.PREDETERMINADAS) }) {
+                    Text("Predeterminadas", color = Color.Gray)
+                }
+                TextButton(onClick = onDismiss) {
+                    Text("Cancelar", color = Color.Gray)
+                }
+            }
+        }
+    )
+}
+
+/**
+ * Conteos cerrados, del más reciente al más viejo. Al tocar uno se ven sus cambios por SKU y
+ * almacén contra el conteo anterior, los más grandes primero.
+ */
+@Composable
+fun HistorialConteosDialog(
+    viewModel: DashboardEjecutivoViewModel,
+    onDismiss: () -> Unit,
+    redButtonColor: Color
+) {
+    val context = LocalContext.current
+    var conteos by remember { mutableStateOf<List<ResumenConteo>?>(null) }
+    var seleccionado by remember { mutableStateOf<ResumenConteo?>(null) }
+    var cambios by remember { mutableStateOf<List<DiferenciaConteo>?>(null) }
+    var cargandoCambios by remember { mutableStateOf(false) }
+    val formatoFecha = remember { SimpleDateFormat("dd/MM/yyyy HH:mm", Locale.getDefault()) }
+
+    LaunchedEffect(Unit) {
+        conteos = viewModel.conteosArchivados(context)
+    }
+    LaunchedEffect(seleccionado) {
+        val conteo = seleccionado ?: return@LaunchedEffect
+        cargandoCambios = true
+        cambios = viewModel.cambiosDeConteo(context, conteo.numero)
+        cargandoCambios = false
+    }
+
+    AlertDialog(
+        onDismissRequest = onDismiss,
+        title = {
+            Text(
+                seleccionado?.let { "Conteo #${it.numero} contra el anterior" } ?: "Conteos anteriores",
+                fontWeight = FontWeight.Bold,
+                fontSize = 18.sp
+            )
+        },
+        text = {
+            Column(Modifier.verticalScroll(rememberScrollState())) {
+                val lista = conteos
+                when {
+                    seleccionado != null && cargandoCambios -> CircularProgressIndicator(color = redButtonColor)
+                    seleccionado != null -> {
+                        val diferencias = cambios
+                        when {
+                            diferencias == null -> Text("No hay un conteo anterior con el cual comparar", color = Color.Gray)
+                            diferencias.isEmpty() -> Text("Sin cambios respecto al conteo anterior", color = Color.Gray)
+                            else -> diferencias.take(MAX_CAMBIOS_CONTEO).forEach { cambio ->
+                                val signo = if (cambio.diferencia > 0) "+" else ""
+                                Text(
+                                    "${cambio.sku} (${cambio.almacen.orEmpty().ifEmpty { "sin almacén" }}): " +
+                                        "${cambio.anterior} → ${cambio.actual} ($signo${cambio.diferencia})",
+                                    fontSize = 13.sp
+                                )
+                            }
+                        }
+                    }
+                    lista == null -> CircularProgressIndicator(color = redButtonColor)
+                    lista.isEmpty() -> Text("Aún no hay conteos archivados; se archivan al reiniciar el inventario", color = Color.Gray)
+                    else -> lista.forEach { conteo ->
+                        Column(
+                            Modifier
+                                .fillMaxWidth()
+                                .clickable { seleccionado = conteo }
+                                .padding(vertical = 8.dp)
+                        ) {
+                            Text("Conteo #${conteo.numero} · ${formatoFecha.format(Date(conteo.cerrado))}", fontWeight = FontWeight.Bold)
+                            Text("${conteo.skus} SKUs · ${conteo.pallets} pallets", fontSize = 12.sp, color = Color.Gray)
+                        }
+                    }
+                }
+            }
+        },
+        confirmButton = {
+            Button(
+                onClick = onDismiss,
+                colors = ButtonDefaults.buttonColors(backgroundColor = redButtonColor)
+            ) {
+                Text("Cerrar", color = Color.White)
+            }
+        },
+        dismissButton = {
+            if (seleccionado != null) {
+                TextButton(onClick = { seleccionado = null; cambios = null }) {
+                    Text("Volver", color = Color.Gray)
+                }
+            }
+        }
+    )
+}
+
+// Cambios que se listan de un conteo; el resto queda en el archivo
+private const val MAX_CAMBIOS_CONTEO = 50
+
+private fun etiquetaRegla(regla: ReglaAlerta): String {
+    val descripcion = when (regla.tipo) {
+        TipoRegla.CANTIDAD_ALTA -> "Pallets para cantidad alta"
+        TipoRegla.DISCREPANCIA_CRITICA -> "Pallets para discrepancia crítica"
+        TipoRegla.TARIMA_NO_ESTANDAR -> "Tarimas permitidas"
+        TipoRegla.UBICACION_MULTIPLE -> "Ubicaciones máximas por SKU"
+    }
+    val ambito = listOfNotNull(regla.almacen, regla.tipoTarima).joinToString(" / ")
+    return if (ambito.isEmpty()) descripcion else "$descripcion ($ambito)"
+}
+
+private fun valorEditable(regla: ReglaAlerta): String =
+    if (regla.tipo == TipoRegla.TARIMA_NO_ESTANDAR) regla.tarimasPermitidas.sorted().joinToString(", ")
+    else regla.umbral.toString()
+
+/** [regla] con [valor] aplicado, o null si el valor no es válido. */
+private fun reglaEditada(regla: ReglaAlerta, valor: String): ReglaAlerta? =
+    if (regla.tipo == TipoRegla.TARIMA_NO_ESTANDAR) {
+        regla.copy(tarimasPermitidas = valor.split(',').map { it.trim().uppercase() }.filter { it.isNotEmpty() }.toSet())
+    } else {
+        valor.trim().toIntOrNull()?.takeIf { it >= 0 }?.let { regla.copy(umbral = it) }
+    }
+
 @Composable
 fun TopSKUsCard(topSKUs: List<TopSKUData>, cardBackgroundColor: Color, blueColor: Color) {
     Card(
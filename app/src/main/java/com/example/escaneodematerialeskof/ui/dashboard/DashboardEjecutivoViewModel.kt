@@ -5,19 +5,30 @@ import android.content.SharedPreferences
 import androidx.compose.ui.graphics.Color
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
-import com.example.escaneodematerialeskof.util.CSVUtils
-import com.example.escaneodematerialeskof.util.Constants
+import com.example.escaneodematerialeskof.dashboard.AgregadosInventario
+import com.example.escaneodematerialeskof.dashboard.AlertaActiva
+import com.example.escaneodematerialeskof.data.inventario.DiferenciaConteo
+import com.example.escaneodematerialeskof.data.inventario.HistorialConteos
+import com.example.escaneodematerialeskof.data.inventario.ResumenConteo
+import com.example.escaneodematerialeskof.manager.AlertasInventario
+import com.example.escaneodematerialeskof.manager.TotalesInventario
+import com.example.escaneodematerialeskof.model.ReglaAlerta
+import com.example.escaneodematerialeskof.model.TipoRegla
 import kotlinx.coroutines.*
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
-import java.io.File
+import java.io.IOException
 import java.text.SimpleDateFormat
 import java.util.*
+import kotlin.math.abs
 
 /**
  * ViewModel para el Dashboard Ejecutivo
  * Procesa datos del inventario y genera métricas inteligentes
+ *
+ * Los totales salen de [TotalesInventario] y las alertas de [AlertasInventario], que se
+ * actualizan con cada escaneo; cargar el dashboard o cambiar de filtro no recorre las filas.
  */
 class DashboardEjecutivoViewModel : ViewModel() {
 
@@ -32,6 +43,7 @@ class DashboardEjecutivoViewModel : ViewModel() {
 
     // Monitoreo en tiempo real
     private var monitoringJob: Job? = null
+    private var versionMonitoreada = -1L
 
     // Preferencias
     private var prefs: SharedPreferences? = null
@@ -62,6 +74,40 @@ class DashboardEjecutivoViewModel : ViewModel() {
         filtroTarima = tarima?.takeIf { it.isNotBlank() && it != "Todos" }
     }
 
+    /** Reglas de alerta vigentes, para editarlas. */
+    fun reglasAlerta(context: Context): List<ReglaAlerta> = AlertasInventario.getInstance(context).reglas
+
+    /**
+     * Guarda [reglas] y vuelve a cargar el dashboard con las alertas que resulten.
+     */
+    fun guardarReglasAlerta(context: Context, reglas: List<ReglaAlerta>) {
+        viewModelScope.launch {
+            withContext(Dispatchers.IO) { AlertasInventario.getInstance(context).guardarReglas(reglas) }
+            cargarDatosDashboard(context)
+        }
+    }
+
+    /** Conteos cerrados, del más reciente al más viejo; vacío si el historial no se pudo leer. */
+    suspend fun conteosArchivados(context: Context): List<ResumenConteo> = withContext(Dispatchers.IO) {
+        try {
+            HistorialConteos.getInstance(context).conteos().asReversed()
+        } catch (_: IOException) {
+            emptyList()
+        }
+    }
+
+    /**
+     * Cambios por SKU y almacén del conteo [numero] contra el anterior, los más grandes primero.
+     * @return null si no hay un conteo anterior con el cual comparar o no se pudo leer.
+     */
+    suspend fun cambiosDeConteo(context: Context, numero: Long): List<DiferenciaConteo>? = withContext(Dispatchers.IO) {
+        try {
+            HistorialConteos.getInstance(context).diferencias(numero)?.sortedByDescending { abs(it.diferencia) }
+        } catch (_: IOException) {
+            null
+        }
+    }
+
     override fun onCleared() {
         super.onCleared()
         stopRealtimeMonitoring()
@@ -85,57 +131,50 @@ class DashboardEjecutivoViewModel : ViewModel() {
         monitoringJob = null
     }
 
-    /** Carga todos los datos del dashboard desde el archivo CSV */
+    /** Carga todos los datos del dashboard desde el inventario escaneado */
     fun cargarDatosDashboard(context: Context) {
         init(context)
         viewModelScope.launch {
             _dashboardState.value = _dashboardState.value.copy(isLoading = true)
             withContext(Dispatchers.IO) {
                 try {
-                    val file = File(context.filesDir, Constants.INVENTORY_FILE_NAME)
-                    if (!file.exists()) {
-                        _dashboardState.value = DashboardState(
-                            isLoading = false,
-                            ultimaActualizacion = obtenerFechaActual()
-                        )
-                        return@withContext
+                    // Las alertas vigentes se toman antes: actualesBloqueante puede esperar la primera carga
+                    val vigentes = AlertasInventario.getInstance(context).actualesBloqueante()
+                    val almacenFiltro = filtroAlmacen
+                    val tarimaFiltro = filtroTarima
+                    val resumen = TotalesInventario.getInstance(context).consultar { agregados ->
+                        if (agregados.vacio) {
+                            null
+                        } else {
+                            val porAlmacen = agregados.palletsPorAlmacen(almacenFiltro, tarimaFiltro)
+                            ResumenFiltrado(
+                                almacenesDisponibles = agregados.almacenes(),
+                                tarimasDisponibles = agregados.tarimas(),
+                                totalSKUs = agregados.totalSkus(almacenFiltro, tarimaFiltro),
+                                totalPallets = agregados.totalPallets(almacenFiltro, tarimaFiltro),
+                                almacenesActivos = porAlmacen.keys.count { it.isNotBlank() },
+                                resumenAlmacenes = calcularResumenAlmacenes(porAlmacen),
+                                resumenTiposTarima = calcularResumenTiposTarima(agregados.palletsPorTarima(almacenFiltro, tarimaFiltro)),
+                                alertas = aAlertasInteligentes(filtrarAlertas(vigentes, agregados, almacenFiltro, tarimaFiltro)),
+                                topSKUs = calcularTopSKUs(agregados, almacenFiltro, tarimaFiltro)
+                            )
+                        }
                     }
-                    val lines = file.readLines()
-                    if (lines.size <= 1) {
+                    if (resumen == null) {
                         _dashboardState.value = DashboardState(
                             isLoading = false,
                             ultimaActualizacion = obtenerFechaActual()
                         )
                         return@withContext
                     }
-
-                    val materialesData = lines.drop(1).mapNotNull { line ->
-                        CSVUtils.parseCsvLine(line).takeIf { it.size >= 14 }
-                    }
-
-                    // Conjuntos completos para filtros
-                    val almacenesDisponibles =
-                        materialesData.mapNotNull { it.getOrNull(13)?.takeIf { a -> a.isNotBlank() } }.distinct()
-                            .sorted()
-                    val tarimasDisponibles =
-                        materialesData.mapNotNull { it.getOrNull(12)?.takeIf { t -> t.isNotBlank() } }.distinct()
-                            .sorted()
-
-                    // Filtrado
-                    val filtrados = materialesData.filter { cols ->
-                        val okAlmacen = filtroAlmacen?.let { cols.getOrNull(13) == it } ?: true
-                        val okTarima = filtroTarima?.let { cols.getOrNull(12) == it } ?: true
-                        okAlmacen && okTarima
-                    }
-
-                    val totalSKUs = filtrados.map { it[0] }.distinct().size
-                    val totalPallets = filtrados.sumOf { it.getOrNull(11)?.toIntOrNull() ?: 0 }
-                    val almacenes = filtrados.mapNotNull { it.getOrNull(13) }.filter { it.isNotBlank() }.distinct()
-
-                    val resumenAlmacenes = calcularResumenAlmacenes(filtrados)
-                    val resumenTiposTarima = calcularResumenTiposTarima(filtrados)
-                    val alertas = generarAlertasInteligentes(filtrados)
-                    val topSKUs = calcularTopSKUs(filtrados)
+                    val almacenesDisponibles = resumen.almacenesDisponibles
+                    val tarimasDisponibles = resumen.tarimasDisponibles
+                    val totalSKUs = resumen.totalSKUs
+                    val totalPallets = resumen.totalPallets
+                    val resumenAlmacenes = resumen.resumenAlmacenes
+                    val resumenTiposTarima = resumen.resumenTiposTarima
+                    val alertas = resumen.alertas
+                    val topSKUs = resumen.topSKUs
 
                     val capacidadTotal = 5000
                     val tasaOcupacion =
@@ -171,7 +210,7 @@ class DashboardEjecutivoViewModel : ViewModel() {
                         isLoading = false,
                         totalSKUs = totalSKUs,
                         totalPallets = totalPallets,
-                        almacenesActivos = almacenes.size,
+                        almacenesActivos = resumen.almacenesActivos,
                         alertasCriticas = alertas.size,
                         resumenAlmacenes = resumenAlmacenes,
                         resumenTiposTarima = resumenTiposTarima,
@@ -213,12 +252,14 @@ class DashboardEjecutivoViewModel : ViewModel() {
     }
 
     private suspend fun actualizarSoloAlertas(context: Context) {
-        val file = File(context.filesDir, Constants.INVENTORY_FILE_NAME)
-        if (!file.exists()) return
-        val lines = file.readLines()
-        if (lines.size <= 1) return
-        val datos = lines.drop(1).mapNotNull { parseCsvLine(it).takeIf { cols -> cols.size >= 12 } }
-        val alertas = generarAlertasInteligentes(datos)
+        // AlertasInventario mantiene las alertas al día con cada escaneo; un tick sin cambios
+        // solo compara su versión con la última vista
+        val alertasInventario = AlertasInventario.getInstance(context)
+        val version = alertasInventario.version.value
+        if (version == versionMonitoreada) return
+        versionMonitoreada = version
+        val vigentes = alertasInventario.actuales()
+        val alertas = aAlertasInteligentes(vigentes)
         val currentAlertKeys = alertas.map { it.mensaje + "@" + it.ubicacion }.toSet()
         val nuevas = currentAlertKeys - previousAlertKeys
         if (nuevas.isNotEmpty()) {
@@ -234,12 +275,11 @@ class DashboardEjecutivoViewModel : ViewModel() {
         }
     }
 
-    private fun calcularResumenAlmacenes(datos: List<List<String>>): List<AlmacenData> {
+    private fun calcularResumenAlmacenes(palletsPorAlmacen: Map<String, Int>): List<AlmacenData> {
         val almacenesMap = mutableMapOf<String, Int>()
 
-        datos.forEach { cols ->
-            val almacen = cols.getOrNull(13)?.trim() ?: "Sin Almacén"
-            val pallets = cols.getOrNull(11)?.toIntOrNull() ?: 0
+        palletsPorAlmacen.forEach { (nombre, pallets) ->
+            val almacen = nombre.trim()
             almacenesMap[almacen] = (almacenesMap[almacen] ?: 0) + pallets
         }
 
@@ -268,12 +308,11 @@ class DashboardEjecutivoViewModel : ViewModel() {
             }
     }
 
-    private fun calcularResumenTiposTarima(datos: List<List<String>>): Map<String, Int> {
+    private fun calcularResumenTiposTarima(palletsPorTarima: Map<String, Int>): Map<String, Int> {
         val tiposMap = mutableMapOf<String, Int>()
 
-        datos.forEach { cols ->
-            val tipo = cols.getOrNull(12)?.trim() ?: "Sin Clasificar"
-            val pallets = cols.getOrNull(11)?.toIntOrNull() ?: 0
+        palletsPorTarima.forEach { (nombre, pallets) ->
+            val tipo = nombre.trim()
             if (tipo.isNotBlank()) {
                 tiposMap[tipo] = (tiposMap[tipo] ?: 0) + pallets
             }
@@ -284,124 +323,66 @@ class DashboardEjecutivoViewModel : ViewModel() {
             .associate { it.key to it.value }
     }
 
-    private fun generarAlertasInteligentes(datos: List<List<String>>): List<AlertaInteligente> {
-        val alertas = mutableListOf<AlertaInteligente>()
-        val ahora = SimpleDateFormat("HH:mm", Locale.getDefault()).format(Date())
-
-        // Agrupar por SKU
-        val skusPorUbicacion = datos.groupBy { it[0] }
-
-        // Detectar SKUs en múltiples ubicaciones
-        skusPorUbicacion.forEach { (sku, items) ->
-            val ubicaciones = items.mapNotNull { it.getOrNull(10) }.distinct()
-            if (ubicaciones.size > 1) {
-                alertas.add(
-                    AlertaInteligente(
-                        mensaje = "SKU $sku encontrado en ${ubicaciones.size} ubicaciones",
-                        ubicacion = ubicaciones.joinToString(", "),
-                        fechaHora = ahora,
-                        tipo = TipoAlerta.UBICACION_MULTIPLE
-                    )
-                )
-            }
-        }
-
-        // Detectar cantidades altas
-        datos.forEach { cols ->
-            val sku = cols[0]
-            val pallets = cols.getOrNull(11)?.toIntOrNull() ?: 0
-            val ubicacion = cols.getOrNull(10) ?: "Sin ubicación"
-
-            if (pallets > 100) {
-                alertas.add(
-                    AlertaInteligente(
-                        mensaje = "Cantidad alta: $sku con $pallets pallets",
-                        ubicacion = ubicacion,
-                        fechaHora = ahora,
-                        tipo = TipoAlerta.CANTIDAD_ALTA
-                    )
-                )
-            }
-        }
-
-        // Detectar tipos de tarima no estándar
-        datos.forEach { cols ->
-            val sku = cols[0]
-            val tipoTarima = cols.getOrNull(12)?.trim()?.uppercase()
-            val ubicacion = cols.getOrNull(10) ?: "Sin ubicación"
-
-            if (tipoTarima != null && tipoTarima !in listOf("PLASTICO", "MADERA", "METAL", "")) {
-                alertas.add(
-                    AlertaInteligente(
-                        mensaje = "Tipo de tarima no estándar: $tipoTarima para SKU $sku",
-                        ubicacion = ubicacion,
-                        fechaHora = ahora,
-                        tipo = TipoAlerta.TARIMA_NO_ESTANDAR
-                    )
-                )
+    /**
+     * Las alertas que [AlertasInventario] ya mantiene, limitadas al filtro. Las de una fila se
+     * quedan si la fila está en el filtro; las de ubicación múltiple de una regla sin ámbito se
+     * recalculan con las ubicaciones del SKU dentro del filtro, que [agregados] ya tiene.
+     */
+    private fun filtrarAlertas(
+        vigentes: List<AlertaActiva>,
+        agregados: AgregadosInventario,
+        almacen: String?,
+        tarima: String?
+    ): List<AlertaActiva> {
+        if (almacen == null && tarima == null) return vigentes
+        return vigentes.mapNotNull { alerta ->
+            val clave = alerta.clave
+            val regla = alerta.regla
+            when {
+                clave != null ->
+                    alerta.takeIf { (almacen == null || clave.almacen == almacen) && (tarima == null || clave.tipoTarima == tarima) }
+                regla.almacen != null || regla.tipoTarima != null -> alerta
+                else -> {
+                    val ubicaciones = agregados.ubicacionesDe(alerta.sku, almacen, tarima)
+                    if (ubicaciones.size > regla.umbral) {
+                        alerta.copy(valor = ubicaciones.size, ubicacion = ubicaciones.joinToString(", "))
+                    } else {
+                        null
+                    }
+                }
             }
         }
-
-        return alertas.take(10) // Limitar a 10 alertas más importantes
     }
 
-    private fun calcularTopSKUs(datos: List<List<String>>): List<TopSKUData> {
-        val skusMap = mutableMapOf<String, Pair<String, Int>>() // SKU -> (Descripción, Total Pallets)
-
-        datos.forEach { cols ->
-            val sku = cols[0]
-            val descripcion = cols.getOrNull(1) ?: ""
-            val pallets = cols.getOrNull(11)?.toIntOrNull() ?: 0
-
-            val current = skusMap[sku]
-            if (current == null) {
-                skusMap[sku] = descripcion to pallets
-            } else {
-                skusMap[sku] = current.first to (current.second + pallets)
+    private fun aAlertasInteligentes(vigentes: List<AlertaActiva>): List<AlertaInteligente> {
+        val ahora = SimpleDateFormat("HH:mm", Locale.getDefault()).format(Date())
+        val alertas = mutableListOf<AlertaInteligente>()
+        for (alerta in vigentes) {
+            val (mensaje, tipo) = when (alerta.regla.tipo) {
+                TipoRegla.UBICACION_MULTIPLE ->
+                    "SKU ${alerta.sku} encontrado en ${alerta.valor} ubicaciones" to TipoAlerta.UBICACION_MULTIPLE
+                TipoRegla.CANTIDAD_ALTA ->
+                    "Cantidad alta: ${alerta.sku} con ${alerta.valor} pallets" to TipoAlerta.CANTIDAD_ALTA
+                TipoRegla.TARIMA_NO_ESTANDAR ->
+                    "Tipo de tarima no estándar: ${alerta.tipoTarima.trim().uppercase()} para SKU ${alerta.sku}" to
+                        TipoAlerta.TARIMA_NO_ESTANDAR
+                // Solo se cuenta en el resumen de captura
+                TipoRegla.DISCREPANCIA_CRITICA -> continue
             }
+            alertas.add(AlertaInteligente(mensaje = mensaje, ubicacion = alerta.ubicacion, fechaHora = ahora, tipo = tipo))
+            if (alertas.size == MAX_ALERTAS) break // Limitar a las 10 alertas más importantes
         }
-
-        return skusMap.entries
-            .sortedByDescending { it.value.second }
-            .take(5)
-            .map { entry ->
-                TopSKUData(
-                    sku = entry.key,
-                    descripcion = entry.value.first.take(30), // Limitar descripción
-                    pallets = entry.value.second
-                )
-            }
+        return alertas
     }
 
-    private fun parseCsvLine(line: String): List<String> {
-        val result = mutableListOf<String>()
-        val current = StringBuilder()
-        var inQuotes = false
-        var i = 0
-
-        while (i < line.length) {
-            val c = line[i]
-            when {
-                c == '"' -> {
-                    if (inQuotes && i + 1 < line.length && line[i + 1] == '"') {
-                        current.append('"')
-                        i += 2
-                        continue
-                    }
-                    inQuotes = !inQuotes
-                }
-
-                c == ',' && !inQuotes -> {
-                    result.add(current.toString())
-                    current.setLength(0)
-                }
-
-                else -> current.append(c)
-            }
-            i++
+    private fun calcularTopSKUs(agregados: AgregadosInventario, almacen: String?, tarima: String?): List<TopSKUData> {
+        return agregados.topSkus(5, almacen, tarima).map { acumulado ->
+            TopSKUData(
+                sku = acumulado.sku,
+                descripcion = acumulado.descripcion.take(30), // Limitar descripción
+                pallets = acumulado.pallets
+            )
         }
-        result.add(current.toString())
-        return result
     }
 
     private fun obtenerFechaActual(): String {
@@ -441,6 +422,21 @@ data class DashboardState(
     val monitoringIntervalMs: Long = 10000L
 )
 
+/**
+ * Lo que el dashboard muestra para el filtro actual, leído de los totales acumulados.
+ */
+private class ResumenFiltrado(
+    val almacenesDisponibles: List<String>,
+    val tarimasDisponibles: List<String>,
+    val totalSKUs: Int,
+    val totalPallets: Int,
+    val almacenesActivos: Int,
+    val resumenAlmacenes: List<AlmacenData>,
+    val resumenTiposTarima: Map<String, Int>,
+    val alertas: List<AlertaInteligente>,
+    val topSKUs: List<TopSKUData>
+)
+
 /**
  * Data class para alertas inteligentes
  */
@@ -483,4 +479,5 @@ private const val KEY_LAST_TOTAL_PALLETS = "last_total_pallets"
 private const val KEY_LAST_TOTAL_SKUS = "last_total_skus"
 private const val KEY_HISTORY_PALLETS = "history_pallets" // CSV de enteros
 private const val HISTORY_LIMIT = 40
+private const val MAX_ALERTAS = 10
 
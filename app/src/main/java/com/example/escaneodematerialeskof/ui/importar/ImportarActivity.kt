@@ -251,6 +251,13 @@ class ImportarActivity : AppCompatActivity() {
         
         // Use the existing ViewModel to handle the import
         val viewModel = CapturaInventarioViewModel(application)
+        // Avance por lote mientras dura; el mensaje final lo pone el callback
+        viewModel.avanceImportacion.observe(this) { avance ->
+            if (avance == null || avance.terminada) return@observe
+            val reanudada = if (avance.reanudada) " (reanudada)" else ""
+            tvStatusImport.text = "Importando$reanudada: ${avance.importados} registros guardados, " +
+                "${avance.errores} con error (${avance.registrosPorSegundo.toInt()} registros/s)"
+        }
         viewModel.importarInventario(uri) { success, message ->
             tvStatusImport.text = message
             if (success) {
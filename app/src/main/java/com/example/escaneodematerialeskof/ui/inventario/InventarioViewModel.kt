@@ -3,7 +3,7 @@ package com.example.escaneodematerialeskof.ui.inventario
 import android.content.Context
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
-import com.example.escaneodematerialeskof.util.CSVUtils
+import com.example.escaneodematerialeskof.data.inventario.InventarioRepository
 import com.example.escaneodematerialeskof.util.Constants
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.MutableStateFlow
@@ -11,13 +11,12 @@ import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
-import java.io.File
 import java.text.SimpleDateFormat
 import java.util.*
 
 /**
  * ViewModel para la pantalla de Inventario (Compose) que calcula métricas dinámicas
- * a partir del archivo CSV de materiales.
+ * a partir del inventario escaneado.
  */
 class InventarioViewModel : ViewModel() {
     private val _uiState = MutableStateFlow(InventarioUIState())
@@ -34,46 +33,41 @@ class InventarioViewModel : ViewModel() {
             _uiState.value = _uiState.value.copy(cargando = true, error = null)
             withContext(Dispatchers.IO) {
                 try {
-                    val file = File(context.filesDir, Constants.INVENTORY_FILE_NAME)
-                    if (!file.exists()) {
-                        _uiState.value = InventarioUIState(cargando = false, ultimaActualizacion = ahora())
-                        return@withContext
-                    }
-                    val lineas = file.readLines(Charsets.UTF_8)
-                    if (lineas.size <= 1) {
-                        _uiState.value = InventarioUIState(cargando = false, ultimaActualizacion = ahora())
-                        return@withContext
-                    }
-                    val registros = lineas.drop(1)
-                        .map { CSVUtils.parseCsvLine(it) }
-                        .filter { it.size >= 13 }
+                    val registros = InventarioRepository.getInstance(context).obtenerTodos()
                         .filter { registro ->
-                            filtroAlmacen?.let { fa -> registro.getOrNull(13)?.trim() == fa } ?: true
+                            filtroAlmacen?.let { fa -> registro.almacen.trim() == fa } ?: true
                         }
+                    if (registros.isEmpty()) {
+                        _uiState.value = InventarioUIState(
+                            cargando = false,
+                            almacenFiltrado = filtroAlmacen,
+                            ultimaActualizacion = ahora()
+                        )
+                        return@withContext
+                    }
 
-                    val totalPallets = registros.sumOf { it.getOrNull(11)?.toIntOrNull() ?: 0 }
+                    val totalPallets = registros.sumOf { it.totalPallets }
                     val totalCajas = registros.sumOf { reg ->
-                        val pallets = reg.getOrNull(11)?.toIntOrNull() ?: 0
-                        val cxPal = reg.getOrNull(2)?.toIntOrNull() ?: 0
-                        pallets * cxPal
+                        val cxPal = reg.cxPal.toIntOrNull() ?: 0
+                        reg.totalPallets * cxPal
                     }
-                    val totalSkus = registros.map { it[0] }.distinct().size
+                    val totalSkus = registros.map { it.sku }.distinct().size
                     val ubicacionesDistintas =
-                        registros.mapNotNull { it.getOrNull(10)?.takeIf { u -> u.isNotBlank() } }.distinct().size
+                        registros.mapNotNull { it.ubicacion.takeIf { u -> u.isNotBlank() } }.distinct().size
                     val promedioPalletsPorSku = if (totalSkus > 0) totalPallets.toDouble() / totalSkus else 0.0
                     val progreso =
                         if (Constants.CAPACIDAD_PALLETS_OBJETIVO > 0) totalPallets.toFloat() / Constants.CAPACIDAD_PALLETS_OBJETIVO else 0f
 
                     val ultimo = registros.lastOrNull()
-                    val ultimoSku = ultimo?.getOrNull(0) ?: ""
-                    val ultimoPallets = ultimo?.getOrNull(11)?.toIntOrNull() ?: 0
-                    val ultimoUbicacion = ultimo?.getOrNull(10) ?: ""
+                    val ultimoSku = ultimo?.sku ?: ""
+                    val ultimoPallets = ultimo?.totalPallets ?: 0
+                    val ultimoUbicacion = ultimo?.ubicacion ?: ""
 
                     val ultimosEscaneos = registros.takeLast(5).map {
                         EscaneoBreve(
-                            sku = it[0],
-                            pallets = it.getOrNull(11)?.toIntOrNull() ?: 0,
-                            ubicacion = it.getOrNull(10) ?: ""
+                            sku = it.sku,
+                            pallets = it.totalPallets,
+                            ubicacion = it.ubicacion
                         )
                     }.reversed()
 
@@ -104,35 +98,6 @@ class InventarioViewModel : ViewModel() {
 
     private fun ahora(): String = SimpleDateFormat("dd/MM HH:mm:ss", Locale.getDefault()).format(Date())
 
-    private fun parseCsvLine(line: String): List<String> {
-        val result = mutableListOf<String>()
-        val current = StringBuilder()
-        var inQuotes = false
-        var i = 0
-        while (i < line.length) {
-            val c = line[i]
-            when {
-                c == '"' -> {
-                    if (inQuotes && i + 1 < line.length && line[i + 1] == '"') {
-                        current.append('"')
-                        i += 2
-                        continue
-                    }
-                    inQuotes = !inQuotes
-                }
-
-                c == ',' && !inQuotes -> {
-                    result.add(current.toString())
-                    current.setLength(0)
-                }
-
-                else -> current.append(c)
-            }
-            i++
-        }
-        result.add(current.toString())
-        return result
-    }
 }
 
 /**
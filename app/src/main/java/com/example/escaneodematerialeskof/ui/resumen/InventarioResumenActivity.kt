@@ -5,6 +5,7 @@ import android.widget.*
 import androidx.appcompat.app.AppCompatActivity
 import com.example.escaneodematerialeskof.R
 import com.example.escaneodematerialeskof.model.MaterialItem
+import com.example.escaneodematerialeskof.util.JsonInventario
 import com.github.mikephil.charting.charts.PieChart
 import com.github.mikephil.charting.data.PieData
 import com.github.mikephil.charting.data.PieDataSet
@@ -13,8 +14,6 @@ import com.google.android.material.appbar.MaterialToolbar
 import com.google.android.material.bottomnavigation.BottomNavigationView
 import com.google.android.material.button.MaterialButton
 import com.google.android.material.floatingactionbutton.FloatingActionButton
-import com.google.gson.Gson
-import com.google.gson.reflect.TypeToken
 import java.text.SimpleDateFormat
 import java.util.*
 
@@ -52,14 +51,10 @@ class InventarioResumenActivity : AppCompatActivity() {
         val fabAdd = findViewById<FloatingActionButton>(R.id.fabAdd)
         val bottomNavigation = findViewById<BottomNavigationView>(R.id.bottomNavigation)
 
-        val gson = Gson()
         val prefs = getSharedPreferences("inventario_escaneos", MODE_PRIVATE)
-        val type = object : TypeToken<List<MaterialItem>>() {}.type
 
-        fun cargarDatos(): List<MaterialItem> {
-            val listaJson = prefs.getString("lista_materiales", null)
-            return if (listaJson != null) gson.fromJson(listaJson, type) else emptyList()
-        }
+        fun cargarDatos(): List<MaterialItem> =
+            JsonInventario.leerLista(prefs.getString("lista_materiales", null), JsonInventario.materiales)
 
         fun actualizarAutoCompleteSKU(lista: List<MaterialItem>) {
             val skus = mutableListOf("Todos") + lista.map { it.sku }.distinct().sorted()
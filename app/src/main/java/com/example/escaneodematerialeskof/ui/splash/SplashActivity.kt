@@ -12,6 +12,7 @@ import android.widget.VideoView
 import androidx.activity.ComponentActivity
 import androidx.activity.OnBackPressedCallback
 import com.example.escaneodematerialeskof.R
+import com.example.escaneodematerialeskof.data.inventario.InventarioRepository
 import com.example.escaneodematerialeskof.ui.main.MainComposeActivity
 
 class SplashActivity : ComponentActivity() {
@@ -33,6 +34,9 @@ class SplashActivity : ComponentActivity() {
 
         setContentView(R.layout.activity_splash)
 
+        // Cargar el inventario en memoria mientras se reproduce el video
+        InventarioRepository.getInstance(this).precargar()
+
         // Deshabilitar el botón atrás durante el splash
         onBackPressedDispatcher.addCallback(this, object : OnBackPressedCallback(true) {
             override fun handleOnBackPressed() {
@@ -0,0 +1,51 @@
+package com.example.escaneodematerialeskof.util
+
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.OutputStream
+import java.io.Writer
+
+/**
+ * Escritura de archivos que nunca deja el destino a medias.
+ *
+ * El contenido se escribe en un temporal junto al destino, se sincroniza con el disco y después
+ * se renombra sobre el destino. Si el proceso muere antes del renombre, el destino conserva su
+ * versión anterior completa.
+ */
+object ArchivoAtomico {
+
+    /**
+     * Reemplaza [destino] con lo que escriba [contenido].
+     * @throws IOException si no se pudo escribir o renombrar; el destino queda intacto.
+     */
+    fun escribir(destino: File, contenido: (Writer) -> Unit) {
+        escribirBytes(destino) { salida ->
+            val writer = salida.bufferedWriter(Charsets.UTF_8)
+            contenido(writer)
+            writer.flush()
+        }
+    }
+
+    /**
+     * Como [escribir], para contenido binario (por ejemplo, comprimido).
+     */
+    fun escribirBytes(destino: File, contenido: (OutputStream) -> Unit) {
+        val temporal = File(destino.parentFile, destino.name + SUFIJO_TEMPORAL)
+        try {
+            FileOutputStream(temporal).use { salida ->
+                contenido(salida)
+                salida.flush()
+                salida.fd.sync()
+            }
+            if (!temporal.renameTo(destino)) {
+                throw IOException("No se pudo reemplazar ${destino.name}")
+            }
+        } catch (e: Exception) {
+            temporal.delete()
+            throw e
+        }
+    }
+
+    const val SUFIJO_TEMPORAL = ".tmp"
+}
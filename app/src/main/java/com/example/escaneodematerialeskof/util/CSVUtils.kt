@@ -4,34 +4,23 @@ package com.example.escaneodematerialeskof.util
 object CSVUtils {
     /**
      * Parsea una línea CSV respetando comillas y comillas escapadas.
+     * Si se da un [diccionario], los valores repetidos entre líneas comparten instancia.
+     *
+     * Crea una lista por línea; para archivos completos es mejor recorrerlos con [LectorCsv].
      */
-    fun parseCsvLine(line: String): List<String> {
-        val result = mutableListOf<String>()
-        val current = StringBuilder()
-        var inQuotes = false
-        var i = 0
-        while (i < line.length) {
-            val c = line[i]
-            when {
-                c == '"' -> {
-                    if (inQuotes && i + 1 < line.length && line[i + 1] == '"') {
-                        current.append('"')
-                        i += 2
-                        continue
-                    }
-                    inQuotes = !inQuotes
-                }
-
-                c == ',' && !inQuotes -> {
-                    result.add(current.toString())
-                    current.setLength(0)
-                }
+    fun parseCsvLine(line: String, diccionario: DiccionarioTextos? = null): List<String> {
+        val fila = LectorCsv().analizar(line)
+        return if (fila.columnas == 0) listOf("") else fila.comoLista(diccionario)
+    }
 
-                else -> current.append(c)
-            }
-            i++
+    /**
+     * Escapa un valor para CSV, encerrándolo en comillas si contiene comas, comillas o saltos de línea.
+     */
+    fun escapeForCsv(value: String): String {
+        return if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            "\"" + value.replace("\"", "\"\"") + "\""
+        } else {
+            value
         }
-        result.add(current.toString())
-        return result
     }
 }
@@ -6,13 +6,19 @@ package com.example.escaneodematerialeskof.util
 object Constants {
     // File names
     const val INVENTORY_FILE_NAME = "materiales_guardados.csv"
+    const val INVENTORY_JOURNAL_FILE_NAME = "materiales_guardados.journal" // Solo se lee al migrar a Room
+    const val INVENTORY_EVENTS_FILE_NAME = "inventario_eventos.log"
+    const val INVENTORY_SNAPSHOT_FILE_NAME = "inventario.snapshot"
+    const val INVENTORY_HISTORY_DIR_NAME = "historial_conteos"
 
     // CSV Headers (alineado con columnas: hasta TipoTarima y Almacen)
     const val CSV_HEADER = "SKU,DP,CxPal,FPC,Con,Centro,LINEA,OP,FProd,Dias V,Ubicacion,TotalPallets,TipoTarima,Almacen"
+    const val CSV_HEADER_AJUSTE = "CHEP,IEQSA,SAMS,Comentario_Ajuste"
 
     // Shared Preferences
     const val PREFS_NAME = "inventory_prefs"
     const val PREF_INVENTORY_RESET = "inventory_reset"
+    const val PREF_INVENTORY_MIGRATED_ROOM = "inventory_migrated_room"
 
     // Server URLs
     const val SERVER_URL = "http://your-server-url.com/api/inventory"
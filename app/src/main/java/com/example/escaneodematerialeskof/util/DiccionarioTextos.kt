@@ -0,0 +1,70 @@
+package com.example.escaneodematerialeskof.util
+
+import com.google.gson.TypeAdapter
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import com.google.gson.stream.JsonWriter
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Diccionario de textos para que los valores repetidos al cargar inventarios (centro, línea,
+ * tipo de tarima, almacén, ubicación, sku...) compartan una sola instancia.
+ *
+ * Sin él cada campo leído es un String propio: en 100k filas de inventario (5k SKUs) quedan 1.4M
+ * textos, unos 66 MB, para 10.5k valores distintos, que con el diccionario ocupan menos de 1 MB
+ * (ver `DiccionarioTextosTest`). Además, `equals` al agrupar resuelve casi siempre por referencia.
+ * El límite evita que textos únicos (fechas, comentarios) lo hagan crecer sin control; al llegar
+ * a él los textos nuevos se devuelven tal cual.
+ */
+class DiccionarioTextos(private val limite: Int = LIMITE_POR_DEFECTO) {
+
+    private val textos = ConcurrentHashMap<String, String>()
+
+    val tamano: Int
+        get() = textos.size
+
+    /**
+     * Devuelve la instancia compartida igual a [texto].
+     */
+    fun compartir(texto: String): String {
+        textos[texto]?.let { return it }
+        if (textos.size >= limite) return texto
+        return textos.putIfAbsent(texto, texto) ?: texto
+    }
+
+    fun limpiar() {
+        textos.clear()
+    }
+
+    /**
+     * Adaptador de Gson que pasa cada String leído por el diccionario.
+     * Se registra con `GsonBuilder().registerTypeAdapter(String::class.java, ...)`.
+     */
+    fun adaptadorGson(): TypeAdapter<String> = object : TypeAdapter<String>() {
+        override fun write(out: JsonWriter, value: String?) {
+            out.value(value)
+        }
+
+        override fun read(reader: JsonReader): String? {
+            return when (reader.peek()) {
+                JsonToken.NULL -> {
+                    reader.nextNull()
+                    null
+                }
+                JsonToken.BOOLEAN -> reader.nextBoolean().toString()
+                else -> compartir(reader.nextString())
+            }
+        }
+    }
+
+    companion object {
+        private const val LIMITE_POR_DEFECTO = 200_000
+
+        /**
+         * Diccionario compartido por las cargas del inventario actual. El repositorio lo vacía al
+         * reiniciar el inventario y al empezar una importación, para que no conserve los textos
+         * de conteos anteriores.
+         */
+        val sesion = DiccionarioTextos()
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.escaneodematerialeskof.util
+
+import java.io.File
+import java.io.FilterOutputStream
+import java.io.OutputStream
+import java.io.OutputStreamWriter
+import java.io.Writer
+import java.util.zip.GZIPOutputStream
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+/**
+ * Exporta CSV escribiendo cada fila directo en el [OutputStream] de destino, sin armar el archivo
+ * en memoria, y opcionalmente comprimiéndolo al vuelo en GZIP o ZIP.
+ */
+object ExportadorCsv {
+
+    enum class Compresion(val extension: String, val tipoMime: String) {
+        NINGUNA("", "text/csv"),
+        GZIP(".gz", "application/gzip"),
+        ZIP(".zip", "application/zip")
+    }
+
+    /**
+     * @property bytes bytes escritos en el destino, ya comprimidos.
+     */
+    data class Resultado(val filas: Int, val bytes: Long, val milisegundos: Long)
+
+    /**
+     * Escribe en [destino] lo que genere [contenido], que devuelve el número de filas escritas.
+     * [nombre] es el nombre del CSV dentro del ZIP. No cierra [destino].
+     */
+    fun exportar(
+        destino: OutputStream,
+        nombre: String,
+        compresion: Compresion = Compresion.NINGUNA,
+        contenido: (Writer) -> Int
+    ): Resultado {
+        val inicio = System.nanoTime()
+        val contador = ContadorBytes(destino)
+        val salida = when (compresion) {
+            Compresion.NINGUNA -> contador
+            Compresion.GZIP -> GZIPOutputStream(contador, TAMANO_BUFFER)
+            Compresion.ZIP -> ZipOutputStream(contador).apply { putNextEntry(ZipEntry(nombre)) }
+        }
+        val writer = OutputStreamWriter(salida, Charsets.UTF_8).buffered(TAMANO_BUFFER)
+        val filas = contenido(writer)
+        writer.flush()
+        when (salida) {
+            is ZipOutputStream -> {
+                salida.closeEntry()
+                salida.finish()
+            }
+            is GZIPOutputStream -> salida.finish()
+        }
+        contador.flush()
+        return Resultado(filas, contador.bytes, (System.nanoTime() - inicio) / 1_000_000)
+    }
+
+    /**
+     * Exporta a `directorio/nombreCsv` más la extensión de [compresion], reemplazando el archivo
+     * de forma atómica.
+     * @return el archivo generado y el resultado.
+     */
+    fun exportarArchivo(
+        directorio: File,
+        nombreCsv: String,
+        compresion: Compresion = Compresion.NINGUNA,
+        contenido: (Writer) -> Int
+    ): Pair<File, Resultado> {
+        val archivo = File(directorio, nombreCsv + compresion.extension)
+        var resultado: Resultado? = null
+        ArchivoAtomico.escribirBytes(archivo) { salida ->
+            resultado = exportar(salida, nombreCsv, compresion, contenido)
+        }
+        return archivo to resultado!!
+    }
+
+    /**
+     * Compresión para adjuntar por correo: los archivos con muchas filas se envían en ZIP.
+     */
+    fun compresionParaCorreo(filas: Int): Compresion =
+        if (filas >= FILAS_COMPRIMIR_CORREO) Compresion.ZIP else Compresion.NINGUNA
+
+    /**
+     * Tipo MIME de un archivo generado por [exportarArchivo], según su extensión.
+     */
+    fun tipoMimeDe(archivo: File): String =
+        Compresion.values().lastOrNull { it.extension.isNotEmpty() && archivo.name.endsWith(it.extension) }?.tipoMime
+            ?: Compresion.NINGUNA.tipoMime
+
+    /**
+     * Escribe [valor] escapado para CSV, igual que [CSVUtils.escapeForCsv] pero sin crear
+     * un String nuevo cuando no hace falta escapar.
+     */
+    fun escribirCampo(out: Writer, valor: String) {
+        var escapar = false
+        for (c in valor) {
+            if (c == ',' || c == '"' || c == '\n') {
+                escapar = true
+                break
+            }
+        }
+        if (!escapar) {
+            out.write(valor)
+            return
+        }
+        out.write('"'.code)
+        for (c in valor) {
+            if (c == '"') out.write('"'.code)
+            out.write(c.code)
+        }
+        out.write('"'.code)
+    }
+
+    private class ContadorBytes(destino: OutputStream) : FilterOutputStream(destino) {
+        var bytes = 0L
+            private set
+
+        override fun write(b: Int) {
+            out.write(b)
+            bytes++
+        }
+
+        override fun write(b: ByteArray, off: Int, len: Int) {
+            out.write(b, off, len)
+            bytes += len
+        }
+    }
+
+    private const val TAMANO_BUFFER = 16 * 1024
+    private const val FILAS_COMPRIMIR_CORREO = 1_000
+}
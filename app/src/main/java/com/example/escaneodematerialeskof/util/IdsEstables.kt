@@ -0,0 +1,25 @@
+package com.example.escaneodematerialeskof.util
+
+/**
+ * IDs de RecyclerView estables por clave (por ejemplo, el SKU de la fila): la misma clave recibe
+ * siempre el mismo ID mientras siga en la lista, y dos claves distintas nunca comparten ID, cosa
+ * que `hashCode()` no garantiza.
+ */
+class IdsEstables<K : Any> {
+
+    private val ids = HashMap<K, Long>()
+    private var siguiente = 0L
+
+    fun de(clave: K): Long = ids.getOrPut(clave) { siguiente++ }
+
+    /**
+     * Olvida las claves que ya no están en [vigentes], para que el mapa no crezca sin límite. Solo
+     * recorre la lista cuando las claves olvidables ya son más que las vigentes.
+     */
+    fun <T> conservar(vigentes: List<T>, clave: (T) -> K) {
+        if (ids.size <= vigentes.size * 2) return
+        val claves = HashSet<K>(vigentes.size * 2)
+        for (item in vigentes) claves.add(clave(item))
+        ids.keys.retainAll(claves)
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.escaneodematerialeskof.util
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.launch
+import java.io.FileInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Importa CSV grandes (UTF-8) repartiendo el análisis entre los núcleos del dispositivo.
+ *
+ * El archivo se mapea en memoria cuando la entrada es un [FileInputStream] con tamaño conocido;
+ * si no, se lee en bloques grandes. En ambos casos se corta en bloques de unos [tamanoBloque]
+ * bytes, siempre en un salto de línea que no esté dentro de comillas, y cada bloque se analiza
+ * con su propio [LectorCsv] en [Dispatchers.Default]. Los resultados parciales se devuelven en el
+ * orden del archivo para que quien llama los combine como lo haría una lectura secuencial.
+ *
+ * Se cancela con la corrutina que llama; cada bloque revisa la cancelación antes de empezar.
+ */
+class ImportadorCsvParalelo(
+    private val tamanoBloque: Int = TAMANO_BLOQUE,
+    private val paralelismo: Int = Runtime.getRuntime().availableProcessors()
+) {
+
+    private class Bloque(val indice: Int, val datos: ByteBuffer)
+
+    /**
+     * @param tamanoTotal bytes esperados, para calcular el progreso si la entrada no se puede mapear.
+     * @param progreso recibe la fracción procesada, de 0 a 1.
+     * @param procesar convierte los registros de un bloque en un resultado parcial. El bloque 0
+     *   empieza al inicio del archivo, así que es el único que contiene el encabezado.
+     * @return los resultados parciales en el orden de los bloques.
+     */
+    suspend fun <T : Any> importar(
+        entrada: InputStream,
+        tamanoTotal: Long = -1,
+        progreso: (Float) -> Unit = {},
+        procesar: (indice: Int, fila: LectorCsv) -> T
+    ): List<T> = coroutineScope {
+        val mapa = mapear(entrada)
+        val total = mapa?.capacity()?.toLong() ?: tamanoTotal
+        val bloques = Channel<Bloque>(paralelismo)
+        val resultados = ConcurrentHashMap<Int, T>()
+        val procesados = AtomicLong()
+
+        launch(Dispatchers.IO) {
+            try {
+                if (mapa != null) cortarMapa(mapa, bloques) else cortarFlujo(entrada, bloques)
+            } finally {
+                bloques.close()
+            }
+        }
+        repeat(paralelismo) {
+            launch(Dispatchers.Default) {
+                for (bloque in bloques) {
+                    ensureActive()
+                    val bytes = bloque.datos.remaining()
+                    val texto = Charsets.UTF_8.decode(bloque.datos)
+                    resultados[bloque.indice] = procesar(bloque.indice, LectorCsv().iniciar(texto))
+                    val hechos = procesados.addAndGet(bytes.toLong())
+                    if (total > 0) {
+                        synchronized(procesados) { progreso(minOf(1f, hechos.toFloat() / total)) }
+                    }
+                }
+            }
+        }
+        resultados
+    }.let { resultados -> List(resultados.size) { resultados.getValue(it) } }
+
+    private fun mapear(entrada: InputStream): ByteBuffer? {
+        val canal = (entrada as? FileInputStream)?.channel ?: return null
+        return try {
+            val tamano = canal.size()
+            if (tamano <= 0 || tamano > Int.MAX_VALUE) null
+            else canal.map(FileChannel.MapMode.READ_ONLY, 0, tamano)
+        } catch (e: IOException) {
+            // Tuberías y otros descriptores que no se pueden mapear se leen como flujo
+            null
+        }
+    }
+
+    private suspend fun cortarMapa(mapa: ByteBuffer, bloques: Channel<Bloque>) {
+        var inicio = 0
+        var indice = 0
+        while (inicio < mapa.limit()) {
+            val fin = buscarCorte(mapa, inicio, mapa.limit(), inicio + tamanoBloque) ?: mapa.limit()
+            val vista = mapa.duplicate()
+            vista.limit(fin)
+            vista.position(inicio)
+            bloques.send(Bloque(indice++, vista.slice()))
+            inicio = fin
+        }
+    }
+
+    private suspend fun cortarFlujo(entrada: InputStream, bloques: Channel<Bloque>) {
+        var buffer = ByteArray(tamanoBloque * 2)
+        var largo = 0
+        var indice = 0
+        var fin = false
+        while (!fin || largo > 0) {
+            while (!fin && largo < tamanoBloque) {
+                val leidos = entrada.read(buffer, largo, buffer.size - largo)
+                if (leidos < 0) fin = true else largo += leidos
+            }
+            var corte = buscarCorte(ByteBuffer.wrap(buffer, 0, largo), 0, largo, tamanoBloque)
+            // Un registro más largo que el bloque: seguir leyendo hasta encontrar su fin
+            while (corte == null && !fin) {
+                if (largo == buffer.size) buffer = buffer.copyOf(buffer.size * 2)
+                val leidos = entrada.read(buffer, largo, buffer.size - largo)
+                if (leidos < 0) fin = true else largo += leidos
+                corte = buscarCorte(ByteBuffer.wrap(buffer, 0, largo), 0, largo, tamanoBloque)
+            }
+            val hasta = corte ?: largo
+            bloques.send(Bloque(indice++, ByteBuffer.wrap(buffer.copyOf(hasta))))
+            System.arraycopy(buffer, hasta, buffer, 0, largo - hasta)
+            largo -= hasta
+        }
+    }
+
+    companion object {
+        private const val TAMANO_BLOQUE = 1 shl 20
+
+        /**
+         * Posición siguiente al primer '\n' fuera de comillas en o después de [minimo], recorriendo
+         * [datos] desde [inicio] (que debe ser el inicio de un registro) hasta [fin].
+         * @return null si no hay ningún corte posible antes de [fin].
+         */
+        private fun buscarCorte(datos: ByteBuffer, inicio: Int, fin: Int, minimo: Int): Int? {
+            var enComillas = false
+            for (i in inicio until fin) {
+                when (datos.get(i)) {
+                    COMILLA -> enComillas = !enComillas
+                    SALTO -> if (!enComillas && i >= minimo - 1) return i + 1
+                }
+            }
+            return null
+        }
+
+        private const val COMILLA = '"'.code.toByte()
+        private const val SALTO = '\n'.code.toByte()
+    }
+}
@@ -47,13 +47,13 @@ object InventarioConverter {
 
         csvData.forEach { fila ->
             if (fila.size >= 3) {
-                val sku = fila[0].trim()
-                val descripcion = fila.getOrNull(1)?.trim() ?: ""
+                val sku = texto(fila, 0)
+                val descripcion = texto(fila, 1)
                 val librUtiliz = fila.getOrNull(2)?.trim()?.toIntOrNull() ?: 0
-                val tipoTarima = fila.getOrNull(3)?.trim() ?: ""
-                val ubicacion = fila.getOrNull(4)?.trim() ?: ""
-                val centro = fila.getOrNull(5)?.trim() ?: ""
-                val linea = fila.getOrNull(6)?.trim() ?: ""
+                val tipoTarima = texto(fila, 3)
+                val ubicacion = texto(fila, 4)
+                val centro = texto(fila, 5)
+                val linea = texto(fila, 6)
 
                 if (sku.isNotBlank()) {
                     val inventarioItem = InventarioItem(
@@ -93,10 +93,10 @@ object InventarioConverter {
 
         csvData.forEach { fila ->
             if (fila.size >= 3) {
-                val sku = fila[0].trim()
-                val descripcion = fila.getOrNull(1)?.trim() ?: ""
+                val sku = texto(fila, 0)
+                val descripcion = texto(fila, 1)
                 val pallets = fila.getOrNull(2)?.trim()?.toIntOrNull() ?: 0
-                val ubicacion = fila.getOrNull(3)?.trim() ?: ""
+                val ubicacion = texto(fila, 3)
 
                 if (sku.isNotBlank()) {
                     val inventarioItem = InventarioItem(
@@ -124,6 +124,12 @@ object InventarioConverter {
         return inventario
     }
 
+    /**
+     * Columna recortada y compartida con el diccionario de la sesión; "" si no existe.
+     */
+    private fun texto(fila: List<String>, indice: Int): String =
+        fila.getOrNull(indice)?.let { DiccionarioTextos.sesion.compartir(it.trim()) } ?: ""
+
     /**
      * Valida el formato del CSV del sistema.
      * Headers esperados: SKU, Descripción, LibrUtiliz, TipoTarima, etc.
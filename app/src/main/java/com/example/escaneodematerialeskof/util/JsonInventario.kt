@@ -0,0 +1,334 @@
+package com.example.escaneodematerialeskof.util
+
+import com.example.escaneodematerialeskof.model.AlmacenCapacidad
+import com.example.escaneodematerialeskof.model.InventarioItem
+import com.example.escaneodematerialeskof.model.MaterialItem
+import com.example.escaneodematerialeskof.model.ReglaAlerta
+import com.example.escaneodematerialeskof.model.TipoRegla
+import com.google.gson.TypeAdapter
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import com.google.gson.stream.JsonWriter
+import java.io.Reader
+import java.io.StringReader
+import java.io.StringWriter
+import java.io.Writer
+
+/**
+ * Lectura y escritura de listas de [MaterialItem], [InventarioItem], [AlmacenCapacidad] y
+ * [ReglaAlerta] en JSON
+ * directamente con [JsonReader]/[JsonWriter].
+ *
+ * Reemplaza a `Gson().fromJson(json, TypeToken)`, que resuelve los campos por reflexión en cada
+ * carga y arma los objetos con `Unsafe`. Aquí cada adaptador lee campo por campo y construye el
+ * objeto con su constructor, sin árbol intermedio. El formato es el mismo que escribía Gson
+ * (nombres de propiedad como claves y sin campos null), así que los datos ya guardados se leen
+ * sin migración. Las claves desconocidas se ignoran y los textos leídos pasan por el
+ * [DiccionarioTextos] indicado.
+ *
+ * Los adaptadores también se pueden registrar en un `GsonBuilder` con `registerTypeAdapter`.
+ */
+object JsonInventario {
+
+    val materiales: TypeAdapter<MaterialItem> = AdaptadorMaterial(DiccionarioTextos.sesion)
+    val inventario: TypeAdapter<InventarioItem> = AdaptadorInventario(DiccionarioTextos.sesion)
+    val almacenes: TypeAdapter<AlmacenCapacidad> = AdaptadorAlmacen(DiccionarioTextos.sesion)
+    val reglas: TypeAdapter<ReglaAlerta> = AdaptadorRegla()
+
+    fun materiales(diccionario: DiccionarioTextos?): TypeAdapter<MaterialItem> = AdaptadorMaterial(diccionario)
+
+    fun inventario(diccionario: DiccionarioTextos?): TypeAdapter<InventarioItem> = AdaptadorInventario(diccionario)
+
+    fun almacenes(diccionario: DiccionarioTextos?): TypeAdapter<AlmacenCapacidad> = AdaptadorAlmacen(diccionario)
+
+    /**
+     * Lee un arreglo JSON elemento por elemento. Un `null` de primer nivel da una lista vacía.
+     */
+    fun <T> leerLista(entrada: Reader, adaptador: TypeAdapter<T>): MutableList<T> {
+        val reader = JsonReader(entrada)
+        // Igual que Gson.fromJson, para aceptar lo que este haya guardado antes
+        reader.isLenient = true
+        val lista = mutableListOf<T>()
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull()
+            return lista
+        }
+        reader.beginArray()
+        while (reader.hasNext()) {
+            adaptador.read(reader)?.let { lista.add(it) }
+        }
+        reader.endArray()
+        return lista
+    }
+
+    /**
+     * Como [leerLista], para el texto guardado en SharedPreferences; null o vacío da una lista vacía.
+     */
+    fun <T> leerLista(texto: String?, adaptador: TypeAdapter<T>): MutableList<T> =
+        if (texto.isNullOrBlank()) mutableListOf() else leerLista(StringReader(texto), adaptador)
+
+    fun <T> escribirLista(lista: List<T>, out: Writer, adaptador: TypeAdapter<T>) {
+        val writer = JsonWriter(out)
+        writer.beginArray()
+        for (item in lista) adaptador.write(writer, item)
+        writer.endArray()
+        writer.flush()
+    }
+
+    fun <T> aTexto(lista: List<T>, adaptador: TypeAdapter<T>): String {
+        val out = StringWriter(lista.size * 160 + 2)
+        escribirLista(lista, out, adaptador)
+        return out.toString()
+    }
+
+    private class AdaptadorMaterial(private val diccionario: DiccionarioTextos?) : TypeAdapter<MaterialItem>() {
+        override fun write(out: JsonWriter, value: MaterialItem?) {
+            if (value == null) {
+                out.nullValue()
+                return
+            }
+            out.beginObject()
+            campo(out, "sku", value.sku)
+            campo(out, "descripcion", value.descripcion)
+            campo(out, "cxPal", value.cxPal)
+            campo(out, "fpc", value.fpc)
+            campo(out, "con", value.con)
+            campo(out, "centro", value.centro)
+            campo(out, "linea", value.linea)
+            campo(out, "op", value.op)
+            campo(out, "fProd", value.fProd)
+            campo(out, "diasV", value.diasV)
+            campo(out, "ubicacion", value.ubicacion)
+            campo(out, "totalPallets", value.totalPallets)
+            campo(out, "restos", value.restos)
+            campo(out, "tipoTarima", value.tipoTarima)
+            campo(out, "almacen", value.almacen)
+            out.endObject()
+        }
+
+        override fun read(reader: JsonReader): MaterialItem? {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull()
+                return null
+            }
+            var sku = ""
+            var descripcion = ""
+            var cxPal = ""
+            var fpc = ""
+            var con = ""
+            var centro = ""
+            var linea = ""
+            var op = ""
+            var fProd = ""
+            var diasV = ""
+            // Gson dejaba en null los opcionales que faltaban; se conserva ese comportamiento
+            var ubicacion: String? = null
+            var totalPallets: String? = null
+            var restos: String? = null
+            var tipoTarima: String? = null
+            var almacen: String? = null
+            reader.beginObject()
+            while (reader.hasNext()) {
+                when (reader.nextName()) {
+                    "sku" -> sku = texto(reader, diccionario) ?: ""
+                    "descripcion" -> descripcion = texto(reader, diccionario) ?: ""
+                    "cxPal" -> cxPal = texto(reader, diccionario) ?: ""
+                    "fpc" -> fpc = texto(reader, diccionario) ?: ""
+                    "con" -> con = texto(reader, diccionario) ?: ""
+                    "centro" -> centro = texto(reader, diccionario) ?: ""
+                    "linea" -> linea = texto(reader, diccionario) ?: ""
+                    "op" -> op = texto(reader, diccionario) ?: ""
+                    "fProd" -> fProd = texto(reader, diccionario) ?: ""
+                    "diasV" -> diasV = texto(reader, diccionario) ?: ""
+                    "ubicacion" -> ubicacion = texto(reader, diccionario)
+                    "totalPallets" -> totalPallets = texto(reader, diccionario)
+                    "restos" -> restos = texto(reader, diccionario)
+                    "tipoTarima" -> tipoTarima = texto(reader, diccionario)
+                    "almacen" -> almacen = texto(reader, diccionario)
+                    else -> reader.skipValue()
+                }
+            }
+            reader.endObject()
+            return MaterialItem(
+                sku, descripcion, cxPal, fpc, con, centro, linea, op, fProd, diasV,
+                ubicacion, totalPallets, restos, tipoTarima, almacen
+            )
+        }
+    }
+
+    private class AdaptadorInventario(private val diccionario: DiccionarioTextos?) : TypeAdapter<InventarioItem>() {
+        override fun write(out: JsonWriter, value: InventarioItem?) {
+            if (value == null) {
+                out.nullValue()
+                return
+            }
+            out.beginObject()
+            campo(out, "sku", value.sku)
+            campo(out, "descripcion", value.descripcion)
+            out.name("librUtiliz").value(value.librUtiliz.toLong())
+            out.name("totalPallets").value(value.totalPallets.toLong())
+            out.name("pallets").value(value.pallets.toLong())
+            campo(out, "tipoTarima", value.tipoTarima)
+            campo(out, "ubicacion", value.ubicacion)
+            campo(out, "centro", value.centro)
+            campo(out, "linea", value.linea)
+            out.endObject()
+        }
+
+        override fun read(reader: JsonReader): InventarioItem? {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull()
+                return null
+            }
+            var sku = ""
+            var descripcion = ""
+            var librUtiliz = 0
+            var totalPallets = 0
+            var pallets = 0
+            var tipoTarima = ""
+            var ubicacion = ""
+            var centro = ""
+            var linea = ""
+            reader.beginObject()
+            while (reader.hasNext()) {
+                when (reader.nextName()) {
+                    "sku" -> sku = texto(reader, diccionario) ?: ""
+                    "descripcion" -> descripcion = texto(reader, diccionario) ?: ""
+                    "librUtiliz" -> librUtiliz = entero(reader)
+                    "totalPallets" -> totalPallets = entero(reader)
+                    "pallets" -> pallets = entero(reader)
+                    "tipoTarima" -> tipoTarima = texto(reader, diccionario) ?: ""
+                    "ubicacion" -> ubicacion = texto(reader, diccionario) ?: ""
+                    "centro" -> centro = texto(reader, diccionario) ?: ""
+                    "linea" -> linea = texto(reader, diccionario) ?: ""
+                    else -> reader.skipValue()
+                }
+            }
+            reader.endObject()
+            return InventarioItem(
+                sku = sku,
+                descripcion = descripcion,
+                librUtiliz = librUtiliz,
+                totalPallets = totalPallets,
+                pallets = pallets,
+                tipoTarima = tipoTarima,
+                ubicacion = ubicacion,
+                centro = centro,
+                linea = linea
+            )
+        }
+    }
+
+    private class AdaptadorAlmacen(private val diccionario: DiccionarioTextos?) : TypeAdapter<AlmacenCapacidad>() {
+        override fun write(out: JsonWriter, value: AlmacenCapacidad?) {
+            if (value == null) {
+                out.nullValue()
+                return
+            }
+            out.beginObject()
+            campo(out, "nombreAlmacen", value.nombreAlmacen)
+            out.name("capacidadMaxima").value(value.capacidadMaxima.toLong())
+            out.name("palletsEscaneados").value(value.palletsEscaneados.toLong())
+            out.endObject()
+        }
+
+        override fun read(reader: JsonReader): AlmacenCapacidad? {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull()
+                return null
+            }
+            var nombre = ""
+            var capacidad = 0
+            var pallets = 0
+            reader.beginObject()
+            while (reader.hasNext()) {
+                when (reader.nextName()) {
+                    "nombreAlmacen" -> nombre = texto(reader, diccionario) ?: ""
+                    "capacidadMaxima" -> capacidad = entero(reader)
+                    "palletsEscaneados" -> pallets = entero(reader)
+                    else -> reader.skipValue()
+                }
+            }
+            reader.endObject()
+            return AlmacenCapacidad(nombre, capacidad, pallets)
+        }
+    }
+
+    /**
+     * Una regla con un tipo desconocido (de una versión más nueva) se lee como null y se omite.
+     */
+    private class AdaptadorRegla : TypeAdapter<ReglaAlerta>() {
+        override fun write(out: JsonWriter, value: ReglaAlerta?) {
+            if (value == null) {
+                out.nullValue()
+                return
+            }
+            out.beginObject()
+            out.name("id").value(value.id)
+            out.name("tipo").value(value.tipo.name)
+            out.name("umbral").value(value.umbral.toLong())
+            campo(out, "almacen", value.almacen)
+            campo(out, "tipoTarima", value.tipoTarima)
+            if (value.tarimasPermitidas.isNotEmpty()) {
+                out.name("tarimasPermitidas").beginArray()
+                for (tarima in value.tarimasPermitidas) out.value(tarima)
+                out.endArray()
+            }
+            out.endObject()
+        }
+
+        override fun read(reader: JsonReader): ReglaAlerta? {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull()
+                return null
+            }
+            var id = ""
+            var tipo: TipoRegla? = null
+            var umbral = 0
+            var almacen: String? = null
+            var tipoTarima: String? = null
+            val permitidas = LinkedHashSet<String>()
+            reader.beginObject()
+            while (reader.hasNext()) {
+                when (reader.nextName()) {
+                    "id" -> id = texto(reader, null) ?: ""
+                    "tipo" -> tipo = texto(reader, null)?.let { nombre -> TipoRegla.entries.firstOrNull { it.name == nombre } }
+                    "umbral" -> umbral = entero(reader)
+                    "almacen" -> almacen = texto(reader, null)
+                    "tipoTarima" -> tipoTarima = texto(reader, null)
+                    "tarimasPermitidas" -> {
+                        reader.beginArray()
+                        while (reader.hasNext()) texto(reader, null)?.let { permitidas.add(it) }
+                        reader.endArray()
+                    }
+                    else -> reader.skipValue()
+                }
+            }
+            reader.endObject()
+            return tipo?.let { ReglaAlerta(id, it, umbral, almacen, tipoTarima, permitidas) }
+        }
+    }
+
+    /** Escribe el campo solo si tiene valor, como Gson con su configuración por defecto. */
+    private fun campo(out: JsonWriter, nombre: String, valor: String?) {
+        if (valor != null) out.name(nombre).value(valor)
+    }
+
+    private fun texto(reader: JsonReader, diccionario: DiccionarioTextos?): String? =
+        when (reader.peek()) {
+            JsonToken.NULL -> {
+                reader.nextNull()
+                null
+            }
+            JsonToken.BOOLEAN -> reader.nextBoolean().toString()
+            else -> reader.nextString().let { diccionario?.compartir(it) ?: it }
+        }
+
+    private fun entero(reader: JsonReader): Int =
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull()
+            0
+        } else {
+            reader.nextInt()
+        }
+}
@@ -0,0 +1,287 @@
+package com.example.escaneodematerialeskof.util
+
+import java.io.Reader
+
+/**
+ * Tokenizador de CSV que lee registro por registro sin crear una lista ni un String por campo.
+ *
+ * Cada llamada a [siguiente] deja el registro en un búfer reutilizable y guarda dónde empieza y
+ * termina cada campo. Los accesores leen directo de ese búfer: [entero] convierte el número sin
+ * materializar el texto y [texto] solo crea el String cuando se pide. Respeta campos entre
+ * comillas, comillas escapadas (`""`), comas y saltos de línea dentro de comillas, y fines de
+ * línea `\r\n`.
+ *
+ * Los accesores de columnas que no existen devuelven "" o null, igual que `getOrNull(i) ?: ""`.
+ * No es seguro para uso concurrente.
+ */
+class LectorCsv(private val reader: Reader? = null, tamanoBuffer: Int = 8192) {
+
+    private val buffer = CharArray(if (reader != null) tamanoBuffer else 0)
+    private var posBuffer = 0
+    private var finBuffer = 0
+
+    // Fuente usada por [analizar] e [iniciar]
+    private var linea: CharSequence? = null
+    private var posLinea = 0
+
+    private var registro = CharArray(256)
+    private var largoRegistro = 0
+    private var inicios = IntArray(16)
+    private var fines = IntArray(16)
+    private var escapados = BooleanArray(16)
+
+    /** Número de columnas del registro actual. */
+    var columnas = 0
+        private set
+
+    /**
+     * Avanza al siguiente registro del [Reader].
+     * @return false al llegar al final.
+     */
+    fun siguiente(): Boolean = leerRegistro()
+
+    /**
+     * Analiza [texto] como un solo registro, sin usar el [Reader].
+     */
+    fun analizar(texto: CharSequence): LectorCsv {
+        linea = texto
+        posLinea = 0
+        try {
+            if (!leerRegistro()) columnas = 0
+        } finally {
+            linea = null
+        }
+        return this
+    }
+
+    /**
+     * Recorre los registros de [texto] con [siguiente] en lugar de los del [Reader].
+     */
+    fun iniciar(texto: CharSequence): LectorCsv {
+        linea = texto
+        posLinea = 0
+        columnas = 0
+        return this
+    }
+
+    /** true si el registro es una línea vacía o solo con espacios. */
+    val registroEnBlanco: Boolean
+        get() = columnas == 0 || (columnas == 1 && enBlanco(0))
+
+    fun texto(i: Int): String {
+        if (i >= columnas) return ""
+        val inicio = inicios[i]
+        val fin = fines[i]
+        if (!escapados[i]) return String(registro, inicio, fin - inicio)
+        val sb = StringBuilder(fin - inicio)
+        var j = inicio
+        while (j < fin) {
+            val c = registro[j]
+            sb.append(c)
+            // Dentro de comillas cada "" representa una sola comilla
+            if (c == '"' && j + 1 < fin && registro[j + 1] == '"') j++
+            j++
+        }
+        return sb.toString()
+    }
+
+    fun texto(i: Int, diccionario: DiccionarioTextos?): String {
+        val valor = texto(i)
+        return diccionario?.compartir(valor) ?: valor
+    }
+
+    /**
+     * Texto de la columna sin espacios al inicio ni al final.
+     */
+    fun textoRecortado(i: Int, diccionario: DiccionarioTextos? = null): String {
+        if (i >= columnas) return ""
+        if (escapados[i]) return texto(i, null).trim().let { diccionario?.compartir(it) ?: it }
+        var inicio = inicios[i]
+        var fin = fines[i]
+        while (inicio < fin && registro[inicio].isWhitespace()) inicio++
+        while (fin > inicio && registro[fin - 1].isWhitespace()) fin--
+        val valor = String(registro, inicio, fin - inicio)
+        return diccionario?.compartir(valor) ?: valor
+    }
+
+    /**
+     * Entero de la columna, ignorando espacios; null si está vacía, no es un número o se desborda.
+     */
+    fun entero(i: Int): Int? {
+        val valor = enteroLargo(i) ?: return null
+        return if (valor < Int.MIN_VALUE || valor > Int.MAX_VALUE) null else valor.toInt()
+    }
+
+    /**
+     * Como [entero], para valores Long (por ejemplo, fechas en milisegundos).
+     */
+    fun enteroLargo(i: Int): Long? {
+        if (i >= columnas) return null
+        var j = inicios[i]
+        var fin = fines[i]
+        while (j < fin && registro[j] == ' ') j++
+        while (fin > j && registro[fin - 1] == ' ') fin--
+        if (j == fin) return null
+        val negativo = registro[j] == '-'
+        if (negativo || registro[j] == '+') j++
+        if (j == fin) return null
+        var valor = 0L
+        while (j < fin) {
+            val d = registro[j] - '0'
+            if (d < 0 || d > 9 || valor > (Long.MAX_VALUE - d) / 10) return null
+            valor = valor * 10 + d
+            j++
+        }
+        return if (negativo) -valor else valor
+    }
+
+    fun enBlanco(i: Int): Boolean {
+        if (i >= columnas) return true
+        for (j in inicios[i] until fines[i]) {
+            if (!registro[j].isWhitespace()) return false
+        }
+        return true
+    }
+
+    /**
+     * true si el registro, tal como aparece en el archivo, empieza con [prefijo].
+     */
+    fun empiezaCon(prefijo: String): Boolean {
+        if (largoRegistro < prefijo.length) return false
+        for (j in prefijo.indices) {
+            if (registro[j] != prefijo[j]) return false
+        }
+        return true
+    }
+
+    /**
+     * Texto original del registro, sin el fin de línea.
+     */
+    fun crudo(): String {
+        var fin = largoRegistro
+        if (fin > 0 && registro[fin - 1] == '\n') fin--
+        if (fin > 0 && registro[fin - 1] == '\r') fin--
+        return String(registro, 0, fin)
+    }
+
+    fun comoLista(diccionario: DiccionarioTextos? = null): List<String> = List(columnas) { texto(it, diccionario) }
+
+    private fun leerRegistro(): Boolean {
+        largoRegistro = 0
+        columnas = 0
+        var estado = INICIO_CAMPO
+        var inicio = 0
+        var finComillas = 0
+        var escapado = false
+        var leido = false
+        while (true) {
+            val c = leerCaracter()
+            if (c < 0) {
+                if (!leido) return false
+                when (estado) {
+                    INICIO_CAMPO -> cerrarCampo(largoRegistro, largoRegistro, false)
+                    COMILLA_EN_COMILLAS -> cerrarCampo(inicio, finComillas, escapado)
+                    EN_CAMPO -> cerrarCampo(inicio, sinRetorno(inicio, largoRegistro), false)
+                    // Comillas sin cerrar: se toma lo que haya hasta el final
+                    else -> cerrarCampo(inicio, largoRegistro, escapado)
+                }
+                return true
+            }
+            leido = true
+            val ch = c.toChar()
+            agregar(ch)
+            val p = largoRegistro - 1
+            when (estado) {
+                INICIO_CAMPO -> when (ch) {
+                    '"' -> {
+                        estado = EN_COMILLAS
+                        inicio = p + 1
+                        escapado = false
+                    }
+                    ',' -> cerrarCampo(p, p, false)
+                    '\n' -> {
+                        cerrarCampo(p, p, false)
+                        return true
+                    }
+                    else -> {
+                        estado = EN_CAMPO
+                        inicio = p
+                        escapado = false
+                    }
+                }
+                EN_CAMPO -> when (ch) {
+                    ',' -> {
+                        cerrarCampo(inicio, p, false)
+                        estado = INICIO_CAMPO
+                    }
+                    '\n' -> {
+                        cerrarCampo(inicio, sinRetorno(inicio, p), false)
+                        return true
+                    }
+                }
+                EN_COMILLAS -> if (ch == '"') {
+                    estado = COMILLA_EN_COMILLAS
+                    finComillas = p
+                }
+                COMILLA_EN_COMILLAS -> when (ch) {
+                    '"' -> {
+                        escapado = true
+                        estado = EN_COMILLAS
+                    }
+                    ',' -> {
+                        cerrarCampo(inicio, finComillas, escapado)
+                        estado = INICIO_CAMPO
+                    }
+                    '\n' -> {
+                        cerrarCampo(inicio, finComillas, escapado)
+                        return true
+                    }
+                    '\r' -> Unit
+                    // Texto después de la comilla de cierre: se conserva como parte del campo
+                    else -> estado = EN_CAMPO
+                }
+            }
+        }
+    }
+
+    private fun leerCaracter(): Int {
+        linea?.let { texto ->
+            return if (posLinea < texto.length) texto[posLinea++].code else -1
+        }
+        if (posBuffer == finBuffer) {
+            val fuente = reader ?: return -1
+            val n = fuente.read(buffer)
+            if (n <= 0) return -1
+            posBuffer = 0
+            finBuffer = n
+        }
+        return buffer[posBuffer++].code
+    }
+
+    private fun agregar(c: Char) {
+        if (largoRegistro == registro.size) registro = registro.copyOf(registro.size * 2)
+        registro[largoRegistro++] = c
+    }
+
+    private fun sinRetorno(inicio: Int, fin: Int): Int =
+        if (fin > inicio && registro[fin - 1] == '\r') fin - 1 else fin
+
+    private fun cerrarCampo(inicio: Int, fin: Int, escapado: Boolean) {
+        if (columnas == inicios.size) {
+            inicios = inicios.copyOf(columnas * 2)
+            fines = fines.copyOf(columnas * 2)
+            escapados = escapados.copyOf(columnas * 2)
+        }
+        inicios[columnas] = inicio
+        fines[columnas] = fin
+        escapados[columnas] = escapado
+        columnas++
+    }
+
+    companion object {
+        private const val INICIO_CAMPO = 0
+        private const val EN_CAMPO = 1
+        private const val EN_COMILLAS = 2
+        private const val COMILLA_EN_COMILLAS = 3
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.escaneodematerialeskof.util
+
+import android.app.Activity
+import android.os.Handler
+import android.os.Looper
+import android.util.Log
+import android.view.FrameMetrics
+import android.view.Window
+
+/**
+ * Registra en Logcat la duración de los fotogramas de una pantalla, para medir en el equipo cuánto
+ * cuesta redibujar una lista (por ejemplo, la comparación con 5 000 filas en tiempo real).
+ *
+ * Cada [muestra] fotogramas escribe p50/p90/p99 y cuántos pasaron de [LIMITE_MS] (un fotograma
+ * perdido a 60 Hz). Usa `Window.addOnFrameMetricsAvailableListener` (API 24).
+ */
+class MedidorFotogramas(
+    private val etiqueta: String,
+    private val muestra: Int = 300
+) {
+
+    private val duraciones = LongArray(muestra)
+    private var cantidad = 0
+    private var ventana: Window? = null
+
+    private val oyente = Window.OnFrameMetricsAvailableListener { _, metricas, _ ->
+        duraciones[cantidad++] = metricas.getMetric(FrameMetrics.TOTAL_DURATION)
+        if (cantidad == muestra) {
+            informar()
+            cantidad = 0
+        }
+    }
+
+    fun iniciar(activity: Activity) {
+        detener()
+        cantidad = 0
+        ventana = activity.window.also {
+            it.addOnFrameMetricsAvailableListener(oyente, Handler(Looper.getMainLooper()))
+        }
+    }
+
+    fun detener() {
+        ventana?.removeOnFrameMetricsAvailableListener(oyente)
+        ventana = null
+    }
+
+    private fun informar() {
+        val ordenadas = duraciones.copyOf(cantidad).also { it.sort() }
+        fun percentil(p: Int) = ordenadas[(cantidad - 1) * p / 100] / 1_000_000.0
+        val lentos = ordenadas.count { it > LIMITE_MS * 1_000_000 }
+        Log.d(
+            TAG,
+            "$etiqueta: $cantidad fotogramas, p50=%.1f ms, p90=%.1f ms, p99=%.1f ms, %d > $LIMITE_MS ms"
+                .format(percentil(50), percentil(90), percentil(99), lentos)
+        )
+    }
+
+    companion object {
+        private const val TAG = "MedidorFotogramas"
+        private const val LIMITE_MS = 16L
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.escaneodematerialeskof.util
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+
+/**
+ * Ejecuta una tarea en [scope] después de [esperaMs] sin nuevas solicitudes, y solo la última:
+ * cada [programar] cancela la tarea anterior, esté esperando o ya en curso.
+ *
+ * Una ráfaga de solicitudes termina en una sola ejecución con los datos más nuevos. La tarea
+ * cancelada no debe publicar nada después de suspender (por ejemplo, al volver de `withContext`).
+ * Se usa desde un solo hilo, normalmente el principal.
+ */
+class ProgramadorUltimo(
+    private val scope: CoroutineScope,
+    private val esperaMs: Long
+) {
+
+    private var actual: Job? = null
+
+    // Tareas canceladas por una solicitud más nueva desde el último [tomarDescartadas]
+    private var descartadas = 0
+
+    fun programar(tarea: suspend () -> Unit): Job {
+        actual?.let {
+            if (it.isActive) {
+                it.cancel()
+                descartadas++
+            }
+        }
+        val job = scope.launch {
+            delay(esperaMs)
+            tarea()
+        }
+        actual = job
+        return job
+    }
+
+    /** true si [job] es la tarea más reciente, es decir, su resultado sigue vigente. */
+    fun esVigente(job: Job?): Boolean = job != null && actual === job
+
+    /** Tareas reemplazadas por otra más nueva desde la llamada anterior. */
+    fun tomarDescartadas(): Int {
+        val total = descartadas
+        descartadas = 0
+        return total
+    }
+
+    fun cancelar() {
+        actual?.cancel()
+        actual = null
+    }
+}
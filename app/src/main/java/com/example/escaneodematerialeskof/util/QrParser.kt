@@ -5,7 +5,7 @@ package com.example.escaneodematerialeskof.util
  * Intenta primero extraer pares clave:valor; si no, asigna por posición.
  */
 object QrParser {
-    private val PREFIJOS = listOf("SKU", "DP", "CxPal", "FPC", "Con", "Centro", "LINEA", "OP", "FProd", "Dias V")
+    internal val PREFIJOS = listOf("SKU", "DP", "CxPal", "FPC", "Con", "Centro", "LINEA", "OP", "FProd", "Dias V")
 
     /**
      * Parsea el texto de un QR y devuelve un mapa de campos limpiados.
@@ -1,41 +1,83 @@
 package com.example.escaneodematerialeskof.viewmodel
 
 import android.app.Application
-import android.content.SharedPreferences
 import android.net.Uri
 import android.util.Log
 import androidx.lifecycle.AndroidViewModel
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.viewModelScope
+import com.example.escaneodematerialeskof.data.inventario.CambioInventario
+import com.example.escaneodematerialeskof.data.inventario.ClaveInventario
+import com.example.escaneodematerialeskof.data.inventario.InventarioEscaneado
+import com.example.escaneodematerialeskof.data.inventario.InventarioRepository
 import com.example.escaneodematerialeskof.model.InventarioItem
-import com.example.escaneodematerialeskof.model.MaterialItem
+import com.example.escaneodematerialeskof.util.DiccionarioTextos
+import com.example.escaneodematerialeskof.util.ImportadorCsvParalelo
 import com.example.escaneodematerialeskof.util.InventarioConverter
-import com.example.escaneodematerialeskof.dashboard.ComparadorInventario
+import com.example.escaneodematerialeskof.util.LectorCsv
+import com.example.escaneodematerialeskof.util.ProgramadorUltimo
+import com.example.escaneodematerialeskof.dashboard.CandidatoEmparejamiento
 import com.example.escaneodematerialeskof.dashboard.ComparacionInventario
+import com.example.escaneodematerialeskof.dashboard.ComparadorInventario
+import com.example.escaneodematerialeskof.dashboard.ConciliadorDimensional
+import com.example.escaneodematerialeskof.dashboard.ConciliadorExterno
+import com.example.escaneodematerialeskof.dashboard.ConciliadorIncremental
+import com.example.escaneodematerialeskof.dashboard.EscaneadoSku
+import com.example.escaneodematerialeskof.dashboard.FilasIndexadas
 import com.example.escaneodematerialeskof.dashboard.InventarioAlmacen
-import com.google.gson.Gson
-import com.google.gson.reflect.TypeToken
+import com.example.escaneodematerialeskof.dashboard.RegistroDimensional
+import com.example.escaneodematerialeskof.dashboard.ResultadoDimensional
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
-import java.io.BufferedReader
+import java.io.File
+import java.io.FileInputStream
+import java.io.IOException
 import java.io.InputStreamReader
+import java.io.Reader
 
 /**
  * ViewModel para manejar la comparación de inventarios con actualización en tiempo real.
  */
 class InventoryComparisonViewModel(application: Application) : AndroidViewModel(application) {
 
+    /**
+     * Tiempos de una comparación completa: [esperaMs] desde la solicitud hasta que empezó (incluye
+     * la espera para juntar ráfagas), [calculoMs] fuera del hilo principal y [publicacionMs] en él.
+     * [reaplicados] son los SKUs escaneados durante el cálculo y [descartadas] las comparaciones
+     * canceladas por esta.
+     */
+    data class MetricasComparacion(
+        val filas: Int,
+        val esperaMs: Long,
+        val calculoMs: Long,
+        val publicacionMs: Long,
+        val reaplicados: Int,
+        val descartadas: Int
+    ) {
+        val totalMs: Long
+            get() = esperaMs + calculoMs + publicacionMs
+    }
+
     companion object {
         private const val TAG = "InventoryComparisonVM"
-        private const val SHARED_PREFS_NAME = "material_data"
-        private const val MATERIALS_KEY = "materials"
+        private const val RETRASO_PUBLICACION_MS = 100L
+        private const val RETRASO_COMPARACION_MS = 250L
     }
 
-    private val sharedPreferences: SharedPreferences =
-        getApplication<Application>().getSharedPreferences(SHARED_PREFS_NAME, 0)
-    private val gson = Gson()
+    private val inventarioRepository = InventarioRepository.getInstance(application)
+
+    // Los textos repetidos de los CSV importados se comparten con el diccionario de la sesión
+    private val textos = DiccionarioTextos.sesion
 
     private val _inventarioSistema = MutableLiveData<Map<String, InventarioItem>>(emptyMap())
     val inventarioSistema: LiveData<Map<String, InventarioItem>> = _inventarioSistema
@@ -50,6 +92,18 @@ class InventoryComparisonViewModel(application: Application) : AndroidViewModel(
     private val _comparacionDetallada = MutableLiveData<List<ComparacionInventario>>(emptyList())
     val comparacionDetallada: LiveData<List<ComparacionInventario>> = _comparacionDetallada
 
+    // Contadores OK/Faltante/Sobrante de [comparacionDetallada]
+    private val _resumenComparacion = MutableLiveData(ConciliadorIncremental.Resumen(0, 0, 0))
+    val resumenComparacion: LiveData<ConciliadorIncremental.Resumen> = _resumenComparacion
+
+    // Subtotales por almacén, tarima y ubicación de la última [conciliarPorDimensiones]
+    private val _conciliacionDimensional = MutableLiveData<ResultadoDimensional?>(null)
+    val conciliacionDimensional: LiveData<ResultadoDimensional?> = _conciliacionDimensional
+
+    // Tiempos de la última comparación completa
+    private val _metricasComparacion = MutableStateFlow<MetricasComparacion?>(null)
+    val metricasComparacion: StateFlow<MetricasComparacion?> = _metricasComparacion.asStateFlow()
+
     private val _mensaje = MutableLiveData<String?>(null)
     val mensaje: LiveData<String?> = _mensaje
 
@@ -59,24 +113,48 @@ class InventoryComparisonViewModel(application: Application) : AndroidViewModel(
     private val _error = MutableLiveData<String?>(null)
     val error: LiveData<String?> = _error
 
+    // Avance de la importación del inventario del sistema, de 0 a 1
+    private val _progresoImportacion = MutableStateFlow(0f)
+    val progresoImportacion: StateFlow<Float> = _progresoImportacion.asStateFlow()
+
+    @Volatile
+    private var importacionSistema: Job? = null
+
     // Control de actualización en tiempo real
     private var tiempoRealHabilitado = true
-    private var isComparacionInProgress = false
-
-    // Listener para cambios en SharedPreferences (actualización en tiempo real)
-    private val preferencesListener = SharedPreferences.OnSharedPreferenceChangeListener { prefs, key ->
-        if (key == MATERIALS_KEY && tiempoRealHabilitado && !isComparacionInProgress) {
-            Log.d(TAG, "SharedPreferences cambió para key: $key")
-            viewModelScope.launch {
-                actualizarInventarioEscaneadoEnTiempoReal()
-            }
-        }
-    }
+
+    // Comparación completa: una sola a la vez, siempre con los datos más nuevos
+    private val programadorComparacion = ProgramadorUltimo(viewModelScope, RETRASO_COMPARACION_MS)
+    // Comparación que está juntando [skusDuranteComparacion]; una reemplazada no la suelta
+    private var comparacionEnCurso: Job? = null
+    // SKUs escaneados que cambiaron mientras corría la comparación
+    private val skusDuranteComparacion = HashSet<String>()
+    // Cambia cada vez que el inventario escaneado se reemplaza completo
+    private var generacionEscaneado = 0
+
+    // Estado escaneado que se mantiene con los cambios del repositorio; solo se toca en el hilo principal.
+    // filasPorSku guarda las filas de cada (sku, tipoTarima, almacen) y escaneadoPorSku su suma por SKU.
+    private val filasPorSku = HashMap<String, LinkedHashMap<ClaveInventario, InventarioEscaneado>>()
+    private val escaneadoPorSku = LinkedHashMap<String, InventarioItem>()
+    private var ultimaSecuencia = -1L
+
+    // SKUs cambiados que aún no se reflejan en la comparación publicada
+    private val skusPendientes = LinkedHashSet<String>()
+    private var publicacionPendiente: Job? = null
+
+    // Posición de cada SKU en [comparacion]
+    private val posicionComparacion = FilasIndexadas<String, Triple<String, InventarioItem?, InventarioItem?>> { it.first }
+
+    // Filas de [comparacionDetallada] por SKU; cada escaneo actualiza solo la fila de su SKU.
+    // La comparación completa lo reemplaza por uno reconstruido fuera del hilo principal.
+    private var conciliador = ConciliadorIncremental()
 
     init {
         Log.d(TAG, "Inicializando InventoryComparisonViewModel")
-        // Registrar listener para actualizaciones en tiempo real
-        sharedPreferences.registerOnSharedPreferenceChangeListener(preferencesListener)
+        // Suscribirse antes de leer el inventario para no perder cambios intermedios
+        viewModelScope.launch {
+            inventarioRepository.cambios.collect { aplicarCambio(it) }
+        }
 
         // Cargar inventario escaneado inicial
         viewModelScope.launch {
@@ -87,62 +165,56 @@ class InventoryComparisonViewModel(application: Application) : AndroidViewModel(
     override fun onCleared() {
         super.onCleared()
         Log.d(TAG, "Limpiando InventoryComparisonViewModel")
-        // Desregistrar listener
-        sharedPreferences.unregisterOnSharedPreferenceChangeListener(preferencesListener)
     }
 
     /**
-     * Importa el inventario del sistema desde un archivo URI
+     * Importa el inventario del sistema desde un archivo URI.
+     *
+     * El archivo se analiza en paralelo con [ImportadorCsvParalelo]; el avance se publica en
+     * [progresoImportacion] y [cancelarImportacionSistema] detiene la importación en curso.
      */
     suspend fun importarInventarioSistema(uri: Uri): Boolean = withContext(Dispatchers.IO) {
+        importacionSistema = coroutineContext[Job]
         try {
             _isLoading.postValue(true)
             _error.postValue(null)
+            _progresoImportacion.value = 0f
 
             val context = getApplication<Application>()
-            val inventarioMap = mutableMapOf<String, InventarioItem>()
-
-            context.contentResolver.openInputStream(uri)?.use { inputStream ->
-                val reader = BufferedReader(InputStreamReader(inputStream))
-                val header = reader.readLine()?.split(",")
-
-                if (header.isNullOrEmpty()) {
-                    withContext(Dispatchers.Main) {
-                        _error.value = "Archivo CSV inválido: sin encabezados"
-                    }
-                    return@withContext false
+            val inicio = System.currentTimeMillis()
+            val descriptor = context.contentResolver.openFileDescriptor(uri, "r")
+                ?: throw IOException("No se pudo abrir el archivo")
+            val parciales = descriptor.use { pfd ->
+                FileInputStream(pfd.fileDescriptor).use { entrada ->
+                    ImportadorCsvParalelo().importar(
+                        entrada,
+                        tamanoTotal = pfd.statSize,
+                        progreso = { _progresoImportacion.value = it }
+                    ) { indice, fila -> leerBloqueSistema(indice, fila) }
                 }
+            }
 
-                var lineNumber = 1
-                reader.forEachLine { line ->
-                    lineNumber++
-                    if (line.isNotBlank()) {
-                        try {
-                            val columns = line.split(",").map { it.trim() }
-                            if (columns.size >= 3) {
-                                val sku = columns[0]
-                                val descripcion = columns.getOrNull(1) ?: ""
-                                val cantidadStr = columns.getOrNull(2) ?: "0"
-                                val tipoTarima = columns.getOrNull(3) ?: ""
-
-                                val cantidad = cantidadStr.toIntOrNull() ?: 0
-
-                                if (sku.isNotEmpty()) {
-                                    inventarioMap[sku] = InventarioItem(
-                                        sku = sku,
-                                        descripcion = descripcion,
-                                        totalPallets = cantidad,
-                                        tipoTarima = tipoTarima
-                                    )
-                                }
-                            }
-                        } catch (e: Exception) {
-                            Log.w(TAG, "Error procesando línea $lineNumber: ${e.message}")
-                        }
-                    }
+            if (parciales.firstOrNull()?.sinEncabezado != false) {
+                withContext(Dispatchers.Main) {
+                    _error.value = "Archivo CSV inválido: sin encabezados"
                 }
+                return@withContext false
             }
 
+            // Los bloques llegan en el orden del archivo: si un SKU se repite, queda la última línea
+            val inventarioMap = LinkedHashMap<String, InventarioItem>()
+            var errores = 0
+            parciales.forEach {
+                inventarioMap.putAll(it.items)
+                errores += it.errores
+            }
+            _progresoImportacion.value = 1f
+            Log.d(
+                TAG,
+                "Inventario del sistema leído en ${System.currentTimeMillis() - inicio} ms " +
+                    "(${parciales.size} bloques, $errores líneas con error)"
+            )
+
             if (inventarioMap.isEmpty()) {
                 withContext(Dispatchers.Main) {
                     _error.value = "No se pudieron cargar datos del archivo CSV"
@@ -160,6 +232,9 @@ class InventoryComparisonViewModel(application: Application) : AndroidViewModel(
             }
 
             true
+        } catch (e: CancellationException) {
+            _mensaje.postValue("Importación cancelada")
+            throw e
         } catch (e: Exception) {
             Log.e(TAG, "Error al cargar inventario del sistema", e)
             withContext(Dispatchers.Main) {
@@ -168,154 +243,417 @@ class InventoryComparisonViewModel(application: Application) : AndroidViewModel(
             }
             false
         } finally {
+            importacionSistema = null
             _isLoading.postValue(false)
         }
     }
 
     /**
-     * Carga el inventario escaneado desde SharedPreferences
+     * Compara un CSV del sistema contra un CSV de inventario escaneado sin cargarlos en memoria,
+     * para conteos que no caben en el dispositivo. El resultado va directo a un archivo en
+     * `filesDir`; no se publica en [comparacionDetallada].
+     * @return el archivo generado, o null si hubo un error.
      */
-    private suspend fun cargarInventarioEscaneado() = withContext(Dispatchers.IO) {
+    suspend fun conciliarArchivos(
+        uriSistema: Uri,
+        uriEscaneado: Uri,
+        presupuestoBytes: Long = ConciliadorExterno.PRESUPUESTO_POR_DEFECTO
+    ): File? = withContext(Dispatchers.IO) {
         try {
-            val materialsJson = sharedPreferences.getString(MATERIALS_KEY, "[]") ?: "[]"
-            Log.d(TAG, "Cargando inventario escaneado, JSON length: ${materialsJson.length}")
-
-            if (materialsJson == "[]" || materialsJson.isEmpty()) {
-                withContext(Dispatchers.Main) {
-                    _inventarioEscaneado.value = emptyMap()
+            _isLoading.postValue(true)
+            val context = getApplication<Application>()
+            val (archivo, resultado) = abrirCsv(uriSistema).use { sistema ->
+                abrirCsv(uriEscaneado).use { escaneado ->
+                    ComparadorInventario.exportarConciliacionExterna(
+                        context,
+                        sistema,
+                        escaneado,
+                        nombreArchivo = "conciliacion_${System.currentTimeMillis()}.csv",
+                        presupuestoBytes = presupuestoBytes
+                    )
                 }
-                return@withContext
             }
+            _mensaje.postValue(
+                "Conciliación lista: ${resultado.filas} SKUs (${resultado.ok} OK, ${resultado.faltantes} faltantes, " +
+                    "${resultado.sobrantes} sobrantes) en ${resultado.milisegundos} ms"
+            )
+            archivo
+        } catch (e: Exception) {
+            Log.e(TAG, "Error en la conciliación de archivos", e)
+            _error.postValue("Error en la conciliación: ${e.message}")
+            null
+        } finally {
+            _isLoading.postValue(false)
+        }
+    }
+
+    /**
+     * Concilia el inventario cargado por (sku, almacén, tipo de tarima, ubicación) y publica el
+     * resultado en [conciliacionDimensional]. Debe llamarse desde el hilo principal.
+     *
+     * El CSV del sistema solo trae SKU y tipo de tarima: sus registros van con almacén y
+     * ubicación vacíos. Los subtotales por SKU y tarima comparan los dos lados; en los que
+     * incluyen almacén o ubicación todo el sistema cae en el valor vacío, así que los demás
+     * valores solo tienen lo escaneado.
+     */
+    suspend fun conciliarPorDimensiones(): ResultadoDimensional {
+        // Copia del estado en el hilo principal; la agregación corre en Dispatchers.Default
+        val sistema = _inventarioSistema.value.orEmpty().values.map { item ->
+            RegistroDimensional(item.sku, "", item.tipoTarima, "", item.totalPallets)
+        }
+        val escaneado = if (filasPorSku.isNotEmpty()) {
+            filasPorSku.values.flatMap { filas ->
+                filas.values.map { RegistroDimensional(it.sku, it.almacen, it.tipoTarima, it.ubicacion, it.totalPallets) }
+            }
+        } else {
+            escaneadoPorSku.values.map { RegistroDimensional(it.sku, "", it.tipoTarima, it.ubicacion, it.totalPallets) }
+        }
+        val resultado = ConciliadorDimensional().conciliar(sistema, escaneado)
+        _conciliacionDimensional.value = resultado
+        return resultado
+    }
 
-            val materialListType = object : TypeToken<List<MaterialItem>>() {}.type
-            val materials: List<MaterialItem> = gson.fromJson(materialsJson, materialListType)
+    /**
+     * Posibles pares entre los SKUs escaneados que no están en el sistema y los del sistema que no
+     * se escanearon, sobre la comparación detallada publicada.
+     */
+    suspend fun proponerEmparejamientos(): List<CandidatoEmparejamiento> {
+        val comparacion = _comparacionDetallada.value.orEmpty()
+        return withContext(Dispatchers.Default) { ComparadorInventario.proponerEmparejamientos(comparacion) }
+    }
 
-            val inventarioMap = InventarioConverter.convertirMaterialItemsAInventario(materials)
+    private fun abrirCsv(uri: Uri): Reader {
+        val entrada = getApplication<Application>().contentResolver.openInputStream(uri)
+            ?: throw IOException("No se pudo abrir el archivo")
+        return InputStreamReader(entrada, Charsets.UTF_8)
+    }
 
-            withContext(Dispatchers.Main) {
-                _inventarioEscaneado.value = inventarioMap
-                Log.d(TAG, "Inventario escaneado cargado: ${inventarioMap.size} items")
+    /**
+     * Detiene la importación del inventario del sistema en curso, si hay una.
+     */
+    fun cancelarImportacionSistema() {
+        importacionSistema?.cancel()
+    }
 
-                // Realizar comparación si hay inventario del sistema
-                if (_inventarioSistema.value?.isNotEmpty() == true) {
-                    realizarComparacion()
+    private class BloqueSistema(
+        val items: Map<String, InventarioItem>,
+        val errores: Int,
+        val sinEncabezado: Boolean = false
+    )
+
+    /**
+     * Lee un bloque del CSV del sistema (SKU, Descripción, Cantidad, TipoTarima).
+     * Se ejecuta en paralelo para varios bloques a la vez.
+     */
+    private fun leerBloqueSistema(indice: Int, fila: LectorCsv): BloqueSistema {
+        if (indice == 0 && (!fila.siguiente() || fila.registroEnBlanco)) {
+            return BloqueSistema(emptyMap(), 0, sinEncabezado = true)
+        }
+        val items = LinkedHashMap<String, InventarioItem>()
+        var errores = 0
+        while (fila.siguiente()) {
+            if (fila.registroEnBlanco) continue
+            try {
+                if (fila.columnas >= 3) {
+                    val sku = fila.textoRecortado(0, textos)
+                    if (sku.isNotEmpty()) {
+                        items[sku] = InventarioItem(
+                            sku = sku,
+                            descripcion = fila.textoRecortado(1, textos),
+                            totalPallets = fila.entero(2) ?: 0,
+                            tipoTarima = fila.textoRecortado(3, textos)
+                        )
+                    }
                 }
+            } catch (e: Exception) {
+                errores++
+            }
+        }
+        return BloqueSistema(items, errores)
+    }
+
+    /**
+     * Carga el inventario escaneado completo desde el repositorio. Después se mantiene al día
+     * con [aplicarCambio].
+     */
+    private suspend fun cargarInventarioEscaneado() {
+        try {
+            val filas = withContext(Dispatchers.IO) { inventarioRepository.obtenerTodos() }
+            reemplazarFilas(filas)
+            Log.d(TAG, "Inventario escaneado cargado: ${escaneadoPorSku.size} items")
+
+            // Realizar comparación si hay inventario del sistema
+            if (_inventarioSistema.value?.isNotEmpty() == true) {
+                realizarComparacion()
             }
         } catch (e: Exception) {
             Log.e(TAG, "Error al cargar inventario escaneado", e)
-            withContext(Dispatchers.Main) {
-                _error.value = "Error al cargar inventario escaneado: ${e.message}"
-                _mensaje.value = "Error al cargar inventario escaneado: ${e.message}"
-            }
+            _error.value = "Error al cargar inventario escaneado: ${e.message}"
+            _mensaje.value = "Error al cargar inventario escaneado: ${e.message}"
+        }
+    }
+
+    private fun reemplazarFilas(filas: List<InventarioEscaneado>) {
+        generacionEscaneado++
+        filasPorSku.clear()
+        escaneadoPorSku.clear()
+        for (fila in filas) {
+            filasPorSku.getOrPut(fila.sku) { LinkedHashMap() }[fila.clave] = fila
         }
+        for (sku in filasPorSku.keys) {
+            recalcularSku(sku)
+        }
+        sincronizarConciliador()
+        publicarEscaneado()
+    }
+
+    /**
+     * Deja el inventario escaneado como [items], sin filas del repositorio detrás (por ejemplo,
+     * al importarlo de un CSV o al limpiarlo).
+     */
+    private fun reemplazarEscaneado(items: Map<String, InventarioItem>) {
+        generacionEscaneado++
+        filasPorSku.clear()
+        escaneadoPorSku.clear()
+        escaneadoPorSku.putAll(items)
+        sincronizarConciliador()
+        publicarEscaneado()
+    }
+
+    private fun sincronizarConciliador() {
+        conciliador.reemplazarEscaneado(
+            escaneadoPorSku.values.map { EscaneadoSku(it.sku, it.totalPallets, it.descripcion, it.tipoTarima) }
+        )
+    }
+
+    /**
+     * Publica una copia de [escaneadoPorSku]: los observadores pueden guardarla o compararla con la
+     * anterior sin que cambie debajo de ellos. Los cambios se publican una vez por ráfaga, no uno por uno.
+     */
+    private fun publicarEscaneado() {
+        _inventarioEscaneado.value = LinkedHashMap(escaneadoPorSku)
     }
 
     /**
-     * Actualiza el inventario escaneado en tiempo real
+     * Aplica un cambio del repositorio al inventario escaneado. Solo se recalcula el SKU afectado;
+     * la comparación se actualiza poco después, una vez por ráfaga de cambios.
      */
-    private suspend fun actualizarInventarioEscaneadoEnTiempoReal() {
-        if (!tiempoRealHabilitado || isComparacionInProgress) {
-            Log.d(TAG, "Actualización en tiempo real deshabilitada o comparación en progreso")
+    private fun aplicarCambio(cambio: CambioInventario) {
+        val perdidos = ultimaSecuencia >= 0 && cambio.secuencia != ultimaSecuencia + 1
+        ultimaSecuencia = cambio.secuencia
+        val clave = cambio.clave
+        if (cambio.reinicio || perdidos || clave == null) {
+            Log.d(TAG, "Recargando inventario escaneado (reinicio=${cambio.reinicio}, cambios perdidos=$perdidos)")
+            viewModelScope.launch { cargarInventarioEscaneado() }
             return
         }
 
-        Log.d(TAG, "Actualizando inventario en tiempo real")
-        cargarInventarioEscaneado()
-        withContext(Dispatchers.Main) {
-            _mensaje.value = "Actualizado automáticamente - ${java.text.SimpleDateFormat("HH:mm:ss", java.util.Locale.getDefault()).format(java.util.Date())}"
+        val filas = filasPorSku.getOrPut(clave.sku) { LinkedHashMap() }
+        val anterior = if (cambio.fila != null) filas.put(clave, cambio.fila) else filas.remove(clave)
+        recalcularSku(clave.sku)
+        val item = escaneadoPorSku[clave.sku]
+        if (item == null) {
+            conciliador.quitarEscaneado(clave.sku)
+        } else {
+            val delta = (cambio.fila?.totalPallets ?: 0) - (anterior?.totalPallets ?: 0)
+            conciliador.aplicarDelta(clave.sku, delta, item.descripcion, item.tipoTarima)
+        }
+        skusPendientes.add(clave.sku)
+        if (comparacionEnCurso != null) skusDuranteComparacion.add(clave.sku)
+
+        if (publicacionPendiente == null) {
+            publicacionPendiente = viewModelScope.launch {
+                delay(RETRASO_PUBLICACION_MS)
+                publicacionPendiente = null
+                publicarCambiosPendientes()
+            }
         }
     }
 
+    private fun recalcularSku(sku: String) {
+        val filas = filasPorSku[sku]
+        if (filas.isNullOrEmpty()) {
+            filasPorSku.remove(sku)
+            escaneadoPorSku.remove(sku)
+            return
+        }
+        InventarioConverter.convertirMaterialItemsAInventario(filas.values.map { it.toMaterialItem() })[sku]
+            ?.let { escaneadoPorSku[sku] = it }
+    }
+
     /**
-     * Realiza la comparación entre inventarios
+     * Publica el inventario escaneado y, si la actualización en tiempo real está activa, reemplaza
+     * en la comparación solo las filas de los SKUs que cambiaron.
      */
-    private fun realizarComparacion() {
-        if (isComparacionInProgress) {
-            Log.d(TAG, "Comparación ya en progreso, saltando")
+    private fun publicarCambiosPendientes() {
+        if (skusPendientes.isEmpty()) return
+        publicarEscaneado()
+        val sistema = _inventarioSistema.value.orEmpty()
+        if (!tiempoRealHabilitado || sistema.isEmpty()) {
+            skusPendientes.clear()
             return
         }
 
-        viewModelScope.launch {
-            try {
-                isComparacionInProgress = true
-                _isLoading.value = true
-
-                val inventarioSistema = _inventarioSistema.value ?: emptyMap()
-                val inventarioEscaneado = _inventarioEscaneado.value ?: emptyMap()
+        publicarDetallada(conciliador.tomarCambios())
+        publicarSimple(ArrayList(_comparacion.value.orEmpty()), skusPendientes, sistema)
+        skusPendientes.clear()
+        _mensaje.value = "Actualizado automáticamente - ${java.text.SimpleDateFormat("HH:mm:ss", java.util.Locale.getDefault()).format(java.util.Date())}"
+    }
 
-                Log.d(TAG, "Realizando comparación: Sistema=${inventarioSistema.size}, Escaneado=${inventarioEscaneado.size}")
+    /**
+     * Publica [simple] con las filas de [skus] al día, usando [posicionComparacion] para ubicarlas.
+     */
+    private fun publicarSimple(
+        simple: ArrayList<Triple<String, InventarioItem?, InventarioItem?>>,
+        skus: Collection<String>,
+        sistema: Map<String, InventarioItem>
+    ) {
+        posicionComparacion.aplicar(simple, skus) { sku ->
+            val itemSistema = sistema[sku]
+            val itemEscaneado = escaneadoPorSku[sku]
+            if (itemSistema == null && itemEscaneado == null) null else Triple(sku, itemSistema, itemEscaneado)
+        }
+        _comparacion.value = simple
+    }
 
-                if (inventarioSistema.isEmpty()) {
-                    _comparacionDetallada.value = emptyList()
-                    _comparacion.value = emptyList()
-                    _mensaje.value = "No hay inventario del sistema cargado"
-                    return@launch
+    /**
+     * Publica la comparación detallada reemplazando solo las filas de [cambios];
+     * con null la publica completa desde [conciliador].
+     */
+    private fun publicarDetallada(cambios: List<ConciliadorIncremental.Cambio>?) {
+        if (cambios == null) {
+            _comparacionDetallada.value = conciliador.filasOrdenadas()
+        } else if (cambios.isNotEmpty()) {
+            // La comparación detallada está ordenada por SKU
+            val detallada = ArrayList(_comparacionDetallada.value.orEmpty())
+            for ((sku, fila) in cambios) {
+                val posicion = detallada.binarySearch { it.sku.compareTo(sku) }
+                when {
+                    fila != null && posicion >= 0 -> detallada[posicion] = fila
+                    fila != null -> detallada.add(-posicion - 1, fila)
+                    posicion >= 0 -> detallada.removeAt(posicion)
                 }
+            }
+            _comparacionDetallada.value = detallada
+        }
+        _resumenComparacion.value = conciliador.resumen
+    }
 
-                // Convertir inventario sistema a formato InventarioAlmacen
-                val almacenList = inventarioSistema.values.map { item ->
-                    InventarioAlmacen(
-                        sku = item.sku,
-                        descripcion = item.descripcion,
-                        disponible = item.totalPallets,
-                        centro = item.centro ?: ""
-                    )
-                }
+    private fun almacenDe(item: InventarioItem) = InventarioAlmacen(
+        sku = item.sku,
+        descripcion = item.descripcion,
+        disponible = item.totalPallets,
+        centro = item.centro ?: ""
+    )
 
-                // Convertir inventario escaneado a formato MaterialItem
-                val materialList = inventarioEscaneado.values.map { item ->
-                    MaterialItem(
-                        sku = item.sku,
-                        descripcion = item.descripcion,
-                        totalPallets = item.totalPallets.toString(),
-                        tipoTarima = item.tipoTarima ?: "",
-                        cxPal = "0",
-                        fpc = "",
-                        con = "",
-                        centro = item.centro ?: "",
-                        linea = "",
-                        op = "",
-                        fProd = "",
-                        diasV = "",
-                        ubicacion = item.ubicacion ?: ""
-                    )
-                }
+    /**
+     * Programa la comparación completa entre inventarios. Las solicitudes seguidas se juntan en
+     * una sola ejecución y una solicitud nueva cancela la que esté en curso; ver [compararEnSegundoPlano].
+     */
+    private fun realizarComparacion() {
+        val solicitada = System.nanoTime()
+        programadorComparacion.programar { compararEnSegundoPlano(solicitada) }
+    }
 
-                // Crear mapa de tipos de tarima
-                val baseTarimas = inventarioEscaneado.values.associate { it.sku to (it.tipoTarima ?: "") }
+    /**
+     * Reconstruye la comparación en [Dispatchers.Default] a partir de una copia de los inventarios
+     * y la publica en el hilo principal.
+     *
+     * Mientras corre, los escaneos siguen llegando por [aplicarCambio] al conciliador publicado; sus
+     * SKUs quedan en [skusDuranteComparacion] y se vuelven a aplicar sobre el resultado antes de
+     * publicarlo. Si en cambio se reemplazó todo un inventario, el resultado ya no sirve y se
+     * programa otra comparación.
+     */
+    private suspend fun compararEnSegundoPlano(solicitada: Long) {
+        val job = currentCoroutineContext()[Job]
+        val inicio = System.nanoTime()
+        val inventarioSistema = _inventarioSistema.value ?: emptyMap()
+
+        Log.d(TAG, "Realizando comparación: Sistema=${inventarioSistema.size}, Escaneado=${escaneadoPorSku.size}")
+
+        if (inventarioSistema.isEmpty()) {
+            conciliador.cargarSistema(emptyList())
+            conciliador.tomarCambios()
+            _comparacionDetallada.value = emptyList()
+            _resumenComparacion.value = ConciliadorIncremental.Resumen(0, 0, 0)
+            _comparacion.value = emptyList()
+            posicionComparacion.limpiar()
+            _mensaje.value = "No hay inventario del sistema cargado"
+            return
+        }
 
-                // Realizar comparación usando ComparadorInventario
-                val comparacion = ComparadorInventario.generarComparacion(
-                    escaneado = materialList,
-                    almacen = almacenList,
-                    baseTarimas = baseTarimas
+        try {
+            _isLoading.value = true
+            val generacion = generacionEscaneado
+            val inventarioEscaneado = HashMap(escaneadoPorSku)
+            skusDuranteComparacion.clear()
+            comparacionEnCurso = job
+
+            val calculo = withContext(Dispatchers.Default) {
+                val nuevo = ConciliadorIncremental()
+                nuevo.cargar(
+                    inventarioSistema.values.map { almacenDe(it) },
+                    inventarioEscaneado.values.map { EscaneadoSku(it.sku, it.totalPallets, it.descripcion, it.tipoTarima) }
                 )
-
-                _comparacionDetallada.value = comparacion
-
-                // Generar comparación simple también
-                val comparacionSimple = mutableListOf<Triple<String, InventarioItem?, InventarioItem?>>()
-                val todosLosSKUs = (inventarioSistema.keys + inventarioEscaneado.keys).distinct()
-
-                for (sku in todosLosSKUs) {
-                    val itemSistema = inventarioSistema[sku]
-                    val itemEscaneado = inventarioEscaneado[sku]
-                    comparacionSimple.add(Triple(sku, itemSistema, itemEscaneado))
+                nuevo.tomarCambios()
+                ensureActive()
+                val detallada = nuevo.filasOrdenadas()
+                ensureActive()
+                val simple = ArrayList<Triple<String, InventarioItem?, InventarioItem?>>(inventarioSistema.size + inventarioEscaneado.size)
+                for ((sku, itemSistema) in inventarioSistema) simple.add(Triple(sku, itemSistema, inventarioEscaneado[sku]))
+                for ((sku, itemEscaneado) in inventarioEscaneado) {
+                    if (sku !in inventarioSistema) simple.add(Triple(sku, null, itemEscaneado))
                 }
+                Triple(nuevo, detallada, simple)
+            }
+            val finCalculo = System.nanoTime()
 
-                _comparacion.value = comparacionSimple
-
-                Log.d(TAG, "Comparación completada: ${comparacion.size} diferencias encontradas")
-                _mensaje.value = "Comparación actualizada: ${comparacion.size} items procesados"
+            if (generacion != generacionEscaneado || _inventarioSistema.value !== inventarioSistema) {
+                Log.d(TAG, "Los inventarios cambiaron durante la comparación; se repite")
+                realizarComparacion()
+                return
+            }
 
-            } catch (e: Exception) {
-                Log.e(TAG, "Error en comparación", e)
-                _error.value = "Error en comparación: ${e.message}"
-                _mensaje.value = "Error en comparación: ${e.message}"
-            } finally {
-                _isLoading.value = false
-                isComparacionInProgress = false
+            val (nuevo, detallada, simple) = calculo
+            conciliador = nuevo
+            _comparacionDetallada.value = detallada
+            for (sku in skusDuranteComparacion) {
+                val antes = inventarioEscaneado[sku]
+                val ahora = escaneadoPorSku[sku]
+                if (ahora == null) {
+                    conciliador.quitarEscaneado(sku)
+                } else {
+                    conciliador.aplicarDelta(sku, ahora.totalPallets - (antes?.totalPallets ?: 0), ahora.descripcion, ahora.tipoTarima)
+                }
             }
+            publicarDetallada(conciliador.tomarCambios())
+
+            posicionComparacion.indexar(simple)
+            publicarSimple(simple, skusDuranteComparacion, inventarioSistema)
+
+            val fin = System.nanoTime()
+            val metricas = MetricasComparacion(
+                filas = detallada.size,
+                esperaMs = (inicio - solicitada) / 1_000_000,
+                calculoMs = (finCalculo - inicio) / 1_000_000,
+                publicacionMs = (fin - finCalculo) / 1_000_000,
+                reaplicados = skusDuranteComparacion.size,
+                descartadas = programadorComparacion.tomarDescartadas()
+            )
+            _metricasComparacion.value = metricas
+            Log.d(TAG, "Comparación completada: $metricas")
+            _mensaje.value = "Comparación actualizada: ${detallada.size} items procesados"
+
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            Log.e(TAG, "Error en comparación", e)
+            _error.value = "Error en comparación: ${e.message}"
+            _mensaje.value = "Error en comparación: ${e.message}"
+        } finally {
+            if (comparacionEnCurso === job) comparacionEnCurso = null
+            // Una comparación reemplazada deja el indicador a la que la reemplazó
+            if (programadorComparacion.esVigente(job)) _isLoading.value = false
         }
     }
 
@@ -325,11 +663,9 @@ class InventoryComparisonViewModel(application: Application) : AndroidViewModel(
     fun habilitarActualizacionTiempoReal(habilitar: Boolean) {
         Log.d(TAG, "Actualización en tiempo real: $habilitar")
         tiempoRealHabilitado = habilitar
-        if (habilitar) {
-            // Forzar actualización inmediata
-            viewModelScope.launch {
-                actualizarInventarioEscaneadoEnTiempoReal()
-            }
+        if (habilitar && _inventarioSistema.value?.isNotEmpty() == true) {
+            // Mientras estuvo pausada solo se acumularon los cambios del inventario escaneado
+            realizarComparacion()
         }
     }
 
@@ -347,10 +683,13 @@ class InventoryComparisonViewModel(application: Application) : AndroidViewModel(
      * Limpia todos los datos
      */
     fun limpiarDatos() {
+        programadorComparacion.cancelar()
         _inventarioSistema.value = emptyMap()
-        _inventarioEscaneado.value = emptyMap()
+        conciliador.cargarSistema(emptyList())
+        reemplazarEscaneado(emptyMap())
         _comparacion.value = emptyList()
         _comparacionDetallada.value = emptyList()
+        _resumenComparacion.value = ConciliadorIncremental.Resumen(0, 0, 0)
         _mensaje.value = "Datos limpiados"
         _error.value = null
         Log.d(TAG, "Datos limpiados")
@@ -365,16 +704,16 @@ class InventoryComparisonViewModel(application: Application) : AndroidViewModel(
                 _isLoading.postValue(true)
 
                 // Limpiar todos los LiveData
+                programadorComparacion.cancelar()
                 _inventarioSistema.postValue(emptyMap())
-                _inventarioEscaneado.postValue(emptyMap())
+                conciliador.cargarSistema(emptyList())
+                reemplazarEscaneado(emptyMap())
                 _comparacion.postValue(emptyList())
                 _comparacionDetallada.postValue(emptyList())
+                _resumenComparacion.postValue(ConciliadorIncremental.Resumen(0, 0, 0))
                 _mensaje.postValue(null)
                 _error.postValue(null)
 
-                // Limpiar SharedPreferences de materiales
-                sharedPreferences.edit().clear().apply()
-
                 // Limpiar otras SharedPreferences de la app
                 val appPrefs = getApplication<Application>().getSharedPreferences("app_config", 0)
                 val editor = appPrefs.edit()
@@ -439,6 +778,7 @@ class InventoryComparisonViewModel(application: Application) : AndroidViewModel(
             try {
                 _comparacion.postValue(emptyList())
                 _comparacionDetallada.postValue(emptyList())
+                _resumenComparacion.postValue(ConciliadorIncremental.Resumen(0, 0, 0))
 
                 val appPrefs = getApplication<Application>().getSharedPreferences("app_config", 0)
                 appPrefs.edit().putBoolean("comparacion_activa", false).apply()
@@ -460,10 +800,7 @@ class InventoryComparisonViewModel(application: Application) : AndroidViewModel(
         viewModelScope.launch {
             try {
                 // Limpiar inventario escaneado
-                _inventarioEscaneado.postValue(emptyMap())
-
-                // Limpiar SharedPreferences
-                sharedPreferences.edit().clear().apply()
+                reemplazarEscaneado(emptyMap())
 
                 val appPrefs = getApplication<Application>().getSharedPreferences("app_config", 0)
                 appPrefs.edit().putBoolean("inventario_escaneado_activo", false).apply()
@@ -488,13 +825,13 @@ class InventoryComparisonViewModel(application: Application) : AndroidViewModel(
         viewModelScope.launch {
             try {
                 // Limpiar todos los inventarios
+                programadorComparacion.cancelar()
                 _inventarioSistema.postValue(emptyMap())
-                _inventarioEscaneado.postValue(emptyMap())
+                conciliador.cargarSistema(emptyList())
+                reemplazarEscaneado(emptyMap())
                 _comparacion.postValue(emptyList())
                 _comparacionDetallada.postValue(emptyList())
-
-                // Limpiar SharedPreferences de materiales
-                sharedPreferences.edit().clear().apply()
+                _resumenComparacion.postValue(ConciliadorIncremental.Resumen(0, 0, 0))
 
                 // Actualizar estados en app_config
                 val appPrefs = getApplication<Application>().getSharedPreferences("app_config", 0)
@@ -565,13 +902,13 @@ class InventoryComparisonViewModel(application: Application) : AndroidViewModel(
     }
 
     /**
-     * Importa el inventario escaneado desde un archivo URI o desde SharedPreferences
+     * Importa el inventario escaneado desde un archivo URI o, sin URI, desde el inventario del dispositivo
      */
     suspend fun importarInventarioEscaneado(uri: Uri?): Boolean = withContext(Dispatchers.IO) {
         try {
             if (uri == null) {
-                // Cargar desde SharedPreferences (datos escaneados previamente)
-                cargarInventarioEscaneado()
+                // Cargar el inventario escaneado en el dispositivo
+                withContext(Dispatchers.Main) { cargarInventarioEscaneado() }
                 withContext(Dispatchers.Main) {
                     _mensaje.value = "Inventario escaneado cargado desde el dispositivo"
                 }
@@ -583,21 +920,18 @@ class InventoryComparisonViewModel(application: Application) : AndroidViewModel(
             val inventarioMap = mutableMapOf<String, InventarioItem>()
 
             context.contentResolver.openInputStream(uri)?.use { inputStream ->
-                val reader = BufferedReader(InputStreamReader(inputStream))
-                val header = reader.readLine()?.split(",")
-
-                if (header != null && header.isNotEmpty()) {
-                    reader.forEachLine { line ->
-                        if (line.isNotBlank()) {
-                            val columns = line.split(",")
-                            if (columns.size >= 3) {
-                                val sku = columns[0].trim()
-                                val descripcion = columns.getOrNull(1)?.trim() ?: ""
-                                val cantidadStr = columns.getOrNull(2)?.trim() ?: "0"
-                                val tipoTarima = columns.getOrNull(3)?.trim() ?: ""
+                val fila = LectorCsv(InputStreamReader(inputStream))
+
+                if (fila.siguiente() && !fila.registroEnBlanco) {
+                    while (fila.siguiente()) {
+                        if (!fila.registroEnBlanco) {
+                            if (fila.columnas >= 3) {
+                                val sku = fila.textoRecortado(0, textos)
+                                val descripcion = fila.textoRecortado(1, textos)
+                                val tipoTarima = fila.textoRecortado(3, textos)
 
                                 try {
-                                    val cantidad = cantidadStr.toIntOrNull() ?: 0
+                                    val cantidad = fila.entero(2) ?: 0
                                     inventarioMap[sku] = InventarioItem(
                                         sku = sku,
                                         descripcion = descripcion,
@@ -614,7 +948,7 @@ class InventoryComparisonViewModel(application: Application) : AndroidViewModel(
             }
 
             withContext(Dispatchers.Main) {
-                _inventarioEscaneado.value = inventarioMap
+                reemplazarEscaneado(inventarioMap)
                 _mensaje.value = "Inventario escaneado importado: ${inventarioMap.size} items"
                 // Realizar comparación si hay inventario del sistema
                 if (_inventarioSistema.value?.isNotEmpty() == true) {
@@ -653,9 +987,10 @@ class InventoryComparisonViewModel(application: Application) : AndroidViewModel(
      * Reiniciar el inventario escaneado
      */
     fun reiniciarInventarioEscaneado() {
-        _inventarioEscaneado.value = emptyMap()
+        reemplazarEscaneado(emptyMap())
         _comparacion.value = emptyList()
         _comparacionDetallada.value = emptyList()
+        _resumenComparacion.value = ConciliadorIncremental.Resumen(0, 0, 0)
         _mensaje.value = "Inventario escaneado reiniciado"
     }
 }
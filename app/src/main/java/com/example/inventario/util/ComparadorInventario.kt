@@ -3,8 +3,12 @@ package com.example.inventario.util
 import android.content.Context
 import android.widget.Toast
 import androidx.core.content.FileProvider
+import com.example.escaneodematerialeskof.dashboard.ConciliadorExterno
 import com.example.escaneodematerialeskof.model.MaterialItem
+import com.example.escaneodematerialeskof.util.ExportadorCsv
 import java.io.File
+import java.io.Reader
+import java.io.Writer
 
 data class InventarioAlmacen(
     val sku: String,
@@ -98,56 +102,16 @@ object ComparadorInventario {
         context: Context,
         comparacion: List<ComparacionInventario>,
         nombreArchivo: String = "comparacion_inventario.csv",
+        compresion: ExportadorCsv.Compresion = ExportadorCsv.compresionParaCorreo(comparacion.size),
         onFinish: (File?) -> Unit
     ) {
         try {
-            val archivo = File(context.filesDir, nombreArchivo)
-            archivo.bufferedWriter().use { writer ->
-                // Fecha y hora de generación
-                val fechaGeneracion = java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss", java.util.Locale.getDefault()).format(java.util.Date())
-
-                // Cabecera del archivo
-                writer.write("COMPARACIÓN DE INVENTARIO - Generado: $fechaGeneracion\n\n")
-
-                // Cabeceras de columnas (formato estándar para Excel)
-                writer.write("SKU,Descripción,Tipo Tarima,Cantidad Escaneada,Cantidad Sistema,Diferencia,Estado\n")
-
-                // Datos de comparación
-                comparacion.forEach { fila ->
-                    val linea = listOf(
-                        fila.sku,
-                        "\"${fila.descripcion.replace("\"", "\"\"")}\"", // Escape de comillas para CSV
-                        fila.tipoTarima,
-                        fila.escaneado?.toString() ?: "0",
-                        fila.inventario?.toString() ?: "0",
-                        fila.diferencia?.toString() ?: "0",
-                        "\"${fila.estado}\""
-                    ).joinToString(",")
-                    writer.write("$linea\n")
-                }
-
-                // Línea en blanco antes del resumen
-                writer.write("\n")
-
-                // Resumen estadístico
-                val coincidencias = comparacion.count { it.estado == "OK" }
-                val faltantes = comparacion.count { it.estado.contains("Faltante") }
-                val sobrantes = comparacion.count { it.estado.contains("Sobrante") }
-                val totalItems = comparacion.size
-
-                writer.write("\nRESUMEN DE COMPARACIÓN\n")
-                writer.write("Total de SKUs,Coincidencias,Faltantes,Sobrantes\n")
-                writer.write("$totalItems,$coincidencias,$faltantes,$sobrantes\n")
-
-                // Totales de cantidades
-                val totalEscaneado = comparacion.sumOf { it.escaneado ?: 0 }
-                val totalSistema = comparacion.sumOf { it.inventario ?: 0 }
-                val diferenciaTotal = totalEscaneado - totalSistema
-
-                writer.write("\nTOTALES DE PALLETS\n")
-                writer.write("Total Escaneado,Total Sistema,Diferencia Total\n")
-                writer.write("$totalEscaneado,$totalSistema,$diferenciaTotal\n")
+            val (archivo, resultado) = ExportadorCsv.exportarArchivo(context.filesDir, nombreArchivo, compresion) { writer ->
+                val escritor = EscritorComparacion(writer)
+                comparacion.forEach { escritor.fila(it) }
+                escritor.cerrar()
             }
+            android.util.Log.d("ComparadorInventario", "${archivo.name}: ${resultado.bytes} bytes en ${resultado.milisegundos} ms")
             onFinish(archivo)
         } catch (e: Exception) {
             e.printStackTrace()
@@ -155,10 +119,98 @@ object ComparadorInventario {
         }
     }
 
+    /**
+     * Compara dos CSV sin cargarlos en memoria con
+     * [com.example.escaneodematerialeskof.dashboard.ConciliadorExterno] y escribe cada fila en
+     * `filesDir` en cuanto se conoce, con el mismo formato y resumen que [exportarComparacionCSV].
+     * Bloquea; llamar fuera del hilo principal.
+     */
+    fun exportarConciliacionExterna(
+        context: Context,
+        sistema: Reader,
+        escaneado: Reader,
+        nombreArchivo: String = "conciliacion_inventario.csv",
+        presupuestoBytes: Long = ConciliadorExterno.PRESUPUESTO_POR_DEFECTO,
+        compresion: ExportadorCsv.Compresion = ExportadorCsv.Compresion.NINGUNA
+    ): File {
+        val (archivo, resultado) = ExportadorCsv.exportarArchivo(context.filesDir, nombreArchivo, compresion) { writer ->
+            val escritor = EscritorComparacion(writer)
+            ConciliadorExterno(context.cacheDir, presupuestoBytes).conciliar(
+                ConciliadorExterno.sistemaCsv(sistema),
+                ConciliadorExterno.escaneadoCsv(escaneado)
+            ) {
+                escritor.fila(ComparacionInventario(it.sku, it.descripcion, it.tipoTarima, it.escaneado, it.inventario, it.diferencia, it.estado))
+            }
+            escritor.cerrar()
+        }
+        android.util.Log.d("ComparadorInventario", "${archivo.name}: ${resultado.filas} filas, ${resultado.bytes} bytes en ${resultado.milisegundos} ms")
+        return archivo
+    }
+
+    /**
+     * Escribe el reporte fila por fila y acumula el resumen que va al final.
+     */
+    private class EscritorComparacion(private val writer: Writer) {
+        private var filas = 0
+        private var coincidencias = 0
+        private var faltantes = 0
+        private var sobrantes = 0
+        private var totalEscaneado = 0
+        private var totalSistema = 0
+
+        init {
+            // Fecha y hora de generación
+            val fechaGeneracion = java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss", java.util.Locale.getDefault()).format(java.util.Date())
+
+            // Cabecera del archivo
+            writer.write("COMPARACIÓN DE INVENTARIO - Generado: $fechaGeneracion\n\n")
+
+            // Cabeceras de columnas (formato estándar para Excel)
+            writer.write("SKU,Descripción,Tipo Tarima,Cantidad Escaneada,Cantidad Sistema,Diferencia,Estado\n")
+        }
+
+        fun fila(fila: ComparacionInventario) {
+            ExportadorCsv.escribirCampo(writer, fila.sku)
+            writer.write(",\"")
+            writer.write(fila.descripcion.replace("\"", "\"\"")) // Escape de comillas para CSV
+            writer.write("\",")
+            ExportadorCsv.escribirCampo(writer, fila.tipoTarima)
+            writer.write(",${fila.escaneado ?: 0},${fila.inventario ?: 0},${fila.diferencia ?: 0},\"${fila.estado}\"\n")
+
+            filas++
+            when {
+                fila.estado == "OK" -> coincidencias++
+                fila.estado.contains("Faltante") -> faltantes++
+                fila.estado.contains("Sobrante") -> sobrantes++
+            }
+            totalEscaneado += fila.escaneado ?: 0
+            totalSistema += fila.inventario ?: 0
+        }
+
+        /**
+         * Escribe el resumen estadístico.
+         * @return el número de filas escritas.
+         */
+        fun cerrar(): Int {
+            // Línea en blanco antes del resumen
+            writer.write("\n")
+
+            writer.write("\nRESUMEN DE COMPARACIÓN\n")
+            writer.write("Total de SKUs,Coincidencias,Faltantes,Sobrantes\n")
+            writer.write("$filas,$coincidencias,$faltantes,$sobrantes\n")
+
+            // Totales de cantidades
+            writer.write("\nTOTALES DE PALLETS\n")
+            writer.write("Total Escaneado,Total Sistema,Diferencia Total\n")
+            writer.write("$totalEscaneado,$totalSistema,${totalEscaneado - totalSistema}\n")
+            return filas
+        }
+    }
+
     fun enviarPorCorreo(context: Context, archivo: File) {
         val uri = FileProvider.getUriForFile(context, "${context.packageName}.fileprovider", archivo)
         val intent = android.content.Intent(android.content.Intent.ACTION_SEND).apply {
-            type = "text/csv"
+            type = ExportadorCsv.tipoMimeDe(archivo)
             putExtra(android.content.Intent.EXTRA_SUBJECT, "Comparación de Inventario")
             putExtra(android.content.Intent.EXTRA_TEXT, "Adjunto archivo de comparación generado desde la app.")
             putExtra(android.content.Intent.EXTRA_STREAM, uri)
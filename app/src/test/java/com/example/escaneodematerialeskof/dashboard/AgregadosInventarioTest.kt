@@ -0,0 +1,69 @@
+package com.example.escaneodematerialeskof.dashboard
+
+import com.example.escaneodematerialeskof.data.inventario.InventarioEscaneado
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+class AgregadosInventarioTest {
+
+    private fun fila(sku: String, pallets: Int, tarima: String, almacen: String, ubicacion: String = "R1", descripcion: String = "") =
+        InventarioEscaneado(sku = sku, totalPallets = pallets, tipoTarima = tarima, almacen = almacen, ubicacion = ubicacion, descripcion = descripcion)
+
+    @Test
+    fun `totales por filtro`() {
+        val agregados = AgregadosInventario()
+        agregados.cargar(
+            listOf(
+                fila("100", 10, "MADERA", "A1", descripcion = "Agua"),
+                fila("100", 5, "PLASTICO", "A2", ubicacion = "R2"),
+                fila("200", 7, "MADERA", "A2"),
+                fila("300", 1, "", "")
+            )
+        )
+        assertEquals(listOf("A1", "A2"), agregados.almacenes())
+        assertEquals(listOf("MADERA", "PLASTICO"), agregados.tarimas())
+        assertEquals(23, agregados.totalPallets())
+        assertEquals(3, agregados.totalSkus())
+        assertEquals(12, agregados.totalPallets(almacen = "A2"))
+        assertEquals(mapOf("A1" to 10, "A2" to 12, "" to 1), agregados.palletsPorAlmacen())
+        assertEquals(mapOf("A1" to 10, "A2" to 7), agregados.palletsPorAlmacen(tipoTarima = "MADERA"))
+        assertEquals(mapOf("MADERA" to 7, "PLASTICO" to 5), agregados.palletsPorTarima(almacen = "A2"))
+        assertEquals(
+            listOf(SkuAcumulado("100", "Agua", 15), SkuAcumulado("200", "", 7)),
+            agregados.topSkus(2)
+        )
+        assertEquals(mapOf("100" to setOf("R1", "R2")), agregados.skusEnVariasUbicaciones())
+        assertEquals(emptyMap<String, Set<String>>(), agregados.skusEnVariasUbicaciones(almacen = "A2"))
+    }
+
+    @Test
+    fun `los cambios incrementales dan lo mismo que recalcular`() {
+        val random = Random(7)
+        val incremental = AgregadosInventario()
+        val filas = LinkedHashMap<String, InventarioEscaneado>()
+        repeat(5_000) {
+            val sku = "SKU${random.nextInt(60)}"
+            val tarima = listOf("MADERA", "PLASTICO", "CHEP")[random.nextInt(3)]
+            val almacen = "A${random.nextInt(4)}"
+            val llave = "$sku|$tarima|$almacen"
+            val fila = if (random.nextInt(5) == 0) null else fila(sku, random.nextInt(80), tarima, almacen, "R${random.nextInt(3)}")
+            if (fila == null) filas.remove(llave) else filas[llave] = fila
+            incremental.aplicar(fila?.clave ?: fila(sku, 0, tarima, almacen).clave, fila)
+        }
+        val recalculado = AgregadosInventario().apply { cargar(filas.values.toList()) }
+
+        for (almacen in listOf(null, "A0", "A3")) {
+            for (tarima in listOf(null, "CHEP", "MADERA")) {
+                assertEquals(recalculado.totalPallets(almacen, tarima), incremental.totalPallets(almacen, tarima))
+                assertEquals(recalculado.totalSkus(almacen, tarima), incremental.totalSkus(almacen, tarima))
+                assertEquals(recalculado.palletsPorAlmacen(almacen, tarima), incremental.palletsPorAlmacen(almacen, tarima))
+                assertEquals(recalculado.palletsPorTarima(almacen, tarima), incremental.palletsPorTarima(almacen, tarima))
+                assertEquals(recalculado.topSkus(5, almacen, tarima), incremental.topSkus(5, almacen, tarima))
+                assertEquals(recalculado.skusEnVariasUbicaciones(almacen, tarima), incremental.skusEnVariasUbicaciones(almacen, tarima))
+            }
+        }
+        assertTrue(incremental.totalPallets() > 0)
+    }
+}
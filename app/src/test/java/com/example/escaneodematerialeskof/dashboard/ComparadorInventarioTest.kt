@@ -0,0 +1,48 @@
+package com.example.escaneodematerialeskof.dashboard
+
+import com.example.escaneodematerialeskof.model.MaterialItem
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class ComparadorInventarioTest {
+
+    private fun material(sku: String, pallets: Int) = MaterialItem(
+        sku = sku,
+        descripcion = "Producto $sku",
+        cxPal = "",
+        fpc = "",
+        con = "",
+        centro = "",
+        linea = "",
+        op = "",
+        fProd = "",
+        diasV = "",
+        ubicacion = "",
+        totalPallets = pallets.toString(),
+        tipoTarima = "PLASTICO"
+    )
+
+    @Test
+    fun `compararSku da las mismas filas que generarComparacion`() {
+        val escaneado = listOf(material("100", 2), material("100", 3), material("200", 1), material("300", 4))
+        val almacen = listOf(
+            InventarioAlmacen("100", "Sistema 100", 5, "C1"),
+            InventarioAlmacen("200", "Sistema 200", 3, "C1"),
+            InventarioAlmacen("400", "Sistema 400", 7, "C1")
+        )
+        val tarimas = mapOf("100" to "PLASTICO", "200" to "PLASTICO", "300" to "PLASTICO")
+        val completa = ComparadorInventario.generarComparacion(escaneado, almacen, tarimas)
+
+        val porSku = mapOf(
+            "100" to ComparadorInventario.compararSku("100", 5, "Producto 100", almacen[0], "PLASTICO"),
+            "200" to ComparadorInventario.compararSku("200", 1, "Producto 200", almacen[1], "PLASTICO"),
+            "300" to ComparadorInventario.compararSku("300", 4, "Producto 300", null, "PLASTICO"),
+            "400" to ComparadorInventario.compararSku("400", null, null, almacen[2], "OTRA")
+        )
+        assertEquals(completa, completa.map { porSku[it.sku] })
+        assertEquals("OK", porSku["100"]?.estado)
+        assertEquals("Faltante (2)", porSku["200"]?.estado)
+        assertNull(ComparadorInventario.compararSku("500", null, null, null, "OTRA"))
+    }
+}
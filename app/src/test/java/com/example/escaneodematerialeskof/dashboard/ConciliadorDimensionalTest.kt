@@ -0,0 +1,85 @@
+package com.example.escaneodematerialeskof.dashboard
+
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+import kotlin.random.Random
+
+class ConciliadorDimensionalTest {
+
+    private val sistema = listOf(
+        RegistroDimensional("100", "A1", "CHEP", "R1", 5),
+        RegistroDimensional("100", "A2", "CHEP", "R2", 2),
+        RegistroDimensional("200", "A1", "PLASTICO", "R1", 3)
+    )
+
+    private val escaneado = listOf(
+        RegistroDimensional("100", "A1", "CHEP", "R1", 3),
+        RegistroDimensional("100", "A1", "CHEP", "R1", 2),
+        RegistroDimensional("100", "A2", "PLASTICO", "R2", 1),
+        RegistroDimensional("300", "A2", "CHEP", "R3", 4)
+    )
+
+    @Test
+    fun `los subtotales de cada nivel suman lo de sus celdas`() = runBlocking {
+        val resultado = ConciliadorDimensional(paralelismo = 3).conciliar(sistema, escaneado)
+
+        assertEquals(Subtotal(escaneado = 10, sistema = 10), resultado.total)
+        assertEquals(Subtotal(6, 7), resultado.subtotal(ClaveDimensional(sku = "100")))
+        assertEquals(Subtotal(5, 5), resultado.subtotal(ClaveDimensional("100", "A1", "CHEP", "R1")))
+        assertEquals(Subtotal(1, 0), resultado.subtotal(ClaveDimensional(almacen = "A2", tipoTarima = "PLASTICO")))
+        assertEquals(Subtotal(9, 7), resultado.subtotal(ClaveDimensional(tipoTarima = "CHEP")))
+        assertNull(resultado.subtotal(ClaveDimensional(sku = "999")))
+
+        val porAlmacen = resultado.agrupar(setOf(Dimension.ALMACEN))
+        assertEquals(
+            mapOf(ClaveDimensional(almacen = "A1") to Subtotal(5, 8), ClaveDimensional(almacen = "A2") to Subtotal(5, 2)),
+            porAlmacen
+        )
+    }
+
+    @Test
+    fun `el desglose sigue el orden pedido y trae los subtotales de cada nodo`() = runBlocking {
+        val resultado = ConciliadorDimensional(paralelismo = 2).conciliar(sistema, escaneado)
+
+        val raiz = resultado.desglose(listOf(Dimension.ALMACEN, Dimension.SKU))
+        assertEquals(listOf("A1", "A2"), raiz.hijos.map { it.valor })
+        val a2 = raiz.hijos[1]
+        assertEquals(Subtotal(5, 2), a2.subtotal)
+        assertEquals(listOf("100", "300"), a2.hijos.map { it.valor })
+        assertEquals(Subtotal(1, 2), a2.hijos[0].subtotal)
+        assertEquals(Dimension.SKU, a2.hijos[0].dimension)
+        assertEquals(emptyList<NodoConciliacion>(), a2.hijos[0].hijos)
+
+        val completo = resultado.desglose()
+        assertEquals(4, completo.hijos.first().hijos.first().hijos.first().hijos.first().clave.let { clave ->
+            Dimension.entries.count { clave.valor(it) != null }
+        })
+    }
+
+    @Test
+    fun `el resultado no depende del paralelismo`() = runBlocking {
+        val random = Random(7)
+        fun registros(n: Int) = List(n) {
+            RegistroDimensional(
+                "SKU${random.nextInt(500)}",
+                "A${random.nextInt(4)}",
+                listOf("CHEP", "PLASTICO", "OTRA")[random.nextInt(3)],
+                "R${random.nextInt(20)}",
+                random.nextInt(10)
+            )
+        }
+        val sis = registros(30_000)
+        val esc = registros(30_000)
+
+        val uno = ConciliadorDimensional(paralelismo = 1).conciliar(sis, esc)
+        val varios = ConciliadorDimensional(paralelismo = 8).conciliar(sis, esc)
+
+        assertEquals(Subtotal(esc.sumOf { it.pallets.toLong() }, sis.sumOf { it.pallets.toLong() }), varios.total)
+        for (dimension in Dimension.entries) {
+            assertEquals(uno.agrupar(setOf(dimension)), varios.agrupar(setOf(dimension)))
+        }
+        assertEquals(uno.agrupar(Dimension.entries.toSet()), varios.agrupar(Dimension.entries.toSet()))
+    }
+}
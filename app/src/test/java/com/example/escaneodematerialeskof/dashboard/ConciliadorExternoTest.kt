@@ -0,0 +1,64 @@
+package com.example.escaneodematerialeskof.dashboard
+
+import com.example.escaneodematerialeskof.model.MaterialItem
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.StringReader
+import kotlin.random.Random
+
+class ConciliadorExternoTest {
+
+    @get:Rule
+    val carpeta = TemporaryFolder()
+
+    private fun material(sku: String, pallets: Int, tipo: String) = MaterialItem(
+        sku, "Producto $sku", "", "", "", "", "", "", "", "",
+        totalPallets = pallets.toString(), tipoTarima = tipo
+    )
+
+    @Test
+    fun `con un presupuesto minimo da lo mismo que generarComparacion`() {
+        val random = Random(7)
+        val sistema = List(3000) { i ->
+            RegistroConciliacion("SKU${random.nextInt(1500)}", random.nextInt(20), "Sistema $i", "")
+        }
+        val escaneos = List(4000) {
+            material("SKU${random.nextInt(1000, 2500)}", random.nextInt(10), if (random.nextBoolean()) "PLASTICO" else "MADERA")
+        }
+
+        // En el sistema el último registro de cada SKU gana; en lo escaneado cuenta el primero
+        val almacen = sistema.associateBy { it.sku }.values.map { InventarioAlmacen(it.sku, it.descripcion, it.pallets, "") }
+        val tarimas = HashMap<String, String>()
+        escaneos.forEach { tarimas.putIfAbsent(it.sku, it.tipoTarima!!) }
+        val esperado = ComparadorInventario.generarComparacion(escaneos, almacen, tarimas)
+
+        val filas = mutableListOf<ComparacionInventario>()
+        val resultado = ConciliadorExterno(carpeta.root, presupuestoBytes = 16 * 1024).conciliar(
+            sistema.iterator(),
+            escaneos.map { RegistroConciliacion(it.sku, it.totalPallets!!.toInt(), it.descripcion, it.tipoTarima!!) }.iterator()
+        ) { filas.add(it) }
+
+        assertEquals(esperado, filas)
+        assertTrue("Debió partir en varios tramos", resultado.tramos > 4)
+        assertEquals(filas.size.toLong(), resultado.ok + resultado.faltantes + resultado.sobrantes)
+        assertTrue(carpeta.root.listFiles()!!.isEmpty())
+    }
+
+    @Test
+    fun `lee los csv del sistema y de la app`() {
+        val sistema = "SKU,Descripcion,Cantidad,Tipo\n100,Agua,5,PLASTICO\n\n200,\"Jugo, 1L\",3,MADERA\n"
+        val escaneado = "encabezado\n100,Agua 1L,56,,,C1,,,,,R1,2,PLASTICO,A1\n100,Agua 1L,56,,,C1,,,,,R2,3,PLASTICO,A2\n"
+        val filas = mutableListOf<ComparacionInventario>()
+        ConciliadorExterno(carpeta.root).conciliar(
+            ConciliadorExterno.sistemaCsv(StringReader(sistema)),
+            ConciliadorExterno.escaneadoCsv(StringReader(escaneado))
+        ) { filas.add(it) }
+
+        assertEquals(listOf("OK", "Faltante (No escaneado)"), filas.map { it.estado })
+        assertEquals(5, filas[0].escaneado)
+        assertEquals("Jugo, 1L", filas[1].descripcion)
+    }
+}
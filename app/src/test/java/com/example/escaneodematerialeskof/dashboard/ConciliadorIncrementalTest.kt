@@ -0,0 +1,59 @@
+package com.example.escaneodematerialeskof.dashboard
+
+import com.example.escaneodematerialeskof.model.MaterialItem
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class ConciliadorIncrementalTest {
+
+    private val sistema = listOf(
+        InventarioAlmacen("100", "Sistema 100", 5, "C1"),
+        InventarioAlmacen("200", "Sistema 200", 3, "C1"),
+        InventarioAlmacen("400", "Sistema 400", 2, "C1")
+    )
+
+    private fun material(sku: String, pallets: Int) = MaterialItem(
+        sku, "Producto $sku", "", "", "", "", "", "", "", "",
+        totalPallets = pallets.toString(), tipoTarima = "PLASTICO"
+    )
+
+    @Test
+    fun `los deltas dejan las mismas filas que generarComparacion`() {
+        val conciliador = ConciliadorIncremental()
+        conciliador.cargarSistema(sistema)
+        val escaneos = listOf(material("100", 2), material("300", 4), material("100", 3), material("200", 1))
+        for (m in escaneos) conciliador.aplicarDelta(m.sku, m.totalPallets!!.toInt(), m.descripcion, m.tipoTarima)
+
+        val tarimas = escaneos.associate { it.sku to it.tipoTarima!! }
+        assertEquals(ComparadorInventario.generarComparacion(escaneos, sistema, tarimas), conciliador.filasOrdenadas())
+        // 100 cuadra; 200 y 400 faltan; 300 sobra
+        assertEquals(ConciliadorIncremental.Resumen(ok = 1, faltantes = 2, sobrantes = 1), conciliador.resumen)
+    }
+
+    @Test
+    fun `tomarCambios entrega solo las filas que cambiaron`() {
+        val conciliador = ConciliadorIncremental()
+        conciliador.cargarSistema(sistema)
+        assertNull(conciliador.tomarCambios())
+
+        conciliador.aplicarDelta("100", 5, "Producto 100", "PLASTICO")
+        conciliador.aplicarDelta("500", 1, "Producto 500", "MADERA")
+        val cambios = conciliador.tomarCambios()!!
+        assertEquals(listOf("100", "500"), cambios.map { it.sku })
+        assertEquals("OK", cambios[0].fila!!.estado)
+        assertEquals("Sobrante (No en almacén)", cambios[1].fila!!.estado)
+
+        // Un delta que no cambia la fila no se reporta
+        conciliador.aplicarDelta("100", 0)
+        assertEquals(emptyList<ConciliadorIncremental.Cambio>(), conciliador.tomarCambios())
+
+        conciliador.quitarEscaneado("500")
+        assertEquals(listOf(ConciliadorIncremental.Cambio("500", null)), conciliador.tomarCambios())
+        assertEquals(ConciliadorIncremental.Resumen(ok = 1, faltantes = 2, sobrantes = 0), conciliador.resumen)
+
+        conciliador.aplicarDelta("100", -2)
+        assertEquals("Faltante (2)", conciliador.fila("100")!!.estado)
+        assertEquals(ConciliadorIncremental.Resumen(ok = 0, faltantes = 3, sobrantes = 0), conciliador.resumen)
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.escaneodematerialeskof.dashboard
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class EmparejadorSkuTest {
+
+    @Test
+    fun `normalizar quita prefijos, separadores y ceros a la izquierda`() {
+        assertEquals("12345", EmparejadorSku.normalizar("0012345"))
+        assertEquals("12345", EmparejadorSku.normalizar(" SKU: 012345 "))
+        assertEquals("12345", EmparejadorSku.normalizar("sku-12345"))
+        assertEquals("AB12", EmparejadorSku.normalizar("ab-12"))
+        assertEquals("0", EmparejadorSku.normalizar("000"))
+        // Un código que empieza con letras de un prefijo no se toca si no trae ':'
+        assertEquals("OP123", EmparejadorSku.normalizar("OP123"))
+    }
+
+    @Test
+    fun `distancia cuenta un intercambio de vecinos como una operacion`() {
+        assertEquals(0, EmparejadorSku.distancia("12345", "12345"))
+        assertEquals(1, EmparejadorSku.distancia("12345", "12845"))
+        assertEquals(1, EmparejadorSku.distancia("12345", "1245"))
+        assertEquals(1, EmparejadorSku.distancia("12345", "123456"))
+        assertEquals(1, EmparejadorSku.distancia("12345", "21345"))
+        assertEquals(2, EmparejadorSku.distancia("12345", "21354"))
+    }
+
+    @Test
+    fun `propone los faltantes que difieren en formato o en un caracter`() {
+        val filas = listOf(
+            fila("000456789", escaneado = null, inventario = 4),
+            fila("777888", escaneado = null, inventario = 2),
+            fila("555111", escaneado = null, inventario = 1),
+            fila("456789", escaneado = 4, inventario = null),
+            fila("778788", escaneado = 2, inventario = null),
+            fila("999000", escaneado = 3, inventario = null),
+            fila("123123", escaneado = 1, inventario = 1)
+        )
+
+        val candidatos = ComparadorInventario.proponerEmparejamientos(filas)
+
+        assertEquals(
+            listOf(
+                CandidatoEmparejamiento("456789", "000456789", 0),
+                CandidatoEmparejamiento("778788", "777888", 1)
+            ),
+            candidatos
+        )
+    }
+
+    @Test
+    fun `encuentra los errores de un caracter entre 10 mil SKUs`() {
+        val sistema = (0 until 10_000).map { "%08d".format(10_000_000L + it * 7919L % 90_000_000L) }
+        val emparejador = EmparejadorSku(sistema)
+        var encontrados = 0
+        for (i in 0 until 10_000 step 10) {
+            val original = sistema[i]
+            val tecleado = original.substring(0, 3) + ((original[3] - '0' + 1) % 10) + original.substring(4)
+            if (emparejador.candidatos(tecleado).any { it.skuSistema == original }) encontrados++
+        }
+        assertEquals(1_000, encontrados)
+        assertTrue(emparejador.candidatos("ZZZZZZ").isEmpty())
+    }
+
+    private fun fila(sku: String, escaneado: Int?, inventario: Int?) =
+        ComparacionInventario(sku, "Producto $sku", "OTRA", escaneado, inventario, null, "")
+}
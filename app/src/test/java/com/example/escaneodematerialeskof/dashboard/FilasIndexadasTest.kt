@@ -0,0 +1,32 @@
+package com.example.escaneodematerialeskof.dashboard
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class FilasIndexadasTest {
+
+    private fun indexadas(filas: List<Pair<String, Int>>) =
+        FilasIndexadas<String, Pair<String, Int>> { it.first }.apply { indexar(filas) }
+
+    @Test
+    fun `quitar un sku y cambiar uno posterior en el mismo lote no toca otras filas`() {
+        val filas = mutableListOf("A" to 1, "B" to 2, "C" to 3, "D" to 4)
+        val posiciones = indexadas(filas)
+
+        posiciones.aplicar(filas, listOf("B", "D")) { sku -> if (sku == "D") sku to 40 else null }
+
+        assertEquals(listOf("A" to 1, "C" to 3, "D" to 40), filas)
+    }
+
+    @Test
+    fun `agregar y quitar varias filas deja las posiciones al dia para el siguiente lote`() {
+        val filas = mutableListOf("A" to 1, "B" to 2, "C" to 3)
+        val posiciones = indexadas(filas)
+
+        posiciones.aplicar(filas, listOf("A", "E", "C")) { sku -> if (sku == "E") sku to 5 else null }
+        assertEquals(listOf("B" to 2, "E" to 5), filas)
+
+        posiciones.aplicar(filas, listOf("E", "B")) { sku -> sku to 0 }
+        assertEquals(listOf("B" to 0, "E" to 0), filas)
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.escaneodematerialeskof.dashboard
+
+import com.example.escaneodematerialeskof.data.inventario.InventarioEscaneado
+import com.example.escaneodematerialeskof.model.ReglaAlerta
+import com.example.escaneodematerialeskof.model.TipoRegla
+import com.example.escaneodematerialeskof.util.JsonInventario
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class MotorAlertasTest {
+
+    private fun fila(sku: String, pallets: Int, tarima: String = "MADERA", almacen: String = "A1", ubicacion: String = "R1") =
+        InventarioEscaneado(sku = sku, totalPallets = pallets, tipoTarima = tarima, almacen = almacen, ubicacion = ubicacion)
+
+    private fun MotorAlertas.resumen() = activas().map { "${it.regla.id}:${it.sku}:${it.valor}" }
+
+    @Test
+    fun `las reglas predeterminadas reproducen las alertas fijas`() {
+        val motor = MotorAlertas(ReglaAlerta.PREDETERMINADAS)
+        motor.cargar(
+            listOf(
+                fila("100", 120),
+                fila("200", 60, tarima = "CHEP"),
+                fila("300", 5, ubicacion = "R1"),
+                fila("300", 5, tarima = "PLASTICO", ubicacion = "R2"),
+                fila("400", 7, tarima = "")
+            )
+        )
+        assertEquals(
+            listOf(
+                "ubicacion_multiple:300:2",
+                "cantidad_alta:100:120",
+                "tarima_no_estandar:200:60",
+                "discrepancia_critica:100:120",
+                "discrepancia_critica:200:60"
+            ),
+            motor.resumen()
+        )
+        assertEquals(2, motor.cantidad(TipoRegla.DISCREPANCIA_CRITICA))
+    }
+
+    @Test
+    fun `cada cambio agrega o quita solo sus alertas`() {
+        val motor = MotorAlertas(ReglaAlerta.PREDETERMINADAS)
+        val alta = fila("100", 120)
+        motor.cargar(listOf(alta))
+        val version = motor.version
+
+        // Sigue por encima del umbral: misma alerta con el valor nuevo
+        motor.aplicar(alta.clave, alta.copy(totalPallets = 130))
+        assertEquals(listOf("cantidad_alta:100:130", "discrepancia_critica:100:130"), motor.resumen())
+
+        motor.aplicar(alta.clave, alta.copy(totalPallets = 40))
+        assertEquals(emptyList<String>(), motor.resumen())
+
+        // Una segunda ubicación activa la alerta del SKU y eliminarla la quita
+        val otra = fila("100", 1, tarima = "PLASTICO", ubicacion = "R9")
+        motor.aplicar(otra.clave, otra)
+        assertEquals(listOf("ubicacion_multiple:100:2"), motor.resumen())
+        motor.aplicar(otra.clave, null)
+        assertEquals(emptyList<String>(), motor.resumen())
+        assertTrue(motor.version > version)
+    }
+
+    @Test
+    fun `las alertas quedan ordenadas y contadas conforme cambian`() {
+        val motor = MotorAlertas(ReglaAlerta.PREDETERMINADAS)
+        motor.cargar(emptyList())
+        val filas = listOf(fila("300", 120, almacen = "A2"), fila("100", 120), fila("300", 120, almacen = "A1"), fila("200", 60))
+        for (f in filas) motor.aplicar(f.clave, f)
+        assertEquals(
+            listOf(
+                "cantidad_alta:100:120",
+                "cantidad_alta:300:120",
+                "cantidad_alta:300:120",
+                "discrepancia_critica:100:120",
+                "discrepancia_critica:200:60",
+                "discrepancia_critica:300:120",
+                "discrepancia_critica:300:120"
+            ),
+            motor.resumen()
+        )
+        assertEquals(listOf("A1", "A2"), motor.activas().filter { it.sku == "300" }.take(2).map { it.clave?.almacen })
+        assertEquals(4, motor.cantidad(TipoRegla.DISCREPANCIA_CRITICA))
+
+        motor.aplicar(filas[0].clave, null)
+        motor.aplicar(filas[3].clave, filas[3].copy(totalPallets = 10))
+        assertEquals(2, motor.cantidad(TipoRegla.DISCREPANCIA_CRITICA))
+        assertEquals(2, motor.cantidad(TipoRegla.CANTIDAD_ALTA))
+    }
+
+    @Test
+    fun `las reglas por almacen y tarima solo ven sus filas`() {
+        val motor = MotorAlertas(
+            listOf(
+                ReglaAlerta("a2_madera", TipoRegla.CANTIDAD_ALTA, umbral = 10, almacen = "A2", tipoTarima = "madera"),
+                ReglaAlerta("a2", TipoRegla.CANTIDAD_ALTA, umbral = 30, almacen = "A2")
+            )
+        )
+        motor.cargar(
+            listOf(
+                fila("100", 20, almacen = "A1"),
+                fila("200", 20, almacen = "A2"),
+                fila("300", 20, tarima = "PLASTICO", almacen = "A2"),
+                fila("400", 40, tarima = "PLASTICO", almacen = " A2 ")
+            )
+        )
+        assertEquals(listOf("a2_madera:200:20", "a2:400:40"), motor.resumen())
+    }
+
+    @Test
+    fun `las reglas se guardan y leen en JSON`() {
+        val reglas = ReglaAlerta.PREDETERMINADAS +
+            ReglaAlerta("a2", TipoRegla.CANTIDAD_ALTA, umbral = 30, almacen = "A2", tipoTarima = "MADERA")
+        val texto = JsonInventario.aTexto(reglas, JsonInventario.reglas)
+        assertEquals(reglas, JsonInventario.leerLista(texto, JsonInventario.reglas))
+
+        // Un tipo desconocido se omite
+        val futura = """[{"id":"x","tipo":"OTRA","umbral":1},{"id":"y","tipo":"CANTIDAD_ALTA","umbral":2}]"""
+        assertEquals(listOf(ReglaAlerta("y", TipoRegla.CANTIDAD_ALTA, 2)), JsonInventario.leerLista(futura, JsonInventario.reglas))
+    }
+}
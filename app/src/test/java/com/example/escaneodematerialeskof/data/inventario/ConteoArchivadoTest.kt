@@ -0,0 +1,84 @@
+package com.example.escaneodematerialeskof.data.inventario
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class ConteoArchivadoTest {
+
+    @get:Rule
+    val carpeta = TemporaryFolder()
+
+    private fun fila(sku: String, almacen: String, pallets: Int, tarima: String = "PLASTICO") =
+        InventarioEscaneado(sku = sku, almacen = almacen, totalPallets = pallets, tipoTarima = tarima)
+
+    private fun archivar(numero: Long, filas: List<InventarioEscaneado>, sistema: Map<String, Int> = emptyMap()): File {
+        val archivo = carpeta.newFile("conteo_$numero.bin")
+        archivo.outputStream().use { ConteoArchivado.escribir(numero, 1_000L * numero, filas, sistema, it) }
+        return archivo
+    }
+
+    @Test
+    fun `agrupa por sku y almacen y conserva el resumen`() {
+        val archivo = archivar(
+            3,
+            listOf(fila("100", "A1", 5), fila("100", "A1", 2, "MADERA"), fila("100", "A2", 1), fila("200", "A1", 4)),
+            mapOf("100" to 9, "300" to 2)
+        )
+        ConteoArchivado.Lectura(archivo).use { conteo ->
+            assertEquals(ResumenConteo(3, 3_000, 3, 12), conteo.resumen)
+            assertEquals(RegistroConteo("100", 9, mapOf("A1" to 7, "A2" to 1)), conteo.buscar("100"))
+            assertEquals(RegistroConteo("200", null, mapOf("A1" to 4)), conteo.buscar("200"))
+            // Del sistema pero sin contar
+            assertEquals(RegistroConteo("300", 2, emptyMap()), conteo.buscar("300"))
+            assertNull(conteo.buscar("050"))
+            assertNull(conteo.buscar("999"))
+        }
+    }
+
+    @Test
+    fun `busca en cualquier bloque y recorre todo en orden`() {
+        val skus = (0 until ConteoArchivado.SKUS_POR_BLOQUE * 3 + 7).map { "SKU%05d".format(it) }
+        val archivo = archivar(1, skus.mapIndexed { i, sku -> fila(sku, "A${i % 3}", i) })
+        ConteoArchivado.Lectura(archivo).use { conteo ->
+            for (i in listOf(0, 255, 256, 511, 700, skus.size - 1)) {
+                assertEquals(mapOf("A${i % 3}" to i), conteo.buscar(skus[i])?.almacenes)
+            }
+            assertEquals(skus, conteo.registros().map { it.sku }.toList())
+        }
+    }
+
+    @Test
+    fun `diferencias entre dos conteos por sku y almacen`() {
+        val anterior = archivar(1, listOf(fila("100", "A1", 5), fila("200", "A1", 4), fila("300", "A2", 1)))
+        val actual = archivar(2, listOf(fila("100", "A1", 5), fila("200", "A1", 1), fila("200", "A2", 3), fila("400", "A1", 2)))
+        ConteoArchivado.Lectura(anterior).use { a ->
+            ConteoArchivado.Lectura(actual).use { b ->
+                assertEquals(
+                    listOf(
+                        DiferenciaConteo("200", "A1", 4, 1),
+                        DiferenciaConteo("200", "A2", 0, 3),
+                        DiferenciaConteo("300", "A2", 1, 0),
+                        DiferenciaConteo("400", "A1", 0, 2)
+                    ),
+                    ConteoArchivado.diferencias(a, b)
+                )
+                assertEquals(DiferenciaConteo("200", null, 4, 4), ConteoArchivado.diferencia(a, b, "200"))
+                assertEquals(-3, ConteoArchivado.diferencia(a, b, "200", "A1").diferencia)
+                assertEquals(0, ConteoArchivado.diferencia(a, b, "100").diferencia)
+            }
+        }
+    }
+
+    @Test
+    fun `comprime un conteo grande`() {
+        val filas = (0 until 20_000).map { fila("75000%05d".format(it), "ALMACEN ${it % 4}", it % 30) }
+        val archivo = archivar(1, filas)
+        // El mismo contenido sin comprimir pasa de 600 KB
+        assertTrue("${archivo.length()} bytes", archivo.length() < 200_000)
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.escaneodematerialeskof.data.inventario
+
+import com.example.escaneodematerialeskof.util.Constants
+import com.example.escaneodematerialeskof.util.LectorCsv
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.fail
+import org.junit.Test
+import java.io.StringReader
+import java.io.StringWriter
+
+class InventarioCsvTest {
+
+    private fun fila(sku: String, pallets: Int, tarima: String = "PLASTICO", almacen: String = "A1", ubicacion: String = "R1") =
+        InventarioEscaneado(
+            sku = sku,
+            descripcion = "Producto $sku",
+            cxPal = "56",
+            ubicacion = ubicacion,
+            totalPallets = pallets,
+            tipoTarima = tarima,
+            almacen = almacen
+        )
+
+    @Test
+    fun `combinar suma pallets por clave y conserva el orden`() {
+        val combinadas = InventarioCsv.combinar(
+            listOf(
+                fila("100", 2),
+                fila("200", 1),
+                fila("100", 3, ubicacion = "R9"),
+                fila("100", 4, tarima = "MADERA")
+            )
+        )
+        assertEquals(3, combinadas.size)
+        assertEquals("100", combinadas[0].sku)
+        assertEquals(5, combinadas[0].totalPallets)
+        assertEquals("R9", combinadas[0].ubicacion)
+        assertEquals(1, combinadas[1].totalPallets)
+        assertEquals("MADERA", combinadas[2].tipoTarima)
+    }
+
+    @Test
+    fun `escribir y leer conserva comas y comillas`() {
+        val original = listOf(fila("100", 2).copy(descripcion = "Refresco \"Cola\", 600ml"))
+        val out = StringWriter()
+        InventarioCsv.escribir(original, out)
+
+        val texto = out.toString()
+        assertEquals(Constants.CSV_HEADER, texto.lines().first())
+
+        val leidas = InventarioCsv.leer(StringReader(texto))
+        assertEquals(1, leidas.size)
+        assertEquals("Refresco \"Cola\", 600ml", leidas[0].descripcion)
+        assertEquals(2, leidas[0].totalPallets)
+        assertEquals("A1", leidas[0].almacen)
+    }
+
+    @Test
+    fun `columnas de ajuste solo se escriben cuando hay ajustes`() {
+        val out = StringWriter()
+        InventarioCsv.escribir(listOf(fila("100", 2).copy(chep = 1, comentarioAjuste = "ok")), out)
+        val lineas = out.toString().lines()
+        assertEquals(Constants.CSV_HEADER + "," + Constants.CSV_HEADER_AJUSTE, lineas[0])
+
+        val leida = InventarioCsv.leer(StringReader(out.toString())).single()
+        assertEquals(1, leida.chep)
+        assertNull(leida.ieqsa)
+        assertEquals("ok", leida.comentarioAjuste)
+    }
+
+    @Test
+    fun `filaDe descarta lineas incompletas`() {
+        assertNull(InventarioCsv.filaDe(LectorCsv().analizar("100,Producto")))
+    }
+
+    @Test
+    fun `filaValidadaDe recorta textos y rechaza pallets invalidos`() {
+        val fila = InventarioCsv.filaValidadaDe(
+            LectorCsv().analizar(" 100 , Agua 1L ,56,,,C1,,,,,R1, 3 ,PLASTICO ,A1")
+        )
+        assertEquals("100", fila.sku)
+        assertEquals("Agua 1L", fila.descripcion)
+        assertEquals(3, fila.totalPallets)
+        assertEquals("PLASTICO", fila.tipoTarima)
+
+        assertEquals(0, InventarioCsv.filaValidadaDe(LectorCsv().analizar("100,,,,,,,,,,,,X,A1")).totalPallets)
+        for (linea in listOf("100,Producto", " ,,,,,,,,,,,1,X,A1", "100,,,,,,,,,,,-2,X,A1", "100,,,,,,,,,,,dos,X,A1")) {
+            try {
+                InventarioCsv.filaValidadaDe(LectorCsv().analizar(linea))
+                fail("Debió rechazar: $linea")
+            } catch (e: IllegalArgumentException) {
+                // esperado
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.escaneodematerialeskof.data.inventario
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+
+class InventarioJournalTest {
+
+    private lateinit var archivo: File
+
+    private val evento = EventoInventario(1700000000000, TipoEvento.ESCANEO, ClaveInventario("100", "PLASTICO", "A1"), 2, 5)
+
+    @Before
+    fun setUp() {
+        archivo = File.createTempFile("eventos", ".log")
+    }
+
+    @After
+    fun tearDown() {
+        archivo.delete()
+    }
+
+    @Test
+    fun `reparar recorta la linea incompleta del final`() {
+        val completa = InventarioJournal.formatear(evento) + "\n"
+        archivo.writeText(completa + completa + "1700000000001,ESCA")
+
+        assertEquals(18L, InventarioJournal.repararCola(archivo))
+        assertEquals(completa + completa, archivo.readText())
+    }
+
+    @Test
+    fun `reparar descarta lineas completas ilegibles y conserva un journal sano`() {
+        val completa = InventarioJournal.formatear(evento) + "\n"
+        archivo.writeText(completa + "\u0000\u0000\u0000\n")
+        InventarioJournal.repararCola(archivo)
+        assertEquals(completa, archivo.readText())
+
+        assertEquals(0L, InventarioJournal.repararCola(archivo))
+        assertEquals(listOf(evento), archivo.readLines().mapNotNull { InventarioJournal.parsear(it) })
+    }
+}
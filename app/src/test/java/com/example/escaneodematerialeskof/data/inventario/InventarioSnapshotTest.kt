@@ -0,0 +1,62 @@
+package com.example.escaneodematerialeskof.data.inventario
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+
+class InventarioSnapshotTest {
+
+    private fun escribir(items: List<InventarioEscaneado>): ByteArray {
+        val out = ByteArrayOutputStream()
+        InventarioSnapshot.escribir(items, out)
+        return out.toByteArray()
+    }
+
+    @Test
+    fun `conserva todas las columnas incluidos nulos y negativos`() {
+        val items = listOf(
+            InventarioEscaneado(
+                id = 7,
+                sku = "100",
+                descripcion = "Agua \"Natural\", 1L ñ",
+                cxPal = "56",
+                centro = "C1",
+                ubicacion = "R1",
+                totalPallets = 12,
+                tipoTarima = "PLASTICO",
+                almacen = "A1",
+                actualizado = 1700000000000
+            ),
+            InventarioEscaneado(
+                id = 300,
+                sku = "200",
+                centro = "C1",
+                ubicacion = "R1",
+                totalPallets = -1,
+                tipoTarima = "MADERA",
+                almacen = "A1",
+                chep = 0,
+                ieqsa = -3,
+                sams = 1_000_000,
+                comentarioAjuste = "",
+                actualizado = 1700000000001
+            )
+        )
+        assertEquals(items, InventarioSnapshot.leer(ByteArrayInputStream(escribir(items))))
+    }
+
+    @Test
+    fun `snapshot incompleto o de otra version se descarta`() {
+        val bytes = escribir(List(50) { InventarioEscaneado(id = it.toLong() + 1, sku = "$it", totalPallets = it, tipoTarima = "T", almacen = "A") })
+
+        assertNull(InventarioSnapshot.leer(ByteArrayInputStream(bytes.copyOf(bytes.size - 3))))
+
+        val otraVersion = bytes.copyOf()
+        otraVersion[7] = (InventarioSnapshot.VERSION + 1).toByte()
+        assertNull(InventarioSnapshot.leer(ByteArrayInputStream(otraVersion)))
+
+        assertEquals(50, InventarioSnapshot.leer(ByteArrayInputStream(bytes))?.size)
+    }
+}
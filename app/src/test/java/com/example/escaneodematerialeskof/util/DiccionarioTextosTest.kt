@@ -0,0 +1,87 @@
+package com.example.escaneodematerialeskof.util
+
+import com.example.escaneodematerialeskof.model.MaterialItem
+import com.google.gson.GsonBuilder
+import com.google.gson.reflect.TypeToken
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.StringReader
+import java.util.Collections
+import java.util.IdentityHashMap
+
+class DiccionarioTextosTest {
+
+    @Test
+    fun `valores repetidos del csv comparten instancia`() {
+        val diccionario = DiccionarioTextos()
+        val a = CSVUtils.parseCsvLine("100,\"Agua, 1L\",PLASTICO", diccionario)
+        val b = CSVUtils.parseCsvLine("200,\"Agua, 1L\",PLASTICO", diccionario)
+        assertEquals("Agua, 1L", a[1])
+        assertSame(a[1], b[1])
+        assertSame(a[2], b[2])
+        assertEquals(4, diccionario.tamano)
+    }
+
+    @Test
+    fun `al llegar al limite devuelve textos nuevos sin guardarlos`() {
+        val diccionario = DiccionarioTextos(limite = 1)
+        val primero = diccionario.compartir(String(charArrayOf('a')))
+        assertSame(primero, diccionario.compartir(String(charArrayOf('a'))))
+        val otro = String(charArrayOf('b'))
+        assertSame(otro, diccionario.compartir(otro))
+        assertNotSame(otro, diccionario.compartir(String(charArrayOf('b'))))
+    }
+
+    @Test
+    fun `gson comparte los textos de los materiales`() {
+        val diccionario = DiccionarioTextos()
+        val gson = GsonBuilder().registerTypeAdapter(String::class.java, diccionario.adaptadorGson()).create()
+        val json = """[{"sku":"1","descripcion":"X","centro":"C1","ubicacion":null},{"sku":"2","descripcion":"Y","centro":"C1"}]"""
+        val type = object : TypeToken<List<MaterialItem>>() {}.type
+        val materiales: List<MaterialItem> = gson.fromJson(json, type)
+        assertSame(materiales[0].centro, materiales[1].centro)
+        assertNull(materiales[0].ubicacion)
+    }
+
+    @Test
+    fun `un csv de inventario retiene muchos menos textos con el diccionario`() {
+        val sin = textosRetenidos(null)
+        val con = textosRetenidos(DiccionarioTextos())
+        val medicion = "sin diccionario: ${sin.instancias} textos, ${sin.bytes / 1024} KB; " +
+            "con diccionario: ${con.instancias} textos, ${con.bytes / 1024} KB"
+        assertTrue(medicion, con.instancias * 20 < sin.instancias)
+        assertTrue(medicion, con.bytes * 10 < sin.bytes)
+    }
+
+    private class Retenidos(val instancias: Int, val bytes: Long)
+
+    /**
+     * Textos distintos (por identidad) que quedan en las filas al leer [FILAS] registros de
+     * inventario, y su tamaño estimado en una JVM de 64 bits con compact strings: 24 bytes del
+     * String más 16 de cabecera del arreglo y un byte por carácter, redondeado a 8.
+     */
+    private fun textosRetenidos(diccionario: DiccionarioTextos?): Retenidos {
+        val csv = buildString {
+            for (i in 0 until FILAS) {
+                append("SKU${i % 5000},\"Producto ${i % 5000}, 600ml\",56,FPC${i % 10},CON${i % 6},C${i % 4},")
+                append("L${i % 8},OP${i % 12},2024-01-${10 + i % 20},${i % 90},R${i % 300},${i % 40},PLASTICO,A${i % 20}\n")
+            }
+        }
+        val filas = ArrayList<List<String>>(FILAS)
+        val fila = LectorCsv(StringReader(csv))
+        while (fila.siguiente()) filas.add(fila.comoLista(diccionario))
+
+        val distintos = Collections.newSetFromMap(IdentityHashMap<String, Boolean>())
+        for (campos in filas) distintos.addAll(campos)
+        val bytes = distintos.sumOf { 24L + (16L + it.length + 7) / 8 * 8 }
+        return Retenidos(distintos.size, bytes)
+    }
+
+    private companion object {
+        const val FILAS = 100_000
+    }
+}
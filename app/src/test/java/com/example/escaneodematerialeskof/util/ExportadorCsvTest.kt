@@ -0,0 +1,60 @@
+package com.example.escaneodematerialeskof.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.StringWriter
+import java.io.Writer
+import java.util.zip.GZIPInputStream
+import java.util.zip.ZipInputStream
+
+class ExportadorCsvTest {
+
+    private val filas = List(2_000) { "$it,Producto $it,PLASTICO" }
+
+    private fun escribir(writer: Writer): Int {
+        filas.forEach { writer.write(it + "\n") }
+        return filas.size
+    }
+
+    private val esperado = filas.joinToString("") { it + "\n" }
+
+    @Test
+    fun `sin compresion escribe el texto y cuenta los bytes`() {
+        val out = ByteArrayOutputStream()
+        val resultado = ExportadorCsv.exportar(out, "inventario.csv") { escribir(it) }
+        assertEquals(esperado, out.toString("UTF-8"))
+        assertEquals(2_000, resultado.filas)
+        assertEquals(out.size().toLong(), resultado.bytes)
+    }
+
+    @Test
+    fun `gzip y zip se leen igual que el original`() {
+        val gz = ByteArrayOutputStream()
+        val resultadoGz = ExportadorCsv.exportar(gz, "inventario.csv", ExportadorCsv.Compresion.GZIP) { escribir(it) }
+        assertEquals(gz.size().toLong(), resultadoGz.bytes)
+        assertTrue(resultadoGz.bytes < esperado.length / 4)
+        assertEquals(esperado, GZIPInputStream(ByteArrayInputStream(gz.toByteArray())).reader().readText())
+
+        val zip = ByteArrayOutputStream()
+        val resultadoZip = ExportadorCsv.exportar(zip, "inventario.csv", ExportadorCsv.Compresion.ZIP) { escribir(it) }
+        assertEquals(zip.size().toLong(), resultadoZip.bytes)
+        ZipInputStream(ByteArrayInputStream(zip.toByteArray())).use { entrada ->
+            assertEquals("inventario.csv", entrada.nextEntry?.name)
+            assertEquals(esperado, entrada.reader().readText())
+            assertNull(entrada.nextEntry)
+        }
+    }
+
+    @Test
+    fun `escribirCampo escapa igual que escapeForCsv`() {
+        for (valor in listOf("simple", "", "con, coma", "con \"comillas\"", "dos\nlineas")) {
+            val out = StringWriter()
+            ExportadorCsv.escribirCampo(out, valor)
+            assertEquals(CSVUtils.escapeForCsv(valor), out.toString())
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.escaneodematerialeskof.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotEquals
+import org.junit.Test
+
+class IdsEstablesTest {
+
+    @Test
+    fun `la misma clave conserva su id y claves distintas no lo comparten`() {
+        val ids = IdsEstables<String>()
+        // "Aa" y "BB" tienen el mismo hashCode
+        val aa = ids.de("Aa")
+        val bb = ids.de("BB")
+        assertNotEquals(aa, bb)
+        assertEquals(aa, ids.de("Aa"))
+    }
+
+    @Test
+    fun `conservar olvida las claves viejas sin reutilizar sus ids`() {
+        val ids = IdsEstables<String>()
+        val viejos = (1..10).map { ids.de("SKU$it") }
+        val vigente = ids.de("SKU5")
+
+        ids.conservar(listOf("SKU5")) { it }
+
+        assertEquals(vigente, ids.de("SKU5"))
+        val nuevo = ids.de("SKU1")
+        assertFalse(nuevo in viejos)
+    }
+}
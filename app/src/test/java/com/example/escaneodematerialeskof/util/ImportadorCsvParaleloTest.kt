@@ -0,0 +1,62 @@
+package com.example.escaneodematerialeskof.util
+
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.StringReader
+
+class ImportadorCsvParaleloTest {
+
+    private val csv = buildString {
+        append("SKU,Descripcion,Cantidad,TipoTarima\r\n")
+        for (i in 1..300) {
+            if (i % 7 == 0) append("$i,\"Línea\nen dos, con \"\"comillas\"\"\",$i,MADERA\r\n")
+            else append("$i,Producto ñ $i,$i,PLASTICO\r\n")
+        }
+        append("300,Repetido,1,CHEP")
+    }
+
+    private fun secuencial(): List<List<String>> {
+        val lector = LectorCsv(StringReader(csv))
+        val filas = mutableListOf<List<String>>()
+        while (lector.siguiente()) filas += lector.comoLista()
+        return filas
+    }
+
+    private fun importar(entrada: java.io.InputStream, tamano: Long): List<List<String>> = runBlocking {
+        val progreso = mutableListOf<Float>()
+        val bloques = ImportadorCsvParalelo(tamanoBloque = 64, paralelismo = 3)
+            .importar(entrada, tamano, { progreso += it }) { _, fila ->
+                val filas = mutableListOf<List<String>>()
+                while (fila.siguiente()) filas += fila.comoLista()
+                filas
+            }
+        assertTrue(bloques.size > 10)
+        assertEquals(1f, progreso.maxOrNull())
+        bloques.flatten()
+    }
+
+    @Test
+    fun `archivo mapeado da los mismos registros que la lectura secuencial`() {
+        val archivo = File.createTempFile("inventario", ".csv")
+        try {
+            archivo.writeText(csv)
+            val filas = FileInputStream(archivo).use { importar(it, archivo.length()) }
+            assertEquals(secuencial(), filas)
+        } finally {
+            archivo.delete()
+        }
+    }
+
+    @Test
+    fun `flujo sin mapear corta los bloques fuera de comillas`() {
+        val bytes = csv.toByteArray()
+        val filas = importar(ByteArrayInputStream(bytes), bytes.size.toLong())
+        assertEquals(secuencial(), filas)
+        assertEquals("Línea\nen dos, con \"comillas\"", filas[7][1])
+    }
+}
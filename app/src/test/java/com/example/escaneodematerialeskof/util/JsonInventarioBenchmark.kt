@@ -0,0 +1,73 @@
+package com.example.escaneodematerialeskof.util
+
+import com.example.escaneodematerialeskof.model.MaterialItem
+import com.google.gson.Gson
+import com.google.gson.reflect.TypeToken
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Ignore
+import org.junit.Test
+
+/**
+ * Compara [JsonInventario] contra `Gson().fromJson` con `TypeToken` al leer y escribir listas de
+ * materiales de 10k y 100k elementos. Depende de la máquina, así que no corre con las pruebas;
+ * para correrlo se quita el [Ignore].
+ */
+@Ignore("Benchmark; se corre a mano")
+class JsonInventarioBenchmark {
+
+    private fun materiales(cantidad: Int) = List(cantidad) { i ->
+        MaterialItem(
+            "SKU${i % 5000}", "Producto ${i % 5000}, 600ml", "56", "FPC${i % 10}", "CON${i % 6}", "C${i % 4}",
+            "L${i % 8}", "OP${i % 12}", "2024-01-${10 + i % 20}", "${i % 90}",
+            ubicacion = "R${i % 300}", totalPallets = "${i % 40}", tipoTarima = "PLASTICO", almacen = "A${i % 20}"
+        )
+    }
+
+    /** Milisegundos por pasada de [pasada] y lo que devolvió. */
+    private fun <T> medir(pasada: () -> T): Pair<Double, T> {
+        var resultado = pasada()
+        // Las primeras pasadas calientan el JIT
+        repeat(2) { resultado = pasada() }
+        val repeticiones = 3
+        val inicio = System.nanoTime()
+        repeat(repeticiones) { resultado = pasada() }
+        return (System.nanoTime() - inicio) / 1e6 / repeticiones to resultado
+    }
+
+    /**
+     * Con 10k elementos el tiempo lo domina el calentamiento y varía demasiado; solo se exige que
+     * el codec no sea más lento con 100k, con margen para el ruido de la medición.
+     */
+    private fun comparar(operacion: String, cantidad: Int, msGson: Double, msCodec: Double) {
+        if (cantidad < 100_000) return
+        assertTrue(
+            "$operacion ($cantidad): Gson ${"%.1f".format(msGson)} ms, JsonInventario ${"%.1f".format(msCodec)} ms",
+            msCodec <= msGson * MARGEN
+        )
+    }
+
+    @Test
+    fun `lectura y escritura contra gson por reflexion`() {
+        val gson = Gson()
+        val type = object : TypeToken<List<MaterialItem>>() {}.type
+        for (cantidad in listOf(10_000, 100_000)) {
+            val lista = materiales(cantidad)
+            val json = gson.toJson(lista)
+
+            val (msLeerGson, conGson) = medir { gson.fromJson<List<MaterialItem>>(json, type) }
+            val (msLeerCodec, conCodec) = medir { JsonInventario.leerLista(json, JsonInventario.materiales) }
+            assertEquals(conGson, conCodec)
+            comparar("Lectura", cantidad, msLeerGson, msLeerCodec)
+
+            val (msEscribirGson, escritoGson) = medir { gson.toJson(lista) }
+            val (msEscribirCodec, escritoCodec) = medir { JsonInventario.aTexto(lista, JsonInventario.materiales) }
+            assertEquals(escritoGson, escritoCodec)
+            comparar("Escritura", cantidad, msEscribirGson, msEscribirCodec)
+        }
+    }
+
+    private companion object {
+        const val MARGEN = 1.25
+    }
+}
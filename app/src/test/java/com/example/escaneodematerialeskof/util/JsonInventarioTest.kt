@@ -0,0 +1,61 @@
+package com.example.escaneodematerialeskof.util
+
+import com.example.escaneodematerialeskof.model.AlmacenCapacidad
+import com.example.escaneodematerialeskof.model.InventarioItem
+import com.example.escaneodematerialeskof.model.MaterialItem
+import com.google.gson.Gson
+import com.google.gson.reflect.TypeToken
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class JsonInventarioTest {
+
+    private fun material(sku: String) = MaterialItem(
+        sku, "Agua \"natural\", 1L", "56", "F1", "C", "C1", "L1", "OP1", "2024-01-10", "30",
+        ubicacion = "R1", totalPallets = "3", restos = null, tipoTarima = "PLASTICO", almacen = "A1"
+    )
+
+    @Test
+    fun `lee lo que guardaba gson y escribe el mismo json`() {
+        val lista = listOf(material("100"), material("200"))
+        val gson = Gson()
+        val json = gson.toJson(lista)
+
+        val leidos = JsonInventario.leerLista(json, JsonInventario.materiales(null))
+        assertEquals(lista, leidos)
+        assertEquals(json, JsonInventario.aTexto(lista, JsonInventario.materiales))
+
+        val almacenes = listOf(AlmacenCapacidad("A1", 120, 40), AlmacenCapacidad("B2", 80))
+        val texto = JsonInventario.aTexto(almacenes, JsonInventario.almacenes)
+        val type = object : TypeToken<List<AlmacenCapacidad>>() {}.type
+        assertEquals(almacenes, gson.fromJson<List<AlmacenCapacidad>>(texto, type))
+        assertEquals(almacenes, JsonInventario.leerLista(gson.toJson(almacenes), JsonInventario.almacenes))
+
+        val inventario = listOf(InventarioItem("100", "Agua", cantidadSistema = 7, centro = "C1"))
+        assertEquals(inventario, JsonInventario.leerLista(gson.toJson(inventario), JsonInventario.inventario))
+    }
+
+    @Test
+    fun `ignora claves desconocidas y tolera faltantes y nulos`() {
+        val json = """[{"sku":"1","extra":{"a":[1,2]},"centro":"C1","ubicacion":null},{"sku":2,"centro":"C1"},null]"""
+        val leidos = JsonInventario.leerLista(json, JsonInventario.materiales(DiccionarioTextos()))
+        assertEquals(2, leidos.size)
+        assertEquals("", leidos[0].descripcion)
+        assertNull(leidos[0].ubicacion)
+        assertEquals("2", leidos[1].sku)
+        assertSame(leidos[0].centro, leidos[1].centro)
+
+        val almacen = JsonInventario.leerLista("""[{"nombreAlmacen":"A1","capacidadMaxima":"90"}]""", JsonInventario.almacenes)
+        assertEquals(AlmacenCapacidad("A1", 90, 0), almacen.single())
+    }
+
+    @Test
+    fun `texto vacio o null da lista vacia`() {
+        assertTrue(JsonInventario.leerLista(null, JsonInventario.materiales).isEmpty())
+        assertTrue(JsonInventario.leerLista("", JsonInventario.materiales).isEmpty())
+        assertTrue(JsonInventario.leerLista("null", JsonInventario.almacenes).isEmpty())
+    }
+}
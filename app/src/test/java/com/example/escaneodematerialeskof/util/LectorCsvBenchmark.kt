@@ -0,0 +1,53 @@
+package com.example.escaneodematerialeskof.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Ignore
+import org.junit.Test
+import java.io.StringReader
+
+/**
+ * Compara el tiempo de recorrer un CSV de inventario con [LectorCsv] y con
+ * [CSVUtils.parseCsvLine] línea por línea. Depende de la máquina, así que no corre con las
+ * pruebas; para correrlo se quita el [Ignore].
+ */
+@Ignore("Benchmark; se corre a mano")
+class LectorCsvBenchmark {
+
+    private val filas = 100_000
+
+    private val csv: String = buildString {
+        for (i in 0 until filas) {
+            append("SKU${i % 5000},\"Producto ${i % 5000}, 600ml\",56,FPC${i % 10},CON${i % 6},C${i % 4},")
+            append("L${i % 8},OP${i % 12},2024-01-${10 + i % 20},${i % 90},R${i % 300},${i % 40},PLASTICO,A${i % 20}\n")
+        }
+    }
+
+    /** Filas por segundo de [pasada] y la suma que devolvió. */
+    private fun medir(pasada: () -> Long): Pair<Long, Long> {
+        var suma = 0L
+        // Las primeras pasadas calientan el JIT
+        repeat(3) { suma = pasada() }
+        val inicio = System.nanoTime()
+        repeat(5) { suma = pasada() }
+        val segundos = (System.nanoTime() - inicio) / 1e9 / 5
+        return (filas / segundos).toLong() to suma
+    }
+
+    @Test
+    fun `throughput del tokenizador`() {
+        val (filasLector, conLector) = medir {
+            val fila = LectorCsv(StringReader(csv))
+            var suma = 0L
+            while (fila.siguiente()) suma += fila.entero(11) ?: 0
+            suma
+        }
+        val (filasPorLinea, porLinea) = medir {
+            var suma = 0L
+            StringReader(csv).buffered().forEachLine { suma += CSVUtils.parseCsvLine(it)[11].toIntOrNull() ?: 0 }
+            suma
+        }
+        assertEquals(porLinea, conLector)
+        assertTrue("LectorCsv: $filasLector filas/s, parseCsvLine: $filasPorLinea filas/s", filasLector >= filasPorLinea)
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.escaneodematerialeskof.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.StringReader
+
+class LectorCsvTest {
+
+    private fun registros(texto: String, tamanoBuffer: Int = 8192): List<List<String>> {
+        val fila = LectorCsv(StringReader(texto), tamanoBuffer)
+        val resultado = mutableListOf<List<String>>()
+        while (fila.siguiente()) resultado.add(fila.comoLista())
+        return resultado
+    }
+
+    @Test
+    fun `respeta comillas, comillas escapadas y saltos de linea dentro de comillas`() {
+        val texto = "100,\"Agua, 1L\",\"Dijo \"\"hola\"\"\"\r\n200,\"linea 1\nlinea 2\",\n,\n\"\",x"
+        val esperado = listOf(
+            listOf("100", "Agua, 1L", "Dijo \"hola\""),
+            listOf("200", "linea 1\nlinea 2", ""),
+            listOf("", ""),
+            listOf("", "x")
+        )
+        assertEquals(esperado, registros(texto))
+        // Con un búfer diminuto los registros cruzan varias lecturas del Reader
+        assertEquals(esperado, registros(texto, tamanoBuffer = 3))
+    }
+
+    @Test
+    fun `accesores tipados leen numeros sin crear textos`() {
+        val fila = LectorCsv().analizar(" 42 ,-7,abc,,99999999999,1700000000000")
+        assertEquals(42, fila.entero(0))
+        assertEquals(-7, fila.entero(1))
+        assertNull(fila.entero(2))
+        assertNull(fila.entero(3))
+        assertNull(fila.entero(4))
+        assertEquals(1700000000000L, fila.enteroLargo(5))
+        assertNull(fila.entero(10))
+        assertEquals("", fila.texto(10))
+    }
+
+    @Test
+    fun `registro en blanco, prefijo y texto crudo`() {
+        val fila = LectorCsv()
+        assertTrue(fila.analizar("   ").registroEnBlanco)
+        fila.analizar("SKU: 100 DP: 3\r")
+        assertFalse(fila.registroEnBlanco)
+        assertTrue(fila.empiezaCon("SKU:"))
+        assertEquals("SKU: 100 DP: 3", fila.crudo())
+        assertEquals("SKU: 100 DP: 3", fila.textoRecortado(0))
+        assertEquals(listOf(""), CSVUtils.parseCsvLine(""))
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.escaneodematerialeskof.util
+
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.yield
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class ProgramadorUltimoTest {
+
+    @Test
+    fun `una rafaga de solicitudes termina en una sola ejecucion con la ultima`() = runBlocking {
+        val programador = ProgramadorUltimo(this, esperaMs = 50)
+        val ejecutadas = mutableListOf<Int>()
+        var ultimo = programador.programar { ejecutadas.add(0) }
+        for (i in 1..4) {
+            delay(10)
+            ultimo = programador.programar { ejecutadas.add(i) }
+        }
+        ultimo.join()
+
+        assertEquals(listOf(4), ejecutadas)
+        assertEquals(4, programador.tomarDescartadas())
+        assertEquals(0, programador.tomarDescartadas())
+    }
+
+    @Test
+    fun `una solicitud nueva cancela la ejecucion en curso`() = runBlocking {
+        val programador = ProgramadorUltimo(this, esperaMs = 0)
+        var primeraTermino = false
+        val primera = programador.programar {
+            delay(1_000)
+            primeraTermino = true
+        }
+        yield()
+        val segunda = programador.programar { }
+        segunda.join()
+
+        assertTrue(primera.isCancelled)
+        assertFalse(primeraTermino)
+        assertFalse(programador.esVigente(primera))
+        assertTrue(programador.esVigente(segunda))
+    }
+}